@@ -248,7 +248,11 @@ public interface EndpointCallContext {
 	/**
 	 * Purge actor from any cache between the actor authentication service and
 	 * the context. This is a convenience shortcut method for
-	 * {@link RuntimeContext#purgeCachedActor(Actor)}.
+	 * {@link RuntimeContext#purgeCachedActor(Actor)}, except that if the call
+	 * is not read-only, the invalidation is registered with the actor cache
+	 * invalidation service within the call's persistence transaction, so that
+	 * it is propagated to other application instances only if the transaction
+	 * commits.
 	 *
 	 * @param actor The actor.
 	 */
@@ -180,7 +180,9 @@ public interface RuntimeContext {
 
 	/**
 	 * Purge actor from any cache set on top of the actor authentication
-	 * service.
+	 * service. If the actor cache invalidation service propagates invalidations
+	 * to other application instances, the invalidation is registered with it
+	 * in a new persistence transaction.
 	 *
 	 * @param actor The actor.
 	 */
@@ -195,9 +197,14 @@ public interface RuntimeContext {
 	 * parameter. The default is 1 (a single thread).
 	 *
 	 * <p>The method submits the job for asynchronous execution and returns
-	 * immediately.
+	 * immediately. If the queue of jobs waiting for execution is limited using
+	 * "x2.queues.JobRunners" web-application context initialization parameter
+	 * and the queue is full, the job is rejected.
 	 *
 	 * @param task The job.
+	 *
+	 * @throws java.util.concurrent.RejectedExecutionException If the job
+	 * queue is full.
 	 */
 	void submitLongJob(Runnable task);
 
@@ -208,7 +215,10 @@ public interface RuntimeContext {
 	 * context initialization parameter. The default is 1 (a single thread).
 	 *
 	 * <p>The method submits the task for asynchronous execution and returns
-	 * immediately.
+	 * immediately. If the queue of tasks waiting for execution is limited
+	 * using "x2.queues.SideTaskProcessors" web-application context
+	 * initialization parameter and the queue is full, the task is discarded
+	 * and a warning is logged.
 	 *
 	 * @param task The task.
 	 */
@@ -305,6 +315,11 @@ public interface RuntimeContext {
 	 * instance must be retrieved using {@link #getService(Class, String)}
 	 * method.
 	 *
+	 * <p>The internal application metrics service, configured using
+	 * "x2.service.metrics.provider" web-application context initialization
+	 * parameter, is also available via this method under
+	 * {@link org.bsworks.x2.services.metrics.MetricsService} service type.
+	 *
 	 * @param <S> The service type.
 	 * @param serviceType The service type, usually an interface.
 	 *
@@ -1,5 +1,6 @@
 package org.bsworks.x2.app;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -19,6 +20,8 @@ import javax.servlet.http.HttpServletResponse;
 import org.bsworks.x2.EndpointCallContext;
 import org.bsworks.x2.EndpointCallErrorException;
 import org.bsworks.x2.EndpointCallResponse;
+import org.bsworks.x2.RuntimeContext;
+import org.bsworks.x2.core.InternalRuntimeContext;
 import org.bsworks.x2.resource.AggregatePropertyHandler;
 import org.bsworks.x2.resource.DependentRefPropertyHandler;
 import org.bsworks.x2.resource.FilterConditionType;
@@ -36,6 +39,7 @@ import org.bsworks.x2.resource.Resources;
 import org.bsworks.x2.resource.SortDirection;
 import org.bsworks.x2.responses.NotModifiedResponse;
 import org.bsworks.x2.responses.OKResponse;
+import org.bsworks.x2.services.serialization.SerializedResource;
 import org.bsworks.x2.services.versioning.PersistentResourceVersionInfo;
 import org.bsworks.x2.services.versioning.PersistentResourceVersioningService;
 import org.bsworks.x2.util.StringUtils;
@@ -62,7 +66,10 @@ import org.bsworks.x2.util.StringUtils;
  * represented by an instance of {@link PersistentResourceFetchResult}, that
  * wraps the collection of the matched records (which may be empty if none
  * matched) along with any requested referred resource records and the total
- * number of the matched records for a ranged request (see below).
+ * number of the matched records for a ranged request (see below). Identical
+ * concurrent collection search calls are coalesced and share the serialized
+ * result, and serialized results are cached in the application's response
+ * entity cache (see {@link #handleSearchCall}).
  *
  * <h3>Search Filter Specification</h3>
  *
@@ -436,6 +443,11 @@ public class DefaultGetPersistentResourceEndpointCallHandler<R>
 	 */
 	private final boolean ENABLE_DEPRECATED;
 
+	/**
+	 * Coalescer for identical concurrent collection search calls.
+	 */
+	private final RequestCoalescer searchCoalescer = new RequestCoalescer();
+
 
 	/**
 	 * Create new handler.
@@ -1280,6 +1292,12 @@ public class DefaultGetPersistentResourceEndpointCallHandler<R>
 	/**
 	 * Handle simple single record get call.
 	 *
+	 * <p>If {@link #isResultShared()} returns {@code true}, the response entity
+	 * cache is enabled and the persistent resource has record version
+	 * meta-property, the serialized record is cached in the application's
+	 * response entity cache under the resource ETag and the request shape. In
+	 * that case, the response entity is a {@link SerializedResource}.
+	 *
 	 * @param ctx Call context.
 	 * @param recId Record id.
 	 * @param propsFetch Properties fetch specification, or {@code null}.
@@ -1333,10 +1351,34 @@ public class DefaultGetPersistentResourceEndpointCallHandler<R>
 					HttpServletResponse.SC_NOT_FOUND, null,
 					"No resource record with this id.");
 
+		// check if cached
+		final InternalRuntimeContext internalRuntimeCtx =
+			((eTag != null) && (this.versionPropHandler != null)
+					&& this.isResultShared() ?
+							getInternalRuntimeContext(ctx) : null);
+		final boolean cache = ((internalRuntimeCtx != null)
+				&& internalRuntimeCtx.isResponseEntityCacheEnabled());
+		final String callKey = (cache ? getCallKey(ctx, eTag) : null);
+		if (cache) {
+			final SerializedResource cached =
+				internalRuntimeCtx.getCachedResponseEntity(callKey);
+			if (cached != null)
+				return new OKResponse(cached, eTag, lastModTS);
+		}
+
 		// get the full record
 		final R rec =
 			this.endpointHandler.get(ctx, recId, recFilter, propsFetch, false);
 
+		// cache the serialized record
+		if (cache) {
+			prsrcClasses.add(this.prsrcClass);
+			final SerializedResource serializedRec = serialize(ctx, rec);
+			internalRuntimeCtx.cacheResponseEntity(callKey, serializedRec,
+					prsrcClasses);
+			return new OKResponse(serializedRec, eTag, lastModTS);
+		}
+
 		// return the record in the response
 		return new OKResponse(rec, eTag, lastModTS);
 	}
@@ -1405,6 +1447,16 @@ public class DefaultGetPersistentResourceEndpointCallHandler<R>
 	/**
 	 * Handle collection search call.
 	 *
+	 * <p>If {@link #isResultShared()} returns {@code true}, identical search
+	 * calls (same request URI and parameters, same actor and same
+	 * participating collections versions) share the serialized result. If the
+	 * response entity cache is enabled, the result is looked up in it first
+	 * and added to it after the search. If search call coalescing is enabled
+	 * (it is by default), identical concurrent calls are coalesced: only one
+	 * of them performs the search and the others wait for its serialized
+	 * result. If either is enabled, the response entity is a
+	 * {@link SerializedResource}.
+	 *
 	 * @param ctx Call context.
 	 * @param propsFetch Properties fetch specification, or {@code null}.
 	 * @param filter Filter specification, or {@code null}.
@@ -1448,6 +1500,45 @@ public class DefaultGetPersistentResourceEndpointCallHandler<R>
 		if (!this.processConditionalRequest(ctx, eTag, lastModTS, false))
 			return new NotModifiedResponse(eTag, lastModTS);
 
+		// get cached result or matching records coalescing identical calls
+		final InternalRuntimeContext internalRuntimeCtx =
+			((eTag != null) && this.isResultShared() ?
+					getInternalRuntimeContext(ctx) : null);
+		final boolean cache = ((internalRuntimeCtx != null)
+				&& internalRuntimeCtx.isResponseEntityCacheEnabled());
+		final boolean coalesce = ((internalRuntimeCtx != null)
+				&& internalRuntimeCtx.isSearchCoalescingEnabled());
+		if (cache || coalesce) {
+			final String callKey = getCallKey(ctx, eTag);
+			if (cache) {
+				final SerializedResource cached =
+					internalRuntimeCtx.getCachedResponseEntity(callKey);
+				if (cached != null)
+					return new OKResponse(cached, eTag, lastModTS);
+			}
+			final PersistentResourceEndpointHandler<R> endpointHandler =
+				this.endpointHandler;
+			final RequestCoalescer.Call call = new RequestCoalescer.Call() {
+				@Override
+				public SerializedResource execute()
+					throws EndpointCallErrorException {
+					final SerializedResource res = serialize(ctx,
+							endpointHandler.search(ctx, propsFetch, filter,
+									order, range));
+					if (cache)
+						internalRuntimeCtx.cacheResponseEntity(callKey, res,
+								prsrcClasses);
+					return res;
+				}
+			};
+			final SerializedResource res = (coalesce ?
+					this.searchCoalescer.execute(callKey,
+							internalRuntimeCtx.getSearchCoalescingTimeout(),
+							call) :
+						call.execute());
+			return new OKResponse(res, eTag, lastModTS);
+		}
+
 		// get matching records
 		final PersistentResourceFetchResult<R> res =
 			this.endpointHandler.search(ctx, propsFetch, filter, order, range);
@@ -1456,6 +1547,104 @@ public class DefaultGetPersistentResourceEndpointCallHandler<R>
 		return new OKResponse(res, eTag, lastModTS);
 	}
 
+	/**
+	 * Tell if serialized results are shared between identical calls, which
+	 * includes coalescing of identical concurrent search calls and caching of
+	 * the results in the application's response entity cache. When results
+	 * are shared, the response entity is a {@link SerializedResource} instead
+	 * of the {@link PersistentResourceFetchResult} or the record, so the
+	 * default implementation returns {@code false}. A subclass that does not
+	 * depend on the response entity type can override it to return
+	 * {@code true}. The handlers created by
+	 * {@link DefaultPersistentResourceEndpointHandler} do.
+	 *
+	 * @return {@code true} to share serialized results.
+	 */
+	protected boolean isResultShared() {
+
+		return false;
+	}
+
+	/**
+	 * Get runtime context that provides access to the framework internals,
+	 * such as the application's response entity cache.
+	 *
+	 * @param ctx Call context.
+	 *
+	 * @return The runtime context, or {@code null} if the call's runtime
+	 * context does not provide access to the framework internals.
+	 */
+	private static InternalRuntimeContext getInternalRuntimeContext(
+			final EndpointCallContext ctx) {
+
+		final RuntimeContext runtimeCtx = ctx.getRuntimeContext();
+
+		return (runtimeCtx instanceof InternalRuntimeContext ?
+				(InternalRuntimeContext) runtimeCtx : null);
+	}
+
+	/**
+	 * Serialize call result for sharing.
+	 *
+	 * @param ctx Call context.
+	 * @param res The result.
+	 *
+	 * @return The serialized result.
+	 */
+	private static SerializedResource serialize(final EndpointCallContext ctx,
+			final Object res) {
+
+		try {
+			return new SerializedResource(
+					ctx.getRuntimeContext().getResourceSerializationService(),
+					res, ctx.getActor());
+		} catch (final IOException e) {
+			throw new RuntimeException("Error serializing call result.", e);
+		}
+	}
+
+	/**
+	 * Get key identifying call for result sharing. The key includes the
+	 * resource ETag, which captures the application version, the actor and
+	 * the participating record and collections versions, the request URI and
+	 * the request parameters sorted by name.
+	 *
+	 * @param ctx Call context.
+	 * @param eTag Resource ETag.
+	 *
+	 * @return The key.
+	 */
+	private static String getCallKey(final EndpointCallContext ctx,
+			final String eTag) {
+
+		final StringBuilder key = new StringBuilder(256);
+		appendKeyElement(key, eTag);
+		appendKeyElement(key, ctx.getRequestURI());
+		for (final Map.Entry<String, String[]> entry :
+				ctx.getRequestParamsTree().entrySet()) {
+			appendKeyElement(key, entry.getKey());
+			final String[] vals = entry.getValue();
+			key.append(vals.length).append('#');
+			for (final String val : vals)
+				appendKeyElement(key, val);
+		}
+
+		return key.toString();
+	}
+
+	/**
+	 * Append length-prefixed element to a call key so that different sequences
+	 * of elements never produce the same key.
+	 *
+	 * @param key The key.
+	 * @param element The element.
+	 */
+	private static void appendKeyElement(final StringBuilder key,
+			final String element) {
+
+		key.append(element.length()).append(':').append(element);
+	}
+
 	/**
 	 * Add all dependent resource classes, fetched reference classes and their
 	 * dependent resource classes, other persistent resources that own requested
@@ -79,7 +79,8 @@ public class DefaultPersistentResourceEndpointHandler<R>
 	 * {@link DefaultPostPersistentResourceEndpointCallHandler},
 	 * {@link DefaultPutPersistentResourceEndpointCallHandler} and
 	 * {@link DefaultDeletePersistentResourceEndpointCallHandler} for the
-	 * corresponding HTTP request methods.
+	 * corresponding HTTP request methods. The "GET" handler shares serialized
+	 * results between identical calls.
 	 */
 	@Override
 	public EndpointCallHandler<?> getCallHandler(
@@ -87,8 +88,14 @@ public class DefaultPersistentResourceEndpointHandler<R>
 
 		switch (requestMethod) {
 		case GET:
-			return new DefaultGetPersistentResourceEndpointCallHandler<>(
-					this);
+			return new DefaultGetPersistentResourceEndpointCallHandler<R>(
+					this) {
+				@Override
+				protected boolean isResultShared() {
+
+					return true;
+				}
+			};
 		case POST:
 			return new DefaultPostPersistentResourceEndpointCallHandler<>(
 					this);
@@ -1,6 +1,8 @@
 package org.bsworks.x2.app;
 
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.http.HttpServletResponse;
@@ -10,8 +12,13 @@ import org.bsworks.x2.EndpointCallErrorException;
 import org.bsworks.x2.EndpointCallHandler;
 import org.bsworks.x2.EndpointCallResponse;
 import org.bsworks.x2.resource.DependentRefPropertyHandler;
+import org.bsworks.x2.resource.FilterConditionType;
+import org.bsworks.x2.resource.FilterSpecBuilder;
 import org.bsworks.x2.resource.IdHandling;
+import org.bsworks.x2.resource.PersistentResourceHandler;
 import org.bsworks.x2.resource.ResourcePropertyAccess;
+import org.bsworks.x2.resource.ResourcePropertyHandler;
+import org.bsworks.x2.resource.ResourcePropertyPersistence;
 import org.bsworks.x2.responses.CreatedResponse;
 import org.bsworks.x2.responses.NoContentResponse;
 import org.bsworks.x2.responses.OKResponse;
@@ -43,6 +50,17 @@ import org.bsworks.x2.services.versioning.PersistentResourceVersionInfo;
  * <p>The handler implementation supports conditional HTTP requests and may
  * returns an HTTP error 412 (Precondition Failed) response.
  *
+ * <p>If the persistent resource has record version meta-property and all of
+ * its properties are stored directly in the persistent resource table (no
+ * nested objects, collections or dependent resource references), and the
+ * endpoint handler does not override the default record update logic, the
+ * handler first attempts to update the record without loading it, using a
+ * single statement that updates the record only if its version matches the
+ * submitted version. If no record is updated, the handler falls back to the
+ * regular logic described above, which sends the appropriate error response.
+ * Note, that unlike the regular logic, the fast path increments the record
+ * version even if the submitted data does not change anything.
+ *
  * @param <R> Handled persistent resource type.
  *
  * @author Lev Himmelfarb
@@ -58,6 +76,12 @@ public class DefaultPutPersistentResourceEndpointCallHandler<R>
 	public static final String NOCONTENT_PARAM = "nocontent";
 
 
+	/**
+	 * Tells if records can be updated using the optimistic update fast path.
+	 */
+	private final boolean optimisticUpdate;
+
+
 	/**
 	 * Create new handler.
 	 *
@@ -66,6 +90,76 @@ public class DefaultPutPersistentResourceEndpointCallHandler<R>
 	public DefaultPutPersistentResourceEndpointCallHandler(
 			final PersistentResourceEndpointHandler<R> endpointHandler) {
 		super(endpointHandler);
+
+		this.optimisticUpdate = ((this.versionPropHandler != null)
+				&& isFlat(this.prsrcHandler)
+				&& isDefaultUpdate(endpointHandler));
+	}
+
+
+	/**
+	 * Tell if all persistent properties of the persistent resource are stored
+	 * directly in the persistent resource table.
+	 *
+	 * @param prsrcHandler Persistent resource handler.
+	 *
+	 * @return {@code true} if the resource is flat.
+	 */
+	private static boolean isFlat(
+			final PersistentResourceHandler<?> prsrcHandler) {
+
+		if (!prsrcHandler.getObjectProperties().isEmpty()
+				|| !prsrcHandler.getDependentRefProperties().isEmpty())
+			return false;
+
+		for (final ResourcePropertyHandler propHandler :
+				prsrcHandler.getSimpleProperties()) {
+			final ResourcePropertyPersistence propPersistence =
+				propHandler.getPersistence();
+			if ((propPersistence != null)
+					&& (propPersistence.getCollectionName() != null))
+				return false;
+		}
+
+		for (final ResourcePropertyHandler propHandler :
+				prsrcHandler.getRefProperties()) {
+			final ResourcePropertyPersistence propPersistence =
+				propHandler.getPersistence();
+			if ((propPersistence != null)
+					&& (propPersistence.getCollectionName() != null))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Tell if the endpoint handler uses the default record update logic, that
+	 * is if it is a {@link DefaultPersistentResourceEndpointHandler} that does
+	 * not override its
+	 * {@link DefaultPersistentResourceEndpointHandler#update(EndpointCallContext, Object, Object)}
+	 * method.
+	 *
+	 * @param endpointHandler The endpoint handler.
+	 *
+	 * @return {@code true} if default update logic.
+	 */
+	private static boolean isDefaultUpdate(
+			final PersistentResourceEndpointHandler<?> endpointHandler) {
+
+		if (!(endpointHandler
+				instanceof DefaultPersistentResourceEndpointHandler))
+			return false;
+
+		try {
+			return endpointHandler.getClass().getMethod("update",
+					EndpointCallContext.class, Object.class, Object.class)
+						.getDeclaringClass().equals(
+								DefaultPersistentResourceEndpointHandler.class);
+		} catch (final NoSuchMethodException e) { // can't happen
+			throw new RuntimeException("Endpoint handler does not have update"
+					+ " method.", e);
+		}
 	}
 
 
@@ -128,6 +222,14 @@ public class DefaultPutPersistentResourceEndpointCallHandler<R>
 					"Record id in the submitted data does not match record id"
 							+ " in the URL.");
 
+		// try to update the record without loading it
+		if (this.optimisticUpdate && !this.isConditionalRequest(ctx)) {
+			final EndpointCallResponse response =
+				this.updateOptimistically(ctx, recId, requestEntity);
+			if (response != null)
+				return response;
+		}
+
 		// get referred dependent resource collections versions
 		final PersistentResourceVersionInfo colsVerInfo =
 			this.getDependentResourcesVersioningInfo(ctx);
@@ -219,4 +321,102 @@ public class DefaultPutPersistentResourceEndpointCallHandler<R>
 				this.getResourceETag(ctx, rec, newColsVerInfo),
 				this.getResourceLastModificationTimestamp(rec, newColsVerInfo));
 	}
+
+	/**
+	 * Update the record with a single statement conditional on the record
+	 * version without loading it first.
+	 *
+	 * @param ctx Call context.
+	 * @param recId Record id.
+	 * @param requestEntity Submitted record data.
+	 *
+	 * @return The response, or {@code null} if the record was not updated and
+	 * the regular update logic must be used.
+	 *
+	 * @throws EndpointCallErrorException If an error happens.
+	 */
+	private EndpointCallResponse updateOptimistically(
+			final EndpointCallContext ctx, final Object recId,
+			final R requestEntity)
+		throws EndpointCallErrorException {
+
+		// get submitted record version
+		final Object ver = this.versionPropHandler.getValue(requestEntity);
+		if (ver == null)
+			return null;
+
+		// collect new property values
+		final Map<String, Object> assignments = new LinkedHashMap<>();
+		this.addAssignments(ctx, requestEntity,
+				this.prsrcHandler.getSimpleProperties(), assignments);
+		this.addAssignments(ctx, requestEntity,
+				this.prsrcHandler.getRefProperties(), assignments);
+		if (assignments.isEmpty())
+			return null;
+
+		// update the record if the version matches
+		final FilterSpecBuilder<R> recFilter =
+			this.endpointHandler.getRecordFilter(ctx, recId)
+				.addTrueCondition(this.versionPropHandler.getName(),
+						FilterConditionType.EQ, ver);
+		if (ctx.getPersistenceTransaction().updateWhere(this.prsrcClass,
+				recFilter, assignments) == 0)
+			return null;
+
+		// register persistent resource collection modification
+		ctx.registerPersistentResourceModification(this.prsrcClass);
+
+		// see if no content response is requested
+		if (Boolean.parseBoolean(ctx.getRequestParam(NOCONTENT_PARAM))) {
+			final R rec;
+			if (this.lastModTSPropHandler != null) {
+				rec = this.getRecordVersioningMetaProperties(ctx,
+						this.endpointHandler.getRecordFilter(ctx, recId));
+			} else {
+				final Number curVer = (Number) ver;
+				this.versionPropHandler.setValue(requestEntity,
+						(curVer instanceof Long ?
+								Long.valueOf(curVer.longValue() + 1) :
+								Integer.valueOf(curVer.intValue() + 1)));
+				rec = requestEntity;
+			}
+			return new NoContentResponse(
+					this.getResourceETag(ctx, rec, null),
+					this.getResourceLastModificationTimestamp(rec, null));
+		}
+
+		// load the updated record and return it in the response
+		final R rec = this.endpointHandler.get(ctx, recId,
+				this.endpointHandler.getRecordFilter(ctx, recId), null, false);
+		return new OKResponse(rec,
+				this.getResourceETag(ctx, rec, null),
+				this.getResourceLastModificationTimestamp(rec, null));
+	}
+
+	/**
+	 * Add new values of the persistent properties that the actor is allowed to
+	 * update to the update assignments.
+	 *
+	 * @param ctx Call context.
+	 * @param requestEntity Submitted record data.
+	 * @param propHandlers Handlers of the properties to add.
+	 * @param assignments Assignments, to which to add the property values.
+	 */
+	private void addAssignments(final EndpointCallContext ctx,
+			final R requestEntity,
+			final Iterable<? extends ResourcePropertyHandler> propHandlers,
+			final Map<String, Object> assignments) {
+
+		for (final ResourcePropertyHandler propHandler : propHandlers) {
+			if (propHandler.getPersistence() == null)
+				continue;
+			if (!propHandler.isAllowed(ResourcePropertyAccess.UPDATE,
+					ctx.getActor()))
+				continue;
+			final Object val = propHandler.getValue(requestEntity);
+			if ((val == null) && !propHandler.updateIfNull())
+				continue;
+			assignments.put(propHandler.getName(), val);
+		}
+	}
 }
@@ -0,0 +1,142 @@
+package org.bsworks.x2.app;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bsworks.x2.EndpointCallErrorException;
+import org.bsworks.x2.services.serialization.SerializedResource;
+
+
+/**
+ * Coalesces identical concurrent read-only calls. While a call with a given
+ * key is in flight, calls with the same key wait for it to complete and share
+ * its serialized result instead of executing themselves. The key must capture
+ * everything that affects the result, including the versions of the
+ * participating persistent resource collections, so that any completed result
+ * is valid for all the waiting calls. If the call in flight fails, the waiting
+ * calls execute themselves. The waiting calls wait for a limited time and fail
+ * with HTTP 503 (Service Unavailable) if the call in flight does not complete
+ * in time, so that a stuck call does not hold the worker threads and the
+ * transactions of all the identical calls. The coalescer is thread-safe.
+ *
+ * @author Lev Himmelfarb
+ */
+class RequestCoalescer {
+
+	/**
+	 * Coalesced call.
+	 */
+	interface Call {
+
+		/**
+		 * Execute the call.
+		 *
+		 * @return The serialized result.
+		 *
+		 * @throws EndpointCallErrorException If an error happens.
+		 */
+		SerializedResource execute()
+			throws EndpointCallErrorException;
+	}
+
+	/**
+	 * Call in flight.
+	 */
+	private static final class Flight {
+
+		/**
+		 * Latch released when the call is complete.
+		 */
+		final CountDownLatch done = new CountDownLatch(1);
+
+		/**
+		 * The result, or {@code null} if the call failed.
+		 */
+		volatile SerializedResource result;
+
+
+		/**
+		 * Create new flight.
+		 */
+		Flight() {}
+	}
+
+
+	/**
+	 * The log.
+	 */
+	private final Log log = LogFactory.getLog(this.getClass());
+
+	/**
+	 * Calls in flight by keys.
+	 */
+	private final ConcurrentMap<String, Flight> flights =
+		new ConcurrentHashMap<>();
+
+
+	/**
+	 * Execute call, or wait for an identical call in flight and share its
+	 * result.
+	 *
+	 * @param key Call key.
+	 * @param timeout Maximum time in milliseconds to wait for an identical call
+	 * in flight. Zero or less means no timeout.
+	 * @param call The call.
+	 *
+	 * @return The serialized result.
+	 *
+	 * @throws EndpointCallErrorException If an error happens executing the
+	 * call, or the call is aborted or times out while waiting.
+	 */
+	SerializedResource execute(final String key, final long timeout,
+			final Call call)
+		throws EndpointCallErrorException {
+
+		final Flight flight = new Flight();
+		final Flight inFlight = this.flights.putIfAbsent(key, flight);
+
+		// identical call in flight, wait for it
+		if (inFlight != null) {
+			if (this.log.isDebugEnabled())
+				this.log.debug("waiting for identical call in flight " + key);
+			try {
+				if (timeout <= 0)
+					inFlight.done.await();
+				else if (!inFlight.done.await(timeout,
+						TimeUnit.MILLISECONDS)) {
+					this.log.warn("timed out waiting for identical call in"
+							+ " flight " + key);
+					throw new EndpointCallErrorException(
+							HttpServletResponse.SC_SERVICE_UNAVAILABLE, null,
+							"Call execution timed out.");
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new EndpointCallErrorException(
+						HttpServletResponse.SC_SERVICE_UNAVAILABLE, null,
+						"Call execution aborted by the server.");
+			}
+			final SerializedResource result = inFlight.result;
+			if (result != null)
+				return result;
+			if (this.log.isDebugEnabled())
+				this.log.debug("call in flight failed, executing " + key);
+			return call.execute();
+		}
+
+		// execute the call and release the waiting calls
+		try {
+			flight.result = call.execute();
+			return flight.result;
+		} finally {
+			this.flights.remove(key, flight);
+			flight.done.countDown();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.bsworks.x2.core;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.bsworks.x2.services.invalidation.ActorCacheInvalidation;
+import org.bsworks.x2.services.persistence.PersistenceTransactionHandler;
+
+
+/**
+ * Task that polls the actor cache invalidation service for invalidations
+ * registered by the application instances and purges the invalidated actors
+ * from the local cache.
+ *
+ * @author Lev Himmelfarb
+ */
+class ActorCacheInvalidationPoller
+	implements Runnable {
+
+	/**
+	 * The log.
+	 */
+	private final Log log = LogFactory.getLog(this.getClass());
+
+	/**
+	 * Runtime context.
+	 */
+	private final RuntimeContextImpl runtimeCtx;
+
+
+	/**
+	 * Create new poller.
+	 *
+	 * @param runtimeCtx Runtime context.
+	 */
+	ActorCacheInvalidationPoller(final RuntimeContextImpl runtimeCtx) {
+
+		this.runtimeCtx = runtimeCtx;
+	}
+
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void run() {
+
+		// get new invalidations
+		final List<ActorCacheInvalidation> invs;
+		try (final PersistenceTransactionHandler txh =
+				this.runtimeCtx.getPersistenceService()
+					.createPersistenceTransaction(null, false)) {
+
+			invs = this.runtimeCtx.getActorCacheInvalidationService()
+					.pollInvalidations(txh.getTransaction());
+
+			txh.commitTransaction();
+
+		} catch (final RuntimeException e) {
+			this.log.error("error polling actor cache invalidations", e);
+			return;
+		}
+
+		// purge invalidated actors from the local cache
+		if (this.log.isDebugEnabled() && !invs.isEmpty())
+			this.log.debug("purging " + invs.size()
+					+ " invalidated actors from the cache");
+		final AuthTokenHandler authTokenHandler =
+			this.runtimeCtx.getAuthTokenHandler();
+		for (final ActorCacheInvalidation inv : invs)
+			authTokenHandler.purgeCachedActor(inv.getActorId(),
+					inv.getOpaque());
+
+		// do not return the processed invalidations again
+		this.runtimeCtx.getActorCacheInvalidationService()
+			.confirmInvalidations(invs);
+	}
+}
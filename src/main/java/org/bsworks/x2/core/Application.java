@@ -1,5 +1,7 @@
 package org.bsworks.x2.core;
 
+import java.util.concurrent.ThreadPoolExecutor;
+
 import javax.servlet.ServletContext;
 
 import org.bsworks.x2.EndpointCallHandler;
@@ -40,6 +42,18 @@ class Application {
 	 */
 	private final long longJobCallTimeout;
 
+	/**
+	 * Tells if request and response entities are read and written using
+	 * non-blocking I/O.
+	 */
+	private final boolean nonBlockingIO;
+
+	/**
+	 * Number of calls waiting in the executor service queue, at which calls to
+	 * low priority endpoints start being rejected.
+	 */
+	private final int lowPriorityQueueLimit;
+
 
 	/**
 	 * Create and initialize the application.
@@ -63,6 +77,14 @@ class Application {
 			this.longJobCallTimeout = Long.parseLong(sc.getInitParameter(
 					EndpointCallHandler.LONG_JOB_CALL_TIMEOUT_INITPARAM));
 
+			// non-blocking I/O mode
+			this.nonBlockingIO = Boolean.parseBoolean(
+					sc.getInitParameter("x2.nonBlockingIO"));
+
+			// load shedding for low priority endpoints
+			this.lowPriorityQueueLimit = Integer.parseInt(
+					sc.getInitParameter("x2.lowPriorityQueueLimit"));
+
 			// create resources manager
 			final Resources resources = new ResourcesImpl(sc);
 
@@ -70,10 +92,12 @@ class Application {
 			this.mappings = new EndpointMappings(sc, resources);
 
 			// initialize runtime context
-			this.runtimeCtx = new RuntimeContextImpl(sc, resources);
+			this.runtimeCtx = new RuntimeContextImpl(sc, resources,
+					this.mappings.getPoolNames());
 
 			// create call responder
-			this.callResponder = new EndpointCallResponder(sc, this.runtimeCtx);
+			this.callResponder = new EndpointCallResponder(sc, this.runtimeCtx,
+					this.nonBlockingIO);
 
 			// done
 			success = true;
@@ -148,4 +172,33 @@ class Application {
 
 		return this.longJobCallTimeout;
 	}
+
+	/**
+	 * Tell if request and response entities are read and written using
+	 * non-blocking I/O.
+	 *
+	 * @return {@code true} if non-blocking I/O mode is enabled.
+	 */
+	boolean isNonBlockingIO() {
+
+		return this.nonBlockingIO;
+	}
+
+	/**
+	 * Tell if a call to the specified endpoint must be rejected because the
+	 * endpoint is configured as low priority and the executor service queue
+	 * has reached the low priority calls limit.
+	 *
+	 * @param mapping Endpoint mapping matched by the call.
+	 * @param executorService Executor service that would execute the call.
+	 *
+	 * @return {@code true} if the call must be rejected.
+	 */
+	boolean isShedLowPriorityCall(final EndpointMapping mapping,
+			final ThreadPoolExecutor executorService) {
+
+		return (mapping.isLowPriority()
+				&& (executorService.getQueue().size()
+						>= this.lowPriorityQueueLimit));
+	}
 }
@@ -0,0 +1,201 @@
+package org.bsworks.x2.core;
+
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+
+import org.bsworks.x2.util.BoundedConcurrentMap;
+
+
+/**
+ * Bounded cache of successfully decrypted authentication tokens keyed by the
+ * raw token values. Allows skipping the token decryption when a client sends
+ * the same token repeatedly. The cache is thread-safe and lock-free.
+ *
+ * @author Lev Himmelfarb
+ */
+class AuthTokenCache {
+
+	/**
+	 * Decrypted authentication token.
+	 */
+	static final class Entry {
+
+		/**
+		 * Actor id.
+		 */
+		final String actorId;
+
+		/**
+		 * Actor opaque value, or {@code null}.
+		 */
+		final String opaque;
+
+		/**
+		 * Token issue timestamp.
+		 */
+		final long tokenTS;
+
+		/**
+		 * Actor's own secret key at the time the token was verified, or
+		 * {@code null} if the actor did not have one.
+		 */
+		final SecretKey secretKey;
+
+		/**
+		 * Actor credentials contained in the token.
+		 */
+		final byte[] credentials;
+
+
+		/**
+		 * Create new entry.
+		 *
+		 * @param actorId Actor id.
+		 * @param opaque Actor opaque value, or {@code null}.
+		 * @param tokenTS Token issue timestamp.
+		 * @param secretKey Actor's own secret key at the time the token was
+		 * verified, or {@code null} if the actor did not have one.
+		 * @param credentials Actor credentials contained in the token. The
+		 * array is copied.
+		 */
+		Entry(final String actorId, final String opaque, final long tokenTS,
+				final SecretKey secretKey, final byte[] credentials) {
+
+			this.actorId = actorId;
+			this.opaque = opaque;
+			this.tokenTS = tokenTS;
+			this.secretKey = secretKey;
+			this.credentials = credentials.clone();
+		}
+
+
+		/**
+		 * Tell if the token belongs to the specified actor.
+		 *
+		 * @param actorId Actor id.
+		 * @param opaque Actor opaque value, or {@code null}.
+		 *
+		 * @return {@code true} if belongs.
+		 */
+		boolean isFor(final String actorId, final String opaque) {
+
+			return (this.actorId.equals(actorId) && (this.opaque == null ?
+					opaque == null : this.opaque.equals(opaque)));
+		}
+	}
+
+
+	/**
+	 * Authentication token time-to-live in milliseconds.
+	 */
+	private final long authTokenTTL;
+
+	/**
+	 * Cached tokens by raw token values.
+	 */
+	private final BoundedConcurrentMap<String, Entry> cache;
+
+
+	/**
+	 * Create new cache.
+	 *
+	 * @param maxSize Maximum cache size.
+	 * @param authTokenTTL Authentication token time-to-live in milliseconds.
+	 */
+	AuthTokenCache(final int maxSize, final long authTokenTTL) {
+
+		this.authTokenTTL = authTokenTTL;
+
+		this.cache = new BoundedConcurrentMap<String, Entry>(
+				"authentication token cache", maxSize) {
+			@Override
+			protected void removeStale() {
+				AuthTokenCache.this.removeExpired();
+			}
+		};
+	}
+
+
+	/**
+	 * Get cached token. Expired tokens are removed from the cache and are not
+	 * returned.
+	 *
+	 * @param token Raw token value.
+	 * @param now Current timestamp.
+	 *
+	 * @return The cached token, or {@code null} if not cached.
+	 */
+	Entry get(final String token, final long now) {
+
+		final Entry entry = this.cache.get(token);
+		if ((entry != null) && this.isExpired(entry, now)) {
+			this.cache.remove(token, entry);
+			return null;
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Add token to the cache. If the cache becomes full, expired tokens are
+	 * purged and, if that is not enough, arbitrary tokens are evicted.
+	 *
+	 * @param token Raw token value.
+	 * @param entry The decrypted token.
+	 */
+	void put(final String token, final Entry entry) {
+
+		this.cache.put(token, entry);
+	}
+
+	/**
+	 * Remove token from the cache.
+	 *
+	 * @param token Raw token value.
+	 * @param entry The cached token.
+	 */
+	void remove(final String token, final Entry entry) {
+
+		this.cache.remove(token, entry);
+	}
+
+	/**
+	 * Remove all tokens of the specified actor from the cache.
+	 *
+	 * @param actorId Actor id.
+	 * @param opaque Actor opaque value, or {@code null} if not used.
+	 */
+	void purgeActor(final String actorId, final String opaque) {
+
+		for (final Map.Entry<String, Entry> mapEntry : this.cache.entrySet())
+			if (mapEntry.getValue().isFor(actorId, opaque))
+				this.cache.remove(mapEntry.getKey(), mapEntry.getValue());
+	}
+
+	/**
+	 * Remove expired tokens from the cache.
+	 */
+	private void removeExpired() {
+
+		final long now = System.currentTimeMillis();
+		for (final Map.Entry<String, Entry> mapEntry : this.cache.entrySet())
+			if (this.isExpired(mapEntry.getValue(), now))
+				this.cache.remove(mapEntry.getKey(), mapEntry.getValue());
+	}
+
+	/**
+	 * Tell if the token is expired.
+	 *
+	 * @param entry The token.
+	 * @param now Current timestamp.
+	 *
+	 * @return {@code true} if expired.
+	 */
+	private boolean isExpired(final Entry entry, final long now) {
+
+		final long tokenAge = now - entry.tokenTS;
+
+		return ((tokenAge > this.authTokenTTL) || (tokenAge < 0));
+	}
+}
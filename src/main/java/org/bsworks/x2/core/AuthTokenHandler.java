@@ -1,15 +1,20 @@
 package org.bsworks.x2.core;
 
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.ServletContext;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
@@ -21,26 +26,250 @@ import org.bsworks.x2.Actor;
 import org.bsworks.x2.InitializationException;
 import org.bsworks.x2.RuntimeContext;
 import org.bsworks.x2.util.Base64;
+import org.bsworks.x2.util.Hex;
 
 
 /**
  * Collection of methods used to handle the authentication token.
  *
+ * <p>Two token formats are supported. The default "encrypted" format consists
+ * of two encrypted parts separated with a dot: the first part contains the
+ * actor id and opaque value and is encrypted with the application secret key,
+ * the second part contains the token issue timestamp and the actor credentials
+ * and is encrypted with the actor's secret key. The alternative "hmac" format
+ * is a single signed part: a signing key id, the token issue timestamp, the
+ * actor id and opaque value, followed by a truncated HMAC calculated over them
+ * and a second truncated HMAC calculated over the first one and the actor
+ * credentials. The first HMAC is verified before the actor is looked up, so
+ * that forged tokens are rejected without touching the actor store. Validation
+ * of an "hmac" token takes two HMAC calculations. Multiple HMAC keys can be
+ * configured to allow key rotation: tokens are signed with the first key, but
+ * tokens signed with any of the configured keys are accepted. When the "hmac"
+ * format is enabled, tokens in the "encrypted" format are still accepted.
+ *
  * @author Lev Himmelfarb
  */
 class AuthTokenHandler {
 
 	/**
-	 * Authentication token pattern.
+	 * Initialized cipher together with the key and the mode, for which it was
+	 * initialized.
+	 */
+	private static final class CipherSlot {
+
+		/**
+		 * The cipher.
+		 */
+		final Cipher cipher;
+
+		/**
+		 * The key, or {@code null} if not initialized yet.
+		 */
+		SecretKey key;
+
+		/**
+		 * The mode.
+		 */
+		int mode;
+
+
+		/**
+		 * Create new slot with uninitialized cipher.
+		 *
+		 * @param algorithm Cipher algorithm.
+		 *
+		 * @throws GeneralSecurityException If cipher is unavailable.
+		 */
+		CipherSlot(final String algorithm)
+			throws GeneralSecurityException {
+
+			this.cipher = Cipher.getInstance(algorithm);
+		}
+	}
+
+	/**
+	 * Set of ciphers and buffers used by a single thread at a time to process
+	 * authentication tokens. Instances are pooled and reused, so that the
+	 * expensive cipher instantiation and initialization, and buffer allocation
+	 * happen only once per instance.
+	 */
+	private static final class TokenCrypto {
+
+		/**
+		 * Application-wide secret key.
+		 */
+		private final SecretKey appSecretKey;
+
+		/**
+		 * Cipher slot for the application-wide secret key, or {@code null} if
+		 * not created yet.
+		 */
+		private CipherSlot appKeyCipher;
+
+		/**
+		 * Cipher slots for the actor secret keys by cipher algorithm.
+		 */
+		private final Map<String, CipherSlot> actorKeyCiphers =
+			new HashMap<>();
+
+		/**
+		 * Initialized MACs by HMAC key ids.
+		 */
+		private final Mac[] macs = new Mac[256];
+
+		/**
+		 * Buffer for the encrypted bytes.
+		 */
+		byte[] cipherBytes = new byte[256];
+
+		/**
+		 * Buffer for the decrypted bytes.
+		 */
+		byte[] clearBytes = new byte[256];
+
+
+		/**
+		 * Create new set.
+		 *
+		 * @param appSecretKey Application-wide secret key.
+		 */
+		TokenCrypto(final SecretKey appSecretKey) {
+
+			this.appSecretKey = appSecretKey;
+		}
+
+
+		/**
+		 * Get cipher initialized with the specified key for the specified
+		 * mode. A cipher that has been used for the same key and mode before is
+		 * reused without reinitialization. The application-wide secret key has
+		 * its own cipher, so that it does not get reinitialized when a token is
+		 * processed with both the application key and an actor key.
+		 *
+		 * @param mode Cipher mode.
+		 * @param key The key.
+		 *
+		 * @return The cipher.
+		 */
+		Cipher getCipher(final int mode, final SecretKey key) {
+
+			try {
+				CipherSlot slot;
+				if (key == this.appSecretKey) {
+					slot = this.appKeyCipher;
+					if (slot == null) {
+						slot = new CipherSlot(key.getAlgorithm());
+						this.appKeyCipher = slot;
+					}
+				} else {
+					final String alg = key.getAlgorithm();
+					slot = this.actorKeyCiphers.get(alg);
+					if (slot == null) {
+						slot = new CipherSlot(alg);
+						this.actorKeyCiphers.put(alg, slot);
+					}
+				}
+				if ((slot.mode != mode) || (slot.key != key)) {
+					slot.key = null;
+					slot.cipher.init(mode, key);
+					slot.key = key;
+					slot.mode = mode;
+				}
+				return slot.cipher;
+			} catch (final GeneralSecurityException e) {
+				throw new RuntimeException("Error getting a cipher.", e);
+			}
+		}
+
+		/**
+		 * Get MAC initialized with the specified key. The MAC is reset and
+		 * ready for use.
+		 *
+		 * @param keyId Key id.
+		 * @param key The key.
+		 *
+		 * @return The MAC.
+		 */
+		Mac getMac(final int keyId, final SecretKey key) {
+
+			Mac mac = this.macs[keyId];
+			if (mac == null) {
+				try {
+					mac = Mac.getInstance(key.getAlgorithm());
+					mac.init(key);
+				} catch (final GeneralSecurityException e) {
+					throw new RuntimeException("Error getting a MAC.", e);
+				}
+				this.macs[keyId] = mac;
+			} else {
+				mac.reset();
+			}
+
+			return mac;
+		}
+
+		/**
+		 * Force reinitialization of all ciphers next time they are requested.
+		 * Used after a cipher operation failure, which may leave the cipher in
+		 * an undefined state.
+		 */
+		void reset() {
+
+			if (this.appKeyCipher != null)
+				this.appKeyCipher.key = null;
+			for (final CipherSlot slot : this.actorKeyCiphers.values())
+				slot.key = null;
+		}
+
+		/**
+		 * Make sure the encrypted bytes buffer has at least the specified
+		 * size.
+		 *
+		 * @param size Minimum size.
+		 *
+		 * @return The buffer.
+		 */
+		byte[] getCipherBytes(final int size) {
+
+			if (this.cipherBytes.length < size)
+				this.cipherBytes = new byte[size];
+
+			return this.cipherBytes;
+		}
+
+		/**
+		 * Make sure the decrypted bytes buffer has at least the specified
+		 * size.
+		 *
+		 * @param size Minimum size.
+		 *
+		 * @return The buffer.
+		 */
+		byte[] getClearBytes(final int size) {
+
+			if (this.clearBytes.length < size)
+				this.clearBytes = new byte[size];
+
+			return this.clearBytes;
+		}
+	}
+
+
+	/**
+	 * Length of each of the two HMACs included in a signed token.
+	 */
+	private static final int HMAC_LENGTH = 16;
+
+	/**
+	 * Minimum length of a signed token payload: key id, timestamp and lengths
+	 * of the actor id and opaque value.
 	 */
-	private static final Pattern AUTH_TOKEN_PATTERN = Pattern.compile(
-			"([A-Za-z0-9+/]+={0,2})\\.([A-Za-z0-9+/]+={0,2})");
+	private static final int MIN_SIGNED_PAYLOAD_LENGTH = 1 + 8 + 2 + 2;
 
 	/**
-	 * "Authorization" header pattern.
+	 * Authentication scheme used in the "Authorization" header.
 	 */
-	private static final Pattern AUTH_HDR_PATTERN = Pattern.compile(
-			"\\s*AuthToken\\s+" + AUTH_TOKEN_PATTERN.pattern() + "\\s*");
+	private static final String AUTH_SCHEME = "AuthToken";
 
 	/**
 	 * UTF-8 charset.
@@ -68,6 +297,16 @@ class AuthTokenHandler {
 	 */
 	private final SecretKey appSecretKey;
 
+	/**
+	 * HMAC keys by key ids, or {@code null} if signed tokens are not used.
+	 */
+	private final SecretKey[] hmacKeys;
+
+	/**
+	 * Id of the HMAC key used to sign new tokens.
+	 */
+	private final int hmacSigningKeyId;
+
 	/**
 	 * Authentication token time-to-live in milliseconds.
 	 */
@@ -83,6 +322,17 @@ class AuthTokenHandler {
 	 */
 	private final CachingAuthResolver authResolver;
 
+	/**
+	 * Decrypted authentication tokens cache, or {@code null} if disabled.
+	 */
+	private final AuthTokenCache tokenCache;
+
+	/**
+	 * Pool of token processing ciphers and buffers not currently in use.
+	 */
+	private final Queue<TokenCrypto> cryptoPool =
+		new ConcurrentLinkedQueue<>();
+
 
 	/**
 	 * Create new handler.
@@ -100,12 +350,68 @@ class AuthTokenHandler {
 
 		this.appSecretKey = runtimeCtx.getAuthSecretKey();
 
+		final String tokenFormat =
+			sc.getInitParameter("x2.auth.tokenFormat").trim();
+		if (tokenFormat.equals("hmac")) {
+			this.hmacKeys = new SecretKey[256];
+			final String hmacAlg =
+				sc.getInitParameter("x2.auth.hmacAlg").trim();
+			int signingKeyId = -1;
+			try {
+				for (final String keyDef : sc.getInitParameter(
+						"x2.auth.hmacKeys").trim().split("\\s+")) {
+					if (keyDef.isEmpty())
+						continue;
+					final int colInd = keyDef.indexOf(':');
+					final int keyId =
+						Integer.parseInt(keyDef.substring(0, colInd));
+					if ((keyId < 0) || (keyId >= this.hmacKeys.length)
+							|| (this.hmacKeys[keyId] != null))
+						throw new InitializationException("Invalid or"
+								+ " duplicate authentication token HMAC key id "
+								+ keyId + ".");
+					final SecretKey key = new SecretKeySpec(
+							Hex.decode(keyDef.substring(colInd + 1)), hmacAlg);
+					if (Mac.getInstance(hmacAlg).getMacLength() < HMAC_LENGTH)
+						throw new InitializationException("Authentication"
+								+ " token HMAC algorithm " + hmacAlg
+								+ " produces too short MACs.");
+					this.hmacKeys[keyId] = key;
+					if (signingKeyId < 0)
+						signingKeyId = keyId;
+				}
+			} catch (final IndexOutOfBoundsException |
+					IllegalArgumentException | GeneralSecurityException e) {
+				throw new InitializationException("Invalid authentication token"
+						+ " HMAC keys configuration.", e);
+			}
+			if (signingKeyId < 0)
+				throw new InitializationException("No authentication token HMAC"
+						+ " keys are configured.");
+			this.hmacSigningKeyId = signingKeyId;
+		} else if (tokenFormat.equals("encrypted")) {
+			this.hmacKeys = null;
+			this.hmacSigningKeyId = -1;
+		} else {
+			throw new InitializationException("Invalid authentication token"
+					+ " format " + tokenFormat + ".");
+		}
+
 		this.authTokenTTL = Long.parseLong(
 				sc.getInitParameter(RuntimeContext.AUTH_TOKEN_TTL_INITPARAM));
 		this.useCookie = Boolean.parseBoolean(
 				sc.getInitParameter(RuntimeContext.AUTH_USE_COOKIE_INITPARAM));
 
 		this.authResolver = new CachingAuthResolver(sc, runtimeCtx);
+
+		final int tokenCacheMaxSize = Integer.parseInt(sc.getInitParameter(
+				"x2.auth.tokenCache.maxSize"));
+		if (tokenCacheMaxSize < 0)
+			throw new InitializationException(
+					"Invalid maximum authentication token cache size.");
+		this.tokenCache = (tokenCacheMaxSize > 0 ?
+				new AuthTokenCache(tokenCacheMaxSize, this.authTokenTTL) :
+					null);
 	}
 
 
@@ -123,8 +429,6 @@ class AuthTokenHandler {
 
 		final boolean debug = this.log.isDebugEnabled();
 
-		final String tokenP0;
-		final String tokenP1;
 		if (this.useCookie) {
 
 			// get the authentication token cookie
@@ -143,43 +447,38 @@ class AuthTokenHandler {
 				return null;
 			}
 
-			// parse the cookie
-			final Matcher m = AUTH_TOKEN_PATTERN.matcher(authToken);
-			if (!m.matches()) {
-				if (debug)
-					this.log.debug("invalid authentication token cookie value");
-				return null;
-			}
-
-			// get the token parts
-			tokenP0 = m.group(1);
-			tokenP1 = m.group(2);
-
-		} else {
-
-			// get authorization header
-			final String authHeader = httpRequest.getHeader("Authorization");
-			if (authHeader == null) {
-				if (debug)
-					this.log.debug("no Authorization header");
-				return null;
-			}
+			// parse the token
+			return this.getActor(authToken, 0, authToken.length());
+		}
 
-			// parse authorization header
-			final Matcher m = AUTH_HDR_PATTERN.matcher(authHeader);
-			if (!m.matches()) {
-				if (debug)
-					this.log.debug("invalid Authorization header value");
-				return null;
-			}
+		// get authorization header
+		final String authHeader = httpRequest.getHeader("Authorization");
+		if (authHeader == null) {
+			if (debug)
+				this.log.debug("no Authorization header");
+			return null;
+		}
 
-			// get the token parts
-			tokenP0 = m.group(1);
-			tokenP1 = m.group(2);
+		// parse authorization header: scheme, whitespace, token
+		int end = authHeader.length();
+		while ((end > 0) && isWhitespace(authHeader.charAt(end - 1)))
+			end--;
+		int begin = 0;
+		while ((begin < end) && isWhitespace(authHeader.charAt(begin)))
+			begin++;
+		final int schemeEnd = begin + AUTH_SCHEME.length();
+		if (!authHeader.startsWith(AUTH_SCHEME, begin) || (schemeEnd >= end)
+				|| !isWhitespace(authHeader.charAt(schemeEnd))) {
+			if (debug)
+				this.log.debug("invalid Authorization header value");
+			return null;
 		}
+		begin = schemeEnd + 1;
+		while ((begin < end) && isWhitespace(authHeader.charAt(begin)))
+			begin++;
 
-		// parser the token
-		return this.getActor(tokenP0, tokenP1);
+		// parse the token
+		return this.getActor(authHeader, begin, end);
 	}
 
 	/**
@@ -192,82 +491,136 @@ class AuthTokenHandler {
 	 */
 	Actor getActor(final String token) {
 
-		final String[] tokenParts = token.split("\\.");
-		if (tokenParts.length != 2)
-			return null;
-
-		return this.getActor(tokenParts[0], tokenParts[1]);
+		return this.getActor(token, 0, token.length());
 	}
 
 	/**
-	 * Get actor for the specified authentication token.
+	 * Get actor for the authentication token contained in the specified range
+	 * of a string.
 	 *
-	 * @param tokenP0 First (general) part of the authentication token.
-	 * @param tokenP1 Second (user-specific) part of the authentication token.
+	 * @param src String that contains the combined authentication token.
+	 * @param begin Index of the first token character.
+	 * @param end Index following the last token character.
 	 *
 	 * @return The actor, or {@code null} if the the authentication token is
 	 * invalid, expired, or refers to a nonexistent or inactive actor.
 	 */
-	Actor getActor(final String tokenP0, final String tokenP1) {
+	private Actor getActor(final String src, final int begin, final int end) {
 
 		final boolean debug = this.log.isDebugEnabled();
 		if (debug)
-			this.log.debug("decrypting authentication token: p0=" + tokenP0
-					+ ", p1=" + tokenP1);
+			this.log.debug("decrypting authentication token: "
+					+ src.substring(begin, end));
+
+		// try to find the token in the cache of decrypted tokens
+		final String token;
+		if (this.tokenCache != null) {
+			token = ((begin == 0) && (end == src.length()) ? src :
+				src.substring(begin, end));
+			final AuthTokenCache.Entry cached =
+				this.tokenCache.get(token, System.currentTimeMillis());
+			if (cached != null) {
+				if (debug)
+					this.log.debug("found cached token: actorId="
+							+ cached.actorId + ", opaque=" + cached.opaque);
+				final Actor actor = this.authResolver.getActor(
+						cached.actorId, cached.opaque);
+				if (actor == null) {
+					if (debug)
+						this.log.debug("actor with id " + cached.actorId
+								+ " and opaque " + cached.opaque
+								+ " does not exist");
+					return null;
+				}
+				final SecretKey secretKey = actor.getSecretKey();
+				if ((secretKey == null ? cached.secretKey == null :
+							secretKey.equals(cached.secretKey))
+						&& MessageDigest.isEqual(actor.getCredentials(),
+								cached.credentials))
+					return actor;
+				if (debug)
+					this.log.debug("actor changed since the token was cached,"
+							+ " will decrypt the token");
+				this.tokenCache.remove(token, cached);
+			}
+		} else {
+			token = null;
+		}
 
-		// get bytes of the first part of the token
-		ByteBuffer cipherBuf;
-		try {
-			final int base64Len = tokenP0.length();
-			final char[] base64Chars = new char[base64Len];
-			tokenP0.getChars(0, base64Len, base64Chars, 0);
-			final CharBuffer base64Buf = CharBuffer.wrap(base64Chars);
-			cipherBuf = ByteBuffer.allocate((base64Len * 6) / 8 + 1);
-			Base64.decode(base64Buf, cipherBuf);
-			cipherBuf.flip();
-		} catch (final IndexOutOfBoundsException e) {
+		// get format of the token
+		final int dotInd = src.indexOf('.', begin);
+		if ((dotInd < 0) || (dotInd >= end)) {
+			if (this.hmacKeys == null) {
+				if (debug)
+					this.log.debug("invalid authentication token");
+				return null;
+			}
+		} else if ((dotInd == begin) || (dotInd == end - 1)) {
 			if (debug)
-				this.log.debug("token decryption error", e);
+				this.log.debug("invalid authentication token");
 			return null;
 		}
 
-		// decrypt first part of the token
-		Cipher cipher;
+		// decode the token using pooled ciphers and buffers
+		final TokenCrypto crypto = this.getTokenCrypto();
 		try {
-			cipher = Cipher.getInstance(this.appSecretKey.getAlgorithm());
-			cipher.init(Cipher.DECRYPT_MODE, this.appSecretKey);
-		} catch (final GeneralSecurityException e) {
-			throw new RuntimeException("Error getting a cipher.", e);
+			if ((dotInd < 0) || (dotInd >= end))
+				return this.getActorFromSignedToken(crypto, src, begin, end,
+						token, debug);
+			return this.getActor(crypto, src, begin, dotInd, end, token,
+					debug);
+		} finally {
+			this.cryptoPool.offer(crypto);
 		}
-		ByteBuffer clearBuf = ByteBuffer.allocate(
-				cipher.getOutputSize(cipherBuf.remaining()));
-		try {
-			cipher.doFinal(cipherBuf, clearBuf);
-			clearBuf.flip();
-		} catch (final GeneralSecurityException e) {
-			if (debug)
-				this.log.debug("token decryption error", e);
+	}
+
+	/**
+	 * Get actor for the authentication token contained in the specified range
+	 * of a string.
+	 *
+	 * @param crypto Ciphers and buffers to use.
+	 * @param src String that contains the combined authentication token.
+	 * @param begin Index of the first character of the first (general) part of
+	 * the token.
+	 * @param dotInd Index of the dot that separates the token parts.
+	 * @param end Index following the last character of the second
+	 * (user-specific) part of the token.
+	 * @param token Raw token value used as the key to cache the decrypted
+	 * token, or {@code null} if token caching is disabled.
+	 * @param debug {@code true} if debug logging is enabled.
+	 *
+	 * @return The actor, or {@code null} if the the authentication token is
+	 * invalid, expired, or refers to a nonexistent or inactive actor.
+	 */
+	private Actor getActor(final TokenCrypto crypto, final String src,
+			final int begin, final int dotInd, final int end,
+			final String token, final boolean debug) {
+
+		// decrypt first part of the token
+		ByteBuffer clearBuf = this.decrypt(crypto, this.appSecretKey, src,
+				begin, dotInd, debug);
+		if (clearBuf == null)
 			return null;
-		}
 
 		// get actor id and opaque value
 		final String actorId;
 		final String opaque;
-		try {
-			byte[] strBytes = new byte[clearBuf.getShort()];
-			clearBuf.get(strBytes);
-			actorId = new String(strBytes, UTF8);
-			strBytes = new byte[clearBuf.getShort()];
-			if (strBytes.length > 0) {
-				clearBuf.get(strBytes);
-				opaque = new String(strBytes, UTF8);
-			} else {
-				opaque = null;
-			}
-		} catch (final BufferUnderflowException e) {
-			if (debug)
-				this.log.debug("invalid token", e);
-			return null;
+		if (clearBuf.remaining() < 2)
+			return this.invalidToken(debug);
+		int strLen = clearBuf.getShort();
+		if ((strLen < 0) || (clearBuf.remaining() < strLen + 2))
+			return this.invalidToken(debug);
+		actorId = new String(clearBuf.array(), clearBuf.position(), strLen,
+				UTF8);
+		clearBuf.position(clearBuf.position() + strLen);
+		strLen = clearBuf.getShort();
+		if ((strLen < 0) || (clearBuf.remaining() < strLen))
+			return this.invalidToken(debug);
+		if (strLen > 0) {
+			opaque = new String(clearBuf.array(), clearBuf.position(), strLen,
+					UTF8);
+		} else {
+			opaque = null;
 		}
 		if (debug)
 			this.log.debug("decrypted p0: actorId=" + actorId + ", opaque="
@@ -282,51 +635,19 @@ class AuthTokenHandler {
 			return null;
 		}
 
-		// get bytes of the second part of the token
-		try {
-			final int base64Len = tokenP1.length();
-			final char[] base64Chars = new char[base64Len];
-			tokenP1.getChars(0, base64Len, base64Chars, 0);
-			final CharBuffer base64Buf = CharBuffer.wrap(base64Chars);
-			cipherBuf = ByteBuffer.allocate((base64Len * 6) / 8 + 1);
-			Base64.decode(base64Buf, cipherBuf);
-			cipherBuf.flip();
-		} catch (final IndexOutOfBoundsException e) {
-			if (debug)
-				this.log.debug("token decryption error", e);
-			return null;
-		}
-
 		// decrypt second part of the token
 		SecretKey secretKey = actor.getSecretKey();
 		if (secretKey == null)
 			secretKey = this.appSecretKey;
-		try {
-			cipher = Cipher.getInstance(secretKey.getAlgorithm());
-			cipher.init(Cipher.DECRYPT_MODE, secretKey);
-		} catch (final GeneralSecurityException e) {
-			throw new RuntimeException("Error getting a cipher.", e);
-		}
-		clearBuf = ByteBuffer.allocate(
-				cipher.getOutputSize(cipherBuf.remaining()));
-		try {
-			cipher.doFinal(cipherBuf, clearBuf);
-			clearBuf.flip();
-		} catch (final GeneralSecurityException e) {
-			if (debug)
-				this.log.debug("token decryption error", e);
+		clearBuf = this.decrypt(crypto, secretKey, src, dotInd + 1, end,
+				debug);
+		if (clearBuf == null)
 			return null;
-		}
 
 		// get and verify the token expiration
-		final long tokenTS;
-		try {
-			tokenTS = clearBuf.getLong();
-		} catch (final BufferUnderflowException e) {
-			if (debug)
-				this.log.debug("invalid token", e);
-			return null;
-		}
+		if (clearBuf.remaining() < 8 + 2)
+			return this.invalidToken(debug);
+		final long tokenTS = clearBuf.getLong();
 		final long now = System.currentTimeMillis();
 		final long tokenAge = now - tokenTS;
 		if ((tokenAge > this.authTokenTTL) || (tokenAge < 0)) {
@@ -338,42 +659,377 @@ class AuthTokenHandler {
 		}
 
 		// verify opaque value
-		final String tokenOpaque;
-		try {
-			final byte[] strBytes = new byte[clearBuf.getShort()];
-			if (strBytes.length > 0) {
-				clearBuf.get(strBytes);
-				tokenOpaque = new String(strBytes, UTF8);
-			} else {
-				tokenOpaque = null;
-			}
-		} catch (final BufferUnderflowException e) {
-			if (debug)
-				this.log.debug("invalid token", e);
-			return null;
-		}
+		strLen = clearBuf.getShort();
+		if ((strLen < 0) || (clearBuf.remaining() < strLen))
+			return this.invalidToken(debug);
 		final boolean opaqueMatch;
 		if (opaque != null)
-			opaqueMatch = opaque.equals(tokenOpaque);
+			opaqueMatch = equal(opaque.getBytes(UTF8), clearBuf, strLen);
 		else
-			opaqueMatch = (tokenOpaque == null);
+			opaqueMatch = (strLen == 0);
 		if (!opaqueMatch) {
 			if (debug)
 				this.log.debug("opaque values do not match");
 			return null;
 		}
+		clearBuf.position(clearBuf.position() + strLen);
 
 		// verify credentials
-		if (clearBuf.compareTo(ByteBuffer.wrap(actor.getCredentials())) != 0) {
+		final byte[] credentials = actor.getCredentials();
+		if ((clearBuf.remaining() != credentials.length)
+				|| !equal(credentials, clearBuf, credentials.length)) {
 			if (debug)
 				this.log.debug("credentials do not match");
 			return null;
 		}
 
+		// cache the decrypted token
+		if (token != null)
+			this.tokenCache.put(token, new AuthTokenCache.Entry(actorId,
+					opaque, tokenTS, actor.getSecretKey(), credentials));
+
 		// success
 		return actor;
 	}
 
+	/**
+	 * Get actor for the signed authentication token contained in the specified
+	 * range of a string.
+	 *
+	 * @param crypto MACs and buffers to use.
+	 * @param src String that contains the token.
+	 * @param begin Index of the first token character.
+	 * @param end Index following the last token character.
+	 * @param token Raw token value used as the key to cache the verified
+	 * token, or {@code null} if token caching is disabled.
+	 * @param debug {@code true} if debug logging is enabled.
+	 *
+	 * @return The actor, or {@code null} if the the authentication token is
+	 * invalid, expired, or refers to a nonexistent or inactive actor.
+	 */
+	private Actor getActorFromSignedToken(final TokenCrypto crypto,
+			final String src, final int begin, final int end,
+			final String token, final boolean debug) {
+
+		// decode Base64 into the buffer
+		final byte[] bytes =
+			crypto.getCipherBytes(((end - begin) * 3) / 4 + 3);
+		final int len;
+		try {
+			len = Base64.decode(src, begin, end, bytes, 0);
+		} catch (final IllegalArgumentException e) {
+			if (debug)
+				this.log.debug("token decoding error", e);
+			return null;
+		}
+		final int payloadLen = len - 2 * HMAC_LENGTH;
+		if (payloadLen < MIN_SIGNED_PAYLOAD_LENGTH)
+			return this.invalidToken(debug);
+
+		// get the key
+		final int keyId = bytes[0] & 0xFF;
+		final SecretKey hmacKey = this.hmacKeys[keyId];
+		if (hmacKey == null) {
+			if (debug)
+				this.log.debug("unknown token HMAC key id " + keyId);
+			return null;
+		}
+
+		// verify the payload HMAC before trusting anything in the payload
+		if (!macEqual(this.calculatePayloadHMAC(crypto, keyId, bytes,
+				payloadLen), bytes, payloadLen)) {
+			if (debug)
+				this.log.debug("token payload HMAC does not match");
+			return null;
+		}
+
+		// get and verify the token expiration
+		int pos = 1;
+		final long tokenTS = getLong(bytes, pos);
+		pos += 8;
+		final long now = System.currentTimeMillis();
+		final long tokenAge = now - tokenTS;
+		if ((tokenAge > this.authTokenTTL) || (tokenAge < 0)) {
+			if (debug)
+				this.log.debug("token timestamp out of range: token=" + tokenTS
+						+ ", now=" + now + ", tokenTTL=" + this.authTokenTTL
+						+ ", tokenAge=" + tokenAge);
+			return null;
+		}
+
+		// get actor id and opaque value
+		int strLen = getShort(bytes, pos);
+		pos += 2;
+		if ((strLen < 0) || (payloadLen - pos < strLen + 2))
+			return this.invalidToken(debug);
+		final String actorId = new String(bytes, pos, strLen, UTF8);
+		pos += strLen;
+		strLen = getShort(bytes, pos);
+		pos += 2;
+		if ((strLen < 0) || (payloadLen - pos != strLen))
+			return this.invalidToken(debug);
+		final String opaque = (strLen > 0 ?
+				new String(bytes, pos, strLen, UTF8) : null);
+		if (debug)
+			this.log.debug("signed token: keyId=" + keyId + ", actorId="
+					+ actorId + ", opaque=" + opaque);
+
+		// get actor record
+		final Actor actor = this.authResolver.getActor(actorId, opaque);
+		if (actor == null) {
+			if (debug)
+				this.log.debug("actor with id " + actorId + " and opaque "
+						+ opaque + " does not exist");
+			return null;
+		}
+
+		// verify the credentials HMAC
+		if (!macEqual(this.calculateCredentialsHMAC(crypto, keyId, bytes,
+				payloadLen, actor), bytes, payloadLen + HMAC_LENGTH)) {
+			if (debug)
+				this.log.debug("token credentials HMAC does not match");
+			return null;
+		}
+
+		// cache the verified token
+		if (token != null)
+			this.tokenCache.put(token, new AuthTokenCache.Entry(actorId,
+					opaque, tokenTS, actor.getSecretKey(),
+					actor.getCredentials()));
+
+		// success
+		return actor;
+	}
+
+	/**
+	 * Calculate HMAC of a signed token payload.
+	 *
+	 * @param crypto MACs and buffers to use.
+	 * @param keyId HMAC key id.
+	 * @param payload Buffer with the payload starting at the beginning.
+	 * @param payloadLen Payload length.
+	 *
+	 * @return Buffer with the HMAC at the beginning.
+	 */
+	private byte[] calculatePayloadHMAC(final TokenCrypto crypto,
+			final int keyId, final byte[] payload, final int payloadLen) {
+
+		final Mac mac = crypto.getMac(keyId, this.hmacKeys[keyId]);
+		mac.update(payload, 0, payloadLen);
+
+		return finishHMAC(crypto, mac);
+	}
+
+	/**
+	 * Calculate HMAC that binds a signed token to the actor credentials. The
+	 * HMAC covers the token payload HMAC, the actor credentials and the
+	 * actor's secret key, if any, so that changing them invalidates the
+	 * actor's tokens.
+	 *
+	 * @param crypto MACs and buffers to use.
+	 * @param keyId HMAC key id.
+	 * @param token Buffer with the token, which has the payload HMAC at the
+	 * specified offset.
+	 * @param payloadHMACOff Offset of the payload HMAC in the buffer.
+	 * @param actor The actor.
+	 *
+	 * @return Buffer with the HMAC at the beginning.
+	 */
+	private byte[] calculateCredentialsHMAC(final TokenCrypto crypto,
+			final int keyId, final byte[] token, final int payloadHMACOff,
+			final Actor actor) {
+
+		final Mac mac = crypto.getMac(keyId, this.hmacKeys[keyId]);
+		mac.update(token, payloadHMACOff, HMAC_LENGTH);
+		mac.update(actor.getCredentials());
+		final SecretKey actorSecretKey = actor.getSecretKey();
+		if (actorSecretKey != null)
+			mac.update(actorSecretKey.getEncoded());
+
+		return finishHMAC(crypto, mac);
+	}
+
+	/**
+	 * Finish HMAC calculation.
+	 *
+	 * @param crypto MACs and buffers to use.
+	 * @param mac The MAC.
+	 *
+	 * @return Buffer with the HMAC at the beginning.
+	 */
+	private static byte[] finishHMAC(final TokenCrypto crypto, final Mac mac) {
+
+		final byte[] hmac = crypto.getClearBytes(mac.getMacLength());
+		try {
+			mac.doFinal(hmac, 0);
+		} catch (final ShortBufferException e) {
+			throw new RuntimeException("Error calculating HMAC.", e);
+		}
+
+		return hmac;
+	}
+
+	/**
+	 * Decode and decrypt a Base64-encoded part of the authentication token.
+	 *
+	 * @param crypto Ciphers and buffers to use.
+	 * @param key Decryption key.
+	 * @param src String that contains the token.
+	 * @param begin Index of the first character of the token part.
+	 * @param end Index following the last character of the token part.
+	 * @param debug {@code true} if debug logging is enabled.
+	 *
+	 * @return Buffer that wraps the decrypted bytes, or {@code null} if the
+	 * token part is invalid.
+	 */
+	private ByteBuffer decrypt(final TokenCrypto crypto, final SecretKey key,
+			final String src, final int begin, final int end,
+			final boolean debug) {
+
+		// decode Base64 into the encrypted bytes buffer
+		final byte[] cipherBytes =
+			crypto.getCipherBytes(((end - begin) * 3) / 4 + 3);
+		final int cipherLen;
+		try {
+			cipherLen = Base64.decode(src, begin, end, cipherBytes, 0);
+		} catch (final IllegalArgumentException e) {
+			if (debug)
+				this.log.debug("token decoding error", e);
+			return null;
+		}
+
+		// decrypt
+		final Cipher cipher = crypto.getCipher(Cipher.DECRYPT_MODE, key);
+		final byte[] clearBytes =
+			crypto.getClearBytes(cipher.getOutputSize(cipherLen));
+		final int clearLen;
+		try {
+			clearLen = cipher.doFinal(cipherBytes, 0, cipherLen, clearBytes);
+		} catch (final GeneralSecurityException e) {
+			if (debug)
+				this.log.debug("token decryption error", e);
+			crypto.reset();
+			return null;
+		}
+
+		return ByteBuffer.wrap(clearBytes, 0, clearLen);
+	}
+
+	/**
+	 * Get token processing ciphers and buffers from the pool, or create new
+	 * ones if the pool is empty. The caller must return them to the pool when
+	 * done.
+	 *
+	 * @return The ciphers and buffers.
+	 */
+	private TokenCrypto getTokenCrypto() {
+
+		final TokenCrypto crypto = this.cryptoPool.poll();
+
+		return (crypto != null ? crypto : new TokenCrypto(this.appSecretKey));
+	}
+
+	/**
+	 * Log invalid token debug message.
+	 *
+	 * @param debug {@code true} if debug logging is enabled.
+	 *
+	 * @return {@code null}.
+	 */
+	private Actor invalidToken(final boolean debug) {
+
+		if (debug)
+			this.log.debug("invalid token");
+
+		return null;
+	}
+
+	/**
+	 * Compare bytes in the specified array with the bytes at the current
+	 * position in the specified buffer without changing the buffer position.
+	 * The comparison time does not depend on where the bytes differ.
+	 *
+	 * @param bytes The bytes array.
+	 * @param buf The buffer.
+	 * @param len Number of bytes in the buffer to compare.
+	 *
+	 * @return {@code true} if equal.
+	 */
+	private static boolean equal(final byte[] bytes, final ByteBuffer buf,
+			final int len) {
+
+		if (bytes.length != len)
+			return false;
+
+		final int off = buf.arrayOffset() + buf.position();
+
+		return MessageDigest.isEqual(bytes,
+				Arrays.copyOfRange(buf.array(), off, off + len));
+	}
+
+	/**
+	 * Read big-endian 64-bit integer from a buffer.
+	 *
+	 * @param bytes The buffer.
+	 * @param off Offset of the first byte.
+	 *
+	 * @return The integer.
+	 */
+	private static long getLong(final byte[] bytes, final int off) {
+
+		long v = 0;
+		for (int i = off; i < off + 8; i++)
+			v = (v << 8) | (bytes[i] & 0xFF);
+
+		return v;
+	}
+
+	/**
+	 * Read big-endian signed 16-bit integer from a buffer.
+	 *
+	 * @param bytes The buffer.
+	 * @param off Offset of the first byte.
+	 *
+	 * @return The integer.
+	 */
+	private static int getShort(final byte[] bytes, final int off) {
+
+		return (short) ((bytes[off] << 8) | (bytes[off + 1] & 0xFF));
+	}
+
+	/**
+	 * Compare truncated HMAC with the HMAC included in a token in constant
+	 * time.
+	 *
+	 * @param hmac Buffer with the calculated HMAC at the beginning.
+	 * @param token Buffer with the token.
+	 * @param off Offset of the HMAC in the token buffer.
+	 *
+	 * @return {@code true} if equal.
+	 */
+	private static boolean macEqual(final byte[] hmac, final byte[] token,
+			final int off) {
+
+		int diff = 0;
+		for (int i = 0; i < HMAC_LENGTH; i++)
+			diff |= hmac[i] ^ token[off + i];
+
+		return (diff == 0);
+	}
+
+	/**
+	 * Tell if the specified character is a whitespace character.
+	 *
+	 * @param c The character.
+	 *
+	 * @return {@code true} if whitespace.
+	 */
+	private static boolean isWhitespace(final char c) {
+
+		return ((c == ' ') || (c == '\t') || (c == '\n') || (c == '\r')
+				|| (c == '\f') || (c == 0x0B));
+	}
+
 	/**
 	 * Purge actor from the cache of the actor resolver.
 	 *
@@ -381,7 +1037,20 @@ class AuthTokenHandler {
 	 */
 	void purgeCachedActor(final Actor actor) {
 
-		this.authResolver.purgeActor(actor.getActorId(), actor.getOpaque());
+		this.purgeCachedActor(actor.getActorId(), actor.getOpaque());
+	}
+
+	/**
+	 * Purge actor from the cache of the actor resolver.
+	 *
+	 * @param actorId Actor id.
+	 * @param opaque Actor opaque value, or {@code null} if not used.
+	 */
+	void purgeCachedActor(final String actorId, final String opaque) {
+
+		this.authResolver.purgeActor(actorId, opaque);
+		if (this.tokenCache != null)
+			this.tokenCache.purgeActor(actorId, opaque);
 	}
 
 	/**
@@ -416,6 +1085,10 @@ class AuthTokenHandler {
 	 */
 	String createAuthToken(final Actor actor) {
 
+		// check if signed token format is used
+		if (this.hmacKeys != null)
+			return this.createSignedAuthToken(actor);
+
 		final boolean debug = this.log.isDebugEnabled();
 
 		// assemble first part of the token
@@ -432,64 +1105,112 @@ class AuthTokenHandler {
 			clearBuf.put(opaqueBytes);
 		clearBuf.flip();
 
-		// encrypt first part of the token
-		ByteBuffer cipherBuf;
+		// get pooled ciphers
+		final TokenCrypto crypto = this.getTokenCrypto();
 		try {
-			final Cipher cipher =
-				Cipher.getInstance(this.appSecretKey.getAlgorithm());
-			cipher.init(Cipher.ENCRYPT_MODE, this.appSecretKey);
-			cipherBuf = ByteBuffer.allocate(
-					cipher.getOutputSize(clearBuf.remaining()));
-			cipher.doFinal(clearBuf, cipherBuf);
-			cipherBuf.flip();
-		} catch (final GeneralSecurityException e) {
-			throw new RuntimeException("Encryption error.", e);
+
+			// encrypt and encode first part of the token
+			final String tokenP0 =
+				encrypt(crypto, this.appSecretKey, clearBuf);
+
+			// assemble second part of the token
+			final byte[] credentials = actor.getCredentials();
+			clearBuf = ByteBuffer.allocate(
+					8 + 2 + opaqueBytes.length + credentials.length);
+			final long now = System.currentTimeMillis();
+			if (debug)
+				this.log.debug("issuing token timestamp " + now);
+			clearBuf.putLong(now);
+			clearBuf.putShort((short) opaqueBytes.length);
+			if (opaqueBytes.length > 0)
+				clearBuf.put(opaqueBytes);
+			clearBuf.put(credentials);
+			clearBuf.flip();
+
+			// encrypt and encode second part of the token
+			SecretKey secretKey = actor.getSecretKey();
+			if (secretKey == null)
+				secretKey = this.appSecretKey;
+			final String tokenP1 = encrypt(crypto, secretKey, clearBuf);
+
+			// return the combined token value
+			return (tokenP0 + "." + tokenP1);
+
+		} finally {
+			this.cryptoPool.offer(crypto);
 		}
+	}
 
-		// encode first part of the token as Base64
-		CharBuffer base64Buf = CharBuffer.allocate(
-				(cipherBuf.remaining() * 8) / 6 + 3);
-		Base64.encode(cipherBuf, base64Buf);
-		base64Buf.flip();
-		final String tokenP0 = base64Buf.toString();
+	/**
+	 * Create signed authentication token for the specified actor.
+	 *
+	 * @param actor The actor.
+	 *
+	 * @return The token.
+	 */
+	private String createSignedAuthToken(final Actor actor) {
 
-		// assemble second part of the token
-		final byte[] credentials = actor.getCredentials();
-		clearBuf = ByteBuffer.allocate(
-				8 + 2 + opaqueBytes.length + credentials.length);
+		// assemble the payload
+		final byte[] actorIdBytes = actor.getActorId().getBytes(UTF8);
+		final String opaque = actor.getOpaque();
+		final byte[] opaqueBytes;
+		opaqueBytes = (opaque != null ? opaque.getBytes(UTF8) : new byte[0]);
+		final int payloadLen = MIN_SIGNED_PAYLOAD_LENGTH + actorIdBytes.length
+				+ opaqueBytes.length;
+		final ByteBuffer buf =
+			ByteBuffer.allocate(payloadLen + 2 * HMAC_LENGTH);
 		final long now = System.currentTimeMillis();
-		if (debug)
-			this.log.debug("issuing token timestamp " + now);
-		clearBuf.putLong(now);
-		clearBuf.putShort((short) opaqueBytes.length);
-		if (opaqueBytes.length > 0)
-			clearBuf.put(opaqueBytes);
-		clearBuf.put(credentials);
-		clearBuf.flip();
+		if (this.log.isDebugEnabled())
+			this.log.debug("issuing signed token timestamp " + now);
+		buf.put((byte) this.hmacSigningKeyId);
+		buf.putLong(now);
+		buf.putShort((short) actorIdBytes.length);
+		buf.put(actorIdBytes);
+		buf.putShort((short) opaqueBytes.length);
+		buf.put(opaqueBytes);
+
+		// sign the payload
+		final TokenCrypto crypto = this.getTokenCrypto();
+		try {
+			buf.put(this.calculatePayloadHMAC(crypto, this.hmacSigningKeyId,
+					buf.array(), payloadLen), 0, HMAC_LENGTH);
+			buf.put(this.calculateCredentialsHMAC(crypto,
+					this.hmacSigningKeyId, buf.array(), payloadLen, actor),
+					0, HMAC_LENGTH);
+		} finally {
+			this.cryptoPool.offer(crypto);
+		}
 
-		// encrypt second part of the token
-		SecretKey secretKey = actor.getSecretKey();
-		if (secretKey == null)
-			secretKey = this.appSecretKey;
+		// encode the token as Base64
+		buf.flip();
+
+		return Base64.encode(buf);
+	}
+
+	/**
+	 * Encrypt part of the authentication token and encode it as Base64.
+	 *
+	 * @param crypto Ciphers and buffers to use.
+	 * @param key Encryption key.
+	 * @param clearBuf Buffer with the bytes to encrypt.
+	 *
+	 * @return Base64-encoded encrypted token part.
+	 */
+	private static String encrypt(final TokenCrypto crypto,
+			final SecretKey key, final ByteBuffer clearBuf) {
+
+		final Cipher cipher = crypto.getCipher(Cipher.ENCRYPT_MODE, key);
+		final ByteBuffer cipherBuf = ByteBuffer.wrap(crypto.getCipherBytes(
+				cipher.getOutputSize(clearBuf.remaining())));
 		try {
-			final Cipher cipher = Cipher.getInstance(secretKey.getAlgorithm());
-			cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-			cipherBuf = ByteBuffer.allocate(
-					cipher.getOutputSize(clearBuf.remaining()));
 			cipher.doFinal(clearBuf, cipherBuf);
 			cipherBuf.flip();
 		} catch (final GeneralSecurityException e) {
+			crypto.reset();
 			throw new RuntimeException("Encryption error.", e);
 		}
 
-		// encode second part of the token as Base64
-		base64Buf = CharBuffer.allocate((cipherBuf.remaining() * 8) / 6 + 3);
-		Base64.encode(cipherBuf, base64Buf);
-		base64Buf.flip();
-		final String tokenP1 = base64Buf.toString();
-
-		// return the combined token value
-		return (tokenP0 + "." + tokenP1);
+		return Base64.encode(cipherBuf);
 	}
 
 	/**
@@ -1,11 +1,17 @@
 package org.bsworks.x2.core;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.servlet.ServletContext;
 
@@ -15,10 +21,20 @@ import org.apache.commons.logging.LogFactory;
 import org.bsworks.x2.Actor;
 import org.bsworks.x2.InitializationException;
 import org.bsworks.x2.services.auth.ActorAuthenticationService;
+import org.bsworks.x2.services.auth.BatchActorAuthenticationService;
 
 
 /**
- * Actor resolver with internal caching.
+ * Actor resolver with internal caching. The cache is lock-free. Actors are
+ * loaded once per key by the first requesting thread while other threads
+ * requesting the same key wait for it, including actors that are not admitted
+ * to the full cache, whose in-progress loads are tracked separately. When the cache is full, admission of a
+ * new actor is decided by comparing its estimated access frequency with that
+ * of an eviction candidate (a TinyLFU-like policy), so that a burst of one-time
+ * lookups does not flush frequently used actors out of the cache. If the actor
+ * authentication service supports batch lookups, asynchronous refreshes of the
+ * cached actors requested within a short period of time are performed
+ * together in batches.
  *
  * @author Lev Himmelfarb
  */
@@ -57,7 +73,7 @@ class CachingAuthResolver {
 		/**
 		 * Tells if refresh has been requested.
 		 */
-		private AtomicBoolean refreshing = new AtomicBoolean(false);
+		private final AtomicBoolean refreshing = new AtomicBoolean(false);
 
 
 		/**
@@ -138,6 +154,210 @@ class CachingAuthResolver {
 		}
 	}
 
+	/**
+	 * Pending cached actor refresh request.
+	 */
+	private static final class RefreshRequest {
+
+		/**
+		 * Cache key.
+		 */
+		final String key;
+
+		/**
+		 * Actor id.
+		 */
+		final String actorId;
+
+		/**
+		 * Actor opaque value, or {@code null} if not used.
+		 */
+		final String opaque;
+
+		/**
+		 * The cache element to refresh.
+		 */
+		final CacheElement cacheEl;
+
+
+		/**
+		 * Create new request.
+		 *
+		 * @param key Cache key.
+		 * @param actorId Actor id.
+		 * @param opaque Actor opaque value, or {@code null} if not used.
+		 * @param cacheEl The cache element to refresh.
+		 */
+		RefreshRequest(final String key, final String actorId,
+				final String opaque, final CacheElement cacheEl) {
+
+			this.key = key;
+			this.actorId = actorId;
+			this.opaque = opaque;
+			this.cacheEl = cacheEl;
+		}
+	}
+
+	/**
+	 * Count-Min sketch with 4-bit counters used to estimate access frequencies
+	 * of the cache keys. The counters are periodically halved, so that the
+	 * estimates reflect recent history. The counters are updated atomically
+	 * with compare-and-set, so that concurrent increments never overflow a
+	 * counter into its neighbour, and increments of saturated counters do not
+	 * write to the table at all. The sketch is thread-safe and lock-free.
+	 */
+	private static final class FrequencySketch {
+
+		/**
+		 * Hash function seeds.
+		 */
+		private static final int[] SEEDS = {
+			0x97CB3127, 0x0B4D6C3B, 0x3C6EF372, 0x5D588B65
+		};
+
+		/**
+		 * Mask used to halve all 16 counters in a table element at once.
+		 */
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		/**
+		 * Counters table, 16 counters in each element.
+		 */
+		private final AtomicLongArray table;
+
+		/**
+		 * Mask for table element index.
+		 */
+		private final int tableMask;
+
+		/**
+		 * Number of increments after which the counters are halved.
+		 */
+		private final int sampleSize;
+
+		/**
+		 * Number of increments since the last halving.
+		 */
+		private final AtomicInteger additions = new AtomicInteger();
+
+
+		/**
+		 * Create new sketch.
+		 *
+		 * @param maxSize Maximum number of cache elements.
+		 */
+		FrequencySketch(final int maxSize) {
+
+			final int tableSize =
+				Integer.highestOneBit(Math.max(maxSize, 8) - 1) << 1;
+			this.table = new AtomicLongArray(tableSize);
+			this.tableMask = tableSize - 1;
+			this.sampleSize = 10 * Math.max(maxSize, 8);
+		}
+
+
+		/**
+		 * Record an access to the specified key.
+		 *
+		 * @param key The key.
+		 */
+		void increment(final String key) {
+
+			final int hash = key.hashCode();
+			boolean added = false;
+			for (int i = 0; i < SEEDS.length; i++) {
+				final int h = rehash(hash, i);
+				if (this.incrementAt((h >>> 4) & this.tableMask,
+						(h & 0xF) << 2))
+					added = true;
+			}
+
+			// only the thread that reaches the sample size halves the counters
+			if (added
+					&& (this.additions.incrementAndGet() == this.sampleSize)) {
+				final AtomicLongArray table = this.table;
+				for (int i = 0; i < table.length(); i++) {
+					long v;
+					do {
+						v = table.get(i);
+					} while (!table.compareAndSet(i, v,
+							(v >>> 1) & RESET_MASK));
+				}
+				this.additions.set(0);
+			}
+		}
+
+		/**
+		 * Increment counter unless it is saturated.
+		 *
+		 * @param index Table element index.
+		 * @param offset Counter bit offset in the table element.
+		 *
+		 * @return {@code true} if incremented, {@code false} if saturated.
+		 */
+		private boolean incrementAt(final int index, final int offset) {
+
+			final long mask = 0xFL << offset;
+			while (true) {
+				final long v = this.table.get(index);
+				if ((v & mask) == mask)
+					return false;
+				if (this.table.compareAndSet(index, v, v + (1L << offset)))
+					return true;
+			}
+		}
+
+		/**
+		 * Get estimated access frequency of the specified key.
+		 *
+		 * @param key The key.
+		 *
+		 * @return Estimated frequency from 0 to 15.
+		 */
+		int frequency(final String key) {
+
+			final int hash = key.hashCode();
+			int freq = 0xF;
+			for (int i = 0; i < SEEDS.length; i++) {
+				final int h = rehash(hash, i);
+				final int count = (int) ((this.table.get(
+						(h >>> 4) & this.tableMask) >>> ((h & 0xF) << 2))
+						& 0xF);
+				if (count < freq)
+					freq = count;
+			}
+
+			return freq;
+		}
+
+		/**
+		 * Get hash for the specified hash function.
+		 *
+		 * @param hash Key hash code.
+		 * @param i Hash function index.
+		 *
+		 * @return The hash.
+		 */
+		private static int rehash(final int hash, final int i) {
+
+			int h = (hash ^ SEEDS[i]) * 0x9E3779B9;
+			h ^= h >>> 16;
+
+			return h;
+		}
+	}
+
+
+	/**
+	 * Number of cache elements examined for an eviction candidate.
+	 */
+	private static final int EVICTION_SAMPLE_SIZE = 8;
+
+	/**
+	 * Maximum number of actors refreshed with a single batch lookup.
+	 */
+	private static final int MAX_REFRESH_BATCH_SIZE = 100;
+
 
 	/**
 	 * The log.
@@ -165,14 +385,57 @@ class CachingAuthResolver {
 	private final long refreshAfter;
 
 	/**
-	 * Lock used to access the cache.
+	 * Number of milliseconds to collect refresh requests before performing a
+	 * batch refresh.
 	 */
-	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final long refreshBatchDelay;
 
 	/**
 	 * Cached actors by cache keys.
 	 */
-	final LinkedHashMap<String, CacheElement> cache = new LinkedHashMap<>();
+	final ConcurrentMap<String, CacheElement> cache;
+
+	/**
+	 * Approximate number of cached elements.
+	 */
+	private final AtomicInteger cacheSize = new AtomicInteger();
+
+	/**
+	 * Elements of actors not admitted to the cache that are being loaded, by
+	 * cache keys. Lets concurrent requests for the same actor share one load
+	 * when the actor is not admitted.
+	 */
+	private final ConcurrentMap<String, CacheElement> loading =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * Access frequency estimates of the cache keys.
+	 */
+	private final FrequencySketch sketch;
+
+	/**
+	 * Tells if a thread is looking for elements to evict.
+	 */
+	private final AtomicBoolean evicting = new AtomicBoolean();
+
+	/**
+	 * Cursor that continuously sweeps the cache in search for the elements to
+	 * evict. Accessed only by the thread that has set the {@link #evicting}
+	 * flag.
+	 */
+	private Iterator<Map.Entry<String, CacheElement>> evictionCursor;
+
+	/**
+	 * Pending batch refresh requests.
+	 */
+	private final Queue<RefreshRequest> refreshQueue =
+		new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Timestamp when the batch refresh task was submitted, or zero if there is
+	 * no pending batch refresh task.
+	 */
+	private final AtomicLong refreshScheduledAt = new AtomicLong();
 
 
 	/**
@@ -205,6 +468,15 @@ class CachingAuthResolver {
 				&& (this.refreshAfter >= this.discardAfter)))
 			throw new InitializationException(
 					"Invalid authentication cache refresh timeout.");
+		this.refreshBatchDelay = Long.parseLong(sc.getInitParameter(
+				"x2.auth.cache.refreshBatchDelay"));
+		if (this.refreshBatchDelay < 0)
+			throw new InitializationException(
+					"Invalid authentication cache refresh batch delay.");
+
+		this.cache = new ConcurrentHashMap<>(
+				this.maxCacheSize + this.maxCacheSize / 3 + 1);
+		this.sketch = new FrequencySketch(this.maxCacheSize);
 	}
 
 
@@ -224,62 +496,67 @@ class CachingAuthResolver {
 		if (this.discardAfter == 0)
 			return this.getAuthService().getActor(actorId, opaque);
 
-		// get the key
+		// get the key and record the access
 		final String key = createKey(actorId, opaque);
+		this.sketch.increment(key);
 
 		// look up cached element
-		final Lock readLock = this.lock.readLock();
-		final Lock writeLock = this.lock.writeLock();
-		readLock.lock();
-		CacheElement cacheEl = this.cache.get(key);
-		if (cacheEl == null) {
-			readLock.unlock();
-			if (debug)
-				this.log.debug("no cached element, will perform synchronous"
-						+ " lookup");
-			writeLock.lock();
-			try {
-				cacheEl = this.cache.get(key);
-				if (cacheEl == null) {
-					this.purgeExpired();
-					cacheEl = new CacheElement(actorId, opaque);
-					this.cache.put(key, cacheEl);
-				} else {
+		final long now = System.currentTimeMillis();
+		CacheElement cacheEl;
+		while (true) {
+			cacheEl = this.cache.get(key);
+
+			// no cached element, try to add new one
+			if (cacheEl == null) {
+				if (debug)
+					this.log.debug("no cached element, will perform synchronous"
+							+ " lookup");
+				final CacheElement newCacheEl =
+					new CacheElement(actorId, opaque);
+				if ((this.cacheSize.get() >= this.maxCacheSize)
+						&& !this.makeRoom(key, now)) {
 					if (debug)
-						this.log.debug("another thread added cached element");
+						this.log.debug("actor not admitted to the cache");
+					return this.loadNotAdmitted(key, newCacheEl);
+				}
+				cacheEl = this.cache.putIfAbsent(key, newCacheEl);
+				if (cacheEl == null) {
+					this.cacheSize.incrementAndGet();
+					cacheEl = newCacheEl;
+					break;
 				}
-				readLock.lock();
-			} finally {
-				writeLock.unlock();
+				if (debug)
+					this.log.debug("another thread added cached element");
 			}
-		} else {
-			final long age = cacheEl.getAge(System.currentTimeMillis());
+
+			// cached element expired, try to replace it
+			final long age = cacheEl.getAge(now);
 			if (age >= this.discardAfter) {
-				readLock.unlock();
 				if (debug)
 					this.log.debug("cached element expired, will perform"
 							+ " synchronous lookup");
-				writeLock.lock();
-				try {
-					cacheEl = this.cache.get(key);
-					if ((cacheEl == null)
-							|| (cacheEl.getAge(System.currentTimeMillis())
-									>= this.discardAfter)) {
-						this.purgeExpired();
-						cacheEl = new CacheElement(actorId, opaque);
-						this.cache.put(key, cacheEl);
-					} else {
-						if (debug)
-							this.log.debug("another thread added cached"
-									+ " element");
-					}
-					readLock.lock();
-				} finally {
-					writeLock.unlock();
+				final CacheElement newCacheEl =
+					new CacheElement(actorId, opaque);
+				if (this.cache.replace(key, cacheEl, newCacheEl)) {
+					cacheEl = newCacheEl;
+					break;
 				}
-			} else if ((age >= this.refreshAfter) && cacheEl.startRefresh()) {
+				if (debug)
+					this.log.debug("another thread replaced cached element");
+				continue;
+			}
+
+			// request asynchronous refresh if needed
+			if ((age >= this.refreshAfter) && cacheEl.startRefresh()) {
 				if (debug)
 					this.log.debug("will refresh cached element");
+				if (this.getAuthService()
+						instanceof BatchActorAuthenticationService) {
+					this.requestBatchRefresh(new RefreshRequest(key, actorId,
+							opaque, cacheEl), now);
+					break;
+				}
+				final CacheElement oldCacheEl = cacheEl;
 				this.runtimeCtx.submitSideTask(new Runnable() {
 					@Override
 					public void run() {
@@ -289,19 +566,43 @@ class CachingAuthResolver {
 						final CacheElement newCacheEl = new CacheElement(
 								CachingAuthResolver.this.getAuthService()
 									.getActor(actorId, opaque));
-						writeLock.lock();
-						CachingAuthResolver.this.cache.put(key, newCacheEl);
-						writeLock.unlock();
+						CachingAuthResolver.this.cache.replace(key,
+								oldCacheEl, newCacheEl);
 					}
 				});
 			}
+
+			break;
 		}
 
 		// get actor from the cache element
+		return cacheEl.getActor();
+	}
+
+	/**
+	 * Load actor not admitted to the cache. If the same actor is already being
+	 * loaded by another thread, wait for it and share its result.
+	 *
+	 * @param key Cache key.
+	 * @param newCacheEl New uninitialized element for the actor.
+	 *
+	 * @return The actor.
+	 */
+	private Actor loadNotAdmitted(final String key,
+			final CacheElement newCacheEl) {
+
+		final CacheElement loadingEl =
+			this.loading.putIfAbsent(key, newCacheEl);
+		if (loadingEl != null) {
+			if (this.log.isDebugEnabled())
+				this.log.debug("another thread is loading not admitted actor");
+			return loadingEl.getActor();
+		}
+
 		try {
-			return cacheEl.getActor();
+			return newCacheEl.getActor();
 		} finally {
-			readLock.unlock();
+			this.loading.remove(key, newCacheEl);
 		}
 	}
 
@@ -320,39 +621,171 @@ class CachingAuthResolver {
 		// get the key
 		final String key = createKey(actorId, opaque);
 
-		// get the write lock and remove the cache element
-		final Lock writeLock = this.lock.writeLock();
-		writeLock.lock();
-		try {
-			this.cache.remove(key);
-		} finally {
-			writeLock.unlock();
+		// remove the cache element
+		if (this.cache.remove(key) != null)
+			this.cacheSize.decrementAndGet();
+		this.loading.remove(key);
+	}
+
+	/**
+	 * Queue cached actor refresh request and make sure a batch refresh task is
+	 * scheduled.
+	 *
+	 * @param req The request.
+	 * @param now Current timestamp.
+	 */
+	private void requestBatchRefresh(final RefreshRequest req, final long now) {
+
+		this.refreshQueue.offer(req);
+
+		// schedule the task unless already scheduled (and not lost)
+		final long scheduledAt = this.refreshScheduledAt.get();
+		if (((scheduledAt == 0) || (now - scheduledAt
+					> this.refreshBatchDelay + this.discardAfter))
+				&& this.refreshScheduledAt.compareAndSet(scheduledAt, now)) {
+			if (this.log.isDebugEnabled())
+				this.log.debug("scheduling batch refresh");
+			this.runtimeCtx.submitDelayedSideTask(new Runnable() {
+				@Override
+				public void run() {
+					CachingAuthResolver.this.refreshBatches();
+				}
+			}, this.refreshBatchDelay);
 		}
 	}
 
 	/**
-	 * Purge expired cache elements and make room for one new element.
+	 * Process all queued refresh requests in batches. Called by a side task
+	 * submitted after the batch refresh delay, during which the requests are
+	 * collected.
 	 */
-	private void purgeExpired() {
+	void refreshBatches() {
+
+		this.refreshScheduledAt.set(0);
+
+		final List<RefreshRequest> batch =
+			new ArrayList<>(MAX_REFRESH_BATCH_SIZE);
+		RefreshRequest req;
+		while ((req = this.refreshQueue.poll()) != null) {
+			batch.add(req);
+			if (batch.size() == MAX_REFRESH_BATCH_SIZE) {
+				this.refreshBatch(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty())
+			this.refreshBatch(batch);
+	}
 
-		final int origSize = this.cache.size();
+	/**
+	 * Refresh cached actors with a single batch lookup.
+	 *
+	 * @param batch The refresh requests.
+	 */
+	private void refreshBatch(final List<RefreshRequest> batch) {
 
-		final long now = System.currentTimeMillis();
-		final Iterator<CacheElement> i = this.cache.values().iterator();
-		while (i.hasNext()) {
-			if (i.next().getAge(now) >= this.discardAfter)
-				i.remove();
-			else
-				break;
+		if (this.log.isDebugEnabled())
+			this.log.debug("refreshing batch of " + batch.size()
+					+ " cached elements");
+
+		final int batchSize = batch.size();
+		final List<String> actorIds = new ArrayList<>(batchSize);
+		final List<String> opaques = new ArrayList<>(batchSize);
+		for (final RefreshRequest req : batch) {
+			actorIds.add(req.actorId);
+			opaques.add(req.opaque);
 		}
 
-		final int numToRemove = this.cache.size() - this.maxCacheSize;
-		for (int c = 0; c < numToRemove; c++)
-			i.remove();
+		final List<? extends Actor> actors;
+		try {
+			actors = ((BatchActorAuthenticationService) this.getAuthService())
+					.getActors(actorIds, opaques);
+		} catch (final RuntimeException e) {
+			this.log.error("error refreshing cached actors", e);
+			return;
+		}
 
-		if (this.log.isDebugEnabled())
-			this.log.debug("purged " + (origSize - this.cache.size())
-					+ " expired elements from the cache");
+		for (int i = 0; i < batchSize; i++) {
+			final RefreshRequest req = batch.get(i);
+			this.cache.replace(req.key, req.cacheEl,
+					new CacheElement(actors.get(i)));
+		}
+	}
+
+	/**
+	 * Make room in the full cache for a new element. Advances the eviction
+	 * cursor removing any expired elements it encounters. If that does not
+	 * free up space, the least frequently used element among the examined ones
+	 * is evicted, but only if the new element is used more frequently.
+	 * Otherwise, the new element is not admitted. The new element is not
+	 * admitted either if another thread is making room at the same time, so
+	 * that the cache does not grow beyond its maximum size. A not admitted
+	 * actor is still loaded only once for all concurrent requests for it, see
+	 * {@link #loadNotAdmitted(String, CacheElement)}.
+	 *
+	 * @param candidateKey Key of the new element.
+	 * @param now Current timestamp.
+	 *
+	 * @return {@code true} if the new element can be added to the cache.
+	 */
+	private boolean makeRoom(final String candidateKey, final long now) {
+
+		// let only one thread look for elements to evict, do not admit new
+		// elements while another thread is making room
+		if (!this.evicting.compareAndSet(false, true))
+			return false;
+		try {
+
+			// examine next sample of elements
+			String victimKey = null;
+			CacheElement victim = null;
+			int victimFreq = Integer.MAX_VALUE;
+			int numExpired = 0;
+			for (int c = 0; c < EVICTION_SAMPLE_SIZE; c++) {
+				if ((this.evictionCursor == null)
+						|| !this.evictionCursor.hasNext()) {
+					this.evictionCursor = this.cache.entrySet().iterator();
+					if (!this.evictionCursor.hasNext())
+						break;
+				}
+				final Map.Entry<String, CacheElement> entry =
+					this.evictionCursor.next();
+				final CacheElement cacheEl = entry.getValue();
+				if (cacheEl.getAge(now) >= this.discardAfter) {
+					if (this.cache.remove(entry.getKey(), cacheEl)) {
+						this.cacheSize.decrementAndGet();
+						numExpired++;
+					}
+					continue;
+				}
+				final int freq = this.sketch.frequency(entry.getKey());
+				if (freq < victimFreq) {
+					victimKey = entry.getKey();
+					victim = cacheEl;
+					victimFreq = freq;
+				}
+			}
+			if (this.log.isDebugEnabled())
+				this.log.debug("purged " + numExpired
+						+ " expired elements from the cache");
+
+			// check if enough room now
+			if (this.cacheSize.get() < this.maxCacheSize)
+				return true;
+			if (victim == null)
+				return false;
+
+			// admit the new element only if it is used more frequently
+			if (this.sketch.frequency(candidateKey) <= victimFreq)
+				return false;
+			if (this.cache.remove(victimKey, victim))
+				this.cacheSize.decrementAndGet();
+
+			return true;
+
+		} finally {
+			this.evicting.set(false);
+		}
 	}
 
 	/**
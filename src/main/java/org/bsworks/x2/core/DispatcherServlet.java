@@ -5,10 +5,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.servlet.AsyncContext;
+import javax.servlet.ServletInputStream;
 import javax.servlet.UnavailableException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -144,28 +144,55 @@ public class DispatcherServlet
 						HttpServletResponse.SC_METHOD_NOT_ALLOWED, null,
 						"The API endpoint does not allow the request method.");
 
-			// submit the endpoint request for asynchronous execution
+			// get executor service for the call
+			final ThreadPoolExecutor executorService = (handler.isLongJob() ?
+					this.app.getRuntimeContext().getJobExecutorService() :
+					this.app.getRuntimeContext().getCallExecutorService(
+							mapping.getPoolName()));
+
+			// shed low priority call if the server is loaded
+			if (this.app.isShedLowPriorityCall(mapping, executorService)) {
+				if (debug)
+					this.log.debug("shedding low priority call");
+				this.app.getCallResponder().sendOverloadResponse(httpRequest,
+						httpResponse);
+				return;
+			}
+
+			// submit the endpoint request for asynchronous execution, time
+			// spent waiting in the executor service queue counts against the
+			// call timeout
 			if (debug)
 				this.log.debug("starting asynchronous request processing");
 			final AsyncContext asyncCtx = httpRequest.startAsync();
-			final ExecutorService executorService;
-			if (handler.isLongJob()) {
-				executorService = this.app.getRuntimeContext()
-						.getJobExecutorService();
-				asyncCtx.setTimeout(this.app.getLongJobCallTimeout());
-			} else {
-				executorService = this.app.getRuntimeContext()
-						.getCallExecutorService();
-				asyncCtx.setTimeout(this.app.getRegularCallTimeout());
-			}
+			asyncCtx.setTimeout(handler.isLongJob() ?
+					this.app.getLongJobCallTimeout() :
+					this.app.getRegularCallTimeout());
 			EndpointCallExecutor<?> endpointCallExecutor =
 					new EndpointCallExecutor<>(asyncCtx,
 							this.app.getRuntimeContext(),
 							this.app.getCallResponder(), handler, requestMethod,
-							isHead, requestURI, uriParamsRO);
-			final Future<?> endpointCallTask =
-				executorService.submit(endpointCallExecutor);
-			endpointCallExecutor.setEndpointCallTask(endpointCallTask);
+							isHead, mapping.getURIPattern(), requestURI,
+							uriParamsRO);
+
+			// in non-blocking mode read request entity before submitting
+			final String requestCType = httpRequest.getContentType();
+			if (this.app.isNonBlockingIO()
+					&& (handler.getRequestEntityClass() != null)
+					&& (requestCType != null)
+					&& !requestCType.startsWith("multipart/")
+					&& (httpRequest.getContentLengthLong() <= this.app
+							.getRuntimeContext().getMaxRequestSize())) {
+				if (debug)
+					this.log.debug("reading request entity");
+				final ServletInputStream in = httpRequest.getInputStream();
+				in.setReadListener(new RequestEntityReader(
+						endpointCallExecutor, executorService, in,
+						this.app.getRuntimeContext().getRequestBufferPool(),
+						httpRequest.getContentLengthLong()));
+			} else {
+				endpointCallExecutor.submit(executorService);
+			}
 
 		} catch (final EndpointCallErrorException e) {
 			this.app.getCallResponder().sendErrorResponse(httpRequest,
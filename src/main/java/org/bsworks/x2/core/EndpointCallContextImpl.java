@@ -19,8 +19,10 @@ import org.bsworks.x2.resource.FilterSpecBuilder;
 import org.bsworks.x2.resource.OrderSpecBuilder;
 import org.bsworks.x2.resource.PropertiesFetchSpecBuilder;
 import org.bsworks.x2.resource.Ref;
+import org.bsworks.x2.services.invalidation.ActorCacheInvalidationService;
 import org.bsworks.x2.services.persistence.PersistenceTransaction;
 import org.bsworks.x2.services.persistence.PersistenceTransactionHandler;
+import org.bsworks.x2.services.persistence.PersistenceTransactionStatistics;
 
 
 /**
@@ -107,6 +109,22 @@ class EndpointCallContextImpl
 	 */
 	private final Collection<Runnable> tasksOnCommit = new ArrayList<>();
 
+	/**
+	 * Number of persistence statements executed in the ended transactions.
+	 */
+	private int executedStatementCount = 0;
+
+	/**
+	 * Number of persistent records fetched in the ended transactions.
+	 */
+	private long fetchedRecordCount = 0;
+
+	/**
+	 * Persistent resource collections registered as modified in the
+	 * persistence transaction.
+	 */
+	private final Set<Class<?>> modifiedPrsrcClasses = new HashSet<>();
+
 
 	/**
 	 * Create new context.
@@ -160,16 +178,49 @@ class EndpointCallContextImpl
 			try {
 				if (commit) {
 					tx.commitTransaction();
+					if (!this.modifiedPrsrcClasses.isEmpty())
+						this.runtimeCtx.getResponseEntityCache().invalidate(
+								this.modifiedPrsrcClasses);
 					for (final Runnable task : this.tasksOnCommit)
 						this.runtimeCtx.submitSideTask(task);
 				}
 			} finally {
 				this.tasksOnCommit.clear();
+				this.modifiedPrsrcClasses.clear();
+				if (tx instanceof PersistenceTransactionStatistics) {
+					final PersistenceTransactionStatistics txStats =
+						(PersistenceTransactionStatistics) tx;
+					this.executedStatementCount +=
+						txStats.getExecutedStatementCount();
+					this.fetchedRecordCount += txStats.getFetchedRecordCount();
+				}
 				tx.close();
 			}
 		}
 	}
 
+	/**
+	 * Get number of persistence statements executed in the call. Must be
+	 * called after the context is closed.
+	 *
+	 * @return Number of executed statements.
+	 */
+	int getExecutedStatementCount() {
+
+		return this.executedStatementCount;
+	}
+
+	/**
+	 * Get number of persistent records fetched in the call. Must be called
+	 * after the context is closed.
+	 *
+	 * @return Number of fetched records.
+	 */
+	long getFetchedRecordCount() {
+
+		return this.fetchedRecordCount;
+	}
+
 	/**
 	 * Apply HTTP response hooks if any.
 	 *
@@ -459,7 +510,20 @@ class EndpointCallContextImpl
 	@Override
 	public void purgeCachedActor(final Actor actor) {
 
+		// read-only transaction cannot be used to register the invalidation
+		if (this.readOnly) {
+			this.runtimeCtx.purgeCachedActor(actor);
+			return;
+		}
+
+		// purge locally and register invalidation in the call's transaction
 		this.runtimeCtx.getAuthTokenHandler().purgeCachedActor(actor);
+		final ActorCacheInvalidationService invalidationService =
+			this.runtimeCtx.getActorCacheInvalidationService();
+		if (invalidationService.getPollInterval() > 0)
+			invalidationService.registerInvalidation(
+					this.getPersistenceTransaction(), actor.getActorId(),
+					actor.getOpaque());
 	}
 
 	/* (non-Javadoc)
@@ -513,9 +577,7 @@ class EndpointCallContextImpl
 		for (final Class<?> prsrcClass : prsrcClasses)
 			prsrcClassesSet.add(prsrcClass);
 
-		this.runtimeCtx.getPersistentResourceVersioningService()
-			.registerCollectionsModification(this.getPersistenceTransaction(),
-					prsrcClassesSet);
+		this.registerPersistentResourceModification(prsrcClassesSet);
 	}
 
 	/* (non-Javadoc)
@@ -528,6 +590,8 @@ class EndpointCallContextImpl
 		this.runtimeCtx.getPersistentResourceVersioningService()
 			.registerCollectionsModification(this.getPersistenceTransaction(),
 					prsrcClasses);
+
+		this.modifiedPrsrcClasses.addAll(prsrcClasses);
 	}
 
 	/* (non-Javadoc)
@@ -9,7 +9,10 @@ import java.nio.charset.Charset;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.AsyncContext;
@@ -30,10 +33,13 @@ import org.bsworks.x2.HttpMethod;
 import org.bsworks.x2.RequestEntityPart;
 import org.bsworks.x2.RequestEntityValidationErrors;
 import org.bsworks.x2.resource.InvalidResourceDataException;
+import org.bsworks.x2.services.metrics.EndpointCallMetrics;
+import org.bsworks.x2.services.metrics.EndpointCallPhase;
 import org.bsworks.x2.services.monitor.ApplicationErrorContext;
 import org.bsworks.x2.services.monitor.ApplicationErrorContextProperty;
 import org.bsworks.x2.services.monitor.ApplicationErrorContextSection;
 import org.bsworks.x2.services.serialization.ResourceSerializationService;
+import org.bsworks.x2.services.serialization.SerializedResource;
 
 
 /**
@@ -81,6 +87,11 @@ class EndpointCallExecutor<E>
 	 */
 	private final boolean omitResponseEntity;
 
+	/**
+	 * URI pattern of the called endpoint.
+	 */
+	private final String uriPattern;
+
 	/**
 	 * Context-relative request URI.
 	 */
@@ -91,11 +102,38 @@ class EndpointCallExecutor<E>
 	 */
 	private final List<String> uriParams;
 
+	/**
+	 * Executor service, to which the call is submitted.
+	 */
+	private ExecutorService executorService = null;
+
 	/**
 	 * Endpoint call task within the assigned executor service.
 	 */
 	private Future<?> endpointCallTask = null;
 
+	/**
+	 * Request entity read in non-blocking I/O mode before the call was
+	 * submitted, or {@code null} if the entity is to be read by the executor.
+	 */
+	private byte[] preReadBuf = null;
+
+	/**
+	 * Number of bytes in the pre-read request entity buffer.
+	 */
+	private int preReadDataLen = 0;
+
+	/**
+	 * Tells if the pre-read request entity was too large.
+	 */
+	private boolean preReadTooLarge = false;
+
+	/**
+	 * Error that happened reading the pre-read request entity, or {@code null}
+	 * if none.
+	 */
+	private Throwable preReadError = null;
+
 	/**
 	 * Object used to regulate response sending between executor and container
 	 * threads.
@@ -107,6 +145,28 @@ class EndpointCallExecutor<E>
 	 */
 	private AtomicBoolean responseSent = new AtomicBoolean(false);
 
+	/**
+	 * Writer of the response entity in non-blocking I/O mode, or {@code null}
+	 * if the response entity is not being written asynchronously.
+	 */
+	private ResponseEntityWriter entityWriter = null;
+
+	/**
+	 * Tells if the response entity is being streamed to the client.
+	 */
+	private boolean streaming = false;
+
+	/**
+	 * Tells if the asynchronous request processing context has been completed
+	 * for a streamed response.
+	 */
+	private final AtomicBoolean streamCompleted = new AtomicBoolean(false);
+
+	/**
+	 * Call processing phases timer.
+	 */
+	private final EndpointCallTimer timer = new EndpointCallTimer();
+
 
 	/**
 	 * Create new executor for a call.
@@ -118,6 +178,7 @@ class EndpointCallExecutor<E>
 	 * @param requestMethod Call HTTP method.
 	 * @param omitResponseEntity If {@code true}, the response entity will be
 	 * forcefully omitted. Used, for example, for "HEAD" requests.
+	 * @param uriPattern URI pattern of the called endpoint.
 	 * @param requestURI Context-relative request URI.
 	 * @param uriParams Unmodifiable list of positional URI parameters.
 	 */
@@ -126,7 +187,8 @@ class EndpointCallExecutor<E>
 			final EndpointCallResponder callResponder,
 			final EndpointCallHandler<E> handler,
 			final HttpMethod requestMethod, final boolean omitResponseEntity,
-			final String requestURI, final List<String> uriParams) {
+			final String uriPattern, final String requestURI,
+			final List<String> uriParams) {
 
 		this.asyncCtx = asyncCtx;
 		this.runtimeCtx = runtimeCtx;
@@ -134,21 +196,104 @@ class EndpointCallExecutor<E>
 		this.handler = handler;
 		this.requestMethod = requestMethod;
 		this.omitResponseEntity = omitResponseEntity;
+		this.uriPattern = uriPattern;
 		this.requestURI = requestURI;
 		this.uriParams = uriParams;
 
 		this.asyncCtx.addListener(this);
+
+		this.timer.begin(EndpointCallPhase.QUEUE);
+	}
+
+	/**
+	 * Set request entity read in non-blocking I/O mode before the call is
+	 * submitted. Must be called before {@link #submit(ExecutorService)}.
+	 *
+	 * @param buf Buffer from the request entity buffer pool with the entity.
+	 * The executor returns the buffer to the pool when done.
+	 * @param dataLen Number of bytes in the buffer.
+	 * @param tooLarge {@code true} if the entity is too large and reading it
+	 * was aborted.
+	 * @param error Error that happened reading the entity, or {@code null} if
+	 * none.
+	 */
+	void setPreReadEntity(final byte[] buf, final int dataLen,
+			final boolean tooLarge, final Throwable error) {
+
+		this.preReadBuf = buf;
+		this.preReadDataLen = dataLen;
+		this.preReadTooLarge = tooLarge;
+		this.preReadError = error;
+
+		// time elapsed so far was spent reading the entity
+		this.timer.setCurrentPhase(EndpointCallPhase.READ);
+		this.timer.begin(EndpointCallPhase.QUEUE);
 	}
 
 	/**
-	 * Set endpoint call task within the assigned executor service.
+	 * Submit the call for execution. If the response has already been sent
+	 * (for example, the call timed out while the request entity was being
+	 * read), the call is not submitted. If the executor service queue is full
+	 * and the call is rejected, HTTP 503 (Service Unavailable) response is
+	 * sent.
 	 *
-	 * @param endpointCallTask The task returned by the executor service upon
-	 * submission.
+	 * @param executorService The executor service.
+	 */
+	void submit(final ExecutorService executorService) {
+
+		if (this.responseSent.get()) {
+			if (this.log.isDebugEnabled())
+				this.log.debug("response already sent, not submitting");
+			this.releasePreReadEntity();
+			return;
+		}
+
+		this.executorService = executorService;
+		try {
+			this.endpointCallTask = executorService.submit(this);
+		} catch (final RejectedExecutionException e) {
+			this.reject();
+		}
+	}
+
+	/**
+	 * Reject the call because the server is overloaded sending HTTP 503
+	 * (Service Unavailable) response. The call must not be submitted.
+	 */
+	private void reject() {
+
+		if (this.log.isDebugEnabled())
+			this.log.debug("server is overloaded, rejecting the call");
+
+		this.releasePreReadEntity();
+
+		synchronized (this.responseSendingSync) {
+			if (!this.responseSent.get()) {
+				try {
+					this.callResponder.sendOverloadResponse(
+							(HttpServletRequest) this.asyncCtx.getRequest(),
+							(HttpServletResponse) this.asyncCtx.getResponse());
+				} catch (final IOException e) {
+					this.log.warn("I/O error sending overload error response",
+							e);
+				} finally {
+					this.responseSent.set(true);
+					this.asyncCtx.complete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return request entity buffer read in non-blocking I/O mode to the pool,
+	 * if any. Used when the call is not going to be executed.
 	 */
-	void setEndpointCallTask(final Future<?> endpointCallTask) {
+	private void releasePreReadEntity() {
 
-		this.endpointCallTask = endpointCallTask;
+		if (this.preReadBuf != null) {
+			this.runtimeCtx.getRequestBufferPool().release(this.preReadBuf);
+			this.preReadBuf = null;
+		}
 	}
 
 
@@ -176,9 +321,14 @@ class EndpointCallExecutor<E>
 			if (!this.responseSent.get()) {
 				try {
 
-					// cancel the task
-					if (this.endpointCallTask != null)
+					// cancel the task and free its place in the queue
+					if (this.endpointCallTask != null) {
 						this.endpointCallTask.cancel(true);
+						if ((this.executorService instanceof ThreadPoolExecutor)
+								&& (this.endpointCallTask instanceof Runnable))
+							((ThreadPoolExecutor) this.executorService).remove(
+									(Runnable) this.endpointCallTask);
+					}
 
 					// send timeout error response
 					this.callResponder.sendErrorResponse(
@@ -195,6 +345,16 @@ class EndpointCallExecutor<E>
 					this.responseSent.set(true);
 					this.asyncCtx.complete();
 				}
+			} else if (this.entityWriter != null) {
+				if (debug)
+					this.log.debug("response entity is being written,"
+							+ " aborting");
+				this.entityWriter.abort();
+			} else if (this.streaming) {
+				if (debug)
+					this.log.debug("response entity is being streamed,"
+							+ " aborting");
+				this.completeStream();
 			} else {
 				if (debug)
 					this.log.debug("response already sent, doing nothing");
@@ -239,17 +399,21 @@ class EndpointCallExecutor<E>
 			(HttpServletRequest) this.asyncCtx.getRequest();
 
 		// request entity buffer
-		byte[] buf = null;
-		int dataLen = 0;
+		byte[] buf = this.preReadBuf;
+		int dataLen = this.preReadDataLen;
 
 		// execute the call
 		EndpointCallErrorException error = null;
 		EndpointCallContextImpl ctx = null;
 		EndpointCallResponse response = null;
 		ByteArrayOutputStream responseEntityBuf = null;
+		final boolean streamResponseEntity =
+			(this.callResponder.isStreamingResponses()
+					&& !this.omitResponseEntity);
 		try {
 
 			// check if aborted
+			this.timer.begin(EndpointCallPhase.AUTH);
 			this.checkAborted();
 
 			// get actor making the call
@@ -280,6 +444,7 @@ class EndpointCallExecutor<E>
 			final Class<E> requestEntityClass =
 				this.handler.getRequestEntityClass();
 			if (requestEntityClass != null) {
+				this.timer.begin(EndpointCallPhase.READ);
 
 				// determine request entity
 				RequestEntityPart httpRequestEntity = null;
@@ -320,22 +485,49 @@ class EndpointCallExecutor<E>
 							HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
 							null, "The request entity is too large.");
 
-				// read the content
-				buf = new byte[maxSize];
-				try (final InputStream in =
-						httpRequestEntity.getInputStream()) {
-					int bytesRead;
-					while ((bytesRead = in.read(buf, dataLen,
-							maxSize - dataLen)) != -1) {
-						dataLen += bytesRead;
+				// read the content unless already read in non-blocking mode
+				if (buf == null) {
+					final RequestBufferPool bufPool =
+						this.runtimeCtx.getRequestBufferPool();
+					buf = bufPool.acquire(
+							contentLength > 0 ? (int) contentLength : 0);
+					try (final InputStream in =
+							httpRequestEntity.getInputStream()) {
+						int bytesRead;
+						while (true) {
+							if (dataLen == buf.length) {
+								final int nextByte = in.read();
+								if (nextByte == -1)
+									break;
+								final byte[] newBuf =
+									bufPool.grow(buf, dataLen);
+								if (newBuf == null)
+									throw new EndpointCallErrorException(
+										HttpServletResponse
+											.SC_REQUEST_ENTITY_TOO_LARGE,
+										null,
+										"The request entity is too large.");
+								buf = newBuf;
+								buf[dataLen++] = (byte) nextByte;
+							}
+							bytesRead = in.read(buf, dataLen,
+									buf.length - dataLen);
+							if (bytesRead == -1)
+								break;
+							dataLen += bytesRead;
+						}
 					}
-				} catch (final IndexOutOfBoundsException e) {
+				} else if (this.preReadError != null) {
+					throw new IOException("Error reading request entity.",
+							this.preReadError);
+				} else if (this.preReadTooLarge) {
 					throw new EndpointCallErrorException(
 							HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
 							null, "The request entity is too large.");
 				}
 
 				// parse the content
+				this.timer.begin(EndpointCallPhase.DESERIALIZE);
 				try {
 					requestEntity = serializer.deserialize(
 							new ByteArrayInputStream(buf, 0, dataLen),
@@ -354,6 +546,7 @@ class EndpointCallExecutor<E>
 				}
 
 				// validate the request entity object
+				this.timer.begin(EndpointCallPhase.VALIDATE);
 				final Set<ConstraintViolation<E>> cvs =
 						this.runtimeCtx.getValidatorFactory().getValidator()
 						.validate(requestEntity,
@@ -384,6 +577,7 @@ class EndpointCallExecutor<E>
 			}
 
 			// check if aborted
+			this.timer.begin(EndpointCallPhase.HANDLER);
 			this.checkAborted();
 
 			// create call context and handle the call
@@ -399,11 +593,18 @@ class EndpointCallExecutor<E>
 				// check if aborted
 				this.checkAborted();
 
-				// serialize response entity if any
+				// serialize response entity if any and not streamed
+				this.timer.begin(EndpointCallPhase.SERIALIZE);
 				final Actor responseActor = ctx.getActor();
 				final Object responseEntity =
 					(response != null ? response.getEntity() : null);
-				if (responseEntity != null) {
+				if (responseEntity instanceof SerializedResource) {
+					final SerializedResource serializedEntity =
+						(SerializedResource) responseEntity;
+					responseEntityBuf = new ByteArrayOutputStream(
+							serializedEntity.getLength());
+					serializedEntity.writeTo(responseEntityBuf);
+				} else if ((responseEntity != null) && !streamResponseEntity) {
 					responseEntityBuf = new ByteArrayOutputStream(1024);
 					serializer.serialize(responseEntityBuf,
 							Charset.forName("UTF-8"), responseEntity,
@@ -417,6 +618,7 @@ class EndpointCallExecutor<E>
 				commit = true;
 
 			} finally {
+				this.timer.begin(EndpointCallPhase.COMMIT);
 				ctx.close(commit);
 			}
 
@@ -438,39 +640,151 @@ class EndpointCallExecutor<E>
 
 		} finally {
 
+			// return request entity buffer to the pool
+			if (buf != null)
+				this.runtimeCtx.getRequestBufferPool().release(buf);
+
 			// send the response
+			this.timer.begin(EndpointCallPhase.SEND);
+			final boolean stream = ((error == null) && streamResponseEntity
+					&& (response != null) && (response.getEntity() != null)
+					&& !(response.getEntity() instanceof SerializedResource));
+			int statusCode = (error != null ? error.getHttpStatusCode() :
+				(response != null ? response.getHttpStatusCode() :
+					HttpServletResponse.SC_NO_CONTENT));
+			boolean streamClaimed = false;
 			synchronized (this.responseSendingSync) {
-				if (!this.responseSent.get()) {
+				if (stream) {
+					streamClaimed = !this.responseSent.getAndSet(true);
+					this.streaming = streamClaimed;
+					if (!streamClaimed) {
+						if (debug)
+							this.log.debug(
+									"response already sent, doing nothing");
+						statusCode = HttpServletResponse.SC_REQUEST_TIMEOUT;
+					}
+				} else if (!this.responseSent.get()) {
+					ResponseEntityWriter writer = null;
 					try {
 						final HttpServletResponse httpResponse =
 							(HttpServletResponse) this.asyncCtx.getResponse();
+						this.callResponder.addServerTimingHeader(httpResponse,
+								this.timer);
 						try {
 							if (error != null)
 								this.callResponder.sendErrorResponse(
 										httpRequest, httpResponse, ctx, error);
 							else
-								this.callResponder.sendSuccessResponse(
-										httpRequest, httpResponse, ctx,
+								writer = this.callResponder
+									.sendSuccessResponse(httpRequest,
+										httpResponse, this.asyncCtx, ctx,
 										response, responseEntityBuf,
 										this.omitResponseEntity);
 						} catch (final IOException e) {
 							throw e;
 						} catch (final Throwable e) {
 							this.log.error("error sending response", e);
-							httpResponse.sendError(
-								HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+							statusCode =
+								HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+							httpResponse.sendError(statusCode);
 						}
 					} catch (final IOException e) {
 						this.log.warn("I/O error sending response", e);
 					} finally {
+						this.entityWriter = writer;
 						this.responseSent.set(true);
-						this.asyncCtx.complete();
+						if (writer == null)
+							this.asyncCtx.complete();
 					}
 				} else {
 					if (debug)
 						this.log.debug("response already sent, doing nothing");
+					statusCode = HttpServletResponse.SC_REQUEST_TIMEOUT;
+				}
+			}
+
+			// stream the response entity outside the response sending lock
+			if (streamClaimed)
+				this.streamResponse(httpRequest, ctx, response);
+
+			// record call metrics
+			final long totalTime = this.timer.stop();
+			this.runtimeCtx.getMetricsService().recordEndpointCall(
+					new EndpointCallMetrics(this.uriPattern,
+							this.requestMethod, statusCode,
+							this.timer.getPhaseDurations(), totalTime,
+							(ctx != null ? ctx.getExecutedStatementCount() : 0),
+							(ctx != null ? ctx.getFetchedRecordCount() : 0)));
+		}
+	}
+
+	/**
+	 * Send successful response streaming the response entity directly to the
+	 * client. The endpoint call transaction is already committed at this
+	 * point. If the response is already committed when an error happens, the
+	 * error cannot be reported to the client, which receives a truncated
+	 * response entity, so the error is only logged. If the asynchronous
+	 * request processing times out while the entity is being streamed, the
+	 * context is completed by the timeout handler and the client also
+	 * receives a truncated response entity.
+	 *
+	 * @param httpRequest The HTTP request.
+	 * @param ctx Request context.
+	 * @param response The response with an entity.
+	 */
+	private void streamResponse(final HttpServletRequest httpRequest,
+			final EndpointCallContextImpl ctx,
+			final EndpointCallResponse response) {
+
+		try {
+			final HttpServletResponse httpResponse =
+				(HttpServletResponse) this.asyncCtx.getResponse();
+			this.callResponder.addServerTimingHeader(httpResponse, this.timer);
+			try {
+				this.callResponder.sendStreamingSuccessResponse(httpRequest,
+						httpResponse, ctx, response);
+			} catch (final IOException e) {
+				throw e;
+			} catch (final Throwable e) {
+				if (this.streamCompleted.get()) {
+					throw e;
+				} else if (httpResponse.isCommitted()) {
+					this.log.error("error streaming response, response entity"
+							+ " is truncated", e);
+					this.runtimeCtx.getMonitorService().logApplicationError(e,
+							this.createEndpointCallErrorContext(null, 0));
+				} else {
+					this.log.error("error sending response", e);
+					httpResponse.sendError(
+						HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 				}
 			}
+		} catch (final Throwable e) {
+			if (this.streamCompleted.get())
+				this.log.warn("response streaming aborted due to request"
+						+ " timeout, response entity is truncated");
+			else if (e instanceof IOException)
+				this.log.warn("I/O error sending response", e);
+			else
+				this.log.error("error sending response", e);
+		} finally {
+			this.completeStream();
+		}
+	}
+
+	/**
+	 * Complete the asynchronous request processing context for a streamed
+	 * response unless already completed.
+	 */
+	private void completeStream() {
+
+		if (this.streamCompleted.compareAndSet(false, true)) {
+			try {
+				this.asyncCtx.complete();
+			} catch (final IllegalStateException e) {
+				if (this.log.isDebugEnabled())
+					this.log.debug("asynchronous context already completed", e);
+			}
 		}
 	}
 
@@ -7,7 +7,9 @@ import java.nio.charset.Charset;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -55,21 +57,56 @@ class EndpointCallResponder {
 	 */
 	private final Pattern allowedOriginsPattern;
 
+	/**
+	 * Tells if response entities are written using non-blocking I/O.
+	 */
+	private final boolean nonBlockingIO;
+
+	/**
+	 * Response buffer size used for streamed response entities, or zero if
+	 * response entities are not streamed.
+	 */
+	private final int streamingBufferSize;
+
+	/**
+	 * Value of "Retry-After" header sent with responses to calls rejected
+	 * because the server is overloaded.
+	 */
+	private final String overloadRetryAfter;
+
+	/**
+	 * Tells if "Server-Timing" header is added to endpoint call responses.
+	 */
+	private final boolean serverTiming;
+
 
 	/**
 	 * Create the responder.
 	 *
 	 * @param sc Servlet context.
 	 * @param runtimeCtx The instance runtime context.
+	 * @param nonBlockingIO {@code true} to write response entities using
+	 * non-blocking I/O.
 	 */
 	EndpointCallResponder(final ServletContext sc,
-			final RuntimeContextImpl runtimeCtx) {
+			final RuntimeContextImpl runtimeCtx, final boolean nonBlockingIO) {
 
 		final String allowedOriginsPattern =
 			sc.getInitParameter("x2.allowedOriginsPattern").trim();
 		this.allowedOriginsPattern = (allowedOriginsPattern.equals("*") ?
 				null : Pattern.compile(allowedOriginsPattern));
 
+		this.nonBlockingIO = nonBlockingIO;
+
+		this.streamingBufferSize = Integer.parseInt(
+				sc.getInitParameter("x2.streamingResponseBufferSize"));
+
+		this.overloadRetryAfter = String.valueOf(Integer.parseInt(
+				sc.getInitParameter("x2.overloadRetryAfter")));
+
+		this.serverTiming = Boolean.parseBoolean(
+				sc.getInitParameter("x2.serverTiming"));
+
 		this.runtimeCtx = runtimeCtx;
 		this.serializer = this.runtimeCtx.getResourceSerializationService();
 	}
@@ -146,10 +183,13 @@ class EndpointCallResponder {
 	}
 
 	/**
-	 * Send successful endpoint call response.
+	 * Send successful endpoint call response. In non-blocking I/O mode, the
+	 * response entity is written asynchronously and the asynchronous request
+	 * processing context is completed once it is written.
 	 *
 	 * @param httpRequest The HTTP request.
 	 * @param httpResponse The HTTP response.
+	 * @param asyncCtx Asynchronous HTTP request processing context.
 	 * @param ctx Request context.
 	 * @param response The response, or {@code null} for "No Content" response.
 	 * @param responseEntityBuf Buffer containing response entity, or
@@ -157,16 +197,111 @@ class EndpointCallResponder {
 	 * @param omitResponseEntity {@code true} if sending response entity should
 	 * be omitted (as a result of an HTTP "HEAD" request, for example).
 	 *
+	 * @return {@code null} if the response has been sent and the caller must
+	 * complete the asynchronous request processing context, or the writer if
+	 * the response entity is being written asynchronously and the context
+	 * will be completed by the writer when done.
+	 *
 	 * @throws IOException If an I/O error happens sending the response.
 	 */
-	void sendSuccessResponse(final HttpServletRequest httpRequest,
+	ResponseEntityWriter sendSuccessResponse(
+			final HttpServletRequest httpRequest,
 			final HttpServletResponse httpResponse,
-			final EndpointCallContextImpl ctx,
+			final AsyncContext asyncCtx, final EndpointCallContextImpl ctx,
 			final EndpointCallResponse response,
 			final ByteArrayOutputStream responseEntityBuf,
 			final boolean omitResponseEntity)
 		throws IOException {
 
+		// set up the HTTP response
+		this.prepareSuccessResponse(httpRequest, httpResponse, ctx, response);
+
+		// set up the response entity if any
+		if (responseEntityBuf != null) {
+			httpResponse.setContentType(this.serializer.getContentType());
+			httpResponse.setCharacterEncoding("UTF-8");
+			httpResponse.setContentLength(responseEntityBuf.size());
+		} else { // no entity
+			httpResponse.setContentLength(0);
+		}
+
+		// log it
+		if (this.log.isDebugEnabled())
+			this.logResponse(httpRequest, httpResponse, "SUCCESS",
+					responseEntityBuf);
+
+		// send the response entity if any
+		if ((responseEntityBuf != null) && !omitResponseEntity) {
+			if (this.nonBlockingIO) {
+				final ServletOutputStream out = httpResponse.getOutputStream();
+				final ResponseEntityWriter writer = new ResponseEntityWriter(
+						asyncCtx, out, responseEntityBuf.toByteArray());
+				out.setWriteListener(writer);
+				return writer;
+			}
+			responseEntityBuf.writeTo(httpResponse.getOutputStream());
+		}
+
+		// done
+		return null;
+	}
+
+	/**
+	 * Send successful endpoint call response streaming the response entity
+	 * directly to the client. The response entity is serialized into the
+	 * response output stream through a response buffer of a bounded size and
+	 * is sent using chunked transfer encoding. The method must be called only
+	 * after the endpoint call transaction is committed. If an error happens
+	 * after the response buffer has been flushed for the first time, the
+	 * response status and headers have already been sent and the client
+	 * receives a truncated response entity.
+	 *
+	 * @param httpRequest The HTTP request.
+	 * @param httpResponse The HTTP response.
+	 * @param ctx Request context.
+	 * @param response The response with an entity.
+	 *
+	 * @throws IOException If an I/O error happens sending the response.
+	 */
+	void sendStreamingSuccessResponse(final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse,
+			final EndpointCallContextImpl ctx,
+			final EndpointCallResponse response)
+		throws IOException {
+
+		// set up the HTTP response
+		this.prepareSuccessResponse(httpRequest, httpResponse, ctx, response);
+
+		// set up the response entity without content length
+		httpResponse.setContentType(this.serializer.getContentType());
+		httpResponse.setCharacterEncoding("UTF-8");
+		httpResponse.setBufferSize(this.streamingBufferSize);
+
+		// log it
+		if (this.log.isDebugEnabled())
+			this.logResponse(httpRequest, httpResponse, "STREAMED SUCCESS",
+					null);
+
+		// serialize the response entity directly to the client
+		this.serializer.serialize(httpResponse.getOutputStream(),
+				Charset.forName("UTF-8"), response.getEntity(),
+				ctx.getActor());
+	}
+
+	/**
+	 * Set up HTTP response status code and headers for a successful endpoint
+	 * call response.
+	 *
+	 * @param httpRequest The HTTP request.
+	 * @param httpResponse The HTTP response.
+	 * @param ctx Request context.
+	 * @param response The response, or {@code null} for "No Content" response.
+	 */
+	private void prepareSuccessResponse(final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse,
+			final EndpointCallContextImpl ctx,
+			final EndpointCallResponse response) {
+
 		// set up the HTTP response
 		if (response == null) {
 			httpResponse.setStatus(HttpServletResponse.SC_NO_CONTENT);
@@ -186,22 +321,6 @@ class EndpointCallResponder {
 
 		// add CORS headers to the response
 		this.addCORSHeaders(httpRequest, httpResponse);
-
-		// send the response entity if any
-		if (responseEntityBuf != null) {
-			httpResponse.setContentType(this.serializer.getContentType());
-			httpResponse.setCharacterEncoding("UTF-8");
-			httpResponse.setContentLength(responseEntityBuf.size());
-			if (!omitResponseEntity)
-				responseEntityBuf.writeTo(httpResponse.getOutputStream());
-		} else { // no entity
-			httpResponse.setContentLength(0);
-		}
-
-		// log it
-		if (this.log.isDebugEnabled())
-			this.logResponse(httpRequest, httpResponse, "SUCCESS",
-					responseEntityBuf);
 	}
 
 	/**
@@ -248,6 +367,53 @@ class EndpointCallResponder {
 			this.logResponse(httpRequest, httpResponse, "ERROR", buf);
 	}
 
+	/**
+	 * Send HTTP 503 (Service Unavailable) error response with "Retry-After"
+	 * header for a call rejected because the server is overloaded.
+	 *
+	 * @param httpRequest The HTTP request.
+	 * @param httpResponse The HTTP response.
+	 *
+	 * @throws IOException If an I/O error happens sending the response.
+	 */
+	void sendOverloadResponse(final HttpServletRequest httpRequest,
+			final HttpServletResponse httpResponse)
+		throws IOException {
+
+		httpResponse.setHeader("Retry-After", this.overloadRetryAfter);
+
+		this.sendErrorResponse(httpRequest, httpResponse, null,
+				new EndpointCallErrorException(
+						HttpServletResponse.SC_SERVICE_UNAVAILABLE, null,
+						"The server is overloaded, try again later."));
+	}
+
+	/**
+	 * Add "Server-Timing" header with the endpoint call processing phase
+	 * durations to the response, if enabled. Must be called before the
+	 * response is sent.
+	 *
+	 * @param httpResponse The HTTP response.
+	 * @param timer The call timer.
+	 */
+	void addServerTimingHeader(final HttpServletResponse httpResponse,
+			final EndpointCallTimer timer) {
+
+		if (this.serverTiming)
+			httpResponse.setHeader("Server-Timing", timer.getServerTiming());
+	}
+
+	/**
+	 * Tell if successful response entities are streamed directly to the
+	 * client instead of being serialized into a buffer first.
+	 *
+	 * @return {@code true} if response entities are streamed.
+	 */
+	boolean isStreamingResponses() {
+
+		return (this.streamingBufferSize > 0);
+	}
+
 	/**
 	 * Add CORS headers to the response if needed.
 	 *
@@ -0,0 +1,175 @@
+package org.bsworks.x2.core;
+
+import org.bsworks.x2.services.metrics.EndpointCallPhase;
+
+
+/**
+ * Timer of endpoint call processing phases. The call processing goes through
+ * a sequence of phases and the timer attributes the time elapsed between
+ * beginnings of consecutive phases to the earlier phase. The timer is not
+ * thread-safe, but it can be handed over between threads as long as the
+ * handover establishes a happens-before relationship (such as submitting a
+ * task to an executor service).
+ *
+ * @author Lev Himmelfarb
+ */
+class EndpointCallTimer {
+
+	/**
+	 * All phases.
+	 */
+	private static final EndpointCallPhase[] PHASES =
+		EndpointCallPhase.values();
+
+
+	/**
+	 * Durations of the completed phases in nanoseconds.
+	 */
+	private final long[] durations = new long[PHASES.length];
+
+	/**
+	 * Bit mask of the phases that have been entered.
+	 */
+	private int enteredPhases = 0;
+
+	/**
+	 * Timer start timestamp.
+	 */
+	private final long startTime;
+
+	/**
+	 * Current phase, or {@code null} if none.
+	 */
+	private EndpointCallPhase currentPhase = null;
+
+	/**
+	 * Current phase beginning timestamp.
+	 */
+	private long currentPhaseStartTime;
+
+
+	/**
+	 * Create new timer and start it.
+	 */
+	EndpointCallTimer() {
+
+		this.startTime = System.nanoTime();
+		this.currentPhaseStartTime = this.startTime;
+	}
+
+
+	/**
+	 * Complete the current phase, if any, and begin the specified one.
+	 *
+	 * @param phase The phase to begin.
+	 */
+	void begin(final EndpointCallPhase phase) {
+
+		final long now = System.nanoTime();
+		if (this.currentPhase != null)
+			this.durations[this.currentPhase.ordinal()] +=
+				now - this.currentPhaseStartTime;
+		this.currentPhase = phase;
+		this.currentPhaseStartTime = now;
+		this.enteredPhases |= 1 << phase.ordinal();
+	}
+
+	/**
+	 * Change the phase, to which the time elapsed since the beginning of the
+	 * current phase is attributed.
+	 *
+	 * @param phase The actual current phase.
+	 */
+	void setCurrentPhase(final EndpointCallPhase phase) {
+
+		if (this.currentPhase != null)
+			this.enteredPhases &= ~(1 << this.currentPhase.ordinal());
+		this.currentPhase = phase;
+		this.enteredPhases |= 1 << phase.ordinal();
+	}
+
+	/**
+	 * Complete the current phase, if any, and stop the timer.
+	 *
+	 * @return Total time elapsed since the timer start in nanoseconds.
+	 */
+	long stop() {
+
+		final long now = System.nanoTime();
+		if (this.currentPhase != null)
+			this.durations[this.currentPhase.ordinal()] +=
+				now - this.currentPhaseStartTime;
+		this.currentPhase = null;
+		this.currentPhaseStartTime = now;
+
+		return now - this.startTime;
+	}
+
+	/**
+	 * Tell if the specified phase has been entered.
+	 *
+	 * @param phase The phase.
+	 *
+	 * @return {@code true} if entered.
+	 */
+	boolean isEntered(final EndpointCallPhase phase) {
+
+		return ((this.enteredPhases & (1 << phase.ordinal())) != 0);
+	}
+
+	/**
+	 * Get durations of the phases. Time elapsed in the current phase is not
+	 * included.
+	 *
+	 * @return New array with durations in nanoseconds indexed by the phase
+	 * ordinals, -1 for the phases that have not been entered.
+	 */
+	long[] getPhaseDurations() {
+
+		final long[] res = new long[PHASES.length];
+		for (int i = 0; i < res.length; i++)
+			res[i] = (this.isEntered(PHASES[i]) ? this.durations[i] : -1);
+
+		return res;
+	}
+
+	/**
+	 * Get value for the "Server-Timing" response header with durations of the
+	 * completed phases and the total time elapsed since the timer start.
+	 *
+	 * @return The header value.
+	 */
+	String getServerTiming() {
+
+		final StringBuilder sb = new StringBuilder(256);
+		for (final EndpointCallPhase phase : PHASES) {
+			if ((phase == this.currentPhase) || !this.isEntered(phase))
+				continue;
+			appendMetric(sb, phase.getMetricName(),
+					this.durations[phase.ordinal()]);
+			sb.append(", ");
+		}
+		appendMetric(sb, "total", System.nanoTime() - this.startTime);
+
+		return sb.toString();
+	}
+
+	/**
+	 * Append "Server-Timing" header metric with the duration in milliseconds
+	 * with microsecond precision.
+	 *
+	 * @param sb Buffer, to which to append the metric.
+	 * @param name Metric name.
+	 * @param nanos Duration in nanoseconds.
+	 */
+	private static void appendMetric(final StringBuilder sb, final String name,
+			final long nanos) {
+
+		final long micros = nanos / 1000;
+		final long fraction = micros % 1000;
+		sb.append(name).append(";dur=").append(micros / 1000).append('.');
+		if (fraction < 100)
+			sb.append(fraction < 10 ? "00" : "0");
+		sb.append(fraction);
+	}
+}
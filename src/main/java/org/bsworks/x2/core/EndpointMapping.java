@@ -15,18 +15,43 @@ import org.bsworks.x2.HttpMethod;
  */
 class EndpointMapping {
 
+	/**
+	 * The request URI pattern.
+	 */
+	private final String uriPattern;
+
 	/**
 	 * Handlers by method.
 	 */
 	private final Map<HttpMethod, EndpointCallHandler<?>> handlers;
 
+	/**
+	 * Name of the dedicated call processing pool, or {@code null} for the
+	 * default pool.
+	 */
+	private final String poolName;
+
+	/**
+	 * Tells if the mapping's endpoint is low priority.
+	 */
+	private final boolean lowPriority;
+
 
 	/**
 	 * Create new mapping.
+	 *
+	 * @param uriPattern The request URI pattern.
+	 * @param poolName Name of the dedicated call processing pool, or
+	 * {@code null} for the default pool.
+	 * @param lowPriority {@code true} if the endpoint is low priority.
 	 */
-	EndpointMapping() {
+	EndpointMapping(final String uriPattern, final String poolName,
+			final boolean lowPriority) {
 
+		this.uriPattern = uriPattern;
 		this.handlers = new HashMap<>();
+		this.poolName = poolName;
+		this.lowPriority = lowPriority;
 	}
 
 
@@ -45,6 +70,16 @@ class EndpointMapping {
 	}
 
 
+	/**
+	 * Get the request URI pattern, for which the mapping is defined.
+	 *
+	 * @return The URI pattern.
+	 */
+	String getURIPattern() {
+
+		return this.uriPattern;
+	}
+
 	/**
 	 * Get HTTP methods allowed for the mapping's URI. If the call uses
 	 * a different HTTP method, the call execution is aborted and an HTTP 405
@@ -73,4 +108,26 @@ class EndpointMapping {
 
 		return handler;
 	}
+
+	/**
+	 * Get name of the dedicated pool used to process regular (not "long job")
+	 * calls to the mapping's endpoint.
+	 *
+	 * @return Call processing pool name, or {@code null} for the default pool.
+	 */
+	String getPoolName() {
+
+		return this.poolName;
+	}
+
+	/**
+	 * Tell if the mapping's endpoint is low priority, so that calls to it are
+	 * rejected first when the server is loaded.
+	 *
+	 * @return {@code true} if low priority endpoint.
+	 */
+	boolean isLowPriority() {
+
+		return this.lowPriority;
+	}
 }
@@ -5,8 +5,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,6 +24,7 @@ import org.bsworks.x2.app.DefaultPersistentResourceEndpointHandler;
 import org.bsworks.x2.app.PersistentResourceEndpointHandler;
 import org.bsworks.x2.resource.PersistentResourceHandler;
 import org.bsworks.x2.resource.Resources;
+import org.bsworks.x2.util.StringUtils;
 
 
 /**
@@ -37,6 +40,7 @@ class EndpointMappings {
 	private static final Pattern MAPPING_PATTERN = Pattern.compile(
 			"(?:^\\s*|\\G)"
 			+ "(/\\S*)\\s+"
+			+ "(?:@([a-zA-Z]\\w*)\\s+)?"
 			+ "((?:(?:(?:GET|POST|PUT|DELETE)\\s+)?"
 			+ "[a-zA-Z]\\w*(?:\\.[a-zA-Z]\\w*)*(?:\\s+|\\s*$))+)");
 
@@ -64,16 +68,6 @@ class EndpointMappings {
 		 */
 		public final String uriPattern;
 
-		/**
-		 * Corresponding group number in that master URI pattern.
-		 */
-		public final int masterPatternGroup;
-
-		/**
-		 * Number of URI parameter placeholders.
-		 */
-		public final int numURIParams;
-
 		/**
 		 * The mapping.
 		 */
@@ -84,18 +78,12 @@ class EndpointMappings {
 		 * Create new descriptor.
 		 *
 		 * @param uriPattern Original URI pattern.
-		 * @param masterPatternGroup Corresponding group number in that master
-		 * URI pattern.
-		 * @param numURIParams Number of URI parameter placeholders.
 		 * @param mapping The mapping.
 		 */
 		EndpointMappingDesc(final String uriPattern,
-				final int masterPatternGroup, final int numURIParams,
 				final EndpointMapping mapping) {
 
 			this.uriPattern = uriPattern;
-			this.masterPatternGroup = masterPatternGroup;
-			this.numURIParams = numURIParams;
 			this.mapping = mapping;
 		}
 	}
@@ -107,15 +95,20 @@ class EndpointMappings {
 	private final Log log = LogFactory.getLog(this.getClass());
 
 	/**
-	 * Master URI pattern.
+	 * Router used to match request URIs against the mappings.
 	 */
-	private final Pattern masterURIPattern;
+	private final EndpointRouter router;
 
 	/**
 	 * Mappings.
 	 */
 	private final ArrayList<EndpointMappingDesc> mappings;
 
+	/**
+	 * Names of dedicated call processing pools used by the mappings.
+	 */
+	private final Set<String> poolNames;
+
 
 	/**
 	 * Load mappings.
@@ -128,9 +121,14 @@ class EndpointMappings {
 	EndpointMappings(final ServletContext sc, final Resources resources)
 		throws InitializationException {
 
-		final StringBuffer masterURIPattern = new StringBuffer(1024);
-		int nextMasterPatternGroup = 1;
+		this.router = new EndpointRouter();
 		this.mappings = new ArrayList<>();
+		this.poolNames = new LinkedHashSet<>();
+		final String lowPriorityPatternStr = StringUtils.defaultIfEmpty(
+				sc.getInitParameter("x2.lowPriorityEndpointsPattern"), "")
+				.trim();
+		final Matcher lowPriorityMatcher = (lowPriorityPatternStr.isEmpty() ?
+				null : Pattern.compile(lowPriorityPatternStr).matcher(""));
 		final String defs = sc.getInitParameter("x2.app.endpoints");
 		final Matcher defMatcher = MAPPING_PATTERN.matcher(defs);
 		final Matcher handlersMatcher = HANDLER_PATTERN.matcher("");
@@ -139,19 +137,26 @@ class EndpointMappings {
 		int lastMatchEnd = 0;
 		while (defMatcher.find()) {
 
-			final int masterPatternGroup = nextMasterPatternGroup++;
-
 			final String uriPatternStr = defMatcher.group(1);
 			final Pattern uriPattern = Pattern.compile(uriPatternStr);
 			final int numURIParams = uriPattern.matcher("").groupCount();
-			nextMasterPatternGroup += numURIParams;
-
-			if (masterURIPattern.length() > 0)
-				masterURIPattern.append('|');
-			masterURIPattern.append('(').append(uriPatternStr).append(')');
 
-			final EndpointMapping mapping = new EndpointMapping();
-			handlersMatcher.reset(defMatcher.group(2));
+			String poolName = defMatcher.group(2);
+			if ("EndpointCallProcessors".equals(poolName))
+				poolName = null;
+			else if ("JobRunners".equals(poolName)
+					|| "SideTaskProcessors".equals(poolName))
+				throw new InitializationException("Endpoint mapping for "
+						+ uriPatternStr + " uses reserved call processing pool"
+						+ " name " + poolName + ".");
+			if (poolName != null)
+				this.poolNames.add(poolName);
+
+			final EndpointMapping mapping = new EndpointMapping(uriPatternStr,
+					poolName, ((lowPriorityMatcher != null)
+							&& lowPriorityMatcher.reset(uriPatternStr)
+								.matches()));
+			handlersMatcher.reset(defMatcher.group(3));
 			while (handlersMatcher.find()) {
 				final String requestMethodStr = handlersMatcher.group(1);
 				final HttpMethod requestMethod =
@@ -211,15 +216,14 @@ class EndpointMappings {
 								+ " pattern " + uriPatternStr + ".");
 				}
 			}
-			this.mappings.add(new EndpointMappingDesc(uriPatternStr,
-					masterPatternGroup, numURIParams, mapping));
+			this.mappings.add(new EndpointMappingDesc(uriPatternStr, mapping));
+			this.router.add(uriPatternStr, numURIParams, mapping);
 
 			lastMatchEnd = defMatcher.end();
 		}
 		if (lastMatchEnd != defs.length())
 			throw new InitializationException(
 					"Invalid endpoint definitions syntax.");
-		this.masterURIPattern = Pattern.compile(masterURIPattern.toString());
 		this.mappings.trimToSize();
 
 		if (this.log.isDebugEnabled()) {
@@ -227,6 +231,10 @@ class EndpointMappings {
 			sb.append("configured endpoint mappings:");
 			for (final EndpointMappingDesc mappingDesc : this.mappings) {
 				sb.append("\n * ").append(mappingDesc.uriPattern);
+				if (mappingDesc.mapping.getPoolName() != null)
+					sb.append(" @").append(mappingDesc.mapping.getPoolName());
+				if (mappingDesc.mapping.isLowPriority())
+					sb.append(" (low priority)");
 				for (final HttpMethod requestMethod :
 					mappingDesc.mapping.getAllowedMethods()) {
 					sb.append("\n       ").append(requestMethod).append(" -> ")
@@ -276,6 +284,16 @@ class EndpointMappings {
 	}
 
 
+	/**
+	 * Get names of dedicated call processing pools used by the mappings.
+	 *
+	 * @return Unmodifiable set of pool names.
+	 */
+	Set<String> getPoolNames() {
+
+		return Collections.unmodifiableSet(this.poolNames);
+	}
+
 	/**
 	 * Find endpoint mapping matching the specified request URI.
 	 *
@@ -283,27 +301,11 @@ class EndpointMappings {
 	 * @param uriParams List, to which to add extracted positional URI
 	 * parameters.
 	 *
-	 * @return Corresponding mapping descriptor, or {@code null} if none
-	 * matched.
+	 * @return Corresponding mapping, or {@code null} if none matched.
 	 */
 	EndpointMapping findMapping(final String requestURI,
 			final List<String> uriParams) {
 
-		final Matcher m = this.masterURIPattern.matcher(requestURI);
-		if (!m.matches())
-			return null;
-
-		for (final EndpointMappingDesc mappingDesc : this.mappings) {
-			final int masterPatternGroup = mappingDesc.masterPatternGroup;
-			if (m.group(masterPatternGroup) != null) {
-				for (int i = 1; i <= mappingDesc.numURIParams; i++)
-					uriParams.add(m.group(masterPatternGroup + i));
-				return mappingDesc.mapping;
-			}
-		}
-
-		// should never happen
-		throw new RuntimeException(
-				"Master pattern matched, but empty master group.");
+		return this.router.findMapping(requestURI, uriParams);
 	}
 }
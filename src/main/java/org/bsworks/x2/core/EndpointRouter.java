@@ -0,0 +1,900 @@
+package org.bsworks.x2.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Router that matches request URIs against the endpoint URI patterns. The
+ * endpoint URI patterns are regular expressions, but instead of matching the
+ * request URI against each of them, the router compiles the patterns into a
+ * trie of URI path segments. Segments that are literal strings become map
+ * lookups, segments that consist of a single URI parameter placeholder that
+ * cannot match a slash (for example, "([1-9][0-9]*)") become URI parameter
+ * nodes matched against a single request URI segment, and only the rest of the
+ * pattern that cannot be represented as such segments is matched as a regular
+ * expression. Optional non-capturing groups, such as the trailing
+ * "(?:/([1-9][0-9]*))?", are expanded into separate routes before the pattern
+ * is split into segments. This makes the lookup cost depend on the request
+ * URI depth rather than on the number of the mapped endpoints.
+ *
+ * <p>The semantics are the same as matching the request URI against all the
+ * patterns in the order they were added: if several patterns match, the one
+ * added first wins.
+ *
+ * @author Lev Himmelfarb
+ */
+class EndpointRouter {
+
+	/**
+	 * Maximum number of routes, into which a single endpoint URI pattern is
+	 * allowed to expand. Patterns that expand into more routes are matched as
+	 * a whole.
+	 */
+	private static final int MAX_VARIANTS = 16;
+
+	/**
+	 * Regular expression metacharacters.
+	 */
+	private static final String METACHARS = "\\^$.|?*+()[]{}";
+
+	/**
+	 * Regular expression quantifier characters.
+	 */
+	private static final String QUANTIFIERS = "?*+{";
+
+
+	/**
+	 * Route, which is a single variant of an endpoint URI pattern.
+	 */
+	private static final class Route {
+
+		/**
+		 * Route priority. Routes with lower values win.
+		 */
+		final int priority;
+
+		/**
+		 * Original URI pattern capturing group numbers, in the order in which
+		 * the route captures them.
+		 */
+		final int[] groups;
+
+		/**
+		 * Total number of URI parameter placeholders in the original URI
+		 * pattern.
+		 */
+		final int numURIParams;
+
+		/**
+		 * Regular expression for the rest of the request URI, or {@code null}
+		 * if the route ends at the trie node.
+		 */
+		final Pattern tail;
+
+		/**
+		 * The mapping.
+		 */
+		final EndpointMapping mapping;
+
+
+		/**
+		 * Create new route.
+		 *
+		 * @param priority Route priority.
+		 * @param groups Original URI pattern capturing group numbers.
+		 * @param numURIParams Total number of URI parameter placeholders.
+		 * @param tail Regular expression for the rest of the request URI, or
+		 * {@code null}.
+		 * @param mapping The mapping.
+		 */
+		Route(final int priority, final int[] groups, final int numURIParams,
+				final Pattern tail, final EndpointMapping mapping) {
+
+			this.priority = priority;
+			this.groups = groups;
+			this.numURIParams = numURIParams;
+			this.tail = tail;
+			this.mapping = mapping;
+		}
+	}
+
+	/**
+	 * URI parameter segment node.
+	 */
+	private static final class ParamNode {
+
+		/**
+		 * Regular expression source for the segment.
+		 */
+		final String regex;
+
+		/**
+		 * Compiled regular expression for the segment.
+		 */
+		final Pattern pattern;
+
+		/**
+		 * The trie node.
+		 */
+		final Node node = new Node();
+
+
+		/**
+		 * Create new parameter node.
+		 *
+		 * @param regex Regular expression source for the segment.
+		 */
+		ParamNode(final String regex) {
+
+			this.regex = regex;
+			this.pattern = Pattern.compile(regex);
+		}
+	}
+
+	/**
+	 * Trie node.
+	 */
+	private static final class Node {
+
+		/**
+		 * Lowest priority of all routes at the node and its descendants.
+		 */
+		int minPriority = Integer.MAX_VALUE;
+
+		/**
+		 * Child nodes for literal segments.
+		 */
+		Map<String, Node> literalChildren = Collections.emptyMap();
+
+		/**
+		 * Child nodes for URI parameter segments.
+		 */
+		List<ParamNode> paramChildren = Collections.emptyList();
+
+		/**
+		 * Routes that end at the node.
+		 */
+		List<Route> routes = Collections.emptyList();
+
+		/**
+		 * Routes that match the rest of the request URI starting at the node
+		 * using a regular expression.
+		 */
+		List<Route> tailRoutes = Collections.emptyList();
+
+
+		/**
+		 * Get child node for a literal segment, creating it if necessary.
+		 *
+		 * @param segment The segment.
+		 *
+		 * @return The child node.
+		 */
+		Node getLiteralChild(final String segment) {
+
+			if (this.literalChildren.isEmpty())
+				this.literalChildren = new HashMap<>();
+			Node child = this.literalChildren.get(segment);
+			if (child == null) {
+				child = new Node();
+				this.literalChildren.put(segment, child);
+			}
+
+			return child;
+		}
+
+		/**
+		 * Get child node for a URI parameter segment, creating it if
+		 * necessary.
+		 *
+		 * @param regex Regular expression source for the segment.
+		 *
+		 * @return The child node.
+		 */
+		Node getParamChild(final String regex) {
+
+			for (final ParamNode paramChild : this.paramChildren)
+				if (paramChild.regex.equals(regex))
+					return paramChild.node;
+
+			if (this.paramChildren.isEmpty())
+				this.paramChildren = new ArrayList<>(2);
+			final ParamNode paramChild = new ParamNode(regex);
+			this.paramChildren.add(paramChild);
+
+			return paramChild.node;
+		}
+
+		/**
+		 * Add route that ends at the node.
+		 *
+		 * @param route The route.
+		 */
+		void addRoute(final Route route) {
+
+			if (this.routes.isEmpty())
+				this.routes = new ArrayList<>(1);
+			this.routes.add(route);
+		}
+
+		/**
+		 * Add route that matches the rest of the request URI using a regular
+		 * expression.
+		 *
+		 * @param route The route.
+		 */
+		void addTailRoute(final Route route) {
+
+			if (this.tailRoutes.isEmpty())
+				this.tailRoutes = new ArrayList<>(1);
+			this.tailRoutes.add(route);
+		}
+	}
+
+	/**
+	 * State of a single request URI lookup.
+	 */
+	private static final class Lookup {
+
+		/**
+		 * The request URI.
+		 */
+		final String uri;
+
+		/**
+		 * Values of URI parameter segments on the current trie path.
+		 */
+		final String[] pathParams;
+
+		/**
+		 * Best matching route found so far, or {@code null}.
+		 */
+		Route bestRoute;
+
+		/**
+		 * URI parameters extracted for the best matching route.
+		 */
+		String[] bestParams;
+
+
+		/**
+		 * Create new lookup.
+		 *
+		 * @param uri The request URI.
+		 * @param maxPathParams Maximum number of URI parameter segments on a
+		 * trie path.
+		 */
+		Lookup(final String uri, final int maxPathParams) {
+
+			this.uri = uri;
+			this.pathParams = new String[maxPathParams];
+		}
+
+
+		/**
+		 * Search the trie.
+		 *
+		 * @param node Current trie node.
+		 * @param pos Position in the request URI that corresponds to the
+		 * node.
+		 * @param numPathParams Number of URI parameter segments on the current
+		 * trie path.
+		 */
+		void search(final Node node, final int pos, final int numPathParams) {
+
+			if ((this.bestRoute != null)
+					&& (node.minPriority >= this.bestRoute.priority))
+				return;
+
+			final String uri = this.uri;
+			final int uriLen = uri.length();
+
+			if (pos == uriLen) {
+				for (final Route route : node.routes)
+					if (this.isBetter(route))
+						this.accept(route, numPathParams, null);
+			}
+
+			for (final Route route : node.tailRoutes) {
+				if (!this.isBetter(route))
+					continue;
+				final Matcher m = route.tail.matcher(uri);
+				m.region(pos, uriLen);
+				if (m.matches())
+					this.accept(route, numPathParams, m);
+			}
+
+			if ((pos < uriLen) && (uri.charAt(pos) == '/')) {
+				int segEnd = uri.indexOf('/', pos + 1);
+				if (segEnd < 0)
+					segEnd = uriLen;
+				final String segment = uri.substring(pos + 1, segEnd);
+				final Node literalChild = node.literalChildren.get(segment);
+				if (literalChild != null)
+					this.search(literalChild, segEnd, numPathParams);
+				for (final ParamNode paramChild : node.paramChildren) {
+					if (paramChild.pattern.matcher(segment).matches()) {
+						this.pathParams[numPathParams] = segment;
+						this.search(paramChild.node, segEnd,
+								numPathParams + 1);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Tell if the route is better than the best one found so far.
+		 *
+		 * @param route The route.
+		 *
+		 * @return {@code true} if better.
+		 */
+		private boolean isBetter(final Route route) {
+
+			return ((this.bestRoute == null)
+					|| (route.priority < this.bestRoute.priority));
+		}
+
+		/**
+		 * Make the route the best one found so far.
+		 *
+		 * @param route The route.
+		 * @param numPathParams Number of URI parameter segments on the current
+		 * trie path.
+		 * @param tailMatcher Matcher for the route tail, or {@code null}.
+		 */
+		private void accept(final Route route, final int numPathParams,
+				final Matcher tailMatcher) {
+
+			final String[] params = new String[route.numURIParams];
+			for (int i = 0; i < numPathParams; i++)
+				params[route.groups[i] - 1] = this.pathParams[i];
+			if (tailMatcher != null) {
+				for (int i = 1, n = tailMatcher.groupCount(); i <= n; i++)
+					params[route.groups[numPathParams + i - 1] - 1] =
+						tailMatcher.group(i);
+			}
+
+			this.bestRoute = route;
+			this.bestParams = params;
+		}
+	}
+
+
+	/**
+	 * Trie root.
+	 */
+	private final Node root = new Node();
+
+	/**
+	 * Next route priority.
+	 */
+	private int nextPriority = 0;
+
+	/**
+	 * Maximum number of URI parameter segments on a trie path.
+	 */
+	private int maxPathParams = 0;
+
+
+	/**
+	 * Add endpoint URI pattern. Patterns added earlier have precedence over
+	 * the patterns added later.
+	 *
+	 * @param uriPattern The URI pattern. Must be a valid regular expression.
+	 * @param numURIParams Number of capturing groups in the URI pattern.
+	 * @param mapping The mapping.
+	 */
+	void add(final String uriPattern, final int numURIParams,
+			final EndpointMapping mapping) {
+
+		// find capturing groups in the pattern
+		final List<Integer> groupPositions = new ArrayList<>();
+		final boolean simple = scanGroups(uriPattern, groupPositions);
+
+		// expand optional groups into route variants
+		List<List<int[]>> variants = null;
+		if (simple) {
+			variants = expand(uriPattern, 0, uriPattern.length());
+			if (variants.size() > MAX_VARIANTS)
+				variants = null;
+		}
+		if (variants == null)
+			variants = Collections.singletonList(Collections.singletonList(
+					new int[] { 0, uriPattern.length() }));
+
+		// add route for each variant
+		for (final List<int[]> variant : variants) {
+			final StringBuilder src = new StringBuilder(uriPattern.length());
+			final List<Integer> groups = new ArrayList<>(numURIParams);
+			for (final int[] range : variant) {
+				src.append(uriPattern, range[0], range[1]);
+				for (int i = 0; i < groupPositions.size(); i++) {
+					final int groupPos = groupPositions.get(i).intValue();
+					if ((groupPos >= range[0]) && (groupPos < range[1]))
+						groups.add(Integer.valueOf(i + 1));
+				}
+			}
+			final int[] groupsArr = new int[groups.size()];
+			for (int i = 0; i < groupsArr.length; i++)
+				groupsArr[i] = groups.get(i).intValue();
+			this.addVariant(src.toString(), simple, groupsArr, numURIParams,
+					mapping);
+		}
+	}
+
+	/**
+	 * Add single route variant.
+	 *
+	 * @param src Regular expression for the route.
+	 * @param simple {@code false} if the route must be matched as a whole.
+	 * @param groups Original URI pattern capturing group numbers.
+	 * @param numURIParams Number of capturing groups in the URI pattern.
+	 * @param mapping The mapping.
+	 */
+	private void addVariant(final String src, final boolean simple,
+			final int[] groups, final int numURIParams,
+			final EndpointMapping mapping) {
+
+		final int priority = this.nextPriority++;
+
+		// check if must be matched as a whole
+		final List<String> segments =
+			(simple ? splitSegments(src) : null);
+		if (segments == null) {
+			this.root.addTailRoute(new Route(priority, groups, numURIParams,
+					Pattern.compile(src), mapping));
+			this.root.minPriority = Math.min(this.root.minPriority, priority);
+			return;
+		}
+
+		// walk the segments
+		Node node = this.root;
+		node.minPriority = Math.min(node.minPriority, priority);
+		int numPathParams = 0;
+		for (int i = 0, n = segments.size(); i < n; i++) {
+			final String segment = segments.get(i);
+
+			// literal segment?
+			final String literal = getLiteral(segment);
+			if (literal != null) {
+				node = node.getLiteralChild(literal);
+				node.minPriority = Math.min(node.minPriority, priority);
+				continue;
+			}
+
+			// URI parameter segment?
+			if ((segment.length() > 2) && (segment.charAt(0) == '(')
+					&& (segment.charAt(segment.length() - 1) == ')')) {
+				final String regex =
+					segment.substring(1, segment.length() - 1);
+				if (isSlashFreeSimple(regex)) {
+					node = node.getParamChild(regex);
+					node.minPriority = Math.min(node.minPriority, priority);
+					numPathParams++;
+					continue;
+				}
+			}
+
+			// match the rest as a regular expression
+			final StringBuilder tail = new StringBuilder(src.length());
+			for (int j = i; j < n; j++)
+				tail.append('/').append(segments.get(j));
+			node.addTailRoute(new Route(priority, groups, numURIParams,
+					Pattern.compile(tail.toString()), mapping));
+			this.maxPathParams = Math.max(this.maxPathParams, numPathParams);
+			return;
+		}
+
+		// route ends at the node
+		node.addRoute(new Route(priority, groups, numURIParams, null,
+				mapping));
+		this.maxPathParams = Math.max(this.maxPathParams, numPathParams);
+	}
+
+
+	/**
+	 * Find endpoint mapping matching the specified request URI.
+	 *
+	 * @param requestURI Context-relative request URI.
+	 * @param uriParams List, to which to add extracted positional URI
+	 * parameters.
+	 *
+	 * @return Corresponding mapping, or {@code null} if none matched.
+	 */
+	EndpointMapping findMapping(final String requestURI,
+			final List<String> uriParams) {
+
+		final Lookup lookup = new Lookup(requestURI, this.maxPathParams);
+		lookup.search(this.root, 0, 0);
+		if (lookup.bestRoute == null)
+			return null;
+
+		for (final String uriParam : lookup.bestParams)
+			uriParams.add(uriParam);
+
+		return lookup.bestRoute.mapping;
+	}
+
+
+	/**
+	 * Scan the pattern and find positions of all capturing groups.
+	 *
+	 * @param src The pattern.
+	 * @param groupPositions List, to which to add positions of the opening
+	 * parentheses of the capturing groups.
+	 *
+	 * @return {@code false} if the pattern contains constructs that make it
+	 * unsuitable for splitting into segments and must be matched as a whole.
+	 */
+	private static boolean scanGroups(final String src,
+			final List<Integer> groupPositions) {
+
+		boolean simple = true;
+		int depth = 0;
+		for (int i = 0, len = src.length(); i < len; i++) {
+			final char c = src.charAt(i);
+			switch (c) {
+			case '\\':
+				if ((i + 1 < len) && (src.charAt(i + 1) == 'Q')) {
+					simple = false;
+					// skip quoted section, nothing in it is a group
+					final int quoteEnd = src.indexOf("\\E", i + 2);
+					i = (quoteEnd < 0 ? len : quoteEnd + 1);
+				} else {
+					// escaped slash is not a segment boundary and a
+					// backreference may refer to a group in another segment
+					if ((i + 1 < len) && ("/123456789k".indexOf(
+							src.charAt(i + 1)) >= 0))
+						simple = false;
+					i++;
+				}
+				break;
+			case '[':
+				i = skipClass(src, i) - 1;
+				break;
+			case '(':
+				depth++;
+				if (isCapturingGroup(src, i))
+					groupPositions.add(Integer.valueOf(i));
+				break;
+			case ')':
+				depth--;
+				break;
+			case '|':
+				if (depth == 0)
+					simple = false;
+				break;
+			default:
+			}
+		}
+
+		return simple;
+	}
+
+	/**
+	 * Expand optional non-capturing groups in the specified pattern region into
+	 * variants.
+	 *
+	 * @param src The pattern.
+	 * @param start Region start.
+	 * @param end Region end.
+	 *
+	 * @return List of variants, each of which is a list of pattern ranges.
+	 */
+	private static List<List<int[]>> expand(final String src, final int start,
+			final int end) {
+
+		// find first expandable group
+		int i = start;
+		while (i < end) {
+			final char c = src.charAt(i);
+			if (c == '\\') {
+				i += 2;
+			} else if (c == '[') {
+				i = skipClass(src, i);
+			} else if (c == '(') {
+				final int groupEnd = skipGroup(src, i);
+				if (src.startsWith("(?:", i) && (groupEnd < end)
+						&& (src.charAt(groupEnd) == '?')
+						&& ((groupEnd + 1 == end)
+								|| ("?+".indexOf(src.charAt(groupEnd + 1))
+										< 0))
+						&& !hasTopLevelAlternation(src, i + 3,
+								groupEnd - 1)) {
+					final List<List<int[]>> innerVariants =
+						expand(src, i + 3, groupEnd - 1);
+					final List<List<int[]>> restVariants =
+						expand(src, groupEnd + 1, end);
+					final List<List<int[]>> variants = new ArrayList<>();
+					for (final List<int[]> inner : innerVariants) {
+						for (final List<int[]> rest : restVariants) {
+							final List<int[]> variant = new ArrayList<>();
+							variant.add(new int[] { start, i });
+							variant.addAll(inner);
+							variant.addAll(rest);
+							variants.add(variant);
+						}
+					}
+					for (final List<int[]> rest : restVariants) {
+						final List<int[]> variant = new ArrayList<>();
+						variant.add(new int[] { start, i });
+						variant.addAll(rest);
+						variants.add(variant);
+					}
+					return variants;
+				}
+				i = groupEnd;
+			} else {
+				i++;
+			}
+		}
+
+		// no expandable groups
+		final List<int[]> variant = new ArrayList<>(1);
+		variant.add(new int[] { start, end });
+
+		return Collections.singletonList(variant);
+	}
+
+	/**
+	 * Split route regular expression into path segments.
+	 *
+	 * @param src Route regular expression.
+	 *
+	 * @return The segments, or {@code null} if the route cannot be split and
+	 * must be matched as a whole.
+	 */
+	private static List<String> splitSegments(final String src) {
+
+		final int len = src.length();
+		if ((len == 0) || (src.charAt(0) != '/') || ((len > 1)
+				&& (QUANTIFIERS.indexOf(src.charAt(1)) >= 0)))
+			return null;
+
+		final List<String> segments = new ArrayList<>();
+		int segStart = 1;
+		int i = 1;
+		while (i < len) {
+			final char c = src.charAt(i);
+			if (c == '\\') {
+				i += 2;
+			} else if (c == '[') {
+				i = skipClass(src, i);
+			} else if (c == '(') {
+				i = skipGroup(src, i);
+			} else if ((c == '/') && ((i + 1 == len)
+					|| (QUANTIFIERS.indexOf(src.charAt(i + 1)) < 0))) {
+				segments.add(src.substring(segStart, i));
+				segStart = ++i;
+			} else {
+				i++;
+			}
+		}
+		segments.add(src.substring(segStart, len));
+
+		return segments;
+	}
+
+	/**
+	 * Get literal string matched by the segment regular expression.
+	 *
+	 * @param segment Segment regular expression.
+	 *
+	 * @return The literal, or {@code null} if the segment is not a literal.
+	 */
+	private static String getLiteral(final String segment) {
+
+		StringBuilder sb = null;
+		for (int i = 0, len = segment.length(); i < len; i++) {
+			final char c = segment.charAt(i);
+			if (c == '\\') {
+				if (i + 1 == len)
+					return null;
+				final char e = segment.charAt(i + 1);
+				if (Character.isLetterOrDigit(e))
+					return null;
+				if (sb == null)
+					sb = new StringBuilder(len).append(segment, 0, i);
+				sb.append(e);
+				i++;
+			} else if (METACHARS.indexOf(c) >= 0) {
+				return null;
+			} else if (sb != null) {
+				sb.append(c);
+			}
+		}
+
+		return (sb != null ? sb.toString() : segment);
+	}
+
+	/**
+	 * Tell if the regular expression is simple enough to be sure that it does
+	 * not match a slash. Only literal characters, "\d" and "\w" escapes,
+	 * non-negated character classes that do not include the slash and
+	 * quantifiers are allowed.
+	 *
+	 * @param regex The regular expression.
+	 *
+	 * @return {@code true} if the expression does not match a slash.
+	 */
+	private static boolean isSlashFreeSimple(final String regex) {
+
+		final int len = regex.length();
+		int i = 0;
+		while (i < len) {
+			final char c = regex.charAt(i++);
+			if (c == '\\') {
+				if (i == len)
+					return false;
+				final char e = regex.charAt(i++);
+				if ((e != 'd') && (e != 'w')
+						&& (Character.isLetterOrDigit(e) || (e == '/')))
+					return false;
+			} else if (c == '[') {
+				if ((i == len) || (regex.charAt(i) == '^'))
+					return false;
+				boolean closed = false;
+				while (i < len) {
+					final char cc = regex.charAt(i++);
+					if (cc == ']') {
+						closed = true;
+						break;
+					}
+					if ((cc == '[') || (cc == '/') || (cc == '&'))
+						return false;
+					if (cc == '\\') {
+						if (i == len)
+							return false;
+						final char e = regex.charAt(i++);
+						if ((e != 'd') && (e != 'w')
+								&& (Character.isLetterOrDigit(e)
+										|| (e == '/')))
+							return false;
+						if ((i + 1 < len) && (regex.charAt(i) == '-')
+								&& (regex.charAt(i + 1) != ']'))
+							return false;
+					} else if ((i + 1 < len) && (regex.charAt(i) == '-')
+							&& (regex.charAt(i + 1) != ']')) {
+						final char to = regex.charAt(i + 1);
+						if ((to == '\\') || (to == '[')
+								|| ((cc <= '/') && (to >= '/')))
+							return false;
+						i += 2;
+					}
+				}
+				if (!closed)
+					return false;
+			} else if (c == '{') {
+				while ((i < len) && (regex.charAt(i) != '}')) {
+					final char qc = regex.charAt(i++);
+					if (((qc < '0') || (qc > '9')) && (qc != ','))
+						return false;
+				}
+				if (i++ == len)
+					return false;
+			} else if ((c == '*') || (c == '+') || (c == '?')) {
+				// quantifier
+			} else if (!Character.isLetterOrDigit(c) && (c != '-')
+					&& (c != '_') && (c != '~')) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Tell if the pattern region contains alternation outside of any groups.
+	 *
+	 * @param src The pattern.
+	 * @param start Region start.
+	 * @param end Region end.
+	 *
+	 * @return {@code true} if contains alternation.
+	 */
+	private static boolean hasTopLevelAlternation(final String src,
+			final int start, final int end) {
+
+		int i = start;
+		while (i < end) {
+			final char c = src.charAt(i);
+			if (c == '\\')
+				i += 2;
+			else if (c == '[')
+				i = skipClass(src, i);
+			else if (c == '(')
+				i = skipGroup(src, i);
+			else if (c == '|')
+				return true;
+			else
+				i++;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Tell if the group at the specified position is a capturing group.
+	 *
+	 * @param src The pattern.
+	 * @param pos Position of the opening parenthesis.
+	 *
+	 * @return {@code true} if capturing group.
+	 */
+	private static boolean isCapturingGroup(final String src, final int pos) {
+
+		if ((pos + 1 >= src.length()) || (src.charAt(pos + 1) != '?'))
+			return true;
+
+		return ((pos + 3 < src.length()) && (src.charAt(pos + 2) == '<')
+				&& Character.isLetter(src.charAt(pos + 3)));
+	}
+
+	/**
+	 * Skip character class.
+	 *
+	 * @param src The pattern.
+	 * @param pos Position of the opening bracket.
+	 *
+	 * @return Position after the closing bracket.
+	 */
+	private static int skipClass(final String src, final int pos) {
+
+		final int len = src.length();
+		int depth = 0;
+		int i = pos;
+		while (i < len) {
+			final char c = src.charAt(i++);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				if (--depth == 0)
+					break;
+			}
+		}
+
+		return Math.min(i, len);
+	}
+
+	/**
+	 * Skip group.
+	 *
+	 * @param src The pattern.
+	 * @param pos Position of the opening parenthesis.
+	 *
+	 * @return Position after the closing parenthesis.
+	 */
+	private static int skipGroup(final String src, final int pos) {
+
+		final int len = src.length();
+		int depth = 0;
+		int i = pos;
+		while (i < len) {
+			final char c = src.charAt(i);
+			if (c == '\\') {
+				i += 2;
+			} else if (c == '[') {
+				i = skipClass(src, i);
+			} else {
+				i++;
+				if (c == '(') {
+					depth++;
+				} else if (c == ')') {
+					if (--depth == 0)
+						break;
+				}
+			}
+		}
+
+		return Math.min(i, len);
+	}
+}
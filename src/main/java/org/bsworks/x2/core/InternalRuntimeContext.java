@@ -0,0 +1,80 @@
+package org.bsworks.x2.core;
+
+import java.util.Set;
+
+import org.bsworks.x2.EndpointCallContext;
+import org.bsworks.x2.RuntimeContext;
+import org.bsworks.x2.services.serialization.SerializedResource;
+
+
+/**
+ * Runtime context extension used by the framework-provided endpoint call
+ * handlers to access framework internals. It is not a part of the public API:
+ * the runtime context created by the framework implements it, but the
+ * application code must not depend on it.
+ *
+ * @author Lev Himmelfarb
+ */
+public interface InternalRuntimeContext
+	extends RuntimeContext {
+
+	/**
+	 * Tell if identical concurrent collection search calls are coalesced, as
+	 * configured by "x2.searchCoalescing" web-application context
+	 * initialization parameter. Coalescing does not depend on the response
+	 * entity cache being enabled.
+	 *
+	 * @return {@code true} if search calls are coalesced.
+	 */
+	boolean isSearchCoalescingEnabled();
+
+	/**
+	 * Get maximum time a coalesced search call waits for the identical call
+	 * in flight to complete. It is the regular endpoint call timeout
+	 * configured by "x2.regularCallTimeout" web-application context
+	 * initialization parameter.
+	 *
+	 * @return The timeout in milliseconds. Zero or less means no timeout.
+	 */
+	long getSearchCoalescingTimeout();
+
+	/**
+	 * Tell if the response entity cache is enabled, that is its size
+	 * configured by "x2.responseCache.maxSize" web-application context
+	 * initialization parameter is not zero.
+	 *
+	 * @return {@code true} if the response entity cache is enabled.
+	 */
+	boolean isResponseEntityCacheEnabled();
+
+	/**
+	 * Get serialized response entity from the response entity cache. If the
+	 * cache is disabled, the method always returns {@code null}.
+	 *
+	 * @param key Key that identifies the response entity. The key must
+	 * capture everything that affects the entity, including the versions of
+	 * all participating persistent resource collections.
+	 *
+	 * @return The cached entity, or {@code null} if not cached.
+	 */
+	SerializedResource getCachedResponseEntity(String key);
+
+	/**
+	 * Add serialized response entity to the response entity cache. The entity
+	 * is removed from the cache when any of the participating persistent
+	 * resource collections is registered as modified by an endpoint call
+	 * (see
+	 * {@link EndpointCallContext#registerPersistentResourceModification(Set)})
+	 * and the call's transaction is committed. Because the key includes
+	 * collection versions, entities cached for old versions are never returned
+	 * even if not yet removed. If the cache is disabled, the method does
+	 * nothing.
+	 *
+	 * @param key Key that identifies the response entity.
+	 * @param entity The serialized entity.
+	 * @param prsrcClasses Persistent resource collections that participate in
+	 * the entity.
+	 */
+	void cacheResponseEntity(String key, SerializedResource entity,
+			Set<Class<?>> prsrcClasses);
+}
@@ -0,0 +1,251 @@
+package org.bsworks.x2.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bsworks.x2.services.metrics.MetricsService;
+
+
+/**
+ * Pool of buffers used to read request entities. The buffers are organized in
+ * size classes, starting with {@value #MIN_BUFFER_SIZE} bytes and doubling up
+ * to the maximum allowed request entity size. Each size class keeps a bounded
+ * number of free buffers, so that the total size of the buffers held by the
+ * pool does not exceed the configured limit. Half of the limit is used to
+ * guarantee at least one free buffer in as many size classes as possible,
+ * starting with the smallest. The other half is split equally in bytes between
+ * the pooled size classes, which gives the smaller, more frequently used
+ * classes more buffers. The pool is thread-safe.
+ *
+ * @author Lev Himmelfarb
+ */
+class RequestBufferPool {
+
+	/**
+	 * Size of the smallest buffer size class.
+	 */
+	private static final int MIN_BUFFER_SIZE = 1024;
+
+	/**
+	 * Name of the metrics service counter of buffer requests satisfied from
+	 * the pool.
+	 */
+	static final String HITS_COUNTER = "requestBufferPool.hits";
+
+	/**
+	 * Name of the metrics service counter of buffer requests that required
+	 * allocation of a new buffer.
+	 */
+	static final String MISSES_COUNTER = "requestBufferPool.misses";
+
+
+	/**
+	 * Buffer sizes for each size class.
+	 */
+	private final int[] classSizes;
+
+	/**
+	 * Free buffers for each size class. Elements are {@code null} for size
+	 * classes that are not pooled.
+	 */
+	private final List<ArrayBlockingQueue<byte[]>> freeBuffers;
+
+	/**
+	 * Metrics service, or {@code null} if none.
+	 */
+	private final MetricsService metricsService;
+
+	/**
+	 * Number of buffer requests satisfied from the pool.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Number of buffer requests that required allocation of a new buffer.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+
+	/**
+	 * Create new pool.
+	 *
+	 * @param maxBufferSize Maximum buffer size, which is the maximum allowed
+	 * request entity size.
+	 * @param maxPooledBytes Maximum total size in bytes of free buffers held
+	 * by the pool. Zero disables pooling.
+	 * @param metricsService Metrics service used to report pool hits and
+	 * misses, or {@code null} if none.
+	 */
+	RequestBufferPool(final int maxBufferSize, final long maxPooledBytes,
+			final MetricsService metricsService) {
+
+		this.metricsService = metricsService;
+
+		int numClasses = 1;
+		for (int s = Math.min(MIN_BUFFER_SIZE, maxBufferSize);
+				s < maxBufferSize; s = (int) Math.min(s * 2L, maxBufferSize))
+			numClasses++;
+
+		this.classSizes = new int[numClasses];
+		int s = Math.min(MIN_BUFFER_SIZE, maxBufferSize);
+		for (int i = 0; i < numClasses; i++) {
+			this.classSizes[i] = s;
+			s = (int) Math.min(s * 2L, maxBufferSize);
+		}
+
+		// reserve one buffer in each size class, starting with the smallest,
+		// while the reserved buffers fit in half of the budget
+		final long[] capacities = new long[numClasses];
+		long reservedBytes = 0;
+		int numPooledClasses = 0;
+		while ((numPooledClasses < numClasses)
+				&& (this.classSizes[numPooledClasses] > 0)
+				&& (reservedBytes + this.classSizes[numPooledClasses]
+						<= maxPooledBytes / 2)) {
+			reservedBytes += this.classSizes[numPooledClasses];
+			capacities[numPooledClasses++] = 1;
+		}
+
+		// split the rest of the budget equally in bytes, so that smaller size
+		// classes get more buffers
+		if (numPooledClasses > 0) {
+			final long extraBytesPerClass =
+				(maxPooledBytes - reservedBytes) / numPooledClasses;
+			for (int i = 0; i < numPooledClasses; i++)
+				capacities[i] += extraBytesPerClass / this.classSizes[i];
+		}
+
+		this.freeBuffers = new ArrayList<>(numClasses);
+		for (int i = 0; i < numClasses; i++)
+			this.freeBuffers.add(capacities[i] > 0
+					? new ArrayBlockingQueue<byte[]>(
+							(int) Math.min(capacities[i], Integer.MAX_VALUE))
+					: null);
+	}
+
+
+	/**
+	 * Get buffer from the pool.
+	 *
+	 * @param minSize Minimum buffer size. If exceeds the maximum buffer size,
+	 * the largest buffer is returned.
+	 *
+	 * @return The buffer.
+	 */
+	byte[] acquire(final int minSize) {
+
+		int classInd = 0;
+		final int lastClassInd = this.classSizes.length - 1;
+		while ((classInd < lastClassInd)
+				&& (this.classSizes[classInd] < minSize))
+			classInd++;
+
+		return this.acquireClass(classInd);
+	}
+
+	/**
+	 * Replace buffer with a buffer of the next size class copying the data.
+	 * The old buffer is returned to the pool.
+	 *
+	 * @param buf The buffer.
+	 * @param dataLen Number of bytes at the beginning of the buffer to copy.
+	 *
+	 * @return The new buffer, or {@code null} if the buffer is already of the
+	 * maximum size.
+	 */
+	byte[] grow(final byte[] buf, final int dataLen) {
+
+		final int classInd = this.getClassIndex(buf);
+		if ((classInd < 0) || (classInd == this.classSizes.length - 1))
+			return null;
+
+		final byte[] newBuf = this.acquireClass(classInd + 1);
+		System.arraycopy(buf, 0, newBuf, 0, dataLen);
+		this.release(buf);
+
+		return newBuf;
+	}
+
+	/**
+	 * Return buffer to the pool. If the pool is full, the buffer is discarded.
+	 *
+	 * @param buf The buffer previously acquired from the pool.
+	 */
+	void release(final byte[] buf) {
+
+		final int classInd = this.getClassIndex(buf);
+		if (classInd < 0)
+			return;
+
+		final ArrayBlockingQueue<byte[]> free = this.freeBuffers.get(classInd);
+		if (free != null)
+			free.offer(buf);
+	}
+
+	/**
+	 * Get number of buffer requests satisfied from the pool.
+	 *
+	 * @return Number of pool hits.
+	 */
+	long getHits() {
+
+		return this.hits.get();
+	}
+
+	/**
+	 * Get number of buffer requests that required allocation of a new buffer.
+	 *
+	 * @return Number of pool misses.
+	 */
+	long getMisses() {
+
+		return this.misses.get();
+	}
+
+
+	/**
+	 * Get buffer of the specified size class.
+	 *
+	 * @param classInd Size class index.
+	 *
+	 * @return The buffer.
+	 */
+	private byte[] acquireClass(final int classInd) {
+
+		final ArrayBlockingQueue<byte[]> free = this.freeBuffers.get(classInd);
+		final byte[] buf = (free != null ? free.poll() : null);
+		if (buf != null) {
+			this.hits.incrementAndGet();
+			if (this.metricsService != null)
+				this.metricsService.incrementCounter(HITS_COUNTER, 1);
+			return buf;
+		}
+
+		this.misses.incrementAndGet();
+		if (this.metricsService != null)
+			this.metricsService.incrementCounter(MISSES_COUNTER, 1);
+
+		return new byte[this.classSizes[classInd]];
+	}
+
+	/**
+	 * Get size class of the buffer.
+	 *
+	 * @param buf The buffer.
+	 *
+	 * @return Size class index, or -1 if the buffer size does not match any
+	 * size class.
+	 */
+	private int getClassIndex(final byte[] buf) {
+
+		final int len = buf.length;
+		for (int i = 0; i < this.classSizes.length; i++) {
+			if (this.classSizes[i] == len)
+				return i;
+		}
+
+		return -1;
+	}
+}
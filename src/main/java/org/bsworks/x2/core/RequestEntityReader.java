@@ -0,0 +1,167 @@
+package org.bsworks.x2.core;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Listener used in non-blocking I/O mode to read the complete request entity
+ * without blocking before the endpoint call is submitted to the executor
+ * service. The entity is read into a buffer from the request entity buffer
+ * pool. Once the entity is read, or the read is aborted because the entity is
+ * too large or because of an error, the endpoint call executor is submitted.
+ *
+ * @author Lev Himmelfarb
+ */
+class RequestEntityReader
+	implements ReadListener {
+
+	/**
+	 * The log.
+	 */
+	private final Log log = LogFactory.getLog(this.getClass());
+
+	/**
+	 * The endpoint call executor.
+	 */
+	private final EndpointCallExecutor<?> endpointCallExecutor;
+
+	/**
+	 * Executor service, to which to submit the endpoint call executor.
+	 */
+	private final ExecutorService executorService;
+
+	/**
+	 * The request input stream.
+	 */
+	private final ServletInputStream in;
+
+	/**
+	 * Request entity buffer pool.
+	 */
+	private final RequestBufferPool bufPool;
+
+	/**
+	 * The buffer.
+	 */
+	private byte[] buf;
+
+	/**
+	 * Number of bytes read into the buffer.
+	 */
+	private int dataLen = 0;
+
+	/**
+	 * Tells if the endpoint call executor has been submitted.
+	 */
+	private boolean submitted = false;
+
+
+	/**
+	 * Create new reader.
+	 *
+	 * @param endpointCallExecutor The endpoint call executor.
+	 * @param executorService Executor service, to which to submit the endpoint
+	 * call executor once the entity is read.
+	 * @param in The request input stream.
+	 * @param bufPool Request entity buffer pool.
+	 * @param contentLength Declared request entity length, or -1 if unknown.
+	 */
+	RequestEntityReader(final EndpointCallExecutor<?> endpointCallExecutor,
+			final ExecutorService executorService, final ServletInputStream in,
+			final RequestBufferPool bufPool, final long contentLength) {
+
+		this.endpointCallExecutor = endpointCallExecutor;
+		this.executorService = executorService;
+		this.in = in;
+		this.bufPool = bufPool;
+
+		this.buf = bufPool.acquire(contentLength > 0 ?
+				(int) Math.min(contentLength, Integer.MAX_VALUE) : 0);
+	}
+
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void onDataAvailable()
+		throws IOException {
+
+		if (this.submitted)
+			return;
+
+		final ServletInputStream in = this.in;
+		while (!in.isFinished() && in.isReady()) {
+			if (this.dataLen == this.buf.length) {
+				final int nextByte = in.read();
+				if (nextByte == -1)
+					break;
+				final byte[] newBuf = this.bufPool.grow(this.buf, this.dataLen);
+				if (newBuf == null) {
+					if (this.log.isDebugEnabled())
+						this.log.debug("request entity is too large");
+					this.submit(true, null);
+					return;
+				}
+				this.buf = newBuf;
+				this.buf[this.dataLen++] = (byte) nextByte;
+				continue; // the stream may not be ready anymore
+			}
+			final int bytesRead =
+				in.read(this.buf, this.dataLen, this.buf.length - this.dataLen);
+			if (bytesRead == -1)
+				break;
+			this.dataLen += bytesRead;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void onAllDataRead() {
+
+		if (this.log.isDebugEnabled())
+			this.log.debug("read complete request entity, " + this.dataLen
+					+ " bytes");
+
+		this.submit(false, null);
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void onError(final Throwable t) {
+
+		if (this.log.isDebugEnabled())
+			this.log.debug("error reading request entity", t);
+
+		this.submit(false, t);
+	}
+
+
+	/**
+	 * Pass the read entity to the endpoint call executor and submit it.
+	 *
+	 * @param tooLarge {@code true} if the entity is too large.
+	 * @param error Read error, or {@code null} if none.
+	 */
+	private void submit(final boolean tooLarge, final Throwable error) {
+
+		if (this.submitted)
+			return;
+		this.submitted = true;
+
+		this.endpointCallExecutor.setPreReadEntity(this.buf, this.dataLen,
+				tooLarge, error);
+		this.endpointCallExecutor.submit(this.executorService);
+	}
+}
@@ -0,0 +1,313 @@
+package org.bsworks.x2.core;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bsworks.x2.services.serialization.SerializedResource;
+import org.bsworks.x2.util.StripedCounter;
+
+
+/**
+ * Cache of serialized endpoint call response entities. The cache is bounded by
+ * the total size of the serialized entities. When the limit is exceeded, the
+ * cache evicts approximately least recently used entries: it examines a small
+ * sample of entries at a time and evicts the one that was accessed the
+ * longest time ago. Every entry is associated with the persistent resource
+ * collections that participate in it, so that it can be invalidated when any
+ * of the collections is modified. The cache is thread-safe and lookups do not
+ * take any locks.
+ *
+ * @author Lev Himmelfarb
+ */
+class ResponseEntityCache {
+
+	/**
+	 * Cache entry.
+	 */
+	private static final class Entry {
+
+		/**
+		 * The serialized entity.
+		 */
+		final SerializedResource entity;
+
+		/**
+		 * Participating persistent resource collections.
+		 */
+		final Set<Class<?>> prsrcClasses;
+
+		/**
+		 * Value of {@link System#nanoTime()} when the entry was last accessed.
+		 */
+		volatile long lastAccess;
+
+
+		/**
+		 * Create new entry.
+		 *
+		 * @param entity The serialized entity.
+		 * @param prsrcClasses Participating persistent resource collections.
+		 */
+		Entry(final SerializedResource entity,
+				final Set<Class<?>> prsrcClasses) {
+
+			this.entity = entity;
+			this.prsrcClasses = prsrcClasses;
+			this.lastAccess = System.nanoTime();
+		}
+	}
+
+
+	/**
+	 * Number of cache entries examined for each evicted entry.
+	 */
+	private static final int EVICTION_SAMPLE_SIZE = 8;
+
+
+	/**
+	 * Maximum total size of cached entities in bytes.
+	 */
+	private final long maxSize;
+
+	/**
+	 * Maximum size of a single cached entity in bytes.
+	 */
+	private final long maxEntitySize;
+
+	/**
+	 * Cached entries by keys.
+	 */
+	private final ConcurrentMap<String, Entry> entries =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * Keys of cached entries by participating persistent resource classes.
+	 */
+	private final ConcurrentMap<Class<?>, Set<String>> keysByPrsrcClass =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * Current total size of cached entities in bytes.
+	 */
+	private final AtomicLong size = new AtomicLong();
+
+	/**
+	 * Tells if a thread is evicting entries.
+	 */
+	private final AtomicBoolean evicting = new AtomicBoolean();
+
+	/**
+	 * Position in the entries map, from which to continue looking for entries
+	 * to evict. Accessed only by the thread that has set the
+	 * {@link #evicting} flag.
+	 */
+	private Iterator<Map.Entry<String, Entry>> evictionCursor;
+
+	/**
+	 * Number of lookups that found a cached entity.
+	 */
+	private final StripedCounter hits = new StripedCounter();
+
+	/**
+	 * Number of lookups that did not find a cached entity.
+	 */
+	private final StripedCounter misses = new StripedCounter();
+
+
+	/**
+	 * Create new cache.
+	 *
+	 * @param maxSize Maximum total size of cached entities in bytes. Zero
+	 * disables the cache.
+	 */
+	ResponseEntityCache(final long maxSize) {
+
+		this.maxSize = maxSize;
+		this.maxEntitySize = maxSize / 4;
+	}
+
+
+	/**
+	 * Tell if the cache is enabled.
+	 *
+	 * @return {@code true} if the maximum cache size is not zero.
+	 */
+	boolean isEnabled() {
+
+		return (this.maxSize > 0);
+	}
+
+	/**
+	 * Get cached entity.
+	 *
+	 * @param key The key.
+	 *
+	 * @return The cached entity, or {@code null} if not cached.
+	 */
+	SerializedResource get(final String key) {
+
+		if (this.maxSize == 0)
+			return null;
+
+		final Entry entry = this.entries.get(key);
+		if (entry == null) {
+			this.misses.add(1);
+			return null;
+		}
+
+		this.hits.add(1);
+		entry.lastAccess = System.nanoTime();
+
+		return entry.entity;
+	}
+
+	/**
+	 * Add entity to the cache. Entities larger than a quarter of the cache
+	 * size are not cached.
+	 *
+	 * @param key The key.
+	 * @param entity The serialized entity.
+	 * @param prsrcClasses Persistent resource collections that participate in
+	 * the entity.
+	 */
+	void put(final String key, final SerializedResource entity,
+			final Set<Class<?>> prsrcClasses) {
+
+		if (entity.getLength() > this.maxEntitySize)
+			return;
+
+		// register the key in the index before the entry is published, so
+		// that removal of the entry always finds the key to clean up
+		final Entry entry =
+			new Entry(entity, new HashSet<Class<?>>(prsrcClasses));
+		for (final Class<?> prsrcClass : entry.prsrcClasses) {
+			Set<String> keys = this.keysByPrsrcClass.get(prsrcClass);
+			if (keys == null) {
+				final Set<String> newKeys = Collections.newSetFromMap(
+						new ConcurrentHashMap<String, Boolean>());
+				keys = this.keysByPrsrcClass.putIfAbsent(prsrcClass, newKeys);
+				if (keys == null)
+					keys = newKeys;
+			}
+			keys.add(key);
+		}
+
+		// publish the entry
+		this.size.addAndGet(entity.getLength());
+		final Entry oldEntry = this.entries.put(key, entry);
+		if (oldEntry != null)
+			this.removed(key, oldEntry);
+
+		if ((this.size.get() > this.maxSize)
+				&& this.evicting.compareAndSet(false, true)) {
+			try {
+				this.evict();
+			} finally {
+				this.evicting.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Remove all entities, in which any of the specified persistent resource
+	 * collections participate. The keys are removed from the index whether or
+	 * not their entries are still cached, so that the index does not keep keys
+	 * of entries removed concurrently.
+	 *
+	 * @param prsrcClasses Modified persistent resource collections.
+	 */
+	void invalidate(final Set<Class<?>> prsrcClasses) {
+
+		if (this.entries.isEmpty())
+			return;
+
+		for (final Class<?> prsrcClass : prsrcClasses) {
+			final Set<String> keys = this.keysByPrsrcClass.get(prsrcClass);
+			if (keys == null)
+				continue;
+			for (final Iterator<String> i = keys.iterator(); i.hasNext();) {
+				final String key = i.next();
+				i.remove();
+				final Entry entry = this.entries.remove(key);
+				if (entry != null)
+					this.removed(key, entry);
+			}
+		}
+	}
+
+	/**
+	 * Get number of lookups that found a cached entity.
+	 *
+	 * @return Number of cache hits.
+	 */
+	long getHits() {
+
+		return this.hits.get();
+	}
+
+	/**
+	 * Get number of lookups that did not find a cached entity.
+	 *
+	 * @return Number of cache misses.
+	 */
+	long getMisses() {
+
+		return this.misses.get();
+	}
+
+
+	/**
+	 * Evict entries until the total size of the cached entities is within the
+	 * limit. For each evicted entry, examines the next sample of entries and
+	 * evicts the least recently accessed one among them.
+	 */
+	private void evict() {
+
+		while (this.size.get() > this.maxSize) {
+			Map.Entry<String, Entry> victim = null;
+			for (int c = 0; c < EVICTION_SAMPLE_SIZE; c++) {
+				if ((this.evictionCursor == null)
+						|| !this.evictionCursor.hasNext()) {
+					this.evictionCursor = this.entries.entrySet().iterator();
+					if (!this.evictionCursor.hasNext())
+						break;
+				}
+				final Map.Entry<String, Entry> mapEntry =
+					this.evictionCursor.next();
+				if ((victim == null) || (mapEntry.getValue().lastAccess
+						- victim.getValue().lastAccess < 0))
+					victim = mapEntry;
+			}
+			if (victim == null)
+				return;
+			if (this.entries.remove(victim.getKey(), victim.getValue()))
+				this.removed(victim.getKey(), victim.getValue());
+		}
+	}
+
+	/**
+	 * Update cache size and the index after an entry has been removed from the
+	 * entries map.
+	 *
+	 * @param key The key.
+	 * @param entry The removed entry.
+	 */
+	private void removed(final String key, final Entry entry) {
+
+		this.size.addAndGet(-entry.entity.getLength());
+		if (this.entries.containsKey(key))
+			return;
+		for (final Class<?> prsrcClass : entry.prsrcClasses) {
+			final Set<String> keys = this.keysByPrsrcClass.get(prsrcClass);
+			if (keys != null)
+				keys.remove(key);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package org.bsworks.x2.core;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Listener used in non-blocking I/O mode to write the response entity to the
+ * client without blocking an endpoint call processor thread. Once the whole
+ * entity is written, the asynchronous request processing is completed. If the
+ * asynchronous request processing times out before the whole entity is
+ * written, the writer is aborted and the context is completed by the timeout
+ * handler instead.
+ *
+ * @author Lev Himmelfarb
+ */
+class ResponseEntityWriter
+	implements WriteListener {
+
+	/**
+	 * Maximum number of bytes written at once.
+	 */
+	private static final int CHUNK_SIZE = 8192;
+
+
+	/**
+	 * The log.
+	 */
+	private final Log log = LogFactory.getLog(this.getClass());
+
+	/**
+	 * Asynchronous HTTP request processing context.
+	 */
+	private final AsyncContext asyncCtx;
+
+	/**
+	 * The response output stream.
+	 */
+	private final ServletOutputStream out;
+
+	/**
+	 * The response entity.
+	 */
+	private final byte[] data;
+
+	/**
+	 * Number of bytes already written.
+	 */
+	private int pos = 0;
+
+	/**
+	 * Tells if the writer has been aborted.
+	 */
+	private volatile boolean aborted = false;
+
+	/**
+	 * Tells if the asynchronous request processing context has been
+	 * completed.
+	 */
+	private final AtomicBoolean completed = new AtomicBoolean(false);
+
+
+	/**
+	 * Create new writer.
+	 *
+	 * @param asyncCtx Asynchronous HTTP request processing context.
+	 * @param out The response output stream.
+	 * @param data The response entity.
+	 */
+	ResponseEntityWriter(final AsyncContext asyncCtx,
+			final ServletOutputStream out, final byte[] data) {
+
+		this.asyncCtx = asyncCtx;
+		this.out = out;
+		this.data = data;
+	}
+
+
+	/**
+	 * Abort writing the response entity and complete the asynchronous request
+	 * processing context unless already completed. Used when the asynchronous
+	 * request processing times out while the entity is still being written.
+	 * The client receives a truncated response entity.
+	 */
+	void abort() {
+
+		this.aborted = true;
+
+		this.complete();
+	}
+
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void onWritePossible()
+		throws IOException {
+
+		final ServletOutputStream out = this.out;
+		final int len = this.data.length;
+		try {
+			while (!this.aborted && out.isReady()) {
+				if (this.pos == len) {
+					this.complete();
+					return;
+				}
+				final int n = Math.min(CHUNK_SIZE, len - this.pos);
+				out.write(this.data, this.pos, n);
+				this.pos += n;
+			}
+		} catch (final IOException | IllegalStateException e) {
+			if (!this.aborted)
+				throw e;
+			if (this.log.isDebugEnabled())
+				this.log.debug("response entity writing aborted", e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void onError(final Throwable t) {
+
+		if (this.aborted) {
+			if (this.log.isDebugEnabled())
+				this.log.debug("response entity writing aborted", t);
+		} else {
+			this.log.warn("I/O error sending response", t);
+		}
+
+		this.complete();
+	}
+
+
+	/**
+	 * Complete the asynchronous request processing context unless already
+	 * completed.
+	 */
+	private void complete() {
+
+		if (this.completed.compareAndSet(false, true)) {
+			try {
+				this.asyncCtx.complete();
+			} catch (final IllegalStateException e) {
+				if (this.log.isDebugEnabled())
+					this.log.debug("asynchronous context already completed", e);
+			}
+		}
+	}
+}
@@ -8,12 +8,20 @@ import java.security.GeneralSecurityException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -33,9 +41,13 @@ import org.bsworks.x2.RuntimeContext;
 import org.bsworks.x2.ServiceProvider;
 import org.bsworks.x2.resource.Resources;
 import org.bsworks.x2.services.auth.ActorAuthenticationService;
+import org.bsworks.x2.services.invalidation.ActorCacheInvalidationService;
+import org.bsworks.x2.services.metrics.MetricsService;
 import org.bsworks.x2.services.monitor.MonitorService;
 import org.bsworks.x2.services.persistence.PersistenceService;
+import org.bsworks.x2.services.persistence.PersistenceTransactionHandler;
 import org.bsworks.x2.services.serialization.ResourceSerializationService;
+import org.bsworks.x2.services.serialization.SerializedResource;
 import org.bsworks.x2.services.versioning.PersistentResourceVersioningService;
 import org.bsworks.x2.util.Hex;
 
@@ -46,7 +58,28 @@ import org.bsworks.x2.util.Hex;
  * @author Lev Himmelfarb
  */
 class RuntimeContextImpl
-	implements RuntimeContext {
+	implements InternalRuntimeContext {
+
+	/**
+	 * Name of web-application context initialization parameter used to
+	 * configure internal application metrics service provider.
+	 */
+	static final String METRICS_PROVIDER_INITPARAM =
+		"x2.service.metrics.provider";
+
+	/**
+	 * Name of web-application context initialization parameter used to
+	 * configure actor cache invalidation service provider.
+	 */
+	static final String ACTOR_CACHE_INVALIDATION_PROVIDER_INITPARAM =
+		"x2.service.actorCacheInvalidation.provider";
+
+	/**
+	 * Name of the metrics service counter of side tasks discarded because the
+	 * side task queue was full.
+	 */
+	static final String SIDE_TASKS_REJECTED_COUNTER = "sideTasks.rejected";
+
 
 	/**
 	 * Application service holder.
@@ -98,6 +131,75 @@ class RuntimeContextImpl
 		}
 	}
 
+	/**
+	 * Executor service rejection handler that aborts rejected tasks and counts
+	 * them.
+	 */
+	static final class RejectionCounter
+		extends ThreadPoolExecutor.AbortPolicy {
+
+		/**
+		 * Metrics service, or {@code null} if rejected tasks are not reported.
+		 */
+		private final MetricsService metrics;
+
+		/**
+		 * Name of the metrics service counter of rejected tasks.
+		 */
+		private final String counterName;
+
+		/**
+		 * Number of rejected tasks.
+		 */
+		private final AtomicLong rejected = new AtomicLong();
+
+
+		/**
+		 * Create new handler.
+		 *
+		 * @param metrics Metrics service used to report rejected tasks, or
+		 * {@code null} if none.
+		 * @param counterName Name of the metrics service counter of rejected
+		 * tasks.
+		 */
+		RejectionCounter(final MetricsService metrics,
+				final String counterName) {
+
+			this.metrics = metrics;
+			this.counterName = counterName;
+		}
+
+
+		/* (non-Javadoc)
+		 * See overridden method.
+		 */
+		@Override
+		public void rejectedExecution(final Runnable r,
+				final ThreadPoolExecutor executor) {
+
+			this.rejected.incrementAndGet();
+			if (this.metrics != null)
+				this.metrics.incrementCounter(this.counterName, 1);
+
+			super.rejectedExecution(r, executor);
+		}
+
+
+		/**
+		 * Get number of tasks rejected by an executor service.
+		 *
+		 * @param executorService Executor service created by the runtime
+		 * context.
+		 *
+		 * @return Number of rejected tasks.
+		 */
+		static long getRejectedCount(final ThreadPoolExecutor executorService) {
+
+			return ((RejectionCounter) executorService
+					.getRejectedExecutionHandler()).rejected.get();
+		}
+	}
+
 
 	/**
 	 * The log.
@@ -122,18 +224,36 @@ class RuntimeContextImpl
 	/**
 	 * Executor service used to execute top-level endpoint calls.
 	 */
-	private final ExecutorService callExecutorService;
+	private final ThreadPoolExecutor callExecutorService;
 
 	/**
 	 * Executor service used to execute long running jobs.
 	 */
-	private final ExecutorService jobExecutorService;
+	private final ThreadPoolExecutor jobExecutorService;
 
 	/**
 	 * Executor service used to asynchronously execute short background side
 	 * tasks.
 	 */
-	private final ExecutorService sideTaskExecutorService;
+	private final ThreadPoolExecutor sideTaskExecutorService;
+
+	/**
+	 * Scheduler used to submit delayed side tasks to the side task executor
+	 * service.
+	 */
+	private final ScheduledExecutorService sideTaskSchedulerService;
+
+	/**
+	 * Executor service used to poll the actor cache invalidation service, or
+	 * {@code null} if the service does not need polling.
+	 */
+	private ScheduledExecutorService invalidationPollerService;
+
+	/**
+	 * Executor services used to execute top-level calls to endpoints assigned
+	 * to dedicated call processing pools, by pool names.
+	 */
+	private final Map<String, ThreadPoolExecutor> callPoolExecutorServices;
 
 	/**
 	 * Resources manager.
@@ -167,6 +287,17 @@ class RuntimeContextImpl
 	 */
 	private final ServiceHolder<MonitorService> monitorService;
 
+	/**
+	 * Metrics service holder.
+	 */
+	private final ServiceHolder<MetricsService> metricsService;
+
+	/**
+	 * Actor cache invalidation service holder.
+	 */
+	private final ServiceHolder<ActorCacheInvalidationService>
+	actorCacheInvalidationService;
+
 	/**
 	 * The authenticator.
 	 */
@@ -183,6 +314,27 @@ class RuntimeContextImpl
 	 */
 	private final int maxRequestSize;
 
+	/**
+	 * Pool of request entity buffers.
+	 */
+	private final RequestBufferPool requestBufferPool;
+
+	/**
+	 * Serialized response entity cache.
+	 */
+	private final ResponseEntityCache responseEntityCache;
+
+	/**
+	 * Tells if identical concurrent collection search calls are coalesced.
+	 */
+	private final boolean searchCoalescing;
+
+	/**
+	 * Maximum time in milliseconds a coalesced search call waits for the
+	 * identical call in flight.
+	 */
+	private final long searchCoalescingTimeout;
+
 	/**
 	 * Additional application services.
 	 */
@@ -196,10 +348,13 @@ class RuntimeContextImpl
 	 *
 	 * @param sc Servlet context.
 	 * @param resources Application resources manager.
+	 * @param callPoolNames Names of dedicated endpoint call processing pools
+	 * used by the endpoint mappings.
 	 *
 	 * @throws InitializationException If an error happens.
 	 */
-	RuntimeContextImpl(final ServletContext sc, final Resources resources)
+	RuntimeContextImpl(final ServletContext sc, final Resources resources,
+			final Set<String> callPoolNames)
 		throws InitializationException {
 
 		this.log.info("initializing runtime context");
@@ -207,6 +362,9 @@ class RuntimeContextImpl
 		// save resources manager
 		this.resources = resources;
 
+		// dedicated endpoint call pools are added as they are created
+		this.callPoolExecutorServices = new LinkedHashMap<>();
+
 		// initialize
 		boolean success = false;
 		try {
@@ -283,14 +441,39 @@ class RuntimeContextImpl
 						+ " encryption configuration.", e);
 			}
 
-			// create executor services
-			this.sideTaskExecutorService =
-				createExecutorService(sc, "SideTaskProcessors", -1, this.log);
-			this.jobExecutorService =
-				createExecutorService(sc, "JobRunners", -1, this.log);
-			this.callExecutorService =
-				createExecutorService(sc, "EndpointCallProcessors", 0,
-						this.log);
+			// get metrics service (used by the executor services and the
+			// other essential services)
+			final ServiceProvider<MetricsService>
+			metricsServiceProvider = createServiceProvider(
+					sc.getInitParameter(METRICS_PROVIDER_INITPARAM),
+					MetricsService.class);
+			this.metricsService =
+				new ServiceHolder<>(sc, this.resources, this,
+						metricsServiceProvider, null);
+
+			// create executor services (side task rejections are counted by
+			// submitSideTask() method)
+			final MetricsService metrics = this.metricsService.instance;
+			this.sideTaskExecutorService = createExecutorService(sc,
+					"SideTaskProcessors", -1, null, this.log);
+			this.sideTaskSchedulerService =
+				new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread thread = new Thread(r,
+								"SideTaskScheduler-Thread");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			this.jobExecutorService = createExecutorService(sc,
+					"JobRunners", -1, metrics, this.log);
+			this.callExecutorService = createExecutorService(sc,
+					"EndpointCallProcessors", 0, metrics, this.log);
+			for (final String poolName : callPoolNames)
+				this.callPoolExecutorServices.put(poolName,
+						createExecutorService(sc, poolName, 0, metrics,
+								this.log));
 
 			// get resource serialization service
 			final ServiceProvider<ResourceSerializationService>
@@ -337,9 +520,41 @@ class RuntimeContextImpl
 				new ServiceHolder<>(sc, this.resources, this,
 						monitorServiceProvider, null);
 
+			// get actor cache invalidation service
+			final ServiceProvider<ActorCacheInvalidationService>
+			actorCacheInvalidationServiceProvider = createServiceProvider(
+					sc.getInitParameter(
+							ACTOR_CACHE_INVALIDATION_PROVIDER_INITPARAM),
+					ActorCacheInvalidationService.class);
+			this.actorCacheInvalidationService =
+				new ServiceHolder<>(sc, this.resources, this,
+						actorCacheInvalidationServiceProvider, null);
+
 			// create AuthToken handler
 			this.authTokenHandler = new AuthTokenHandler(sc, this);
 
+			// start polling actor cache invalidation service if needed
+			final long invalidationPollInterval =
+				this.actorCacheInvalidationService.instance.getPollInterval();
+			if (invalidationPollInterval > 0) {
+				this.log.info("polling actor cache invalidations every "
+						+ invalidationPollInterval + "ms");
+				this.invalidationPollerService =
+					new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread thread = new Thread(r,
+									"ActorCacheInvalidationPoller-Thread");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+				this.invalidationPollerService.scheduleWithFixedDelay(
+						new ActorCacheInvalidationPoller(this),
+						invalidationPollInterval, invalidationPollInterval,
+						TimeUnit.MILLISECONDS);
+			}
+
 			// get bean validator factory
 			this.validatorFactory = Validation.buildDefaultValidatorFactory();
 
@@ -347,6 +562,31 @@ class RuntimeContextImpl
 			this.maxRequestSize = Integer.parseInt(sc.getInitParameter(
 					EndpointCallHandler.MAX_REQUEST_SIZE_INITPARAM));
 
+			// create request entity buffer pool
+			final long requestBufferPoolSize = Long.parseLong(
+					sc.getInitParameter("x2.requestBufferPool.maxSize"));
+			if (requestBufferPoolSize < 0)
+				throw new InitializationException(
+						"Invalid request entity buffer pool size.");
+			this.requestBufferPool = new RequestBufferPool(
+					this.maxRequestSize, requestBufferPoolSize,
+					this.metricsService.instance);
+
+			// create response entity cache
+			final long responseCacheSize = Long.parseLong(
+					sc.getInitParameter("x2.responseCache.maxSize"));
+			if (responseCacheSize < 0)
+				throw new InitializationException(
+						"Invalid response entity cache size.");
+			this.responseEntityCache =
+				new ResponseEntityCache(responseCacheSize);
+
+			// check if search calls are coalesced
+			this.searchCoalescing = Boolean.parseBoolean(
+					sc.getInitParameter("x2.searchCoalescing"));
+			this.searchCoalescingTimeout = Long.parseLong(sc.getInitParameter(
+					EndpointCallHandler.CALL_TIMEOUT_INITPARAM));
+
 			// create additional application services
 			this.services = new HashMap<>();
 			try {
@@ -398,22 +638,45 @@ class RuntimeContextImpl
 	}
 
 	/**
-	 * Create executor service.
+	 * Create executor service. The number of threads is specified by
+	 * "x2.threads.<i>executorServiceName</i>" context initialization parameter
+	 * and the maximum number of tasks waiting in the queue is specified by
+	 * "x2.queues.<i>executorServiceName</i>" parameter, where zero means an
+	 * unbounded queue. Tasks submitted when the bounded queue is full are
+	 * rejected with a {@link RejectedExecutionException}. If metrics service is
+	 * provided, the executor service reports its rejected tasks and the number
+	 * of tasks waiting in the queue when a task starts execution.
 	 *
 	 * @param sc Servlet context.
 	 * @param executorServiceName Name of the executor service.
 	 * @param threadPriorityShift Threads priority shift.
-	 * used to specify number of threads for the executor service.
+	 * @param metrics Metrics service, or {@code null} not to report metrics.
 	 * @param log The log.
 	 *
 	 * @return The executor service.
+	 *
+	 * @throws InitializationException If the configuration is invalid.
 	 */
-	private static ExecutorService createExecutorService(
+	private static ThreadPoolExecutor createExecutorService(
 			final ServletContext sc, final String executorServiceName,
-			final int threadPriorityShift, final Log log) {
+			final int threadPriorityShift, final MetricsService metrics,
+			final Log log)
+		throws InitializationException {
 
-		final int numThreads = Integer.parseInt(
-				sc.getInitParameter("x2.threads." + executorServiceName));
+		final String numThreadsParam =
+			sc.getInitParameter("x2.threads." + executorServiceName);
+		if (numThreadsParam == null)
+			throw new InitializationException("Number of threads for "
+					+ executorServiceName + " executor service is not"
+					+ " configured.");
+		final int numThreads = Integer.parseInt(numThreadsParam);
+		final String queueSizeParam =
+			sc.getInitParameter("x2.queues." + executorServiceName);
+		final int queueSize = (queueSizeParam != null ?
+				Integer.parseInt(queueSizeParam) : 0);
+		if (queueSize < 0)
+			throw new InitializationException("Invalid queue size for "
+					+ executorServiceName + " executor service.");
 
 		final ThreadFactory threadFactory = new ThreadFactory() {
 
@@ -434,11 +697,33 @@ class RuntimeContextImpl
 		};
 
 		log.info("creating " + executorServiceName + " executor service with "
-				+ numThreads + " threads");
+				+ numThreads + " threads and "
+				+ (queueSize > 0 ? "queue of " + queueSize + " tasks" :
+					"unbounded queue"));
+
+		final BlockingQueue<Runnable> queue = (queueSize > 0 ?
+				new ArrayBlockingQueue<Runnable>(queueSize) :
+					new LinkedBlockingQueue<Runnable>());
+
+		final String metricsPrefix = "executors." + executorServiceName;
+		final RejectionCounter rejectionCounter = new RejectionCounter(
+				metrics, metricsPrefix + ".rejected");
+		if (metrics == null)
+			return new ThreadPoolExecutor(numThreads, numThreads, 0,
+					TimeUnit.MILLISECONDS, queue, threadFactory,
+					rejectionCounter);
+
+		final String queuedMetricName = metricsPrefix + ".queued";
+		return new ThreadPoolExecutor(numThreads, numThreads, 0,
+				TimeUnit.MILLISECONDS, queue, threadFactory,
+				rejectionCounter) {
 
-		return (numThreads == 1
-				? Executors.newSingleThreadExecutor(threadFactory)
-				: Executors.newFixedThreadPool(numThreads, threadFactory));
+			@Override
+			protected void beforeExecute(final Thread t, final Runnable r) {
+
+				metrics.recordCount(queuedMetricName, this.getQueue().size());
+			}
+		};
 	}
 
 	/**
@@ -487,7 +772,26 @@ class RuntimeContextImpl
 	 */
 	void shutdown() {
 
+		// stop polling actor cache invalidation service
+		if (this.invalidationPollerService != null) {
+			this.invalidationPollerService.shutdownNow();
+			try {
+				this.invalidationPollerService.awaitTermination(10,
+						TimeUnit.SECONDS);
+			} catch (final InterruptedException e) {
+				this.log.debug("wait interrupted, abandoning", e);
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// stop scheduling delayed side tasks
+		if (this.sideTaskSchedulerService != null)
+			this.sideTaskSchedulerService.shutdownNow();
+
 		// shutdown executor services
+		for (final Map.Entry<String, ThreadPoolExecutor> entry :
+				this.callPoolExecutorServices.entrySet())
+			this.destroyExecutorService(entry.getKey(), entry.getValue());
 		if (this.callExecutorService != null)
 			this.destroyExecutorService("EndpointCallProcessors",
 					this.callExecutorService);
@@ -498,6 +802,18 @@ class RuntimeContextImpl
 			this.destroyExecutorService("SideTaskProcessors",
 					this.sideTaskExecutorService);
 
+		// log response entity cache statistics
+		if (this.responseEntityCache != null)
+			this.log.info("response entity cache: "
+					+ this.responseEntityCache.getHits() + " hits, "
+					+ this.responseEntityCache.getMisses() + " misses");
+
+		// log request entity buffer pool statistics
+		if (this.requestBufferPool != null)
+			this.log.info("request entity buffer pool: "
+					+ this.requestBufferPool.getHits() + " hits, "
+					+ this.requestBufferPool.getMisses() + " misses");
+
 		// shutdown additional application services
 		if (this.services != null) {
 			for (final Map.Entry<String, ServiceHolder<?>> entry :
@@ -513,6 +829,16 @@ class RuntimeContextImpl
 			}
 		}
 
+		// shutdown actor cache invalidation service
+		if (this.actorCacheInvalidationService != null) {
+			try {
+				this.actorCacheInvalidationService.destroy();
+			} catch (final Exception e) {
+				this.log.warn("error shutting down actor cache invalidation"
+						+ " service", e);
+			}
+		}
+
 		// shutdown monitor service
 		if (this.monitorService != null) {
 			try {
@@ -560,6 +886,15 @@ class RuntimeContextImpl
 			}
 		}
 
+		// shutdown metrics service
+		if (this.metricsService != null) {
+			try {
+				this.metricsService.destroy();
+			} catch (final Exception e) {
+				this.log.warn("error shutting down metrics service", e);
+			}
+		}
+
 		// close bean validator factory
 		if (this.validatorFactory != null) {
 			try {
@@ -577,10 +912,13 @@ class RuntimeContextImpl
 	 * @param executorService The executor service.
 	 */
 	private void destroyExecutorService(final String executorServiceName,
-			final ExecutorService executorService) {
+			final ThreadPoolExecutor executorService) {
 
 		this.log.info("shutting down " + executorServiceName
-				+ " executor service");
+				+ " executor service, completed "
+				+ executorService.getCompletedTaskCount() + " tasks, rejected "
+				+ RejectionCounter.getRejectedCount(executorService)
+				+ " tasks");
 		executorService.shutdown();
 		try {
 			boolean done =
@@ -643,6 +981,18 @@ class RuntimeContextImpl
 	public void purgeCachedActor(final Actor actor) {
 
 		this.authTokenHandler.purgeCachedActor(actor);
+
+		final ActorCacheInvalidationService invalidationService =
+			this.actorCacheInvalidationService.instance;
+		if (invalidationService.getPollInterval() > 0) {
+			try (final PersistenceTransactionHandler txh =
+					this.getPersistenceService()
+						.createPersistenceTransaction(null, false)) {
+				invalidationService.registerInvalidation(txh.getTransaction(),
+						actor.getActorId(), actor.getOpaque());
+				txh.commitTransaction();
+			}
+		}
 	}
 
 	/* (non-Javadoc)
@@ -654,13 +1004,67 @@ class RuntimeContextImpl
 		this.jobExecutorService.submit(task);
 	}
 
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public boolean isSearchCoalescingEnabled() {
+
+		return this.searchCoalescing;
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public long getSearchCoalescingTimeout() {
+
+		return this.searchCoalescingTimeout;
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public boolean isResponseEntityCacheEnabled() {
+
+		return this.responseEntityCache.isEnabled();
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public SerializedResource getCachedResponseEntity(final String key) {
+
+		return this.responseEntityCache.get(key);
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void cacheResponseEntity(final String key,
+			final SerializedResource entity,
+			final Set<Class<?>> prsrcClasses) {
+
+		this.responseEntityCache.put(key, entity, prsrcClasses);
+	}
+
 	/* (non-Javadoc)
 	 * See overridden method.
 	 */
 	@Override
 	public void submitSideTask(final Runnable task) {
 
-		this.sideTaskExecutorService.submit(task);
+		try {
+			this.sideTaskExecutorService.submit(task);
+		} catch (final RejectedExecutionException e) {
+			this.log.warn("side task queue is full, discarding task " + task);
+			final MetricsService metrics = this.metricsService.instance;
+			if (metrics != null)
+				metrics.incrementCounter(SIDE_TASKS_REJECTED_COUNTER, 1);
+		}
 	}
 
 	/* (non-Javadoc)
@@ -718,6 +1122,7 @@ class RuntimeContextImpl
 		return this.monitorService.instance;
 	}
 
+
 	/* (non-Javadoc)
 	 * See overridden method.
 	 */
@@ -757,6 +1162,10 @@ class RuntimeContextImpl
 	private <S> S getServiceInternal(final Class<S> serviceType,
 			final String serviceInstanceId) {
 
+		if ((serviceType == MetricsService.class)
+				&& (serviceInstanceId == null))
+			return serviceType.cast(this.metricsService.instance);
+
 		final String serviceKey = serviceType.getName()
 				+ (serviceInstanceId != null ? ":" + serviceInstanceId : "");
 		final ServiceHolder<?> serviceHolder = this.services.get(serviceKey);
@@ -768,13 +1177,68 @@ class RuntimeContextImpl
 
 
 	/**
-	 * Get executor service used to execute top-level endpoint calls.
+	 * Get internal application metrics service.
+	 *
+	 * @return The metrics service.
+	 */
+	MetricsService getMetricsService() {
+
+		return this.metricsService.instance;
+	}
+
+	/**
+	 * Get actor cache invalidation service.
+	 *
+	 * @return The actor cache invalidation service.
+	 */
+	ActorCacheInvalidationService getActorCacheInvalidationService() {
+
+		return this.actorCacheInvalidationService.instance;
+	}
+
+	/**
+	 * Get executor service used to execute top-level calls to endpoints
+	 * assigned to the specified call processing pool.
+	 *
+	 * @param poolName Dedicated call processing pool name, or {@code null}
+	 * for the default pool.
 	 *
 	 * @return The endpoint call executor service.
 	 */
-	ExecutorService getCallExecutorService() {
+	ThreadPoolExecutor getCallExecutorService(final String poolName) {
 
-		return this.callExecutorService;
+		return (poolName == null ? this.callExecutorService :
+			this.callPoolExecutorServices.get(poolName));
+	}
+
+	/**
+	 * Submit side task for asynchronous execution after the specified delay.
+	 * The delay is waited out by a scheduler and not by a side task processing
+	 * thread. When the delay expires, the task is submitted the same way as
+	 * with {@link #submitSideTask(Runnable)}.
+	 *
+	 * @param task The task.
+	 * @param delay The delay in milliseconds. If zero, the task is submitted
+	 * immediately.
+	 */
+	void submitDelayedSideTask(final Runnable task, final long delay) {
+
+		if (delay <= 0) {
+			this.submitSideTask(task);
+			return;
+		}
+
+		try {
+			this.sideTaskSchedulerService.schedule(new Runnable() {
+				@Override
+				public void run() {
+					RuntimeContextImpl.this.submitSideTask(task);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (final RejectedExecutionException e) {
+			this.log.warn("side task scheduler is shut down, discarding task "
+					+ task);
+		}
 	}
 
 	/**
@@ -782,7 +1246,7 @@ class RuntimeContextImpl
 	 *
 	 * @return The job executor service.
 	 */
-	ExecutorService getJobExecutorService() {
+	ThreadPoolExecutor getJobExecutorService() {
 
 		return this.jobExecutorService;
 	}
@@ -816,4 +1280,24 @@ class RuntimeContextImpl
 
 		return this.maxRequestSize;
 	}
+
+	/**
+	 * Get pool of buffers used to read JSON request entities.
+	 *
+	 * @return The request entity buffer pool.
+	 */
+	RequestBufferPool getRequestBufferPool() {
+
+		return this.requestBufferPool;
+	}
+
+	/**
+	 * Get serialized response entity cache.
+	 *
+	 * @return The response entity cache.
+	 */
+	ResponseEntityCache getResponseEntityCache() {
+
+		return this.responseEntityCache;
+	}
 }
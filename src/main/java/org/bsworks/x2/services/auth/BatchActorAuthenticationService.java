@@ -0,0 +1,34 @@
+package org.bsworks.x2.services.auth;
+
+import java.util.List;
+
+import org.bsworks.x2.Actor;
+
+
+/**
+ * Extension of the actor authentication service interface for services that
+ * can look up multiple actors at once more efficiently than one by one. If the
+ * actor authentication service implements this interface, the framework uses
+ * it to refresh cached actor records in batches.
+ *
+ * @author Lev Himmelfarb
+ */
+public interface BatchActorAuthenticationService
+	extends ActorAuthenticationService {
+
+	/**
+	 * Get multiple actors.
+	 *
+	 * @param actorIds Actor ids as in {@link Actor#getActorId()}.
+	 * @param opaques Service implementation specific values associated with
+	 * the actors, or {@code null} elements if not used (see
+	 * {@link Actor#getOpaque()}). The list has the same size as the actor ids
+	 * list and the elements correspond to the actor ids at the same positions.
+	 *
+	 * @return List of the same size as the actor ids list with actors at the
+	 * positions corresponding to the requested actor ids, or {@code null}
+	 * elements for actors that were not found.
+	 */
+	List<? extends Actor> getActors(List<String> actorIds,
+			List<String> opaques);
+}
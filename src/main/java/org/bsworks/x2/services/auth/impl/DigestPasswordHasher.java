@@ -0,0 +1,86 @@
+package org.bsworks.x2.services.auth.impl;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Password hasher that uses a single message digest pass over the password
+ * bytes, or the plain password bytes if no digest algorithm is specified.
+ *
+ * @author Lev Himmelfarb
+ */
+public class DigestPasswordHasher
+	implements PasswordHasher {
+
+	/**
+	 * UTF-8 charset.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	/**
+	 * Digest algorithm, or {@code null} for no digest.
+	 */
+	private final String digestAlg;
+
+
+	/**
+	 * Create new hasher.
+	 *
+	 * @param digestAlg Digest algorithm, such as "SHA-1", or {@code null} for
+	 * no digest.
+	 *
+	 * @throws NoSuchAlgorithmException If the digest algorithm is not
+	 * available.
+	 */
+	public DigestPasswordHasher(final String digestAlg)
+		throws NoSuchAlgorithmException {
+
+		if (digestAlg != null)
+			MessageDigest.getInstance(digestAlg);
+
+		this.digestAlg = digestAlg;
+	}
+
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public byte[] hash(final String password) {
+
+		final byte[] passwordBytes = password.getBytes(UTF8);
+		if (this.digestAlg == null)
+			return passwordBytes;
+
+		try {
+			return MessageDigest.getInstance(this.digestAlg).digest(
+					passwordBytes);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new RuntimeException("Invalid password digest algorithm.", e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public boolean verify(final String password, final byte[] credentials) {
+
+		if (credentials == null)
+			return false;
+
+		return MessageDigest.isEqual(this.hash(password), credentials);
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public boolean needsRehash(final byte[] credentials) {
+
+		return false;
+	}
+}
@@ -0,0 +1,52 @@
+package org.bsworks.x2.services.auth.impl;
+
+
+/**
+ * Exception thrown by a {@link PasswordActorAuthenticationService} when a
+ * login attempt is rejected without checking the password, for example
+ * because there are too many login attempts or the server is too busy. The
+ * endpoint call handler that performs the login is expected to send an error
+ * response with the HTTP status code carried by the exception.
+ *
+ * @author Lev Himmelfarb
+ */
+public class LoginRejectedException
+	extends RuntimeException {
+
+	/**
+	 * Serial version id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+
+	/**
+	 * HTTP response status code.
+	 */
+	private final int httpStatusCode;
+
+
+	/**
+	 * Create new exception.
+	 *
+	 * @param httpStatusCode HTTP response status code, such as 429 (Too Many
+	 * Requests) or 503 (Service Unavailable).
+	 * @param message Error message.
+	 */
+	public LoginRejectedException(final int httpStatusCode,
+			final String message) {
+		super(message);
+
+		this.httpStatusCode = httpStatusCode;
+	}
+
+
+	/**
+	 * Get HTTP response status code.
+	 *
+	 * @return The status code.
+	 */
+	public int getHttpStatusCode() {
+
+		return this.httpStatusCode;
+	}
+}
@@ -0,0 +1,217 @@
+package org.bsworks.x2.services.auth.impl;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+
+/**
+ * Password hasher that uses PBKDF2 key derivation function with a random salt
+ * and a configurable number of iterations. The salt and the number of
+ * iterations are stored in the credentials together with the derived key, so
+ * that the number of iterations can be increased without invalidating existing
+ * credentials. Credentials created by a different, legacy hasher can be
+ * verified as well, in which case they are reported as needing a rehash.
+ *
+ * <p>The credentials layout is: 4-byte format marker, 4-byte number of
+ * iterations, 1-byte salt length, the salt, and the derived key.
+ *
+ * @author Lev Himmelfarb
+ */
+public class PBKDF2PasswordHasher
+	implements PasswordHasher {
+
+	/**
+	 * Marker at the beginning of the credentials created by this hasher.
+	 */
+	private static final byte[] MARKER = { 'P', 'B', 'K', '2' };
+
+	/**
+	 * Length of the credentials header before the salt.
+	 */
+	private static final int HEADER_LENGTH = MARKER.length + 4 + 1;
+
+	/**
+	 * Salt length in bytes.
+	 */
+	private static final int SALT_LENGTH = 16;
+
+	/**
+	 * Derived key length in bytes.
+	 */
+	private static final int KEY_LENGTH = 32;
+
+
+	/**
+	 * Source of the salts.
+	 */
+	private final SecureRandom random = new SecureRandom();
+
+	/**
+	 * Key derivation algorithm.
+	 */
+	private final String kdfAlg;
+
+	/**
+	 * Number of iterations for new credentials.
+	 */
+	private final int iterations;
+
+	/**
+	 * Legacy hasher, or {@code null}.
+	 */
+	private final PasswordHasher legacyHasher;
+
+
+	/**
+	 * Create new hasher.
+	 *
+	 * @param kdfAlg Key derivation algorithm, such as "PBKDF2WithHmacSHA1".
+	 * @param iterations Number of iterations for new credentials.
+	 * @param legacyHasher Hasher used to verify credentials not created by
+	 * this hasher, or {@code null} if there are no such credentials.
+	 *
+	 * @throws NoSuchAlgorithmException If the key derivation algorithm is not
+	 * available.
+	 */
+	public PBKDF2PasswordHasher(final String kdfAlg, final int iterations,
+			final PasswordHasher legacyHasher)
+		throws NoSuchAlgorithmException {
+
+		if (iterations <= 0)
+			throw new IllegalArgumentException(
+					"Number of iterations must be positive.");
+		SecretKeyFactory.getInstance(kdfAlg);
+
+		this.kdfAlg = kdfAlg;
+		this.iterations = iterations;
+		this.legacyHasher = legacyHasher;
+	}
+
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public byte[] hash(final String password) {
+
+		final byte[] salt = new byte[SALT_LENGTH];
+		this.random.nextBytes(salt);
+
+		final byte[] key = this.deriveKey(password, salt, 0, salt.length,
+				this.iterations, KEY_LENGTH);
+
+		final ByteBuffer buf =
+			ByteBuffer.allocate(HEADER_LENGTH + salt.length + key.length);
+		buf.put(MARKER);
+		buf.putInt(this.iterations);
+		buf.put((byte) salt.length);
+		buf.put(salt);
+		buf.put(key);
+
+		return buf.array();
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public boolean verify(final String password, final byte[] credentials) {
+
+		if (credentials == null)
+			return false;
+
+		if (!isPBKDF2(credentials))
+			return ((this.legacyHasher != null)
+					&& this.legacyHasher.verify(password, credentials));
+
+		final ByteBuffer buf = ByteBuffer.wrap(credentials, MARKER.length,
+				credentials.length - MARKER.length);
+		final int credIterations = buf.getInt();
+		final int saltLength = buf.get() & 0xFF;
+		final int keyLength = buf.remaining() - saltLength;
+		if ((credIterations <= 0) || (saltLength == 0) || (keyLength <= 0))
+			return false;
+
+		final byte[] key = this.deriveKey(password, credentials,
+				HEADER_LENGTH, saltLength, credIterations, keyLength);
+
+		return MessageDigest.isEqual(key, Arrays.copyOfRange(credentials,
+				HEADER_LENGTH + saltLength, credentials.length));
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public boolean needsRehash(final byte[] credentials) {
+
+		if (!isPBKDF2(credentials))
+			return true;
+
+		final ByteBuffer buf = ByteBuffer.wrap(credentials, MARKER.length,
+				credentials.length - MARKER.length);
+
+		return ((buf.getInt() < this.iterations)
+				|| (buf.get() != SALT_LENGTH)
+				|| (buf.remaining() != SALT_LENGTH + KEY_LENGTH));
+	}
+
+
+	/**
+	 * Tell if the credentials were created by this hasher.
+	 *
+	 * @param credentials The credentials.
+	 *
+	 * @return {@code true} if created by this hasher.
+	 */
+	private static boolean isPBKDF2(final byte[] credentials) {
+
+		if ((credentials == null) || (credentials.length < HEADER_LENGTH))
+			return false;
+
+		for (int i = 0; i < MARKER.length; i++)
+			if (credentials[i] != MARKER[i])
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Derive key from the password.
+	 *
+	 * @param password The password.
+	 * @param saltBuf Buffer containing the salt.
+	 * @param saltOff Salt offset in the buffer.
+	 * @param saltLength Salt length.
+	 * @param numIterations Number of iterations.
+	 * @param keyLength Derived key length in bytes.
+	 *
+	 * @return The derived key.
+	 */
+	private byte[] deriveKey(final String password, final byte[] saltBuf,
+			final int saltOff, final int saltLength, final int numIterations,
+			final int keyLength) {
+
+		final PBEKeySpec spec = new PBEKeySpec(password.toCharArray(),
+				Arrays.copyOfRange(saltBuf, saltOff, saltOff + saltLength),
+				numIterations, keyLength * 8);
+		try {
+			return SecretKeyFactory.getInstance(this.kdfAlg)
+					.generateSecret(spec).getEncoded();
+		} catch (final InvalidKeySpecException e) {
+			throw new IllegalArgumentException("Invalid credentials.", e);
+		} catch (final GeneralSecurityException e) {
+			throw new RuntimeException("Error deriving key from password.", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+}
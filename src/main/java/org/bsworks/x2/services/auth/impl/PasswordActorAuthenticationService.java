@@ -25,6 +25,10 @@ public interface PasswordActorAuthenticationService
 	 *
 	 * @return The authenticated actor, or {@code null} if login name, password
 	 * and opaque value combination is invalid.
+	 *
+	 * @throws LoginRejectedException If the login attempt is rejected without
+	 * checking the password, for example because there are too many login
+	 * attempts.
 	 */
 	Actor authenticate(EndpointCallContext ctx, String loginName,
 			String password, String opaque);
@@ -0,0 +1,47 @@
+package org.bsworks.x2.services.auth.impl;
+
+
+/**
+ * Algorithm used to derive actor credentials from passwords. Implementations
+ * must be thread-safe.
+ *
+ * @author Lev Himmelfarb
+ */
+public interface PasswordHasher {
+
+	/**
+	 * Create credentials for the specified password using the hasher's current
+	 * algorithm and work factor.
+	 *
+	 * @param password The password.
+	 *
+	 * @return The credentials.
+	 */
+	byte[] hash(String password);
+
+	/**
+	 * Tell if the specified password matches the credentials. The comparison
+	 * is performed in time that does not depend on how much of the credentials
+	 * match.
+	 *
+	 * @param password The password.
+	 * @param credentials The credentials, or {@code null} if the actor has no
+	 * credentials.
+	 *
+	 * @return {@code true} if the password matches, {@code false} if it does
+	 * not or the credentials are {@code null}.
+	 */
+	boolean verify(String password, byte[] credentials);
+
+	/**
+	 * Tell if the specified credentials were created with an algorithm or a
+	 * work factor different from the hasher's current ones and, therefore,
+	 * should be recreated using {@link #hash(String)} next time the password is
+	 * available.
+	 *
+	 * @param credentials The credentials.
+	 *
+	 * @return {@code true} if the credentials need to be recreated.
+	 */
+	boolean needsRehash(byte[] credentials);
+}
@@ -0,0 +1,252 @@
+package org.bsworks.x2.services.auth.impl.prsrc;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Per-login name token bucket used to reject login attempt floods before any
+ * password hashing is performed. Every login name has a bucket with the
+ * configured capacity, which is refilled at the configured rate. Every login
+ * attempt takes a token from the bucket and is rejected if the bucket is
+ * empty. The number of buckets is bounded: when it is exceeded, full buckets
+ * are removed and, if that is not enough, the least recently used buckets are
+ * removed as well. The throttle is thread-safe.
+ *
+ * @author Lev Himmelfarb
+ */
+class LoginThrottle {
+
+	/**
+	 * Token bucket.
+	 */
+	private static final class Bucket {
+
+		/**
+		 * Number of available tokens.
+		 */
+		private double tokens;
+
+		/**
+		 * Timestamp of the last refill in nanoseconds.
+		 */
+		private long refilledAt;
+
+
+		/**
+		 * Create new full bucket.
+		 *
+		 * @param capacity Bucket capacity.
+		 * @param now Current timestamp in nanoseconds.
+		 */
+		Bucket(final int capacity, final long now) {
+
+			this.tokens = capacity;
+			this.refilledAt = now;
+		}
+
+
+		/**
+		 * Refill the bucket and take a token from it.
+		 *
+		 * @param capacity Bucket capacity.
+		 * @param tokensPerNano Refill rate.
+		 * @param now Current timestamp in nanoseconds.
+		 *
+		 * @return {@code true} if a token was taken, {@code false} if the
+		 * bucket is empty.
+		 */
+		synchronized boolean take(final int capacity,
+				final double tokensPerNano, final long now) {
+
+			this.refill(capacity, tokensPerNano, now);
+			if (this.tokens < 1)
+				return false;
+			this.tokens -= 1;
+
+			return true;
+		}
+
+		/**
+		 * Refill the bucket and tell if it is full.
+		 *
+		 * @param capacity Bucket capacity.
+		 * @param tokensPerNano Refill rate.
+		 * @param now Current timestamp in nanoseconds.
+		 *
+		 * @return {@code true} if full.
+		 */
+		synchronized boolean isFull(final int capacity,
+				final double tokensPerNano, final long now) {
+
+			this.refill(capacity, tokensPerNano, now);
+
+			return (this.tokens >= capacity);
+		}
+
+		/**
+		 * Get time elapsed since the bucket was last used.
+		 *
+		 * @param now Current timestamp in nanoseconds.
+		 *
+		 * @return Elapsed time in nanoseconds.
+		 */
+		synchronized long getIdleTime(final long now) {
+
+			return now - this.refilledAt;
+		}
+
+		/**
+		 * Add tokens accumulated since the last refill.
+		 *
+		 * @param capacity Bucket capacity.
+		 * @param tokensPerNano Refill rate.
+		 * @param now Current timestamp in nanoseconds.
+		 */
+		private void refill(final int capacity, final double tokensPerNano,
+				final long now) {
+
+			final long elapsed = now - this.refilledAt;
+			if (elapsed > 0) {
+				this.tokens = Math.min(capacity,
+						this.tokens + elapsed * tokensPerNano);
+				this.refilledAt = now;
+			}
+		}
+	}
+
+
+	/**
+	 * Number of buckets, after reaching which the buckets are purged.
+	 */
+	private static final int PURGE_THRESHOLD = 10000;
+
+	/**
+	 * Number of buckets left after purging.
+	 */
+	private static final int PURGE_TARGET = PURGE_THRESHOLD * 3 / 4;
+
+	/**
+	 * Nanoseconds in a minute.
+	 */
+	private static final double NANOS_IN_MINUTE = 60 * 1000000000.0;
+
+
+	/**
+	 * Bucket capacity.
+	 */
+	private final int capacity;
+
+	/**
+	 * Refill rate in tokens per nanosecond.
+	 */
+	private final double tokensPerNano;
+
+	/**
+	 * Buckets by login names.
+	 */
+	private final ConcurrentMap<String, Bucket> buckets =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * Tells if a thread is purging the buckets.
+	 */
+	private final AtomicBoolean purging = new AtomicBoolean();
+
+
+	/**
+	 * Create new throttle.
+	 *
+	 * @param capacity Maximum number of login attempts for a login name in a
+	 * burst.
+	 * @param attemptsPerMinute Sustained number of login attempts per minute
+	 * allowed for a login name.
+	 */
+	LoginThrottle(final int capacity, final int attemptsPerMinute) {
+
+		this.capacity = capacity;
+		this.tokensPerNano = attemptsPerMinute / NANOS_IN_MINUTE;
+	}
+
+
+	/**
+	 * Register login attempt.
+	 *
+	 * @param loginName The login name.
+	 *
+	 * @return {@code true} if the attempt is allowed, {@code false} if it must
+	 * be rejected.
+	 */
+	boolean tryAcquire(final String loginName) {
+
+		final String key = (loginName != null ? loginName : "");
+		final long now = System.nanoTime();
+
+		Bucket bucket = this.buckets.get(key);
+		if (bucket == null) {
+			final Bucket newBucket = new Bucket(this.capacity, now);
+			bucket = this.buckets.putIfAbsent(key, newBucket);
+			if (bucket == null) {
+				bucket = newBucket;
+				if ((this.buckets.size() > PURGE_THRESHOLD)
+						&& this.purging.compareAndSet(false, true)) {
+					try {
+						this.purge(now);
+					} finally {
+						this.purging.set(false);
+					}
+				}
+			}
+		}
+
+		return bucket.take(this.capacity, this.tokensPerNano, now);
+	}
+
+	/**
+	 * Remove full buckets, which are equivalent to absent ones. If there are
+	 * still too many buckets, remove the least recently used ones.
+	 *
+	 * @param now Current timestamp in nanoseconds.
+	 */
+	private void purge(final long now) {
+
+		// remove full buckets
+		for (final Iterator<Map.Entry<String, Bucket>> i =
+				this.buckets.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry<String, Bucket> entry = i.next();
+			if (entry.getValue().isFull(this.capacity, this.tokensPerNano,
+					now))
+				this.buckets.remove(entry.getKey(), entry.getValue());
+		}
+
+		// check if enough room now
+		final int excess = this.buckets.size() - PURGE_TARGET;
+		if (excess <= 0)
+			return;
+
+		// find idle time of the most recently used bucket to remove
+		final long[] idleTimes = new long[this.buckets.size()];
+		int numBuckets = 0;
+		for (final Bucket bucket : this.buckets.values()) {
+			if (numBuckets == idleTimes.length)
+				break;
+			idleTimes[numBuckets++] = bucket.getIdleTime(now);
+		}
+		if (numBuckets <= excess)
+			return;
+		Arrays.sort(idleTimes, 0, numBuckets);
+		final long minIdleTime = idleTimes[numBuckets - excess];
+
+		// remove the least recently used buckets
+		for (final Iterator<Map.Entry<String, Bucket>> i =
+				this.buckets.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry<String, Bucket> entry = i.next();
+			if (entry.getValue().getIdleTime(now) >= minIdleTime)
+				this.buckets.remove(entry.getKey(), entry.getValue());
+		}
+	}
+}
@@ -1,10 +1,24 @@
 package org.bsworks.x2.services.auth.impl.prsrc;
 
-import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.bsworks.x2.Actor;
 import org.bsworks.x2.EndpointCallContext;
 import org.bsworks.x2.RuntimeContext;
@@ -14,20 +28,49 @@ import org.bsworks.x2.resource.IdPropertyHandler;
 import org.bsworks.x2.resource.InvalidResourceDataException;
 import org.bsworks.x2.resource.PersistentResourceHandler;
 import org.bsworks.x2.resource.PropertiesFetchSpecBuilder;
+import org.bsworks.x2.resource.ResourcePropertyHandler;
+import org.bsworks.x2.resource.ResourcePropertyValueHandler;
 import org.bsworks.x2.resource.Resources;
+import org.bsworks.x2.services.auth.BatchActorAuthenticationService;
+import org.bsworks.x2.services.auth.impl.LoginRejectedException;
 import org.bsworks.x2.services.auth.impl.PasswordActorAuthenticationService;
+import org.bsworks.x2.services.auth.impl.PasswordHasher;
+import org.bsworks.x2.services.persistence.LockType;
+import org.bsworks.x2.services.persistence.PersistenceTransaction;
 import org.bsworks.x2.services.persistence.PersistenceTransactionHandler;
+import org.bsworks.x2.util.Hex;
 
 
 /**
  * Persistent resource actor authentication service implementation.
  *
+ * <p>Passwords are verified by a {@link PasswordHasher} on a dedicated bounded
+ * thread pool, so that a burst of login attempts using a slow key derivation
+ * function cannot occupy all of the threads processing endpoint calls. Login
+ * attempts that cannot be queued are rejected with an HTTP 503 (Service
+ * Unavailable) error. In addition, login attempts are throttled per login name
+ * using a token bucket and excessive attempts are rejected with an HTTP 429
+ * (Too Many Requests) error before any password hashing happens. Rejected
+ * login attempts are reported with a {@link LoginRejectedException}. If there
+ * is no actor with the login name, the password is still verified against
+ * dummy credentials, so that the response time does not reveal which login
+ * names exist. If the actor credentials were created with an outdated algorithm or
+ * work factor and the credentials property is configured, the credentials are
+ * transparently recreated and saved upon successful login.
+ *
  * @param <A> Actor persistent resource type.
  *
  * @author Lev Himmelfarb
  */
 public class PersistentResourceActorAuthenticationService<A extends Actor>
-	implements PasswordActorAuthenticationService {
+	implements PasswordActorAuthenticationService,
+		BatchActorAuthenticationService {
+
+	/**
+	 * HTTP 429 (Too Many Requests) response status code.
+	 */
+	private static final int TOO_MANY_REQUESTS = 429;
+
 
 	/**
 	 * Application runtime context.
@@ -50,9 +93,42 @@ public class PersistentResourceActorAuthenticationService<A extends Actor>
 	private final String[] otherPropPaths;
 
 	/**
-	 * Password digest algorithm, or {@code null} for no digest.
+	 * Password hasher.
+	 */
+	private final PasswordHasher passwordHasher;
+
+	/**
+	 * Path of the persistent property that stores hexadecimal credentials, or
+	 * {@code null} if credentials are not upgraded.
+	 */
+	private final String credentialsPropPath;
+
+	/**
+	 * Password hashing executor.
+	 */
+	private final ThreadPoolExecutor hashingExecutor;
+
+	/**
+	 * Login attempts throttle, or {@code null} if not throttled.
 	 */
-	private final String passwordDigestAlg;
+	private final LoginThrottle loginThrottle;
+
+	/**
+	 * Credentials, against which the password is verified when there is no
+	 * actor with the login name, so that the response time does not tell if
+	 * the login name exists. Initially, the credentials for a random password
+	 * created with the hasher's current settings. Then, the credentials of
+	 * the actor found by the last login attempt, so that the verification
+	 * takes the same hasher branch and work factor as the stored credentials
+	 * do, including any legacy ones. The verification result is always
+	 * discarded.
+	 */
+	private volatile byte[] dummyCredentials;
+
+	/**
+	 * The log.
+	 */
+	private final Log log = LogFactory.getLog(this.getClass());
 
 
 	/**
@@ -63,19 +139,54 @@ public class PersistentResourceActorAuthenticationService<A extends Actor>
 	 * actor record.
 	 * @param loginNamePropPath Login name property path.
 	 * @param otherPropPaths Other property paths.
-	 * @param passwordDigestAlg Password digest algorithm, or {@code null} for
-	 * no digest.
+	 * @param passwordHasher Password hasher.
+	 * @param credentialsPropPath Path of the persistent property that stores
+	 * hexadecimal credentials, or {@code null} if credentials are not
+	 * upgraded.
+	 * @param hashingThreads Number of password hashing threads.
+	 * @param hashingQueueSize Maximum number of login attempts waiting for a
+	 * password hashing thread.
+	 * @param loginBurst Maximum number of login attempts for a login name in a
+	 * burst, or 0 if login attempts are not throttled.
+	 * @param loginRate Sustained number of login attempts per minute allowed
+	 * for a login name.
 	 */
 	PersistentResourceActorAuthenticationService(
 			final RuntimeContext runtimeCtx,
 			final Class<A> actorPRsrcClass, final String loginNamePropPath,
-			final String[] otherPropPaths, final String passwordDigestAlg) {
+			final String[] otherPropPaths, final PasswordHasher passwordHasher,
+			final String credentialsPropPath, final int hashingThreads,
+			final int hashingQueueSize, final int loginBurst,
+			final int loginRate) {
 
 		this.runtimeCtx = runtimeCtx;
 		this.actorPRsrcClass = actorPRsrcClass;
 		this.loginNamePropPath = loginNamePropPath;
 		this.otherPropPaths = otherPropPaths;
-		this.passwordDigestAlg = passwordDigestAlg;
+		this.passwordHasher = passwordHasher;
+		this.credentialsPropPath = credentialsPropPath;
+
+		final AtomicInteger threadNum = new AtomicInteger();
+		this.hashingExecutor = new ThreadPoolExecutor(hashingThreads,
+				hashingThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(hashingQueueSize),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r, "x2-password-hashing-"
+								+ threadNum.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+		this.loginThrottle = (loginBurst > 0 ?
+				new LoginThrottle(loginBurst, loginRate) : null);
+
+		final byte[] randomBytes = new byte[16];
+		new SecureRandom().nextBytes(randomBytes);
+		this.dummyCredentials =
+			passwordHasher.hash(Hex.encode(randomBytes));
 	}
 
 
@@ -87,16 +198,9 @@ public class PersistentResourceActorAuthenticationService<A extends Actor>
 
 		final Resources resources = this.runtimeCtx.getResources();
 
-		final PersistentResourceHandler<A> actorPRsrcHandler =
-			resources.getPersistentResourceHandler(this.actorPRsrcClass);
-		final IdPropertyHandler idPropHandler =
-			actorPRsrcHandler.getIdProperty();
-
-		final PropertiesFetchSpecBuilder<A> propsFetch =
-			resources.getPropertiesFetchSpec(this.actorPRsrcClass);
-		propsFetch.include(this.loginNamePropPath);
-		for (final String propPath : this.otherPropPaths)
-			propsFetch.include(propPath);
+		final IdPropertyHandler idPropHandler = resources
+				.getPersistentResourceHandler(this.actorPRsrcClass)
+				.getIdProperty();
 
 		final A actor;
 		try (final PersistenceTransactionHandler txh =
@@ -106,7 +210,7 @@ public class PersistentResourceActorAuthenticationService<A extends Actor>
 			actor = txh
 					.getTransaction()
 					.createPersistentResourceFetch(this.actorPRsrcClass)
-					.setPropertiesFetch(propsFetch)
+					.setPropertiesFetch(this.getActorPropertiesFetch())
 					.setFilter(resources.getFilterSpec(this.actorPRsrcClass)
 							.addTrueCondition(idPropHandler.getName(),
 									FilterConditionType.EQ,
@@ -123,6 +227,71 @@ public class PersistentResourceActorAuthenticationService<A extends Actor>
 		return actor;
 	}
 
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public List<A> getActors(final List<String> actorIds,
+			final List<String> opaques) {
+
+		final Resources resources = this.runtimeCtx.getResources();
+
+		final PersistentResourceHandler<A> actorPRsrcHandler =
+			resources.getPersistentResourceHandler(this.actorPRsrcClass);
+		final IdPropertyHandler idPropHandler =
+			actorPRsrcHandler.getIdProperty();
+		final ResourcePropertyValueHandler idValueHandler =
+			idPropHandler.getValueHandler();
+
+		// convert actor ids to the record ids
+		final int numActors = actorIds.size();
+		final List<Object> ids = new ArrayList<>(numActors);
+		final List<Object> operands = new ArrayList<>(numActors);
+		for (final String actorId : actorIds) {
+			Object id;
+			try {
+				id = idValueHandler.valueOf(actorId);
+				operands.add(id);
+			} catch (final InvalidResourceDataException e) {
+				id = null;
+			}
+			ids.add(id);
+		}
+
+		// fetch the actors
+		final Map<Object, A> actorsById = new HashMap<>();
+		if (!operands.isEmpty()) {
+			try (final PersistenceTransactionHandler txh =
+					this.runtimeCtx.getPersistenceService()
+						.createPersistenceTransaction(null, true)) {
+
+				final List<A> records = txh
+						.getTransaction()
+						.createPersistentResourceFetch(this.actorPRsrcClass)
+						.setPropertiesFetch(this.getActorPropertiesFetch())
+						.setFilter(resources.getFilterSpec(this.actorPRsrcClass)
+								.addTrueCondition(idPropHandler.getName(),
+										FilterConditionType.EQ,
+										operands.toArray()))
+						.getResult()
+						.getRecords();
+
+				txh.commitTransaction();
+
+				if (records != null)
+					for (final A actor : records)
+						actorsById.put(idPropHandler.getValue(actor), actor);
+			}
+		}
+
+		// match the fetched actors with the requested ids
+		final List<A> res = new ArrayList<>(numActors);
+		for (final Object id : ids)
+			res.add(id != null ? actorsById.get(id) : null);
+
+		return res;
+	}
+
 	/* (non-Javadoc)
 	 * See overridden method.
 	 */
@@ -131,6 +300,16 @@ public class PersistentResourceActorAuthenticationService<A extends Actor>
 			final String loginName, final String password,
 			final String opaque) {
 
+		// throttle the login attempts
+		if ((this.loginThrottle != null)
+				&& !this.loginThrottle.tryAcquire(loginName)) {
+			if (this.log.isDebugEnabled())
+				this.log.debug("too many login attempts for " + loginName);
+			throw new LoginRejectedException(TOO_MANY_REQUESTS,
+					"Too many login attempts.");
+		}
+
+		// get the actor record
 		final FilterSpecBuilder<A> filter =
 			this.runtimeCtx.getResources().getFilterSpec(this.actorPRsrcClass);
 		this.addAuthenticationFilter(filter, loginName, opaque);
@@ -141,28 +320,171 @@ public class PersistentResourceActorAuthenticationService<A extends Actor>
 				.setFilter(filter)
 				.getSingleResult();
 
-		if (actor == null)
+		if (password == null)
 			return null;
 
+		// verify the password on the hashing executor (against dummy
+		// credentials if no actor, so that it takes the same time)
+		final boolean found = (actor != null);
 		final byte[] creds;
-		if (this.passwordDigestAlg != null) {
-			try {
-				creds = MessageDigest.getInstance(this.passwordDigestAlg)
-						.digest(password.getBytes(Charset.forName("UTF-8")));
-			} catch (final NoSuchAlgorithmException e) {
-				throw new RuntimeException("Invalid password digest algorithm.",
-						e);
-			}
+		if (found) {
+			creds = actor.getCredentials();
+			if (creds != null)
+				this.dummyCredentials = creds;
 		} else {
-			creds = password.getBytes(Charset.forName("UTF-8"));
+			creds = this.dummyCredentials;
 		}
-
-		if (!Arrays.equals(creds, actor.getCredentials()))
+		final boolean upgrade = (this.credentialsPropPath != null);
+		final byte[] newCreds = this.executeHashing(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				final PasswordHasher hasher =
+					PersistentResourceActorAuthenticationService.this
+						.passwordHasher;
+				if (!hasher.verify(password, creds) || !found)
+					return null;
+				if (upgrade && hasher.needsRehash(creds))
+					return hasher.hash(password);
+				return creds;
+			}
+		});
+		if (newCreds == null)
 			return null;
 
+		// upgrade the credentials if necessary
+		if (newCreds != creds)
+			this.upgradeCredentials(actor, newCreds);
+
 		return actor;
 	}
 
+	/**
+	 * Shut down the password hashing executor.
+	 */
+	void shutdown() {
+
+		this.hashingExecutor.shutdownNow();
+	}
+
+	/**
+	 * Execute password hashing task on the hashing executor and wait for its
+	 * completion.
+	 *
+	 * @param task The task.
+	 *
+	 * @return The task result.
+	 *
+	 * @throws LoginRejectedException If the executor is saturated, or the
+	 * calling thread is interrupted while waiting.
+	 */
+	private byte[] executeHashing(final Callable<byte[]> task) {
+
+		final Future<byte[]> future;
+		try {
+			future = this.hashingExecutor.submit(task);
+		} catch (final RejectedExecutionException e) {
+			this.log.warn("password hashing executor is saturated,"
+					+ " rejecting login");
+			throw new LoginRejectedException(
+					HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"The server is too busy to process the login.");
+		}
+
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new LoginRejectedException(
+					HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"Call execution aborted by the server.");
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException("Error hashing password.", cause);
+		}
+	}
+
+	/**
+	 * Save recreated credentials in the actor record. The record is updated in
+	 * a separate transaction, the credentials property of the specified actor
+	 * object is updated as well, and the actor is purged from the actor cache.
+	 * If the record cannot be updated, the error is logged and the actor keeps
+	 * the old credentials.
+	 *
+	 * @param actor The actor.
+	 * @param credentials The new credentials.
+	 */
+	private void upgradeCredentials(final A actor, final byte[] credentials) {
+
+		final Resources resources = this.runtimeCtx.getResources();
+		final PersistentResourceHandler<A> actorPRsrcHandler =
+			resources.getPersistentResourceHandler(this.actorPRsrcClass);
+		final IdPropertyHandler idPropHandler =
+			actorPRsrcHandler.getIdProperty();
+		final ResourcePropertyHandler credsPropHandler = actorPRsrcHandler
+				.getPersistentPropertyChain(this.credentialsPropPath).getLast();
+		final String credsHex = Hex.encode(credentials);
+
+		if (this.log.isDebugEnabled())
+			this.log.debug("upgrading credentials of actor "
+					+ actor.getActorId());
+
+		try (final PersistenceTransactionHandler txh =
+				this.runtimeCtx.getPersistenceService()
+					.createPersistenceTransaction(actor, false)) {
+
+			final PersistenceTransaction tx = txh.getTransaction();
+			final Object id = idPropHandler.getValue(actor);
+			final A rec = tx
+					.createPersistentResourceFetch(this.actorPRsrcClass)
+					.setFilter(resources.getFilterSpec(this.actorPRsrcClass)
+							.addTrueCondition(idPropHandler.getName(),
+									FilterConditionType.EQ, id))
+					.lockResult(LockType.EXCLUSIVE)
+					.getSingleResult();
+			if (rec == null)
+				return;
+			final A recTmpl = tx
+					.createPersistentResourceFetch(this.actorPRsrcClass)
+					.setFilter(resources.getFilterSpec(this.actorPRsrcClass)
+							.addTrueCondition(idPropHandler.getName(),
+									FilterConditionType.EQ, id))
+					.getSingleResult();
+			credsPropHandler.setValue(recTmpl, credsHex);
+			tx.update(this.actorPRsrcClass, rec, recTmpl, null);
+
+			txh.commitTransaction();
+
+		} catch (final RuntimeException e) {
+			this.log.error("error upgrading credentials of actor "
+					+ actor.getActorId(), e);
+			return;
+		}
+
+		credsPropHandler.setValue(actor, credsHex);
+		this.runtimeCtx.purgeCachedActor(actor);
+	}
+
+	/**
+	 * Get properties fetch specification for the actor lookups.
+	 *
+	 * @return The properties fetch specification.
+	 */
+	private PropertiesFetchSpecBuilder<A> getActorPropertiesFetch() {
+
+		final PropertiesFetchSpecBuilder<A> propsFetch = this.runtimeCtx
+				.getResources().getPropertiesFetchSpec(this.actorPRsrcClass);
+		propsFetch.include(this.loginNamePropPath);
+		for (final String propPath : this.otherPropPaths)
+			propsFetch.include(propPath);
+
+		return propsFetch;
+	}
+
 	/**
 	 * Add conditions to the filter for the
 	 * {@link #authenticate(EndpointCallContext, String, String, String)}
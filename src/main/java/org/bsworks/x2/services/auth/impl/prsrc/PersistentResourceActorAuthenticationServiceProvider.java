@@ -1,7 +1,7 @@
 package org.bsworks.x2.services.auth.impl.prsrc;
 
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Deque;
 
 import javax.servlet.ServletContext;
 
@@ -11,9 +11,14 @@ import org.bsworks.x2.InitializationException;
 import org.bsworks.x2.RuntimeContext;
 import org.bsworks.x2.ServiceProvider;
 import org.bsworks.x2.resource.PersistentResourceHandler;
+import org.bsworks.x2.resource.ResourcePropertyHandler;
 import org.bsworks.x2.resource.Resources;
 import org.bsworks.x2.services.auth.ActorAuthenticationService;
+import org.bsworks.x2.services.auth.impl.DigestPasswordHasher;
+import org.bsworks.x2.services.auth.impl.PBKDF2PasswordHasher;
 import org.bsworks.x2.services.auth.impl.PasswordActorAuthenticationService;
+import org.bsworks.x2.services.auth.impl.PasswordHasher;
+import org.bsworks.x2.services.persistence.PersistentValueType;
 import org.bsworks.x2.util.StringUtils;
 
 
@@ -44,7 +49,34 @@ import org.bsworks.x2.util.StringUtils;
  * method always returns the completely fetched resource record.</dd>
  * <dt>{@value #PASSWORD_DIGEST_ALG_INITPARAM}</dt><dd>Password digest
  * algorithm, such as "SHA-1". If not specified, plain password bytes are
- * used.</dd>
+ * used. If a password key derivation function is specified, the digest is
+ * used only to verify legacy credentials.</dd>
+ * <dt>{@value #PASSWORD_KDF_INITPARAM}</dt><dd>Password key derivation
+ * function, such as "PBKDF2WithHmacSHA1". If specified, credentials are
+ * created using {@link PBKDF2PasswordHasher}. If not specified, the password
+ * digest is used.</dd>
+ * <dt>{@value #PASSWORD_KDF_ITERATIONS_INITPARAM}</dt><dd>Number of
+ * iterations of the password key derivation function used for new
+ * credentials. The default is {@value #DEFAULT_PASSWORD_KDF_ITERATIONS}.</dd>
+ * <dt>{@value #CREDENTIALS_PROP_INITPARAM}</dt><dd>Path of a top-level
+ * persistent string property of the actor persistent resource that stores the
+ * actor credentials in hexadecimal encoding. If specified, credentials created
+ * with a legacy algorithm or an outdated number of iterations are recreated
+ * and saved upon successful login. If not specified, credentials are never
+ * upgraded.</dd>
+ * <dt>{@value #HASHING_THREADS_INITPARAM}</dt><dd>Number of threads in the
+ * dedicated password hashing pool. The default is the number of available
+ * processors.</dd>
+ * <dt>{@value #HASHING_QUEUE_SIZE_INITPARAM}</dt><dd>Maximum number of login
+ * attempts waiting for a password hashing thread, after which new login
+ * attempts are rejected. The default is
+ * {@value #DEFAULT_HASHING_QUEUE_SIZE}.</dd>
+ * <dt>{@value #LOGIN_BURST_INITPARAM}</dt><dd>Maximum number of login attempts
+ * for a single login name allowed in a burst. The default is
+ * {@value #DEFAULT_LOGIN_BURST}. Zero disables login throttling.</dd>
+ * <dt>{@value #LOGIN_RATE_INITPARAM}</dt><dd>Sustained number of login
+ * attempts per minute allowed for a single login name. Must be at least 1.
+ * The default is {@value #DEFAULT_LOGIN_RATE}.</dd>
  * </dl>
  *
  * @author Lev Himmelfarb
@@ -80,6 +112,76 @@ public class PersistentResourceActorAuthenticationServiceProvider
 	public static final String PASSWORD_DIGEST_ALG_INITPARAM =
 		"x2.service.auth.prsrc.passwordDigestAlg";
 
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * password key derivation function.
+	 */
+	public static final String PASSWORD_KDF_INITPARAM =
+		"x2.service.auth.prsrc.passwordKDF";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * number of iterations of the password key derivation function.
+	 */
+	public static final String PASSWORD_KDF_ITERATIONS_INITPARAM =
+		"x2.service.auth.prsrc.passwordKDFIterations";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * path of the credentials property in the actor persistent resource.
+	 */
+	public static final String CREDENTIALS_PROP_INITPARAM =
+		"x2.service.auth.prsrc.credentialsProperty";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * number of password hashing threads.
+	 */
+	public static final String HASHING_THREADS_INITPARAM =
+		"x2.service.auth.prsrc.hashingThreads";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * maximum number of login attempts waiting for a password hashing thread.
+	 */
+	public static final String HASHING_QUEUE_SIZE_INITPARAM =
+		"x2.service.auth.prsrc.hashingQueueSize";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * maximum number of login attempts for a login name in a burst.
+	 */
+	public static final String LOGIN_BURST_INITPARAM =
+		"x2.service.auth.prsrc.loginBurst";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * sustained number of login attempts per minute for a login name.
+	 */
+	public static final String LOGIN_RATE_INITPARAM =
+		"x2.service.auth.prsrc.loginRate";
+
+	/**
+	 * Default number of iterations of the password key derivation function.
+	 */
+	public static final int DEFAULT_PASSWORD_KDF_ITERATIONS = 10000;
+
+	/**
+	 * Default maximum number of login attempts waiting for a password hashing
+	 * thread.
+	 */
+	public static final int DEFAULT_HASHING_QUEUE_SIZE = 64;
+
+	/**
+	 * Default maximum number of login attempts for a login name in a burst.
+	 */
+	public static final int DEFAULT_LOGIN_BURST = 10;
+
+	/**
+	 * Default sustained number of login attempts per minute for a login name.
+	 */
+	public static final int DEFAULT_LOGIN_RATE = 6;
+
 
 	/* (non-Javadoc)
 	 * See overridden method.
@@ -153,22 +255,53 @@ public class PersistentResourceActorAuthenticationServiceProvider
 			}
 		}
 
-		// get and validate password digest algorithm
-		final String passwordDigestAlg =
-			sc.getInitParameter(PASSWORD_DIGEST_ALG_INITPARAM);
-		if (passwordDigestAlg != null) {
+		// create password hasher
+		final PasswordHasher passwordHasher;
+		try {
+			final PasswordHasher digestHasher = new DigestPasswordHasher(
+					sc.getInitParameter(PASSWORD_DIGEST_ALG_INITPARAM));
+			final String passwordKDF = StringUtils.nullIfEmpty(
+					sc.getInitParameter(PASSWORD_KDF_INITPARAM));
+			passwordHasher = (passwordKDF == null ? digestHasher :
+				new PBKDF2PasswordHasher(passwordKDF.trim(),
+						getIntInitParam(sc, PASSWORD_KDF_ITERATIONS_INITPARAM,
+								DEFAULT_PASSWORD_KDF_ITERATIONS, 1),
+						digestHasher));
+		} catch (final NoSuchAlgorithmException e) {
+			throw new InitializationException(
+					"Invalid password hashing algorithm.", e);
+		}
+
+		// get and validate credentials property
+		final String credentialsPropPath = StringUtils.nullIfEmpty(
+				sc.getInitParameter(CREDENTIALS_PROP_INITPARAM));
+		if (credentialsPropPath != null) {
+			final Deque<? extends ResourcePropertyHandler> chain;
 			try {
-				MessageDigest.getInstance(passwordDigestAlg);
-			} catch (final NoSuchAlgorithmException e) {
-				throw new InitializationException(
-						"Invalid password digest algorithm.", e);
+				chain = actorPRsrcHandler.getPersistentPropertyChain(
+						credentialsPropPath);
+			} catch (final IllegalArgumentException e) {
+				throw new InitializationException("Specified credentials"
+						+ " property does not exist or is not persistent.", e);
 			}
+			if ((chain.size() != 1) || (chain.getLast().getValueHandler()
+					.getPersistentValueType() != PersistentValueType.STRING))
+				throw new InitializationException("Specified credentials"
+						+ " property is not a top-level string property.");
 		}
 
 		// create the service
 		return this.createActorAuthenticationService(runtimeCtx,
 				actorPRsrcClass, loginNamePropPath, otherPropPaths,
-				passwordDigestAlg);
+				passwordHasher, credentialsPropPath,
+				getIntInitParam(sc, HASHING_THREADS_INITPARAM,
+						Runtime.getRuntime().availableProcessors(), 1),
+				getIntInitParam(sc, HASHING_QUEUE_SIZE_INITPARAM,
+						DEFAULT_HASHING_QUEUE_SIZE, 1),
+				getIntInitParam(sc, LOGIN_BURST_INITPARAM,
+						DEFAULT_LOGIN_BURST, 0),
+				getIntInitParam(sc, LOGIN_RATE_INITPARAM,
+						DEFAULT_LOGIN_RATE, 1));
 	}
 
 	/**
@@ -181,8 +314,16 @@ public class PersistentResourceActorAuthenticationServiceProvider
 	 * used (default implementation requires it!).
 	 * @param otherPropPaths Other actor resource properties to fetch. May be
 	 * empty but never {@code null}.
-	 * @param passwordDigestAlg Password digest algorithm or {@code null} if no
-	 * digest.
+	 * @param passwordHasher Password hasher.
+	 * @param credentialsPropPath Credentials property path, or {@code null} if
+	 * credentials are not upgraded.
+	 * @param hashingThreads Number of password hashing threads.
+	 * @param hashingQueueSize Maximum number of login attempts waiting for a
+	 * password hashing thread.
+	 * @param loginBurst Maximum number of login attempts for a login name in a
+	 * burst, or 0 if login attempts are not throttled.
+	 * @param loginRate Sustained number of login attempts per minute allowed
+	 * for a login name.
 	 *
 	 * @return Service instance.
 	 */
@@ -190,14 +331,22 @@ public class PersistentResourceActorAuthenticationServiceProvider
 			final RuntimeContext runtimeCtx,
 			final Class<? extends Actor> actorPRsrcClass,
 			final String loginNamePropPath, final String[] otherPropPaths,
-			final String passwordDigestAlg) {
+			final PasswordHasher passwordHasher,
+			final String credentialsPropPath, final int hashingThreads,
+			final int hashingQueueSize, final int loginBurst,
+			final int loginRate) {
 
 		return new PersistentResourceActorAuthenticationService<>(
 				runtimeCtx,
 				actorPRsrcClass,
 				loginNamePropPath,
 				otherPropPaths,
-				passwordDigestAlg);
+				passwordHasher,
+				credentialsPropPath,
+				hashingThreads,
+				hashingQueueSize,
+				loginBurst,
+				loginRate);
 	}
 
 	/* (non-Javadoc)
@@ -206,6 +355,44 @@ public class PersistentResourceActorAuthenticationServiceProvider
 	@Override
 	public void destroyService(final ActorAuthenticationService service) {
 
-		// nothing
+		if (service instanceof PersistentResourceActorAuthenticationService)
+			((PersistentResourceActorAuthenticationService<?>) service)
+				.shutdown();
+	}
+
+	/**
+	 * Get integer web-application context initialization parameter.
+	 *
+	 * @param sc Servlet context.
+	 * @param paramName Parameter name.
+	 * @param defaultValue Default value used if the parameter is not
+	 * specified.
+	 * @param minValue Minimum allowed value.
+	 *
+	 * @return The parameter value.
+	 *
+	 * @throws InitializationException If the parameter value is invalid.
+	 */
+	private static int getIntInitParam(final ServletContext sc,
+			final String paramName, final int defaultValue, final int minValue)
+		throws InitializationException {
+
+		final String valStr =
+			StringUtils.nullIfEmpty(sc.getInitParameter(paramName));
+		if (valStr == null)
+			return defaultValue;
+
+		final int val;
+		try {
+			val = Integer.parseInt(valStr.trim());
+		} catch (final NumberFormatException e) {
+			throw new InitializationException("Invalid " + paramName
+					+ " web-application context initialization parameter.", e);
+		}
+		if (val < minValue)
+			throw new InitializationException("Invalid " + paramName
+					+ " web-application context initialization parameter.");
+
+		return val;
 	}
 }
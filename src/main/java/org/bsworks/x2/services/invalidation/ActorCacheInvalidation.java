@@ -0,0 +1,115 @@
+package org.bsworks.x2.services.invalidation;
+
+import java.util.Date;
+
+import org.bsworks.x2.resource.annotations.Property;
+
+
+/**
+ * Actor cache invalidation record.
+ *
+ * @author Lev Himmelfarb
+ */
+public class ActorCacheInvalidation {
+
+	/**
+	 * Actor id.
+	 */
+	private String actorId;
+
+	/**
+	 * Actor opaque value, or {@code null} if not used.
+	 */
+	private String opaque;
+
+	/**
+	 * Invalidation timestamp.
+	 */
+	private Date timestamp;
+
+
+	/**
+	 * Create new invalidation record.
+	 *
+	 * @param actorId Actor id.
+	 * @param opaque Actor opaque value, or {@code null} if not used.
+	 * @param timestamp Invalidation timestamp.
+	 */
+	public ActorCacheInvalidation(final String actorId, final String opaque,
+			final Date timestamp) {
+
+		this.actorId = actorId;
+		this.opaque = opaque;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Create new uninitialized invalidation record. Use setters to set the
+	 * properties.
+	 */
+	public ActorCacheInvalidation() {}
+
+
+	/**
+	 * Get actor id.
+	 *
+	 * @return Actor id.
+	 */
+	@Property
+	public String getActorId() {
+
+		return this.actorId;
+	}
+
+	/**
+	 * Set actor id.
+	 *
+	 * @param actorId Actor id.
+	 */
+	public void setActorId(final String actorId) {
+
+		this.actorId = actorId;
+	}
+
+	/**
+	 * Get actor opaque value.
+	 *
+	 * @return Actor opaque value, or {@code null} if not used.
+	 */
+	@Property
+	public String getOpaque() {
+
+		return this.opaque;
+	}
+
+	/**
+	 * Set actor opaque value.
+	 *
+	 * @param opaque Actor opaque value, or {@code null} if not used.
+	 */
+	public void setOpaque(final String opaque) {
+
+		this.opaque = opaque;
+	}
+
+	/**
+	 * Get invalidation timestamp.
+	 *
+	 * @return Invalidation timestamp.
+	 */
+	@Property
+	public Date getTimestamp() {
+
+		return this.timestamp;
+	}
+
+	/**
+	 * Set invalidation timestamp.
+	 *
+	 * @param timestamp Invalidation timestamp.
+	 */
+	public void setTimestamp(final Date timestamp) {
+
+		this.timestamp = timestamp;
+	}
+}
@@ -0,0 +1,65 @@
+package org.bsworks.x2.services.invalidation;
+
+import java.util.List;
+
+import org.bsworks.x2.EssentialService;
+import org.bsworks.x2.services.persistence.PersistenceTransaction;
+
+
+/**
+ * Service used by the framework to propagate purges of cached actors between
+ * multiple instances of the application. When an actor is purged from the
+ * cache, the framework registers the invalidation with the service, normally
+ * within the same persistence transaction that modifies the actor record. The
+ * framework then periodically polls the service for invalidations registered
+ * by all application instances and purges the corresponding actors from its
+ * local cache.
+ *
+ * @author Lev Himmelfarb
+ */
+public interface ActorCacheInvalidationService
+	extends EssentialService {
+
+	/**
+	 * Get interval, at which the framework polls the service for new
+	 * invalidations.
+	 *
+	 * @return Poll interval in milliseconds, or zero if the service does not
+	 * propagate invalidations and does not need to be polled.
+	 */
+	long getPollInterval();
+
+	/**
+	 * Register actor cache invalidation.
+	 *
+	 * @param tx The persistence transaction.
+	 * @param actorId Actor id.
+	 * @param opaque Actor opaque value, or {@code null} if not used.
+	 */
+	void registerInvalidation(PersistenceTransaction tx, String actorId,
+			String opaque);
+
+	/**
+	 * Get invalidations registered by any application instance and not yet
+	 * confirmed with {@link #confirmInvalidations(List)}. The framework never
+	 * calls this method concurrently.
+	 *
+	 * @param tx The persistence transaction (not read-only).
+	 *
+	 * @return The new invalidations. May be empty, but not {@code null}.
+	 */
+	List<ActorCacheInvalidation> pollInvalidations(PersistenceTransaction tx);
+
+	/**
+	 * Confirm that invalidations returned by
+	 * {@link #pollInvalidations(PersistenceTransaction)} have been processed,
+	 * so that they are not returned by the subsequent polls. The framework
+	 * calls this method after the poll transaction has been successfully
+	 * committed and the invalidated actors have been purged from the cache. If
+	 * the transaction fails, the method is not called and the invalidations
+	 * are returned again by the next poll.
+	 *
+	 * @param invs The processed invalidations.
+	 */
+	void confirmInvalidations(List<ActorCacheInvalidation> invs);
+}
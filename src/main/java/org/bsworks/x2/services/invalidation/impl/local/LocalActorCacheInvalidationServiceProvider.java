@@ -0,0 +1,114 @@
+package org.bsworks.x2.services.invalidation.impl.local;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+
+import org.apache.commons.logging.LogFactory;
+
+import org.bsworks.x2.RuntimeContext;
+import org.bsworks.x2.ServiceProvider;
+import org.bsworks.x2.resource.Resources;
+import org.bsworks.x2.services.invalidation.ActorCacheInvalidation;
+import org.bsworks.x2.services.invalidation.ActorCacheInvalidationService;
+import org.bsworks.x2.services.persistence.PersistenceTransaction;
+
+
+/**
+ * Provider of an {@link ActorCacheInvalidationService} implementation that
+ * does not propagate actor cache invalidations. This is the default
+ * implementation, which is suitable for single instance setups. For
+ * multi-instance setups, an implementation that propagates invalidations
+ * between the instances is recommended.
+ *
+ * @author Lev Himmelfarb
+ */
+public class LocalActorCacheInvalidationServiceProvider
+	implements ServiceProvider<ActorCacheInvalidationService> {
+
+	/**
+	 * The service implementation.
+	 */
+	private static final class LocalActorCacheInvalidationService
+		implements ActorCacheInvalidationService {
+
+		/**
+		 * Create new service instance.
+		 */
+		LocalActorCacheInvalidationService() {}
+
+
+		/* (non-Javadoc)
+		 * See overridden method.
+		 */
+		@Override
+		public long getPollInterval() {
+
+			return 0;
+		}
+
+		/* (non-Javadoc)
+		 * See overridden method.
+		 */
+		@Override
+		public void registerInvalidation(final PersistenceTransaction tx,
+				final String actorId, final String opaque) {
+
+			// nothing
+		}
+
+		/* (non-Javadoc)
+		 * See overridden method.
+		 */
+		@Override
+		public List<ActorCacheInvalidation> pollInvalidations(
+				final PersistenceTransaction tx) {
+
+			return Collections.emptyList();
+		}
+
+		/* (non-Javadoc)
+		 * See overridden method.
+		 */
+		@Override
+		public void confirmInvalidations(
+				final List<ActorCacheInvalidation> invs) {
+
+			// nothing
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public Class<ActorCacheInvalidationService> getServiceClass() {
+
+		return ActorCacheInvalidationService.class;
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public ActorCacheInvalidationService createService(
+			final ServletContext sc, final String serviceInstanceId,
+			final Resources resources, final RuntimeContext runtimeCtx) {
+
+		LogFactory.getLog(this.getClass()).debug("creating local actor cache"
+				+ " invalidation service");
+
+		return new LocalActorCacheInvalidationService();
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void destroyService(final ActorCacheInvalidationService service) {
+
+		// nothing
+	}
+}
@@ -0,0 +1,5 @@
+/**
+ * Actor cache invalidation service implementation for single instance setups
+ * that does not propagate invalidations.
+ */
+package org.bsworks.x2.services.invalidation.impl.local;
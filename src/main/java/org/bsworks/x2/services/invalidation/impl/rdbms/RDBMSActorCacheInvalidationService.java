@@ -0,0 +1,238 @@
+package org.bsworks.x2.services.invalidation.impl.rdbms;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bsworks.x2.services.invalidation.ActorCacheInvalidation;
+import org.bsworks.x2.services.invalidation.ActorCacheInvalidationService;
+import org.bsworks.x2.services.persistence.PersistenceTransaction;
+import org.bsworks.x2.services.persistence.PersistentValueType;
+import org.bsworks.x2.services.persistence.RDBMSPersistenceTransaction;
+import org.bsworks.x2.util.sql.dialect.SQLDialect;
+
+
+/**
+ * RDBMS table-based actor cache invalidation service implementation.
+ *
+ * <p>Since transactions that register invalidations may commit in an order
+ * different from the order of the invalidation timestamps, and the clocks of
+ * the application instances may be slightly skewed, every poll reads all
+ * invalidations registered within the configured look-back period and filters
+ * out the ones that have already been returned by the previous polls.
+ *
+ * @author Lev Himmelfarb
+ */
+class RDBMSActorCacheInvalidationService
+	implements ActorCacheInvalidationService {
+
+	/**
+	 * Invalidation log table name.
+	 */
+	private final String tableName;
+
+	/**
+	 * Actor id column name.
+	 */
+	private final String actorIdColName;
+
+	/**
+	 * Actor opaque value column name.
+	 */
+	private final String opaqueColName;
+
+	/**
+	 * Invalidation timestamp column name.
+	 */
+	private final String timestampColName;
+
+	/**
+	 * Poll interval in milliseconds.
+	 */
+	private final long pollInterval;
+
+	/**
+	 * Look-back period in milliseconds.
+	 */
+	private final long lookBack;
+
+	/**
+	 * Statement used to insert an invalidation row.
+	 */
+	private final String insertStmt;
+
+	/**
+	 * Statement used to delete old invalidation rows.
+	 */
+	private final String deleteStmt;
+
+	/**
+	 * Query used to select recent invalidation rows.
+	 */
+	private String selectQuery;
+
+	/**
+	 * Timestamps of the invalidations within the look-back period that have
+	 * already been returned and confirmed, by invalidation keys. Accessed only
+	 * by the polling thread.
+	 */
+	private final Map<String, Long> returned = new HashMap<>();
+
+	/**
+	 * Timestamp of the last deletion of old invalidation rows.
+	 */
+	private long lastCleanupTS;
+
+
+	/**
+	 * Create new service instance.
+	 *
+	 * @param tableName Invalidation log table name.
+	 * @param actorIdColName Actor id column name.
+	 * @param opaqueColName Actor opaque value column name.
+	 * @param timestampColName Invalidation timestamp column name.
+	 * @param pollInterval Poll interval in milliseconds.
+	 * @param lookBack Look-back period in milliseconds.
+	 */
+	RDBMSActorCacheInvalidationService(final String tableName,
+			final String actorIdColName, final String opaqueColName,
+			final String timestampColName, final long pollInterval,
+			final long lookBack) {
+
+		this.tableName = tableName;
+		this.actorIdColName = actorIdColName;
+		this.opaqueColName = opaqueColName;
+		this.timestampColName = timestampColName;
+		this.pollInterval = pollInterval;
+		this.lookBack = lookBack;
+
+		this.insertStmt = "INSERT INTO " + this.tableName + " ("
+				+ this.actorIdColName + ", " + this.opaqueColName + ", "
+				+ this.timestampColName
+				+ ") VALUES (?actorId, ?opaque, ?timestamp)";
+		this.deleteStmt = "DELETE FROM " + this.tableName + " WHERE "
+				+ this.timestampColName + " < ?before";
+	}
+
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public long getPollInterval() {
+
+		return this.pollInterval;
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void registerInvalidation(final PersistenceTransaction tx,
+			final String actorId, final String opaque) {
+
+		tx.createUpdate(this.insertStmt)
+			.setParameter("actorId", PersistentValueType.STRING, actorId)
+			.setParameter("opaque", PersistentValueType.STRING, opaque)
+			.setParameter("timestamp", PersistentValueType.DATE, new Date())
+			.execute();
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public List<ActorCacheInvalidation> pollInvalidations(
+			final PersistenceTransaction tx) {
+
+		if (!(tx instanceof RDBMSPersistenceTransaction))
+			throw new IllegalArgumentException("RDBMS actor cache"
+					+ " invalidation service requires RDBMS persistence"
+					+ " transaction.");
+		final RDBMSPersistenceTransaction rdbmsTx =
+			(RDBMSPersistenceTransaction) tx;
+
+		// get the query text
+		if (this.selectQuery == null) {
+			final SQLDialect dialect = rdbmsTx.getSQLDialect();
+			this.selectQuery = "SELECT "
+					+ this.actorIdColName + " AS "
+						+ dialect.quoteColumnLabel("inv$actorId")
+					+ ", " + this.opaqueColName + " AS "
+						+ dialect.quoteColumnLabel("inv$opaque")
+					+ ", " + this.timestampColName + " AS "
+						+ dialect.quoteColumnLabel("inv$timestamp")
+				+ " FROM "
+					+ this.tableName
+				+ " WHERE "
+					+ this.timestampColName + " >= ?since";
+		}
+
+		// get invalidations within the look-back period
+		final long now = System.currentTimeMillis();
+		final long since = now - this.lookBack;
+		final List<ActorCacheInvalidation> invs = rdbmsTx
+				.createQuery(this.selectQuery, ActorCacheInvalidation.class)
+				.setParameter("since", PersistentValueType.DATE,
+						new Date(since))
+				.getResultList(null);
+
+		// forget returned invalidations that are out of the look-back period
+		for (final Iterator<Long> i = this.returned.values().iterator();
+				i.hasNext();)
+			if (i.next().longValue() < since)
+				i.remove();
+
+		// filter out already returned invalidations
+		final List<ActorCacheInvalidation> res = new ArrayList<>(invs.size());
+		final Set<String> resKeys = new HashSet<>();
+		for (final ActorCacheInvalidation inv : invs) {
+			final String key = getKey(inv);
+			if (!this.returned.containsKey(key) && resKeys.add(key))
+				res.add(inv);
+		}
+
+		// delete invalidations that are well out of the look-back period
+		if (now - this.lastCleanupTS >= this.lookBack) {
+			rdbmsTx.createUpdate(this.deleteStmt)
+				.setParameter("before", PersistentValueType.DATE,
+						new Date(now - 2 * this.lookBack))
+				.execute();
+			this.lastCleanupTS = now;
+		}
+
+		// return the new invalidations
+		return res;
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void confirmInvalidations(final List<ActorCacheInvalidation> invs) {
+
+		for (final ActorCacheInvalidation inv : invs)
+			this.returned.put(getKey(inv),
+					Long.valueOf(inv.getTimestamp().getTime()));
+	}
+
+
+	/**
+	 * Get key that identifies the invalidation.
+	 *
+	 * @param inv The invalidation.
+	 *
+	 * @return The key.
+	 */
+	private static String getKey(final ActorCacheInvalidation inv) {
+
+		return inv.getActorId()
+				+ (inv.getOpaque() != null ? "&" + inv.getOpaque() : "")
+				+ "@" + inv.getTimestamp().getTime();
+	}
+}
@@ -0,0 +1,204 @@
+package org.bsworks.x2.services.invalidation.impl.rdbms;
+
+import javax.servlet.ServletContext;
+
+import org.apache.commons.logging.LogFactory;
+
+import org.bsworks.x2.InitializationException;
+import org.bsworks.x2.RuntimeContext;
+import org.bsworks.x2.ServiceProvider;
+import org.bsworks.x2.resource.Resources;
+import org.bsworks.x2.services.invalidation.ActorCacheInvalidationService;
+import org.bsworks.x2.services.persistence.PersistenceService;
+import org.bsworks.x2.services.persistence.RDBMSPersistenceTransaction;
+import org.bsworks.x2.util.StringUtils;
+
+
+/**
+ * Actor cache invalidation service provider that uses an RDBMS table as the
+ * invalidation log shared by all application instances. Invalidations are
+ * inserted into the table within the transaction that purges the actor and
+ * every instance periodically polls the table. This service provider can be
+ * used only with a {@link PersistenceService} implementation that provides
+ * {@link RDBMSPersistenceTransaction} transaction handlers.
+ *
+ * <p>The implementation can be configured using the following web-application
+ * context initialization parameters:
+ *
+ * <dl>
+ * <dt>{@value #TABLE_INITPARAM}</dt><dd>Name of the invalidation log table.
+ * The table needs to have three columns: the actor id (a string), the actor
+ * opaque value (a nullable string), and the invalidation timestamp. An index on
+ * the timestamp column is recommended. Default is {@value #DEFAULT_TABLE}.</dd>
+ * <dt>{@value #ACTOR_ID_COLUMN_INITPARAM}</dt><dd>Name of the actor id column.
+ * Default is {@value #DEFAULT_ACTOR_ID_COLUMN}.</dd>
+ * <dt>{@value #OPAQUE_COLUMN_INITPARAM}</dt><dd>Name of the actor opaque value
+ * column. Default is {@value #DEFAULT_OPAQUE_COLUMN}.</dd>
+ * <dt>{@value #TIMESTAMP_COLUMN_INITPARAM}</dt><dd>Name of the invalidation
+ * timestamp column. Default is {@value #DEFAULT_TIMESTAMP_COLUMN}.</dd>
+ * <dt>{@value #POLL_INTERVAL_INITPARAM}</dt><dd>Number of milliseconds between
+ * polls of the table, which is the maximum delay, with which an invalidation
+ * is seen by other instances. Default is {@value #DEFAULT_POLL_INTERVAL}.</dd>
+ * <dt>{@value #LOOK_BACK_INITPARAM}</dt><dd>Number of milliseconds back from
+ * the current time, for which every poll reads the invalidations. Must exceed
+ * the poll interval by the maximum duration of a transaction that registers an
+ * invalidation plus the maximum clock difference between the instances.
+ * Invalidations older than twice the look-back period are deleted from the
+ * table. Default is {@value #DEFAULT_LOOK_BACK}.</dd>
+ * </dl>
+ *
+ * <p>The table must exist.
+ *
+ * @author Lev Himmelfarb
+ */
+public class RDBMSActorCacheInvalidationServiceProvider
+	implements ServiceProvider<ActorCacheInvalidationService> {
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * invalidation log table name.
+	 */
+	public static final String TABLE_INITPARAM =
+		"x2.service.actorCacheInvalidation.rdbms.table";
+
+	/**
+	 * Default invalidation log table name.
+	 */
+	public static final String DEFAULT_TABLE = "x2actorinv";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * name of the column for the actor ids.
+	 */
+	public static final String ACTOR_ID_COLUMN_INITPARAM =
+		"x2.service.actorCacheInvalidation.rdbms.actorIdColumn";
+
+	/**
+	 * Default name of the column for the actor ids.
+	 */
+	public static final String DEFAULT_ACTOR_ID_COLUMN = "actor_id";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * name of the column for the actor opaque values.
+	 */
+	public static final String OPAQUE_COLUMN_INITPARAM =
+		"x2.service.actorCacheInvalidation.rdbms.opaqueColumn";
+
+	/**
+	 * Default name of the column for the actor opaque values.
+	 */
+	public static final String DEFAULT_OPAQUE_COLUMN = "opaque";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * name of the column for the invalidation timestamps.
+	 */
+	public static final String TIMESTAMP_COLUMN_INITPARAM =
+		"x2.service.actorCacheInvalidation.rdbms.timestampColumn";
+
+	/**
+	 * Default name of the column for the invalidation timestamps.
+	 */
+	public static final String DEFAULT_TIMESTAMP_COLUMN = "created_on";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * the poll interval in milliseconds.
+	 */
+	public static final String POLL_INTERVAL_INITPARAM =
+		"x2.service.actorCacheInvalidation.rdbms.pollInterval";
+
+	/**
+	 * Default poll interval in milliseconds.
+	 */
+	public static final String DEFAULT_POLL_INTERVAL = "5000";
+
+	/**
+	 * Name of web-application context initialization parameter used to specify
+	 * the look-back period in milliseconds.
+	 */
+	public static final String LOOK_BACK_INITPARAM =
+		"x2.service.actorCacheInvalidation.rdbms.lookBack";
+
+	/**
+	 * Default look-back period in milliseconds.
+	 */
+	public static final String DEFAULT_LOOK_BACK = "60000";
+
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public Class<ActorCacheInvalidationService> getServiceClass() {
+
+		return ActorCacheInvalidationService.class;
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public ActorCacheInvalidationService createService(
+			final ServletContext sc, final String serviceInstanceId,
+			final Resources resources, final RuntimeContext runtimeCtx)
+		throws InitializationException {
+
+		LogFactory.getLog(this.getClass()).debug("creating RDBMS table-based"
+				+ " actor cache invalidation service");
+
+		final long pollInterval;
+		final long lookBack;
+		try {
+			pollInterval = Long.parseLong(getInitParam(sc,
+					POLL_INTERVAL_INITPARAM, DEFAULT_POLL_INTERVAL));
+			lookBack = Long.parseLong(getInitParam(sc, LOOK_BACK_INITPARAM,
+					DEFAULT_LOOK_BACK));
+		} catch (final NumberFormatException e) {
+			throw new InitializationException("Invalid actor cache"
+					+ " invalidation poll interval or look-back period.", e);
+		}
+		if ((pollInterval <= 0) || (lookBack <= pollInterval))
+			throw new InitializationException("Actor cache invalidation poll"
+					+ " interval must be positive and less than the look-back"
+					+ " period.");
+
+		return new RDBMSActorCacheInvalidationService(
+				getInitParam(sc, TABLE_INITPARAM, DEFAULT_TABLE),
+				getInitParam(sc, ACTOR_ID_COLUMN_INITPARAM,
+						DEFAULT_ACTOR_ID_COLUMN),
+				getInitParam(sc, OPAQUE_COLUMN_INITPARAM,
+						DEFAULT_OPAQUE_COLUMN),
+				getInitParam(sc, TIMESTAMP_COLUMN_INITPARAM,
+						DEFAULT_TIMESTAMP_COLUMN),
+				pollInterval, lookBack);
+	}
+
+	/**
+	 * Get web-application context initialization parameter.
+	 *
+	 * @param sc Servlet context.
+	 * @param paramName Parameter name.
+	 * @param defaultVal Default value.
+	 *
+	 * @return Parameter value.
+	 */
+	private static String getInitParam(final ServletContext sc,
+			final String paramName, final String defaultVal) {
+
+		final String paramVal =
+			StringUtils.nullIfEmpty(sc.getInitParameter(paramName));
+
+		return (paramVal != null ? paramVal : defaultVal);
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void destroyService(final ActorCacheInvalidationService service) {
+
+		// nothing
+	}
+}
@@ -0,0 +1,6 @@
+/**
+ * Actor cache invalidation service implementation that uses application's
+ * persistent storage service to propagate invalidations between application
+ * instances via an invalidation log table in an RDBMS.
+ */
+package org.bsworks.x2.services.invalidation.impl.rdbms;
@@ -0,0 +1,4 @@
+/**
+ * Actor cache invalidation service API.
+ */
+package org.bsworks.x2.services.invalidation;
@@ -0,0 +1,151 @@
+package org.bsworks.x2.services.metrics;
+
+import org.bsworks.x2.HttpMethod;
+
+
+/**
+ * Metrics of a single completed endpoint call. All durations are in
+ * nanoseconds. Instances are created by the framework and are immutable.
+ *
+ * @author Lev Himmelfarb
+ */
+public final class EndpointCallMetrics {
+
+	/**
+	 * Endpoint URI pattern.
+	 */
+	private final String uriPattern;
+
+	/**
+	 * Call HTTP method.
+	 */
+	private final HttpMethod requestMethod;
+
+	/**
+	 * Response HTTP status code.
+	 */
+	private final int statusCode;
+
+	/**
+	 * Phase durations by phase ordinals, -1 for skipped phases.
+	 */
+	private final long[] phaseDurations;
+
+	/**
+	 * Total call processing time.
+	 */
+	private final long totalTime;
+
+	/**
+	 * Number of executed persistence statements.
+	 */
+	private final int statementCount;
+
+	/**
+	 * Number of fetched persistent records.
+	 */
+	private final long fetchedRecordCount;
+
+
+	/**
+	 * Create new call metrics.
+	 *
+	 * @param uriPattern Endpoint URI pattern.
+	 * @param requestMethod Call HTTP method.
+	 * @param statusCode Response HTTP status code.
+	 * @param phaseDurations Phase durations indexed by
+	 * {@link EndpointCallPhase} ordinals, -1 for phases the call skipped. The
+	 * array is not copied and must not be modified after it is passed to the
+	 * constructor.
+	 * @param totalTime Total call processing time.
+	 * @param statementCount Number of executed persistence statements.
+	 * @param fetchedRecordCount Number of fetched persistent records.
+	 */
+	public EndpointCallMetrics(final String uriPattern,
+			final HttpMethod requestMethod, final int statusCode,
+			final long[] phaseDurations, final long totalTime,
+			final int statementCount, final long fetchedRecordCount) {
+
+		this.uriPattern = uriPattern;
+		this.requestMethod = requestMethod;
+		this.statusCode = statusCode;
+		this.phaseDurations = phaseDurations;
+		this.totalTime = totalTime;
+		this.statementCount = statementCount;
+		this.fetchedRecordCount = fetchedRecordCount;
+	}
+
+
+	/**
+	 * Get URI pattern of the endpoint mapping.
+	 *
+	 * @return The URI pattern.
+	 */
+	public String getURIPattern() {
+
+		return this.uriPattern;
+	}
+
+	/**
+	 * Get call HTTP method.
+	 *
+	 * @return The method.
+	 */
+	public HttpMethod getRequestMethod() {
+
+		return this.requestMethod;
+	}
+
+	/**
+	 * Get response HTTP status code.
+	 *
+	 * @return The status code.
+	 */
+	public int getStatusCode() {
+
+		return this.statusCode;
+	}
+
+	/**
+	 * Get duration of the specified call processing phase.
+	 *
+	 * @param phase The phase.
+	 *
+	 * @return Duration in nanoseconds, or -1 if the call skipped the phase.
+	 */
+	public long getPhaseDuration(final EndpointCallPhase phase) {
+
+		return this.phaseDurations[phase.ordinal()];
+	}
+
+	/**
+	 * Get total call processing time.
+	 *
+	 * @return Total time in nanoseconds.
+	 */
+	public long getTotalTime() {
+
+		return this.totalTime;
+	}
+
+	/**
+	 * Get number of persistence statements (such as SQL statements) executed
+	 * by the call.
+	 *
+	 * @return Number of executed statements.
+	 */
+	public int getStatementCount() {
+
+		return this.statementCount;
+	}
+
+	/**
+	 * Get number of persistent records fetched by the call.
+	 *
+	 * @return Number of fetched records.
+	 */
+	public long getFetchedRecordCount() {
+
+		return this.fetchedRecordCount;
+	}
+}
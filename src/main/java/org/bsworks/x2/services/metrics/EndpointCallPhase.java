@@ -0,0 +1,85 @@
+package org.bsworks.x2.services.metrics;
+
+
+/**
+ * Endpoint call processing phase. A call goes through the phases in the order,
+ * in which they are declared, although some phases may be skipped.
+ *
+ * @author Lev Himmelfarb
+ */
+public enum EndpointCallPhase {
+
+	/**
+	 * Waiting in the call processing queue.
+	 */
+	QUEUE("queue"),
+
+	/**
+	 * Resolving the actor and checking the call permission.
+	 */
+	AUTH("auth"),
+
+	/**
+	 * Reading the request entity.
+	 */
+	READ("read"),
+
+	/**
+	 * Deserializing the request entity.
+	 */
+	DESERIALIZE("deser"),
+
+	/**
+	 * Validating the request entity.
+	 */
+	VALIDATE("valid"),
+
+	/**
+	 * Executing the endpoint call handler.
+	 */
+	HANDLER("handler"),
+
+	/**
+	 * Serializing the response entity.
+	 */
+	SERIALIZE("ser"),
+
+	/**
+	 * Committing the transaction.
+	 */
+	COMMIT("commit"),
+
+	/**
+	 * Sending the response.
+	 */
+	SEND("send");
+
+
+	/**
+	 * Metric name.
+	 */
+	private final String metricName;
+
+
+	/**
+	 * Create new phase.
+	 *
+	 * @param metricName Metric name.
+	 */
+	private EndpointCallPhase(final String metricName) {
+
+		this.metricName = metricName;
+	}
+
+
+	/**
+	 * Get short name used for the phase in the metrics snapshots and in the
+	 * "Server-Timing" response header.
+	 *
+	 * @return The metric name.
+	 */
+	public String getMetricName() {
+
+		return this.metricName;
+	}
+}
@@ -0,0 +1,159 @@
+package org.bsworks.x2.services.metrics;
+
+import java.util.Map;
+
+import org.bsworks.x2.HttpMethod;
+import org.bsworks.x2.resource.annotations.Property;
+
+
+/**
+ * Snapshot of the metrics of an endpoint and HTTP method combination in a
+ * {@link MetricsSnapshot}.
+ *
+ * @author Lev Himmelfarb
+ */
+public final class EndpointMetricsSnapshot {
+
+	/**
+	 * Endpoint URI pattern.
+	 */
+	private final String uriPattern;
+
+	/**
+	 * HTTP method.
+	 */
+	private final HttpMethod requestMethod;
+
+	/**
+	 * Call counts by response status codes.
+	 */
+	private final Map<String, Long> statusCodes;
+
+	/**
+	 * Total call processing time histogram.
+	 */
+	private final HistogramSnapshot totalTime;
+
+	/**
+	 * Phase duration histograms by phase metric names.
+	 */
+	private final Map<String, HistogramSnapshot> phaseTimes;
+
+	/**
+	 * Executed persistence statements per call histogram.
+	 */
+	private final HistogramSnapshot statements;
+
+	/**
+	 * Fetched persistent records per call histogram.
+	 */
+	private final HistogramSnapshot fetchedRecords;
+
+
+	/**
+	 * Create new snapshot.
+	 *
+	 * @param uriPattern Endpoint URI pattern.
+	 * @param requestMethod HTTP method.
+	 * @param statusCodes Call counts by response status codes.
+	 * @param totalTime Total call processing time histogram.
+	 * @param phaseTimes Phase duration histograms by phase metric names.
+	 * @param statements Executed persistence statements per call histogram.
+	 * @param fetchedRecords Fetched persistent records per call histogram.
+	 */
+	public EndpointMetricsSnapshot(final String uriPattern,
+			final HttpMethod requestMethod,
+			final Map<String, Long> statusCodes,
+			final HistogramSnapshot totalTime,
+			final Map<String, HistogramSnapshot> phaseTimes,
+			final HistogramSnapshot statements,
+			final HistogramSnapshot fetchedRecords) {
+
+		this.uriPattern = uriPattern;
+		this.requestMethod = requestMethod;
+		this.statusCodes = statusCodes;
+		this.totalTime = totalTime;
+		this.phaseTimes = phaseTimes;
+		this.statements = statements;
+		this.fetchedRecords = fetchedRecords;
+	}
+
+
+	/**
+	 * Get endpoint URI pattern.
+	 *
+	 * @return The URI pattern.
+	 */
+	@Property
+	public String getUriPattern() {
+
+		return this.uriPattern;
+	}
+
+	/**
+	 * Get HTTP method.
+	 *
+	 * @return The method.
+	 */
+	@Property
+	public HttpMethod getRequestMethod() {
+
+		return this.requestMethod;
+	}
+
+	/**
+	 * Get call counts by response HTTP status codes.
+	 *
+	 * @return Unmodifiable map with status codes as keys.
+	 */
+	@Property
+	public Map<String, Long> getStatusCodes() {
+
+		return this.statusCodes;
+	}
+
+	/**
+	 * Get total call processing time histogram.
+	 *
+	 * @return The histogram.
+	 */
+	@Property
+	public HistogramSnapshot getTotalTime() {
+
+		return this.totalTime;
+	}
+
+	/**
+	 * Get call processing phase duration histograms.
+	 *
+	 * @return Unmodifiable map with {@link EndpointCallPhase} metric names as
+	 * keys. Phases that have not been recorded are not included.
+	 */
+	@Property
+	public Map<String, HistogramSnapshot> getPhaseTimes() {
+
+		return this.phaseTimes;
+	}
+
+	/**
+	 * Get histogram of the number of persistence statements executed per call.
+	 *
+	 * @return The histogram.
+	 */
+	@Property
+	public HistogramSnapshot getStatements() {
+
+		return this.statements;
+	}
+
+	/**
+	 * Get histogram of the number of persistent records fetched per call.
+	 *
+	 * @return The histogram.
+	 */
+	@Property
+	public HistogramSnapshot getFetchedRecords() {
+
+		return this.fetchedRecords;
+	}
+}
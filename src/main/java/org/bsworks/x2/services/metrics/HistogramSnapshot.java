@@ -0,0 +1,131 @@
+package org.bsworks.x2.services.metrics;
+
+import org.bsworks.x2.resource.annotations.Property;
+import org.bsworks.x2.util.LatencyHistogram;
+
+
+/**
+ * Snapshot of a histogram in a {@link MetricsSnapshot}. Durations are
+ * reported in milliseconds, other values as recorded. The percentiles are
+ * approximate.
+ *
+ * @author Lev Himmelfarb
+ */
+public final class HistogramSnapshot {
+
+	/**
+	 * Number of recorded values.
+	 */
+	private final long count;
+
+	/**
+	 * Mean value.
+	 */
+	private final double mean;
+
+	/**
+	 * Median value.
+	 */
+	private final double p50;
+
+	/**
+	 * 90th percentile.
+	 */
+	private final double p90;
+
+	/**
+	 * 99th percentile.
+	 */
+	private final double p99;
+
+	/**
+	 * Maximum value.
+	 */
+	private final double max;
+
+
+	/**
+	 * Create new snapshot.
+	 *
+	 * @param snapshot Histogram snapshot.
+	 * @param unit Number of recorded units in a reported unit, for example
+	 * 1000000 for durations recorded in nanoseconds.
+	 */
+	public HistogramSnapshot(final LatencyHistogram.Snapshot snapshot,
+			final double unit) {
+
+		this.count = snapshot.getCount();
+		this.mean = snapshot.getMean() / unit;
+		this.p50 = snapshot.getValueAtPercentile(50) / unit;
+		this.p90 = snapshot.getValueAtPercentile(90) / unit;
+		this.p99 = snapshot.getValueAtPercentile(99) / unit;
+		this.max = snapshot.getMax() / unit;
+	}
+
+
+	/**
+	 * Get number of recorded values.
+	 *
+	 * @return The count.
+	 */
+	@Property
+	public long getCount() {
+
+		return this.count;
+	}
+
+	/**
+	 * Get mean value.
+	 *
+	 * @return The mean.
+	 */
+	@Property
+	public double getMean() {
+
+		return this.mean;
+	}
+
+	/**
+	 * Get median value.
+	 *
+	 * @return The median.
+	 */
+	@Property
+	public double getP50() {
+
+		return this.p50;
+	}
+
+	/**
+	 * Get 90th percentile.
+	 *
+	 * @return The percentile.
+	 */
+	@Property
+	public double getP90() {
+
+		return this.p90;
+	}
+
+	/**
+	 * Get 99th percentile.
+	 *
+	 * @return The percentile.
+	 */
+	@Property
+	public double getP99() {
+
+		return this.p99;
+	}
+
+	/**
+	 * Get maximum value.
+	 *
+	 * @return The maximum.
+	 */
+	@Property
+	public double getMax() {
+
+		return this.max;
+	}
+}
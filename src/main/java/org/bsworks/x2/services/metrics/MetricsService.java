@@ -0,0 +1,61 @@
+package org.bsworks.x2.services.metrics;
+
+import org.bsworks.x2.EssentialService;
+
+
+/**
+ * Interface of the special service used to collect internal metrics of the
+ * running instance. The framework records every processed endpoint call with
+ * the service, and the application can record its own counters and value
+ * distributions. Implementations must be thread-safe and recording must be
+ * cheap, since it happens on every call.
+ *
+ * @author Lev Himmelfarb
+ */
+public interface MetricsService
+	extends EssentialService {
+
+	/**
+	 * Record completed endpoint call.
+	 *
+	 * @param call The call metrics.
+	 */
+	void recordEndpointCall(EndpointCallMetrics call);
+
+	/**
+	 * Add to the specified application counter.
+	 *
+	 * @param name Counter name.
+	 * @param delta Value to add to the counter.
+	 */
+	void incrementCounter(String name, long delta);
+
+	/**
+	 * Record value in the specified application histogram. Histograms are
+	 * normally used for latencies, in which case the values are expected to be
+	 * in nanoseconds.
+	 *
+	 * @param name Histogram name.
+	 * @param value Non-negative value to record.
+	 */
+	void recordValue(String name, long value);
+
+	/**
+	 * Record unitless value, such as a queue depth or a batch size, in the
+	 * specified application histogram. Unlike {@link #recordValue}, the values
+	 * are reported as they are, without conversion from nanoseconds.
+	 *
+	 * @param name Histogram name. Must not be also used with
+	 * {@link #recordValue}.
+	 * @param value Non-negative value to record.
+	 */
+	void recordCount(String name, long value);
+
+	/**
+	 * Get snapshot of the collected metrics. The snapshot is a transient
+	 * resource that can be returned as an endpoint call response entity.
+	 *
+	 * @return The snapshot.
+	 */
+	MetricsSnapshot getSnapshot();
+}
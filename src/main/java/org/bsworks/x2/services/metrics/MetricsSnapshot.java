@@ -0,0 +1,103 @@
+package org.bsworks.x2.services.metrics;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.bsworks.x2.resource.annotations.Property;
+
+
+/**
+ * Snapshot of the metrics collected by the {@link MetricsService}. The snapshot
+ * is a transient resource and can be serialized as an endpoint call response
+ * entity.
+ *
+ * @author Lev Himmelfarb
+ */
+public final class MetricsSnapshot {
+
+	/**
+	 * Snapshot timestamp.
+	 */
+	private final Date timestamp;
+
+	/**
+	 * Endpoint metrics.
+	 */
+	private final List<EndpointMetricsSnapshot> endpoints;
+
+	/**
+	 * Application counters.
+	 */
+	private final Map<String, Long> counters;
+
+	/**
+	 * Application histograms.
+	 */
+	private final Map<String, HistogramSnapshot> histograms;
+
+
+	/**
+	 * Create new snapshot.
+	 *
+	 * @param timestamp Snapshot timestamp.
+	 * @param endpoints Endpoint metrics.
+	 * @param counters Application counters by names.
+	 * @param histograms Application histograms by names.
+	 */
+	public MetricsSnapshot(final Date timestamp,
+			final List<EndpointMetricsSnapshot> endpoints,
+			final Map<String, Long> counters,
+			final Map<String, HistogramSnapshot> histograms) {
+
+		this.timestamp = timestamp;
+		this.endpoints = endpoints;
+		this.counters = counters;
+		this.histograms = histograms;
+	}
+
+
+	/**
+	 * Get snapshot timestamp.
+	 *
+	 * @return The timestamp.
+	 */
+	@Property
+	public Date getTimestamp() {
+
+		return this.timestamp;
+	}
+
+	/**
+	 * Get metrics of the called endpoints.
+	 *
+	 * @return Unmodifiable list of endpoint metrics.
+	 */
+	@Property
+	public List<EndpointMetricsSnapshot> getEndpoints() {
+
+		return this.endpoints;
+	}
+
+	/**
+	 * Get application counters.
+	 *
+	 * @return Unmodifiable map of counter values by counter names.
+	 */
+	@Property
+	public Map<String, Long> getCounters() {
+
+		return this.counters;
+	}
+
+	/**
+	 * Get application histograms.
+	 *
+	 * @return Unmodifiable map of histograms by histogram names.
+	 */
+	@Property
+	public Map<String, HistogramSnapshot> getHistograms() {
+
+		return this.histograms;
+	}
+}
@@ -0,0 +1,326 @@
+package org.bsworks.x2.services.metrics.impl.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.bsworks.x2.HttpMethod;
+import org.bsworks.x2.services.metrics.EndpointCallMetrics;
+import org.bsworks.x2.services.metrics.EndpointCallPhase;
+import org.bsworks.x2.services.metrics.EndpointMetricsSnapshot;
+import org.bsworks.x2.services.metrics.HistogramSnapshot;
+import org.bsworks.x2.services.metrics.MetricsService;
+import org.bsworks.x2.services.metrics.MetricsSnapshot;
+import org.bsworks.x2.util.LatencyHistogram;
+import org.bsworks.x2.util.StripedCounter;
+
+
+/**
+ * Metrics service implementation that accumulates the metrics in memory using
+ * lock-free striped counters and histograms.
+ *
+ * @author Lev Himmelfarb
+ */
+class MemoryMetricsService
+	implements MetricsService {
+
+	/**
+	 * Metrics of an endpoint and HTTP method combination.
+	 */
+	private static final class EndpointMetrics {
+
+		/**
+		 * Endpoint URI pattern.
+		 */
+		final String uriPattern;
+
+		/**
+		 * HTTP method.
+		 */
+		final HttpMethod requestMethod;
+
+		/**
+		 * Call counters by response status codes.
+		 */
+		final ConcurrentMap<Integer, StripedCounter> statusCodes =
+			new ConcurrentHashMap<>();
+
+		/**
+		 * Total call processing time histogram.
+		 */
+		final LatencyHistogram totalTime = new LatencyHistogram();
+
+		/**
+		 * Phase duration histograms by phase ordinals.
+		 */
+		final LatencyHistogram[] phaseTimes =
+			new LatencyHistogram[PHASES.length];
+
+		/**
+		 * Executed persistence statements histogram.
+		 */
+		final LatencyHistogram statements = new LatencyHistogram();
+
+		/**
+		 * Fetched persistent records histogram.
+		 */
+		final LatencyHistogram fetchedRecords = new LatencyHistogram();
+
+
+		/**
+		 * Create new endpoint metrics.
+		 *
+		 * @param uriPattern Endpoint URI pattern.
+		 * @param requestMethod HTTP method.
+		 */
+		EndpointMetrics(final String uriPattern,
+				final HttpMethod requestMethod) {
+
+			this.uriPattern = uriPattern;
+			this.requestMethod = requestMethod;
+
+			for (int i = 0; i < this.phaseTimes.length; i++)
+				this.phaseTimes[i] = new LatencyHistogram();
+		}
+	}
+
+
+	/**
+	 * All call processing phases.
+	 */
+	static final EndpointCallPhase[] PHASES = EndpointCallPhase.values();
+
+	/**
+	 * Nanoseconds in a millisecond.
+	 */
+	private static final double NANOS_IN_MILLI = 1000000;
+
+
+	/**
+	 * Endpoint metrics by HTTP method and URI pattern.
+	 */
+	private final ConcurrentMap<String, EndpointMetrics> endpoints =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * Application counters by names.
+	 */
+	private final ConcurrentMap<String, StripedCounter> counters =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * Application latency histograms by names.
+	 */
+	private final ConcurrentMap<String, LatencyHistogram> histograms =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * Application unitless value histograms by names.
+	 */
+	private final ConcurrentMap<String, LatencyHistogram> countHistograms =
+		new ConcurrentHashMap<>();
+
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void recordEndpointCall(final EndpointCallMetrics call) {
+
+		final String key =
+			call.getRequestMethod() + " " + call.getURIPattern();
+		EndpointMetrics endpoint = this.endpoints.get(key);
+		if (endpoint == null) {
+			final EndpointMetrics newEndpoint = new EndpointMetrics(
+					call.getURIPattern(), call.getRequestMethod());
+			endpoint = this.endpoints.putIfAbsent(key, newEndpoint);
+			if (endpoint == null)
+				endpoint = newEndpoint;
+		}
+
+		getCounter(endpoint.statusCodes,
+				Integer.valueOf(call.getStatusCode())).add(1);
+		endpoint.totalTime.record(call.getTotalTime());
+		for (final EndpointCallPhase phase : PHASES) {
+			final long duration = call.getPhaseDuration(phase);
+			if (duration >= 0)
+				endpoint.phaseTimes[phase.ordinal()].record(duration);
+		}
+		endpoint.statements.record(call.getStatementCount());
+		endpoint.fetchedRecords.record(call.getFetchedRecordCount());
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void incrementCounter(final String name, final long delta) {
+
+		getCounter(this.counters, name).add(delta);
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void recordValue(final String name, final long value) {
+
+		getHistogram(this.histograms, name).record(value);
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void recordCount(final String name, final long value) {
+
+		getHistogram(this.countHistograms, name).record(value);
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public MetricsSnapshot getSnapshot() {
+
+		final Date timestamp = new Date();
+
+		final List<EndpointMetricsSnapshot> endpointSnapshots =
+			new ArrayList<>(this.endpoints.size());
+		for (final EndpointMetrics endpoint :
+				new TreeMap<>(this.endpoints).values()) {
+			final Map<String, Long> statusCodes = new TreeMap<>();
+			for (final Map.Entry<Integer, StripedCounter> entry :
+					endpoint.statusCodes.entrySet())
+				statusCodes.put(entry.getKey().toString(),
+						Long.valueOf(entry.getValue().get()));
+			final Map<String, HistogramSnapshot> phaseTimes =
+				new LinkedHashMap<>();
+			for (final EndpointCallPhase phase : PHASES) {
+				final LatencyHistogram.Snapshot phaseSnapshot =
+					endpoint.phaseTimes[phase.ordinal()].getSnapshot();
+				if (phaseSnapshot.getCount() > 0)
+					phaseTimes.put(phase.getMetricName(),
+							new HistogramSnapshot(phaseSnapshot,
+									NANOS_IN_MILLI));
+			}
+			endpointSnapshots.add(new EndpointMetricsSnapshot(
+					endpoint.uriPattern, endpoint.requestMethod,
+					Collections.unmodifiableMap(statusCodes),
+					new HistogramSnapshot(endpoint.totalTime.getSnapshot(),
+							NANOS_IN_MILLI),
+					Collections.unmodifiableMap(phaseTimes),
+					new HistogramSnapshot(
+							endpoint.statements.getSnapshot(), 1),
+					new HistogramSnapshot(
+							endpoint.fetchedRecords.getSnapshot(), 1)));
+		}
+
+		final Map<String, Long> counterValues = new TreeMap<>();
+		for (final Map.Entry<String, StripedCounter> entry :
+				this.counters.entrySet())
+			counterValues.put(entry.getKey(),
+					Long.valueOf(entry.getValue().get()));
+
+		final Map<String, HistogramSnapshot> histogramSnapshots =
+			new TreeMap<>();
+		for (final Map.Entry<String, LatencyHistogram> entry :
+				this.histograms.entrySet())
+			histogramSnapshots.put(entry.getKey(), new HistogramSnapshot(
+					entry.getValue().getSnapshot(), NANOS_IN_MILLI));
+		for (final Map.Entry<String, LatencyHistogram> entry :
+				this.countHistograms.entrySet())
+			histogramSnapshots.put(entry.getKey(), new HistogramSnapshot(
+					entry.getValue().getSnapshot(), 1));
+
+		return new MetricsSnapshot(timestamp,
+				Collections.unmodifiableList(endpointSnapshots),
+				Collections.unmodifiableMap(counterValues),
+				Collections.unmodifiableMap(histogramSnapshots));
+	}
+
+
+	/**
+	 * Log summary with total call processing time percentiles and phase 99th
+	 * percentiles for every called endpoint.
+	 *
+	 * @param log The log.
+	 */
+	void logSummary(final Log log) {
+
+		if (this.endpoints.isEmpty())
+			return;
+
+		final StringBuilder sb = new StringBuilder(1024);
+		sb.append("endpoint call latencies (ms):");
+		for (final EndpointMetricsSnapshot endpoint :
+				this.getSnapshot().getEndpoints()) {
+			final HistogramSnapshot total = endpoint.getTotalTime();
+			sb.append("\n * ").append(endpoint.getRequestMethod()).append(' ')
+				.append(endpoint.getUriPattern())
+				.append(": count=").append(total.getCount())
+				.append(", p50=").append(total.getP50())
+				.append(", p99=").append(total.getP99())
+				.append(", max=").append(total.getMax());
+			for (final Map.Entry<String, HistogramSnapshot> entry :
+					endpoint.getPhaseTimes().entrySet())
+				sb.append(", ").append(entry.getKey()).append(".p99=")
+					.append(entry.getValue().getP99());
+		}
+
+		log.info(sb.toString());
+	}
+
+
+	/**
+	 * Get counter from a map, creating it if necessary.
+	 *
+	 * @param counters The counters map.
+	 * @param key Counter key.
+	 *
+	 * @return The counter.
+	 */
+	private static <K> StripedCounter getCounter(
+			final ConcurrentMap<K, StripedCounter> counters, final K key) {
+
+		StripedCounter counter = counters.get(key);
+		if (counter == null) {
+			final StripedCounter newCounter = new StripedCounter();
+			counter = counters.putIfAbsent(key, newCounter);
+			if (counter == null)
+				counter = newCounter;
+		}
+
+		return counter;
+	}
+
+	/**
+	 * Get histogram from a map, creating it if necessary.
+	 *
+	 * @param histograms The histograms map.
+	 * @param name Histogram name.
+	 *
+	 * @return The histogram.
+	 */
+	private static LatencyHistogram getHistogram(
+			final ConcurrentMap<String, LatencyHistogram> histograms,
+			final String name) {
+
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			final LatencyHistogram newHistogram = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if (histogram == null)
+				histogram = newHistogram;
+		}
+
+		return histogram;
+	}
+}
@@ -0,0 +1,56 @@
+package org.bsworks.x2.services.metrics.impl.memory;
+
+import javax.servlet.ServletContext;
+
+import org.apache.commons.logging.LogFactory;
+
+import org.bsworks.x2.RuntimeContext;
+import org.bsworks.x2.ServiceProvider;
+import org.bsworks.x2.resource.Resources;
+import org.bsworks.x2.services.metrics.MetricsService;
+
+
+/**
+ * Provider of a {@link MetricsService} implementation that accumulates the
+ * metrics in the instance memory since the instance start. This is the default
+ * implementation. When the service is destroyed, it logs a summary of the
+ * endpoint call latencies.
+ *
+ * @author Lev Himmelfarb
+ */
+public class MemoryMetricsServiceProvider
+	implements ServiceProvider<MetricsService> {
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public Class<MetricsService> getServiceClass() {
+
+		return MetricsService.class;
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public MetricsService createService(final ServletContext sc,
+			final String serviceInstanceId, final Resources resources,
+			final RuntimeContext runtimeCtx) {
+
+		LogFactory.getLog(this.getClass()).debug(
+				"creating memory-based metrics service");
+
+		return new MemoryMetricsService();
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public void destroyService(final MetricsService service) {
+
+		((MemoryMetricsService) service).logSummary(
+				LogFactory.getLog(this.getClass()));
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Metrics service implementation that accumulates the metrics in memory.
+ */
+package org.bsworks.x2.services.metrics.impl.memory;
@@ -0,0 +1,4 @@
+/**
+ * Internal application metrics service API.
+ */
+package org.bsworks.x2.services.metrics;
@@ -1,5 +1,7 @@
 package org.bsworks.x2.services.persistence;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 import org.bsworks.x2.EndpointCallContext;
@@ -81,6 +83,27 @@ public interface PersistenceTransaction {
 	 */
 	<R> void persist(Class<R> prsrcClass, R recTmpl);
 
+	/**
+	 * Create multiple new persistent resource records. The result is the same
+	 * as calling {@link #persist(Class, Object)} for each record template, but
+	 * the implementation may insert the records in bulk, which is
+	 * significantly faster for large numbers of records.
+	 *
+	 * <p>The method is allowed only for authenticated transactions.
+	 *
+	 * @param <R> Persistent resource type.
+	 * @param prsrcClass Persistent resource class.
+	 * @param recTmpls Record templates. After the records are created, the
+	 * template objects are updated: the record ids, if the ids are
+	 * auto-generated, and any record meta-properties are set.
+	 *
+	 * @throws IllegalArgumentException If the specified class is not a
+	 * registered persistent resource class.
+	 * @throws UnsupportedOperationException If the transaction is not
+	 * authenticated.
+	 */
+	<R> void persistAll(Class<R> prsrcClass, Collection<? extends R> recTmpls);
+
 	/**
 	 * Update existing persistent resource record.
 	 *
@@ -106,6 +129,36 @@ public interface PersistenceTransaction {
 	<R> boolean update(Class<R> prsrcClass, R rec, R recTmpl,
 			Set<String> updatedProps);
 
+	/**
+	 * Update all persistent resource records matching the specified filter
+	 * without loading them. The records are updated with a single statement,
+	 * which makes the method suitable for mass changes. Only simple and
+	 * reference properties stored with the record itself can be assigned.
+	 * Record version and modification meta-properties, if the persistent
+	 * resource has them, are updated as well.
+	 *
+	 * <p>The method is allowed only for authenticated transactions.
+	 *
+	 * @param <R> Persistent resource type.
+	 * @param prsrcClass Persistent resource class.
+	 * @param filter Filter that selects records to update from the entire
+	 * persistent resource records collection, or {@code null} to update all
+	 * records.
+	 * @param assignments New property values by property names. References
+	 * are specified as {@link org.bsworks.x2.resource.Ref} objects.
+	 *
+	 * @return Number of updated records.
+	 *
+	 * @throws IllegalArgumentException If the specified class is not a
+	 * registered persistent resource class, the assignments map is empty, or
+	 * any of the assigned properties does not exist, cannot be assigned with
+	 * this method or cannot be updated by the transaction actor.
+	 * @throws UnsupportedOperationException If the transaction is not
+	 * authenticated.
+	 */
+	<R> int updateWhere(Class<R> prsrcClass, FilterSpec<R> filter,
+			Map<String, ?> assignments);
+
 	/**
 	 * Delete persistent resource records as well as records of any dependent
 	 * persistent resources.
@@ -0,0 +1,27 @@
+package org.bsworks.x2.services.persistence;
+
+
+/**
+ * Optional interface that a {@link PersistenceTransactionHandler}
+ * implementation can implement to report statistics of the handled
+ * transaction. Used by the framework for the endpoint call metrics. For
+ * handlers that do not implement it, the statistics are reported as zeros.
+ *
+ * @author Lev Himmelfarb
+ */
+public interface PersistenceTransactionStatistics {
+
+	/**
+	 * Get number of statements executed in the handled transaction so far.
+	 *
+	 * @return Number of executed statements.
+	 */
+	int getExecutedStatementCount();
+
+	/**
+	 * Get number of records fetched in the handled transaction so far.
+	 *
+	 * @return Number of fetched records.
+	 */
+	long getFetchedRecordCount();
+}
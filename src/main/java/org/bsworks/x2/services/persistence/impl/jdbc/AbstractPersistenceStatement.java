@@ -1,7 +1,6 @@
 package org.bsworks.x2.services.persistence.impl.jdbc;
 
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -93,7 +92,10 @@ abstract class AbstractPersistenceStatement {
 	}
 
 	/**
-	 * Create prepared statement for the query.
+	 * Get prepared statement for the query from the transaction's statement
+	 * cache. The statement must be given back using
+	 * {@link #releasePreparedStatement(PreparedStatement)} after use instead of
+	 * closing it.
 	 *
 	 * @return The query prepared statement.
 	 *
@@ -115,21 +117,53 @@ abstract class AbstractPersistenceStatement {
 					+ "\nparams: " + paramsList);
 
 		// prepare statement
-		final PreparedStatement pstmt =
-			this.tx.getRawConnection().prepareStatement(sql,
-					ResultSet.TYPE_FORWARD_ONLY,
-					ResultSet.CONCUR_READ_ONLY,
-					ResultSet.CLOSE_CURSORS_AT_COMMIT);
+		final StatementCache statementCache = this.tx.getStatementCache();
+		final PreparedStatement pstmt = statementCache.prepareQuery(sql);
 
 		// set parameters
-		int paramInd = 1;
-		for (final JDBCParameterValue paramHandler : paramsList)
-			paramInd = paramHandler.set(pstmt, paramInd);
+		boolean success = false;
+		try {
+			int paramInd = 1;
+			for (final JDBCParameterValue paramHandler : paramsList)
+				paramInd = paramHandler.set(pstmt, paramInd);
+			success = true;
+		} finally {
+			if (!success)
+				statementCache.release(pstmt);
+		}
+
+		// the statement is always executed once
+		this.tx.statementExecuted();
 
 		// return the prepared statement
 		return pstmt;
 	}
 
+	/**
+	 * Give prepared statement obtained using {@link #getPreparedStatement()}
+	 * back to the transaction's statement cache.
+	 *
+	 * @param pstmt The prepared statement.
+	 *
+	 * @throws SQLException If a database error happens.
+	 */
+	protected final void releasePreparedStatement(
+			final PreparedStatement pstmt)
+		throws SQLException {
+
+		this.tx.getStatementCache().release(pstmt);
+	}
+
+	/**
+	 * Register records fetched by the statement in the transaction.
+	 *
+	 * @param numRecords Number of fetched records.
+	 */
+	protected final void recordsFetched(final int numRecords) {
+
+		this.tx.recordsFetched(numRecords);
+	}
+
 	/**
 	 * Get actor.
 	 *
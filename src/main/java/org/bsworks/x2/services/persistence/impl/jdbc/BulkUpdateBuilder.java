@@ -0,0 +1,380 @@
+package org.bsworks.x2.services.persistence.impl.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bsworks.x2.Actor;
+import org.bsworks.x2.resource.FilterSpec;
+import org.bsworks.x2.resource.IdPropertyHandler;
+import org.bsworks.x2.resource.MetaPropertyHandler;
+import org.bsworks.x2.resource.MetaPropertyType;
+import org.bsworks.x2.resource.PersistentResourceHandler;
+import org.bsworks.x2.resource.RefPropertyHandler;
+import org.bsworks.x2.resource.ResourcePropertyAccess;
+import org.bsworks.x2.resource.ResourcePropertyHandler;
+import org.bsworks.x2.resource.ResourcePropertyPersistence;
+import org.bsworks.x2.resource.Resources;
+import org.bsworks.x2.resource.SimplePropertyHandler;
+import org.bsworks.x2.util.CollectionUtils;
+import org.bsworks.x2.util.sql.dialect.SQLDialect;
+
+
+/**
+ * Builder of a set-based "UPDATE" statement for updating all persistent
+ * resource records matching a filter without loading them.
+ *
+ * @author Lev Himmelfarb
+ */
+class BulkUpdateBuilder {
+
+	/**
+	 * Execution plan step.
+	 */
+	private static final class ExecutionPlanStep {
+
+		/**
+		 * Statement text.
+		 */
+		final String stmtText;
+
+		/**
+		 * Statement parameter values.
+		 */
+		final List<JDBCParameterValue> params;
+
+		/**
+		 * Tells if the step is the main "UPDATE" statement, update count of
+		 * which is the number of updated records.
+		 */
+		final boolean main;
+
+
+		/**
+		 * Create new execution plan step.
+		 *
+		 * @param stmtText Statement text.
+		 * @param params Statement parameter values.
+		 * @param main {@code true} if the main "UPDATE" statement.
+		 */
+		ExecutionPlanStep(final String stmtText,
+				final List<JDBCParameterValue> params, final boolean main) {
+
+			this.stmtText = stmtText;
+			this.params = params;
+			this.main = main;
+		}
+	}
+
+
+	/**
+	 * Generated execution plan.
+	 */
+	private final List<ExecutionPlanStep> executionPlan = new ArrayList<>();
+
+
+	/**
+	 * Create new builder for updating persistent resource records matching the
+	 * specified filter.
+	 *
+	 * @param resources Application resources manager.
+	 * @param tx The transaction.
+	 * @param prsrcHandler Persistent resource handler.
+	 * @param filter Filter specification, may be {@code null} for updating all
+	 * records.
+	 * @param assignments New property values by property names.
+	 *
+	 * @throws IllegalArgumentException If any of the assigned properties
+	 * cannot be updated with a set-based update.
+	 */
+	BulkUpdateBuilder(final Resources resources,
+			final JDBCPersistenceTransaction tx,
+			final PersistentResourceHandler<?> prsrcHandler,
+			final FilterSpec<?> filter, final Map<String, ?> assignments) {
+
+		final SQLDialect dialect = tx.getSQLDialect();
+		final ParameterValuesFactoryImpl paramsFactory =
+			tx.getParameterValuesFactory();
+		final Actor actor = tx.getActor();
+
+		// build the "SET" clause
+		final StringBuilder setClauseBuf = new StringBuilder(256);
+		final List<JDBCParameterValue> setParams = new ArrayList<>();
+		for (final Map.Entry<String, ?> entry : assignments.entrySet()) {
+			final String propName = entry.getKey();
+			final ResourcePropertyHandler propHandler =
+				prsrcHandler.getProperties().get(propName);
+			if (propHandler == null)
+				throw new IllegalArgumentException("Persistent resource "
+						+ prsrcHandler.getResourceClass().getName()
+						+ " does not have property " + propName + ".");
+			final JDBCParameterValueGetter paramValueGetter;
+			if (propHandler instanceof SimplePropertyHandler)
+				paramValueGetter = JDBCParameterValueGetter.VAL;
+			else if (propHandler instanceof RefPropertyHandler)
+				paramValueGetter = JDBCParameterValueGetter.REF;
+			else
+				throw new IllegalArgumentException("Property " + propName
+						+ " is not a simple or reference property.");
+			final ResourcePropertyPersistence propPersistence =
+				propHandler.getPersistence();
+			if ((propPersistence == null)
+					|| (propPersistence.getCollectionName() != null))
+				throw new IllegalArgumentException("Property " + propName
+						+ " is not stored in the persistent resource table.");
+			if (!propHandler.isAllowed(ResourcePropertyAccess.UPDATE, actor))
+				throw new IllegalArgumentException("Property " + propName
+						+ " is not allowed to be updated by the actor.");
+			addSet(setClauseBuf, propPersistence.getFieldName());
+			setParams.add(paramValueGetter.get(resources, paramsFactory,
+					propHandler, entry.getValue()));
+		}
+
+		// update relevant meta-properties
+		final MetaPropertyHandler verPropHandler =
+			prsrcHandler.getMetaProperty(MetaPropertyType.VERSION);
+		if (verPropHandler != null) {
+			final String verColName =
+				verPropHandler.getPersistence().getFieldName();
+			if (setClauseBuf.length() > 0)
+				setClauseBuf.append(", ");
+			setClauseBuf.append(verColName).append(" = ").append(verColName)
+				.append(" + 1");
+		}
+		final MetaPropertyHandler lastModTSPropHandler =
+			prsrcHandler.getMetaProperty(
+					MetaPropertyType.MODIFICATION_TIMESTAMP);
+		if (lastModTSPropHandler != null) {
+			addSet(setClauseBuf,
+					lastModTSPropHandler.getPersistence().getFieldName());
+			setParams.add(JDBCParameterValueGetter.VAL.get(resources,
+					paramsFactory, lastModTSPropHandler, new Date()));
+		}
+		final MetaPropertyHandler lastModByPropHandler =
+			prsrcHandler.getMetaProperty(MetaPropertyType.MODIFICATION_ACTOR);
+		if (lastModByPropHandler != null) {
+			addSet(setClauseBuf,
+					lastModByPropHandler.getPersistence().getFieldName());
+			setParams.add(JDBCParameterValueGetter.VAL.get(resources,
+					paramsFactory, lastModByPropHandler,
+					actor.getActorName()));
+		}
+		final String setClause = setClauseBuf.toString();
+
+		// build the statements
+		final String tableName = prsrcHandler.getPersistentCollectionName();
+		final IdPropertyHandler idPropHandler = prsrcHandler.getIdProperty();
+		final Map<String, SingleValuedQueryProperty> tablePropExprs =
+			((filter == null) || filter.isEmpty() ? null :
+				getTablePropertyExpressions(prsrcHandler, filter));
+		if ((filter == null) || filter.isEmpty()) { // no filter
+
+			this.executionPlan.add(new ExecutionPlanStep(
+					"UPDATE " + tableName + " SET " + setClause,
+					setParams, true));
+
+		} else if (tablePropExprs != null) { // simple filter
+
+			final Map<String, JDBCParameterValue> params = new HashMap<>();
+			final WhereClause whereClauseBuilder = new WhereClause(
+					resources,
+					dialect,
+					paramsFactory,
+					filter,
+					"p",
+					tablePropExprs,
+					Collections.<String, CollectionQueryProperty>emptyMap(),
+					CollectionUtils.<String, String>emptySortedMap(),
+					params);
+			final List<JDBCParameterValue> paramsList =
+				new ArrayList<>(setParams);
+			final String whereClause = Utils.processSQL(resources,
+					whereClauseBuilder.getBody(), params, paramsList);
+
+			this.executionPlan.add(new ExecutionPlanStep(
+					"UPDATE " + tableName + " SET " + setClause
+						+ " WHERE " + whereClause,
+					paramsList, true));
+
+		} else { // complex filter
+
+			final QueryBuilder queryBuilder = QueryBuilder.createQueryBuilder(
+					resources,
+					dialect,
+					paramsFactory,
+					actor,
+					prsrcHandler,
+					resources
+						.getPropertiesFetchSpec(prsrcHandler.getResourceClass())
+						.include(idPropHandler.getName()),
+					filter,
+					null);
+
+			final Map<String, JDBCParameterValue> params = new HashMap<>();
+			final WhereClause whereClauseBuilder =
+				queryBuilder.buildWhereClause(params);
+
+			final String anchorTableName = "q_" + tableName;
+			final List<String> preStatements = new ArrayList<>();
+			final List<String> postStatements = new ArrayList<>();
+			dialect.makeSelectIntoTempTable(anchorTableName,
+					tx.addTempTable(anchorTableName),
+					dialect.makeSelectWithExclusiveLock(
+							queryBuilder.buildIdsQuery(whereClauseBuilder,
+									null),
+							"t"),
+					preStatements, postStatements);
+
+			this.addSteps(resources, preStatements, params);
+
+			this.executionPlan.add(new ExecutionPlanStep(
+					dialect.createUpdateWithJoins(
+							tableName,
+							"t",
+							setClause,
+							anchorTableName + " AS a",
+							"t." + idPropHandler.getPersistence().getFieldName()
+								+ " = a." + QueryBuilder.ANCHOR_ID_COLNAME,
+							null),
+					setParams, true));
+
+			this.addSteps(resources, postStatements, params);
+		}
+	}
+
+	/**
+	 * Get expressions for the filter properties if the filter uses only simple
+	 * properties stored directly in the persistent resource table, such as the
+	 * record id and version, so that the filter can be used in the "WHERE"
+	 * clause of the "UPDATE" statement without any joins.
+	 *
+	 * @param prsrcHandler Persistent resource handler.
+	 * @param filter The filter.
+	 *
+	 * @return Property expressions by property paths, or {@code null} if the
+	 * filter uses any other properties.
+	 */
+	private static Map<String, SingleValuedQueryProperty>
+	getTablePropertyExpressions(
+			final PersistentResourceHandler<?> prsrcHandler,
+			final FilterSpec<?> filter) {
+
+		final Map<String, SingleValuedQueryProperty> propExprs =
+			new HashMap<>();
+		for (final String propPath : filter.getUsedProperties()) {
+			final ResourcePropertyHandler propHandler =
+				prsrcHandler.getProperties().get(propPath);
+			if (!(propHandler instanceof SimplePropertyHandler)
+					&& !(propHandler instanceof IdPropertyHandler)
+					&& !(propHandler instanceof MetaPropertyHandler))
+				return null;
+			final ResourcePropertyPersistence propPersistence =
+				propHandler.getPersistence();
+			if ((propPersistence == null)
+					|| (propPersistence.getCollectionName() != null))
+				return null;
+			propExprs.put(propPath, new SingleValuedQueryProperty(
+					propPersistence.getFieldName(),
+					propHandler.getValueHandler().getPersistentValueType()));
+		}
+
+		return propExprs;
+	}
+
+	/**
+	 * Add column assignment with a parameter placeholder to the "SET" clause.
+	 *
+	 * @param setClauseBuf The "SET" clause buffer.
+	 * @param colName Column name.
+	 */
+	private static void addSet(final StringBuilder setClauseBuf,
+			final String colName) {
+
+		if (setClauseBuf.length() > 0)
+			setClauseBuf.append(", ");
+		setClauseBuf.append(colName).append(" = ?");
+	}
+
+	/**
+	 * Add auxiliary statements to the execution plan.
+	 *
+	 * @param resources Application resources manager.
+	 * @param stmts The statements.
+	 * @param params Named parameters used in the statements.
+	 */
+	private void addSteps(final Resources resources, final List<String> stmts,
+			final Map<String, JDBCParameterValue> params) {
+
+		final List<JDBCParameterValue> paramsList = new ArrayList<>();
+		for (final String stmt : stmts) {
+			paramsList.clear();
+			final String stmtText = Utils.processSQL(resources, stmt, params,
+					paramsList);
+			this.executionPlan.add(new ExecutionPlanStep(stmtText,
+					(paramsList.isEmpty()
+							? Collections.<JDBCParameterValue>emptyList()
+							: new ArrayList<>(paramsList)),
+					false));
+		}
+	}
+
+
+	/**
+	 * Execute the generated statements.
+	 *
+	 * @param tx The transaction.
+	 *
+	 * @return Number of updated records.
+	 *
+	 * @throws SQLException If a database error happens.
+	 */
+	int execute(final JDBCPersistenceTransaction tx)
+		throws SQLException {
+
+		// the log
+		final Log log = LogFactory.getLog(this.getClass());
+		final boolean debug = log.isDebugEnabled();
+
+		// execute the statements
+		final StatementCache statementCache = tx.getStatementCache();
+		int updated = 0;
+		for (final ExecutionPlanStep step : this.executionPlan) {
+			final PreparedStatement pstmt =
+				statementCache.prepare(step.stmtText);
+			try {
+
+				// set parameters
+				int nextParamInd = 1;
+				for (final JDBCParameterValue paramVal : step.params)
+					nextParamInd = paramVal.set(pstmt, nextParamInd);
+
+				// execute the statement
+				if (debug)
+					log.debug("executing SQL query:\n" + step.stmtText
+							+ "\nparams: " + step.params);
+				pstmt.execute();
+				tx.statementExecuted();
+				Utils.logWarnings(log, pstmt.getWarnings());
+
+				// get number of updated records
+				if (step.main) {
+					updated = pstmt.getUpdateCount();
+					if (debug)
+						log.debug("updated " + updated + " records");
+				}
+			} finally {
+				statementCache.release(pstmt);
+			}
+		}
+
+		// done
+		return updated;
+	}
+}
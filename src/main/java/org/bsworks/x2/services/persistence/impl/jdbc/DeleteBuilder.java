@@ -1,6 +1,5 @@
 package org.bsworks.x2.services.persistence.impl.jdbc;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -414,7 +413,7 @@ class DeleteBuilder {
 	/**
 	 * Execute the generated statements.
 	 *
-	 * @param con Database connection.
+	 * @param tx The transaction.
 	 * @param affectedResources Set, to which to add persistent resource
 	 * classes, records of which were actually deleted. May be {@code null}.
 	 *
@@ -422,7 +421,8 @@ class DeleteBuilder {
 	 *
 	 * @throws SQLException If a database error happens.
 	 */
-	boolean execute(final Connection con, final Set<Class<?>> affectedResources)
+	boolean execute(final JDBCPersistenceTransaction tx,
+			final Set<Class<?>> affectedResources)
 		throws SQLException {
 
 		// the log
@@ -430,10 +430,12 @@ class DeleteBuilder {
 		final boolean debug = log.isDebugEnabled();
 
 		// execute the statements
+		final StatementCache statementCache = tx.getStatementCache();
 		boolean deleted = false;
 		for (final ExecutionPlanStep step : this.executionPlan) {
-			try (final PreparedStatement pstmt =
-				con.prepareStatement(step.stmtText)) {
+			final PreparedStatement pstmt =
+				statementCache.prepare(step.stmtText);
+			try {
 
 				// set parameters
 				int nextParamInd = 1;
@@ -445,6 +447,7 @@ class DeleteBuilder {
 					log.debug("executing SQL query:\n" + step.stmtText
 							+ "\nparams: " + step.params);
 				pstmt.execute();
+				tx.statementExecuted();
 				Utils.logWarnings(log, pstmt.getWarnings());
 
 				// check if persistent resource records were deleted
@@ -459,6 +462,8 @@ class DeleteBuilder {
 						deleted = true;
 					}
 				}
+			} finally {
+				statementCache.release(pstmt);
 			}
 		}
 
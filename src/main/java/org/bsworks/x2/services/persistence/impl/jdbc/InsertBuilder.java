@@ -1,12 +1,13 @@
 package org.bsworks.x2.services.persistence.impl.jdbc;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -35,8 +36,8 @@ import org.bsworks.x2.util.MutableInt;
 
 
 /**
- * Builder of a series of "INSERT" statements for creating a persistent resource
- * record.
+ * Builder of a series of "INSERT" statements for creating persistent resource
+ * records.
  *
  * @author Lev Himmelfarb
  */
@@ -396,25 +397,46 @@ class InsertBuilder {
 			final PersistentResourceHandler<?> prsrcHandler,
 			final Object recTmpl, final Actor actor) {
 
+		this(resources, paramsFactory, prsrcHandler,
+				Collections.singletonList(recTmpl), actor);
+	}
+
+	/**
+	 * Create builder for inserting multiple persistent resource records. The
+	 * statements are built once for the whole collection, so that records
+	 * in the same table can be inserted with a single statement batch.
+	 *
+	 * @param resources Application resources manager.
+	 * @param paramsFactory Parameter value handlers factory.
+	 * @param prsrcHandler Persistent resource handler.
+	 * @param recTmpls Persistent resource record templates.
+	 * @param actor The actor.
+	 */
+	InsertBuilder(final Resources resources,
+			final ParameterValuesFactoryImpl paramsFactory,
+			final PersistentResourceHandler<?> prsrcHandler,
+			final Collection<?> recTmpls, final Actor actor) {
+
 		final MutableInt maxTableNestingLevel = new MutableInt(0);
 
 		final StatementBuilderContext topCtx = new StatementBuilderContext(
 				null,
 				false,
 				prsrcHandler.getPersistentCollectionName(),
-				recTmpl,
+				null,
 				prsrcHandler.getIdProperty(),
 				prsrcHandler.getPersistentCollectionName(),
 				null,
 				null,
 				maxTableNestingLevel);
 
-		addObjectProperties(resources, paramsFactory, actor, topCtx,
-				prsrcHandler, recTmpl,
-				new HashMap<String, StatementBuilderContext>(),
-				maxTableNestingLevel);
-
-		topCtx.toExecutionPlanSteps(this.executionPlan);
+		final Map<String, StatementBuilderContext> ctxCache = new HashMap<>();
+		for (final Object recTmpl : recTmpls) {
+			topCtx.reset(recTmpl);
+			addObjectProperties(resources, paramsFactory, actor, topCtx,
+					prsrcHandler, recTmpl, ctxCache, maxTableNestingLevel);
+			topCtx.toExecutionPlanSteps(this.executionPlan);
+		}
 
 		this.maxTableNestingLevel = maxTableNestingLevel.get();
 	}
@@ -835,107 +857,294 @@ class InsertBuilder {
 
 
 	/**
-	 * Execute the generated statements.
+	 * Execute the generated statements. The statements are executed level by
+	 * level of the table nesting, so that all parent records are inserted and
+	 * their ids are known before the child records are inserted. At each
+	 * level, records that go into the same table are inserted with a single
+	 * statement batch. Tables with auto-generated record ids are batched only
+	 * if the SQL dialect tells that the driver returns generated keys for
+	 * batches. Otherwise, their records are inserted one by one.
 	 *
-	 * @param con Database connection.
+	 * @param tx The transaction.
 	 *
 	 * @throws SQLException If a database error happens.
 	 */
-	@SuppressWarnings("resource") // prepared statements are closed in finally
-	void execute(final Connection con)
+	@SuppressWarnings("resource") // prepared statements released in finally
+	void execute(final JDBCPersistenceTransaction tx)
 		throws SQLException {
 
 		// the log
 		final Log log = LogFactory.getLog(this.getClass());
 		final boolean debug = log.isDebugEnabled();
 
-		// parent record ids chain
-		final Object[] parentIdsChain =
-			new Object[this.maxTableNestingLevel + 1];
+		// find parent step for each step and group steps by levels and tables
+		final int numSteps = this.executionPlan.size();
+		final int[] parentStepInds = new int[numSteps];
+		final int[] lastStepIndsByLevel =
+			new int[this.maxTableNestingLevel + 1];
+		final List<Map<String, List<Integer>>> stepGroups =
+			new ArrayList<>(this.maxTableNestingLevel + 1);
+		for (int level = 0; level <= this.maxTableNestingLevel; level++)
+			stepGroups.add(new LinkedHashMap<String, List<Integer>>());
+		for (int i = 0; i < numSteps; i++) {
+			final ExecutionPlanStep step = this.executionPlan.get(i);
+			parentStepInds[i] = (step.tableNestingLevel > 0 ?
+					lastStepIndsByLevel[step.tableNestingLevel - 1] : -1);
+			lastStepIndsByLevel[step.tableNestingLevel] = i;
+			if (step.existingRecord)
+				continue;
+			final Map<String, List<Integer>> levelGroups =
+				stepGroups.get(step.tableNestingLevel);
+			List<Integer> group = levelGroups.get(step.tableId);
+			if (group == null) {
+				group = new ArrayList<>();
+				levelGroups.put(step.tableId, group);
+			}
+			group.add(Integer.valueOf(i));
+		}
 
-		// create reusable prepared statements cache
-		final Map<String, PreparedStatement> pstmts = new HashMap<>();
-		try {
+		// record ids by steps, existing records ids are known upfront
+		final Object[] recIds = new Object[numSteps];
+		for (int i = 0; i < numSteps; i++) {
+			final ExecutionPlanStep step = this.executionPlan.get(i);
+			if (step.existingRecord)
+				recIds[i] = step.idPropHandler.getValue(step.obj);
+		}
 
-			// execute generated plan steps
-			for (final ExecutionPlanStep step : this.executionPlan) {
+		// prepared statements used by the execution
+		final boolean batchGeneratedKeys =
+			tx.getSQLDialect().supportsBatchGeneratedKeys();
+		final int batchSize = tx.getBatchSize();
+		final StatementCache statementCache = tx.getStatementCache();
+		final List<PreparedStatement> pstmts = new ArrayList<>();
+		try {
 
-				// check if special existing record step
-				if (step.existingRecord) {
-					parentIdsChain[step.tableNestingLevel] =
-						step.idPropHandler.getValue(step.obj);
-					continue;
+			// execute the steps level by level
+			for (final Map<String, List<Integer>> levelGroups : stepGroups) {
+				for (final List<Integer> group : levelGroups.values()) {
+
+					// get prepared statement
+					final ExecutionPlanStep firstStep =
+						this.executionPlan.get(group.get(0).intValue());
+					final PreparedStatement pstmt =
+						(firstStep.generatedIdColName != null
+							? statementCache.prepare(firstStep.stmtText,
+									firstStep.generatedIdColName[0])
+							: statementCache.prepare(firstStep.stmtText));
+					pstmts.add(pstmt);
+
+					// execute the statement
+					if ((group.size() == 1)
+							|| ((firstStep.generatedIdColName != null)
+									&& !batchGeneratedKeys)) {
+						for (final Integer stepInd : group)
+							this.executeStep(tx, log, debug, pstmt,
+									stepInd.intValue(), parentStepInds,
+									recIds);
+					} else {
+						for (int batchStart = 0; batchStart < group.size();
+								batchStart += batchSize)
+							this.executeBatch(tx, log, debug, pstmt,
+									group.subList(batchStart, Math.min(
+											batchStart + batchSize,
+											group.size())),
+									parentStepInds, recIds);
+					}
 				}
+			}
 
-				// get prepared statement
-				PreparedStatement pstmt = pstmts.get(step.tableId);
-				if (pstmt == null) {
-					pstmt = (step.generatedIdColName != null
-							? con.prepareStatement(step.stmtText,
-									step.generatedIdColName)
-							: con.prepareStatement(step.stmtText));
-					pstmts.put(step.tableId, pstmt);
-				}
+		} finally {
+			for (final PreparedStatement pstmt : pstmts)
+				statementCache.release(pstmt);
+		}
+	}
 
-				// parameter counter
-				int nextParamInd = 1;
-
-				// set parent id parameter
-				if (step.tableNestingLevel > 0)
-					pstmt.setObject(nextParamInd++,
-							parentIdsChain[step.tableNestingLevel - 1]);
-
-				// set parameters
-				for (final JDBCParameterValue paramVal : step.params)
-					nextParamInd = paramVal.set(pstmt, nextParamInd);
-
-				// execute the statement
-				if (debug)
-					log.debug("executing SQL query:\n" + step.stmtText
-							+ (step.tableNestingLevel == 0 ? "" :
-								"\nparent record id: "
-								+ parentIdsChain[step.tableNestingLevel - 1])
-							+ "\nparams: " + step.params);
-				pstmt.execute();
-				Utils.logWarnings(log, pstmt.getWarnings());
-
-				// get new record id
-				final Object newRecId;
-				if (step.generatedIdColName != null) { // auto-generated id
-
-					// get generated record id
-					try (final ResultSet rs = pstmt.getGeneratedKeys()) {
-						rs.next();
-						Utils.logWarnings(log, rs.getWarnings());
-						newRecId = step.idPropHandler.getValueHandler().valueOf(
-								rs.getString(1));
-					} catch (final InvalidResourceDataException e) {
-						throw new RuntimeException(
-								"Invalid generated record id value.", e);
-					}
-					if (debug)
-						log.debug("auto-generated record id: " + newRecId
-								+ " (" + newRecId.getClass().getName() + ")");
+	/**
+	 * Execute single execution plan step.
+	 *
+	 * @param tx The transaction.
+	 * @param log The log.
+	 * @param debug {@code true} if debug logging is enabled.
+	 * @param pstmt Prepared statement for the step's table.
+	 * @param stepInd Index of the step in the execution plan.
+	 * @param parentStepInds Parent step indexes by steps, -1 for top steps.
+	 * @param recIds Record ids by steps, to which to save the new record id.
+	 *
+	 * @throws SQLException If a database error happens.
+	 */
+	private void executeStep(final JDBCPersistenceTransaction tx,
+			final Log log, final boolean debug, final PreparedStatement pstmt,
+			final int stepInd, final int[] parentStepInds,
+			final Object[] recIds)
+		throws SQLException {
 
-					// set record id in the object
-					step.idPropHandler.setValue(step.obj, newRecId);
+		final ExecutionPlanStep step = this.executionPlan.get(stepInd);
 
-				} else if (step.idPropHandler != null) { // assigned record id
+		// set parameters
+		this.setStepParameters(log, debug, pstmt, stepInd, parentStepInds,
+				recIds);
 
-					newRecId = step.idPropHandler.getValue(step.obj);
+		// execute the statement
+		pstmt.execute();
+		tx.statementExecuted();
+		Utils.logWarnings(log, pstmt.getWarnings());
 
-				} else { // no record id
+		// get new record id
+		if (step.generatedIdColName != null) {
+			try (final ResultSet rs = pstmt.getGeneratedKeys()) {
+				rs.next();
+				Utils.logWarnings(log, rs.getWarnings());
+				recIds[stepInd] = setGeneratedId(log, debug, step, rs);
+			}
+		} else {
+			recIds[stepInd] = getAssignedId(step);
+		}
+	}
 
-					newRecId = null;
-				}
+	/**
+	 * Execute execution plan steps that insert records into the same table as
+	 * a statement batch.
+	 *
+	 * @param tx The transaction.
+	 * @param log The log.
+	 * @param debug {@code true} if debug logging is enabled.
+	 * @param pstmt Prepared statement for the steps' table.
+	 * @param stepInds Indexes of the steps in the execution plan.
+	 * @param parentStepInds Parent step indexes by steps, -1 for top steps.
+	 * @param recIds Record ids by steps, to which to save the new record ids.
+	 *
+	 * @throws SQLException If a database error happens.
+	 */
+	private void executeBatch(final JDBCPersistenceTransaction tx,
+			final Log log, final boolean debug, final PreparedStatement pstmt,
+			final List<Integer> stepInds, final int[] parentStepInds,
+			final Object[] recIds)
+		throws SQLException {
 
-				// save record id in the parent ids chain
-				parentIdsChain[step.tableNestingLevel] = newRecId;
+		// add the records to the batch
+		for (final Integer stepInd : stepInds) {
+			this.setStepParameters(log, debug, pstmt, stepInd.intValue(),
+					parentStepInds, recIds);
+			pstmt.addBatch();
+		}
+
+		// execute the batch
+		if (debug)
+			log.debug("executing batch of " + stepInds.size() + " records");
+		pstmt.executeBatch();
+		tx.statementExecuted();
+		Utils.logWarnings(log, pstmt.getWarnings());
+
+		// get new record ids
+		final ExecutionPlanStep firstStep =
+			this.executionPlan.get(stepInds.get(0).intValue());
+		if (firstStep.generatedIdColName != null) {
+			try (final ResultSet rs = pstmt.getGeneratedKeys()) {
+				for (final Integer stepInd : stepInds) {
+					if (!rs.next())
+						throw new PersistenceException("The database did not"
+								+ " return generated record ids for all"
+								+ " inserted records.");
+					recIds[stepInd.intValue()] = setGeneratedId(log, debug,
+							this.executionPlan.get(stepInd.intValue()), rs);
+				}
+				Utils.logWarnings(log, rs.getWarnings());
 			}
+		} else {
+			for (final Integer stepInd : stepInds)
+				recIds[stepInd.intValue()] =
+					getAssignedId(this.executionPlan.get(stepInd.intValue()));
+		}
+	}
 
-		} finally {
-			for (final PreparedStatement pstmt : pstmts.values())
-				pstmt.close();
+	/**
+	 * Set execution plan step parameters in the prepared statement.
+	 *
+	 * @param log The log.
+	 * @param debug {@code true} if debug logging is enabled.
+	 * @param pstmt Prepared statement for the step's table.
+	 * @param stepInd Index of the step in the execution plan.
+	 * @param parentStepInds Parent step indexes by steps, -1 for top steps.
+	 * @param recIds Record ids by steps.
+	 *
+	 * @throws SQLException If a database error happens.
+	 */
+	private void setStepParameters(final Log log, final boolean debug,
+			final PreparedStatement pstmt, final int stepInd,
+			final int[] parentStepInds, final Object[] recIds)
+		throws SQLException {
+
+		final ExecutionPlanStep step = this.executionPlan.get(stepInd);
+
+		// parameter counter
+		int nextParamInd = 1;
+
+		// set parent id parameter
+		final Object parentRecId = (step.tableNestingLevel > 0 ?
+				recIds[parentStepInds[stepInd]] : null);
+		if (step.tableNestingLevel > 0)
+			pstmt.setObject(nextParamInd++, parentRecId);
+
+		// set parameters
+		for (final JDBCParameterValue paramVal : step.params)
+			nextParamInd = paramVal.set(pstmt, nextParamInd);
+
+		// log it
+		if (debug)
+			log.debug("executing SQL query:\n" + step.stmtText
+					+ (step.tableNestingLevel == 0 ? "" :
+						"\nparent record id: " + parentRecId)
+					+ "\nparams: " + step.params);
+	}
+
+	/**
+	 * Read auto-generated record id from the current row of the generated
+	 * keys result set and set it in the step's object.
+	 *
+	 * @param log The log.
+	 * @param debug {@code true} if debug logging is enabled.
+	 * @param step The execution plan step.
+	 * @param rs Generated keys result set positioned at the step's row.
+	 *
+	 * @return The record id.
+	 *
+	 * @throws SQLException If a database error happens.
+	 */
+	private static Object setGeneratedId(final Log log, final boolean debug,
+			final ExecutionPlanStep step, final ResultSet rs)
+		throws SQLException {
+
+		// get generated record id
+		final Object newRecId;
+		try {
+			newRecId = step.idPropHandler.getValueHandler().valueOf(
+					rs.getString(1));
+		} catch (final InvalidResourceDataException e) {
+			throw new RuntimeException(
+					"Invalid generated record id value.", e);
 		}
+		if (debug)
+			log.debug("auto-generated record id: " + newRecId
+					+ " (" + newRecId.getClass().getName() + ")");
+
+		// set record id in the object
+		step.idPropHandler.setValue(step.obj, newRecId);
+
+		return newRecId;
+	}
+
+	/**
+	 * Get record id of a step that does not have an auto-generated id.
+	 *
+	 * @param step The execution plan step.
+	 *
+	 * @return The assigned record id, or {@code null} if no record id.
+	 */
+	private static Object getAssignedId(final ExecutionPlanStep step) {
+
+		if (step.idPropHandler != null)
+			return step.idPropHandler.getValue(step.obj);
+
+		return null;
 	}
 }
@@ -6,6 +6,7 @@ import javax.sql.DataSource;
 
 import org.bsworks.x2.Actor;
 import org.bsworks.x2.RuntimeContext;
+import org.bsworks.x2.services.metrics.MetricsService;
 import org.bsworks.x2.services.persistence.PersistenceException;
 import org.bsworks.x2.services.persistence.PersistenceService;
 import org.bsworks.x2.util.sql.dialect.SQLDialect;
@@ -19,6 +20,35 @@ import org.bsworks.x2.util.sql.dialect.SQLDialect;
 class JDBCPersistenceService
 	implements PersistenceService {
 
+	/**
+	 * Name of the metrics service counter of prepared statements taken from
+	 * the statement cache.
+	 */
+	static final String STATEMENT_CACHE_HITS_COUNTER =
+		"persistence.statementCache.hits";
+
+	/**
+	 * Name of the metrics service counter of prepared statements that had to
+	 * be prepared because they were not in the statement cache.
+	 */
+	static final String STATEMENT_CACHE_MISSES_COUNTER =
+		"persistence.statementCache.misses";
+
+	/**
+	 * Name of the metrics service counter of persistent resource fetches that
+	 * used a cached query plan.
+	 */
+	static final String QUERY_PLAN_CACHE_HITS_COUNTER =
+		"persistence.queryPlanCache.hits";
+
+	/**
+	 * Name of the metrics service counter of persistent resource fetches that
+	 * had to compile a query plan.
+	 */
+	static final String QUERY_PLAN_CACHE_MISSES_COUNTER =
+		"persistence.queryPlanCache.misses";
+
+
 	/**
 	 * Runtime context.
 	 */
@@ -39,6 +69,21 @@ class JDBCPersistenceService
 	 */
 	private final int txIsoLevel;
 
+	/**
+	 * Prepared statement caches kept for physical connections.
+	 */
+	private final StatementCachePool statementCachePool;
+
+	/**
+	 * Compiled fetch plans cache.
+	 */
+	private final QueryPlanCache queryPlanCache;
+
+	/**
+	 * Maximum number of records inserted with a single statement batch.
+	 */
+	private final int batchSize;
+
 	/**
 	 * Query parameter value handlers factory.
 	 */
@@ -52,14 +97,24 @@ class JDBCPersistenceService
 	 * @param ds The data source.
 	 * @param dialect SQL dialect.
 	 * @param txIsoLevel Transaction isolation level.
+	 * @param statementCacheSize Maximum number of prepared statements cached
+	 * per connection.
+	 * @param queryPlanCacheSize Maximum number of cached fetch query plans.
+	 * @param batchSize Maximum number of records inserted with a single
+	 * statement batch.
 	 */
 	JDBCPersistenceService(final RuntimeContext runtimeCtx, final DataSource ds,
-			final SQLDialect dialect, final int txIsoLevel) {
+			final SQLDialect dialect, final int txIsoLevel,
+			final int statementCacheSize, final int queryPlanCacheSize,
+			final int batchSize) {
 
 		this.runtimeCtx = runtimeCtx;
 		this.ds = ds;
 		this.dialect = dialect;
 		this.txIsoLevel = txIsoLevel;
+		this.statementCachePool = new StatementCachePool(statementCacheSize);
+		this.queryPlanCache = new QueryPlanCache(queryPlanCacheSize);
+		this.batchSize = batchSize;
 		this.paramsFactory = new ParameterValuesFactoryImpl();
 	}
 
@@ -74,7 +129,10 @@ class JDBCPersistenceService
 		try {
 			return new PersistenceTransactionHandlerImpl(
 					this.runtimeCtx.getResources(), this.ds, this.dialect,
-					actor, readOnly, this.txIsoLevel, this.paramsFactory);
+					actor, readOnly, this.txIsoLevel, this.paramsFactory,
+					this.statementCachePool, this.queryPlanCache,
+					this.batchSize,
+					this.runtimeCtx.getService(MetricsService.class));
 		} catch (final SQLException e) {
 			throw new PersistenceException("Error starting new transaction.",
 					e);
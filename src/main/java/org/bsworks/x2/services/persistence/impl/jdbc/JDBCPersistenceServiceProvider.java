@@ -34,6 +34,36 @@ import org.bsworks.x2.util.sql.dialect.SQLDialectSelector;
  * The values are "READ_UNCOMMITTED", "READ_COMMITTED" (the default),
  * "REPEATABLE_READ" and "SERIALIZABLE".
  *
+ * <p>Prepared statements generated by the framework are cached per physical
+ * database connection and reused for repeated executions of the same SQL,
+ * including by later transactions that get the same physical connection from
+ * the connection pool. The physical connection is obtained by unwrapping the
+ * pooled connection to {@link java.sql.Connection}. If the connection pool
+ * does not expose the physical connection that way, the statements are cached
+ * only for the duration of a transaction. The maximum number of cached
+ * statements per connection can be configured using web-application context
+ * initialization parameter called {@value #STMTCACHESIZE_INITPARAM}. The
+ * default is {@value #DEFAULT_STMTCACHESIZE}, zero disables the cache. The
+ * cache hit and miss counts are reported to the metrics service as
+ * "persistence.statementCache.hits" and "persistence.statementCache.misses"
+ * counters.
+ *
+ * <p>Compiled persistent resource fetch query plans are cached and shared by
+ * all transactions, so that fetches that differ only in the filter values,
+ * the range and the actor roles are executed without rebuilding the SQL. The
+ * maximum number of cached plans can be configured using web-application
+ * context initialization parameter called {@value #PLANCACHESIZE_INITPARAM}.
+ * The default is {@value #DEFAULT_PLANCACHESIZE}, zero disables the cache. The
+ * cache hit and miss counts are reported to the metrics service as
+ * "persistence.queryPlanCache.hits" and "persistence.queryPlanCache.misses"
+ * counters.
+ *
+ * <p>Records created in the same table, such as nested collection elements or
+ * records passed to the bulk persist method, are inserted using JDBC statement
+ * batches. The maximum number of records in a single batch can be configured
+ * using web-application context initialization parameter called
+ * {@value #BATCHSIZE_INITPARAM}. The default is {@value #DEFAULT_BATCHSIZE}.
+ *
  * @author Lev Himmelfarb
  */
 public class JDBCPersistenceServiceProvider
@@ -51,6 +81,45 @@ public class JDBCPersistenceServiceProvider
 	public static final String TXISOLEVEL_INITPARAM =
 		"x2.service.persistence.jdbc.isolationLevel";
 
+	/**
+	 * Name of web-application context initialization parameter used to
+	 * configure the maximum number of cached prepared statements per
+	 * connection.
+	 */
+	public static final String STMTCACHESIZE_INITPARAM =
+		"x2.service.persistence.jdbc.statementCacheSize";
+
+	/**
+	 * Default maximum number of cached prepared statements per connection.
+	 */
+	public static final int DEFAULT_STMTCACHESIZE = 32;
+
+	/**
+	 * Name of web-application context initialization parameter used to
+	 * configure the maximum number of cached fetch query plans.
+	 */
+	public static final String PLANCACHESIZE_INITPARAM =
+		"x2.service.persistence.jdbc.queryPlanCacheSize";
+
+	/**
+	 * Default maximum number of cached fetch query plans.
+	 */
+	public static final int DEFAULT_PLANCACHESIZE = 256;
+
+	/**
+	 * Name of web-application context initialization parameter used to
+	 * configure the maximum number of records inserted with a single statement
+	 * batch.
+	 */
+	public static final String BATCHSIZE_INITPARAM =
+		"x2.service.persistence.jdbc.batchSize";
+
+	/**
+	 * Default maximum number of records inserted with a single statement
+	 * batch.
+	 */
+	public static final int DEFAULT_BATCHSIZE = 256;
+
 
 	/* (non-Javadoc)
 	 * See overridden method.
@@ -131,8 +200,51 @@ public class JDBCPersistenceServiceProvider
 					+ ".");
 		}
 
+		// get statement cache size
+		final int statementCacheSize;
+		try {
+			statementCacheSize = Integer.parseInt(StringUtils.defaultIfEmpty(
+					sc.getInitParameter(STMTCACHESIZE_INITPARAM),
+					String.valueOf(DEFAULT_STMTCACHESIZE)).trim());
+		} catch (final NumberFormatException e) {
+			throw new InitializationException("Invalid statement cache size "
+					+ sc.getInitParameter(STMTCACHESIZE_INITPARAM) + ".", e);
+		}
+		if (statementCacheSize < 0)
+			throw new InitializationException("Invalid statement cache size "
+					+ statementCacheSize + ".");
+
+		// get query plan cache size
+		final int queryPlanCacheSize;
+		try {
+			queryPlanCacheSize = Integer.parseInt(StringUtils.defaultIfEmpty(
+					sc.getInitParameter(PLANCACHESIZE_INITPARAM),
+					String.valueOf(DEFAULT_PLANCACHESIZE)).trim());
+		} catch (final NumberFormatException e) {
+			throw new InitializationException("Invalid query plan cache size "
+					+ sc.getInitParameter(PLANCACHESIZE_INITPARAM) + ".", e);
+		}
+		if (queryPlanCacheSize < 0)
+			throw new InitializationException("Invalid query plan cache size "
+					+ queryPlanCacheSize + ".");
+
+		// get insert batch size
+		final int batchSize;
+		try {
+			batchSize = Integer.parseInt(StringUtils.defaultIfEmpty(
+					sc.getInitParameter(BATCHSIZE_INITPARAM),
+					String.valueOf(DEFAULT_BATCHSIZE)).trim());
+		} catch (final NumberFormatException e) {
+			throw new InitializationException("Invalid batch size "
+					+ sc.getInitParameter(BATCHSIZE_INITPARAM) + ".", e);
+		}
+		if (batchSize <= 0)
+			throw new InitializationException("Invalid batch size "
+					+ batchSize + ".");
+
 		// create and return the service
-		return new JDBCPersistenceService(runtimeCtx, ds, dialect, txIsoLevel);
+		return new JDBCPersistenceService(runtimeCtx, ds, dialect, txIsoLevel,
+				statementCacheSize, queryPlanCacheSize, batchSize);
 	}
 
 	/* (non-Javadoc)
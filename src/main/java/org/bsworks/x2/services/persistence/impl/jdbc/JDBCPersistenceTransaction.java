@@ -4,9 +4,14 @@ import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -115,6 +120,41 @@ public class JDBCPersistenceTransaction
 	 */
 	private Set<String> tempTables = new HashSet<>();
 
+	/**
+	 * Prepared statements cache.
+	 */
+	private final StatementCache statementCache;
+
+	/**
+	 * Compiled fetch plans cache shared by all transactions.
+	 */
+	private final QueryPlanCache queryPlanCache;
+
+	/**
+	 * Maximum number of records inserted with a single statement batch.
+	 */
+	private final int batchSize;
+
+	/**
+	 * Number of fetches in the transaction that used a cached plan.
+	 */
+	private int queryPlanCacheHits = 0;
+
+	/**
+	 * Number of fetches in the transaction that had to compile a plan.
+	 */
+	private int queryPlanCacheMisses = 0;
+
+	/**
+	 * Number of SQL statements executed in the transaction.
+	 */
+	private int executedStatementCount = 0;
+
+	/**
+	 * Number of records fetched in the transaction.
+	 */
+	private long fetchedRecordCount = 0;
+
 
 	/**
 	 * Create new transaction.
@@ -125,16 +165,25 @@ public class JDBCPersistenceTransaction
 	 * @param actor Actor performing the transaction, or {@code null} if
 	 * unauthenticated.
 	 * @param paramsFactory Query parameter value handlers factory.
+	 * @param statementCache Prepared statements cache for the connection.
+	 * @param queryPlanCache Compiled fetch plans cache.
+	 * @param batchSize Maximum number of records inserted with a single
+	 * statement batch.
 	 */
 	JDBCPersistenceTransaction(final Resources resources, final Connection con,
 			final SQLDialect dialect, final Actor actor,
-			final ParameterValuesFactoryImpl paramsFactory) {
+			final ParameterValuesFactoryImpl paramsFactory,
+			final StatementCache statementCache,
+			final QueryPlanCache queryPlanCache, final int batchSize) {
 
 		this.resources = resources;
 		this.con = con;
 		this.dialect = dialect;
 		this.actor = actor;
 		this.paramsFactory = paramsFactory;
+		this.statementCache = statementCache;
+		this.queryPlanCache = queryPlanCache;
+		this.batchSize = batchSize;
 	}
 
 
@@ -185,7 +234,10 @@ public class JDBCPersistenceTransaction
 		} catch (final SQLException e) {
 			throw new PersistenceException("Error committing transaction.", e);
 		} finally {
-			this.tempTables.clear();
+			if (!this.tempTables.isEmpty()) {
+				this.tempTables.clear();
+				this.statementCache.clear(); // may refer to dropped tables
+			}
 			this.releaseLocks();
 		}
 	}
@@ -245,45 +297,130 @@ public class JDBCPersistenceTransaction
 			this.resources.getPersistentResourceHandler(prsrcClass);
 
 		// set meta-properties
+		this.setCreationMetaProperties(prsrcHandler,
+				Collections.singletonList(recTmpl));
+
+		// create execution plan
+		final InsertBuilder stmts = new InsertBuilder(this.resources,
+				this.paramsFactory, prsrcHandler, recTmpl, this.actor);
+
+		// execute it
+		try {
+			stmts.execute(this);
+		} catch (final SQLException e) {
+			throw new PersistenceException(e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public <R> void persistAll(final Class<R> prsrcClass,
+			final Collection<? extends R> recTmpls) {
+
+		// check that the transaction is authenticated
+		if (this.actor == null)
+			throw new UnsupportedOperationException("Persisting records is not"
+					+ " allowed to unauthenticated transactions.");
+
+		// get persistent resource handler
+		final PersistentResourceHandler<R> prsrcHandler =
+			this.resources.getPersistentResourceHandler(prsrcClass);
+
+		// check if anything to persist
+		if (recTmpls.isEmpty())
+			return;
+
+		// set meta-properties
+		this.setCreationMetaProperties(prsrcHandler, recTmpls);
+
+		// create and execute execution plans for chunks of records
+		final List<R> chunk =
+			new ArrayList<>(Math.min(recTmpls.size(), this.batchSize));
+		for (final Iterator<? extends R> i = recTmpls.iterator();
+				i.hasNext();) {
+			chunk.add(i.next());
+			if ((chunk.size() < this.batchSize) && i.hasNext())
+				continue;
+			final InsertBuilder stmts = new InsertBuilder(this.resources,
+					this.paramsFactory, prsrcHandler, chunk, this.actor);
+			try {
+				stmts.execute(this);
+			} catch (final SQLException e) {
+				throw new PersistenceException(e);
+			}
+			chunk.clear();
+		}
+	}
+
+	/**
+	 * Set meta-properties of new persistent resource record templates. All
+	 * records get the same creation timestamp.
+	 *
+	 * @param prsrcHandler Persistent resource handler.
+	 * @param recTmpls Record templates.
+	 */
+	private void setCreationMetaProperties(
+			final PersistentResourceHandler<?> prsrcHandler,
+			final Collection<?> recTmpls) {
+
 		final Date now = new Date();
+		final String actorName = this.actor.getActorName();
 		for (final MetaPropertyType metaType : MetaPropertyType.values()) {
 			final MetaPropertyHandler metaPropHandler =
 				prsrcHandler.getMetaProperty(metaType);
 			if (metaPropHandler == null)
 				continue;
+			final Object val;
 			switch (metaType) {
 			case VERSION:
 				try {
-					metaPropHandler.setValue(recTmpl,
-							metaPropHandler.getValueHandler().valueOf("1"));
+					val = metaPropHandler.getValueHandler().valueOf("1");
 				} catch (final InvalidResourceDataException e) { // can't happen
 					throw new RuntimeException("Error getting initial version.",
 							e);
 				}
 				break;
 			case CREATION_ACTOR:
-				metaPropHandler.setValue(recTmpl, this.actor.getActorName());
-				break;
-			case CREATION_TIMESTAMP:
-				metaPropHandler.setValue(recTmpl, now);
-				break;
 			case MODIFICATION_ACTOR:
-				metaPropHandler.setValue(recTmpl, this.actor.getActorName());
+				val = actorName;
 				break;
+			case CREATION_TIMESTAMP:
 			case MODIFICATION_TIMESTAMP:
-				metaPropHandler.setValue(recTmpl, now);
+				val = now;
 				break;
 			default:
+				continue;
 			}
+			for (final Object recTmpl : recTmpls)
+				metaPropHandler.setValue(recTmpl, val);
 		}
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public <R> boolean update(final Class<R> prsrcClass, final R rec,
+			final R recTmpl, final Set<String> updatedProps) {
+
+		// check that the transaction is authenticated
+		if (this.actor == null)
+			throw new UnsupportedOperationException("Updating records is not"
+					+ " allowed to unauthenticated transactions.");
+
+		// get persistent resource handler
+		final PersistentResourceHandler<R> prsrcHandler =
+			this.resources.getPersistentResourceHandler(prsrcClass);
 
 		// create execution plan
-		final InsertBuilder stmts = new InsertBuilder(this.resources,
-				this.paramsFactory, prsrcHandler, recTmpl, this.actor);
+		final UpdateBuilder stmts = new UpdateBuilder(this.resources, this,
+				prsrcHandler, rec, recTmpl, updatedProps);
 
 		// execute it
 		try {
-			stmts.execute(this.con);
+			return stmts.execute(this);
 		} catch (final SQLException e) {
 			throw new PersistenceException(e);
 		}
@@ -293,25 +430,29 @@ public class JDBCPersistenceTransaction
 	 * See overridden method.
 	 */
 	@Override
-	public <R> boolean update(final Class<R> prsrcClass, final R rec,
-			final R recTmpl, final Set<String> updatedProps) {
+	public <R> int updateWhere(final Class<R> prsrcClass,
+			final FilterSpec<R> filter, final Map<String, ?> assignments) {
 
 		// check that the transaction is authenticated
 		if (this.actor == null)
 			throw new UnsupportedOperationException("Updating records is not"
 					+ " allowed to unauthenticated transactions.");
 
+		// check that there is something to update
+		if (assignments.isEmpty())
+			throw new IllegalArgumentException("No property assignments.");
+
 		// get persistent resource handler
 		final PersistentResourceHandler<R> prsrcHandler =
 			this.resources.getPersistentResourceHandler(prsrcClass);
 
 		// create execution plan
-		final UpdateBuilder stmts = new UpdateBuilder(this.resources, this,
-				prsrcHandler, rec, recTmpl, updatedProps);
+		final BulkUpdateBuilder stmts = new BulkUpdateBuilder(this.resources,
+				this, prsrcHandler, filter, assignments);
 
 		// execute it
 		try {
-			return stmts.execute(this.con);
+			return stmts.execute(this);
 		} catch (final SQLException e) {
 			throw new PersistenceException(e);
 		}
@@ -339,7 +480,7 @@ public class JDBCPersistenceTransaction
 
 		// execute it
 		try {
-			return stmts.execute(this.con, affectedResources);
+			return stmts.execute(this, affectedResources);
 		} catch (final SQLException e) {
 			throw new PersistenceException(e);
 		}
@@ -376,6 +517,7 @@ public class JDBCPersistenceTransaction
 				this.dialect.lockTablesInExclusiveMode(lockedTables));
 		try (final Statement stmt = this.con.createStatement()) {
 			stmt.execute(stmtText);
+			this.executedStatementCount++;
 			Utils.logWarnings(this.log, stmt.getWarnings());
 		} catch (final SQLException e) {
 			throw new PersistenceException(e);
@@ -414,6 +556,7 @@ public class JDBCPersistenceTransaction
 
 		try (final Statement stmt = this.con.createStatement()) {
 			stmt.execute(stmtText);
+			this.executedStatementCount++;
 			Utils.logWarnings(this.log, stmt.getWarnings());
 		} catch (final SQLException e) {
 			throw new PersistenceException(e);
@@ -432,6 +575,17 @@ public class JDBCPersistenceTransaction
 		return this.tempTables.add(tableName);
 	}
 
+	/**
+	 * Tell if temporary tables have been created in the transaction since the
+	 * last commit.
+	 *
+	 * @return {@code true} if temporary tables have been created.
+	 */
+	boolean hasTempTables() {
+
+		return !this.tempTables.isEmpty();
+	}
+
 	/**
 	 * Get used database connection.
 	 *
@@ -442,6 +596,108 @@ public class JDBCPersistenceTransaction
 		return this.con;
 	}
 
+	/**
+	 * Get prepared statements cache associated with the connection.
+	 *
+	 * @return The statements cache.
+	 */
+	StatementCache getStatementCache() {
+
+		return this.statementCache;
+	}
+
+	/**
+	 * Get maximum number of records inserted with a single statement batch.
+	 *
+	 * @return The batch size.
+	 */
+	int getBatchSize() {
+
+		return this.batchSize;
+	}
+
+	/**
+	 * Get compiled fetch plans cache.
+	 *
+	 * @return The plans cache.
+	 */
+	QueryPlanCache getQueryPlanCache() {
+
+		return this.queryPlanCache;
+	}
+
+	/**
+	 * Register a fetch plan lookup in the transaction.
+	 *
+	 * @param hit {@code true} if a cached plan was used, {@code false} if the
+	 * plan had to be compiled.
+	 */
+	void registerQueryPlanLookup(final boolean hit) {
+
+		if (hit)
+			this.queryPlanCacheHits++;
+		else
+			this.queryPlanCacheMisses++;
+	}
+
+	/**
+	 * Get number of fetches in the transaction that used a cached plan.
+	 *
+	 * @return Number of plan cache hits.
+	 */
+	int getQueryPlanCacheHits() {
+
+		return this.queryPlanCacheHits;
+	}
+
+	/**
+	 * Get number of fetches in the transaction that had to compile a plan.
+	 *
+	 * @return Number of plan cache misses.
+	 */
+	int getQueryPlanCacheMisses() {
+
+		return this.queryPlanCacheMisses;
+	}
+
+	/**
+	 * Register execution of an SQL statement in the transaction.
+	 */
+	void statementExecuted() {
+
+		this.executedStatementCount++;
+	}
+
+	/**
+	 * Register records fetched in the transaction.
+	 *
+	 * @param numRecords Number of fetched records.
+	 */
+	void recordsFetched(final int numRecords) {
+
+		this.fetchedRecordCount += numRecords;
+	}
+
+	/**
+	 * Get number of SQL statements executed in the transaction.
+	 *
+	 * @return Number of executed statements.
+	 */
+	int getExecutedStatementCount() {
+
+		return this.executedStatementCount;
+	}
+
+	/**
+	 * Get number of records fetched in the transaction.
+	 *
+	 * @return Number of fetched records.
+	 */
+	long getFetchedRecordCount() {
+
+		return this.fetchedRecordCount;
+	}
+
 	/**
 	 * Get query parameter value handlers factory.
 	 *
@@ -10,8 +10,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.bsworks.x2.Actor;
 import org.bsworks.x2.resource.Resources;
+import org.bsworks.x2.services.metrics.MetricsService;
 import org.bsworks.x2.services.persistence.PersistenceException;
 import org.bsworks.x2.services.persistence.PersistenceTransactionHandler;
+import org.bsworks.x2.services.persistence.PersistenceTransactionStatistics;
 import org.bsworks.x2.util.sql.dialect.SQLDialect;
 
 
@@ -21,7 +23,8 @@ import org.bsworks.x2.util.sql.dialect.SQLDialect;
  * @author Lev Himmelfarb
  */
 class PersistenceTransactionHandlerImpl
-	implements PersistenceTransactionHandler {
+	implements PersistenceTransactionHandler,
+		PersistenceTransactionStatistics {
 
 	/**
 	 * The log.
@@ -33,6 +36,17 @@ class PersistenceTransactionHandlerImpl
 	 */
 	private final Resources resources;
 
+	/**
+	 * Metrics service used to report the statement and query plan caches
+	 * usage, or {@code null} if not available.
+	 */
+	private final MetricsService metricsService;
+
+	/**
+	 * Prepared statement caches kept for physical connections.
+	 */
+	private final StatementCachePool statementCachePool;
+
 	/**
 	 * The database connection.
 	 */
@@ -49,6 +63,11 @@ class PersistenceTransactionHandlerImpl
 	 */
 	private final AtomicBoolean isCommitted = new AtomicBoolean(false);
 
+	/**
+	 * Tells if committing the transaction failed.
+	 */
+	private boolean commitFailed = false;
+
 
 	/**
 	 * Start new transaction and create handler for it.
@@ -61,16 +80,28 @@ class PersistenceTransactionHandlerImpl
 	 * @param readOnly {@code true} for a read-only transaction.
 	 * @param txIsoLevel Isolation level.
 	 * @param paramsFactory Query parameter values factory.
+	 * @param statementCachePool Prepared statement caches kept for physical
+	 * connections.
+	 * @param queryPlanCache Compiled fetch plans cache.
+	 * @param batchSize Maximum number of records inserted with a single
+	 * statement batch.
+	 * @param metricsService Metrics service used to report the statement and
+	 * query plan caches usage, or {@code null} if not available.
 	 *
 	 * @throws SQLException If an error happens.
 	 */
 	PersistenceTransactionHandlerImpl(final Resources resources,
 			final DataSource ds, final SQLDialect dialect, final Actor actor,
 			final boolean readOnly, final int txIsoLevel,
-			final ParameterValuesFactoryImpl paramsFactory)
+			final ParameterValuesFactoryImpl paramsFactory,
+			final StatementCachePool statementCachePool,
+			final QueryPlanCache queryPlanCache,
+			final int batchSize, final MetricsService metricsService)
 		throws SQLException {
 
 		this.resources = resources;
+		this.metricsService = metricsService;
+		this.statementCachePool = statementCachePool;
 
 		this.con = ds.getConnection();
 		boolean success = false;
@@ -89,7 +120,9 @@ class PersistenceTransactionHandlerImpl
 		}
 
 		this.tx = new JDBCPersistenceTransaction(this.resources, this.con,
-				dialect, actor, paramsFactory);
+				dialect, actor, paramsFactory,
+				statementCachePool.acquire(this.con), queryPlanCache,
+				batchSize);
 	}
 
 
@@ -101,6 +134,7 @@ class PersistenceTransactionHandlerImpl
 
 		final boolean debug = this.log.isDebugEnabled();
 
+		boolean success = false;
 		try {
 			if (!this.isCommitted.getAndSet(true)) {
 				if (debug)
@@ -112,11 +146,19 @@ class PersistenceTransactionHandlerImpl
 					throw new PersistenceException(
 							"Error rolling back transaction.", e);
 				}
+			} else {
+				success = !this.commitFailed;
 			}
 		} finally {
 			try {
 				this.tx.releaseLocks();
+			} catch (final RuntimeException e) {
+				success = false;
+				throw e;
 			} finally {
+				this.releaseStatementCache(debug,
+						(!success || this.tx.hasTempTables()));
+				this.reportQueryPlanCacheUsage(debug);
 				if (debug)
 					this.log.debug("closing connection #"
 							+ this.con.hashCode());
@@ -130,6 +172,61 @@ class PersistenceTransactionHandlerImpl
 		}
 	}
 
+	/**
+	 * Give the prepared statement cache back to the pool and report the
+	 * statement cache usage.
+	 *
+	 * @param debug {@code true} if debug logging is enabled.
+	 * @param discard {@code true} if the transaction was rolled back or
+	 * failed, or used temporary tables, and the cached statements must not be
+	 * reused by the next transaction on the connection.
+	 */
+	private void releaseStatementCache(final boolean debug,
+			final boolean discard) {
+
+		final StatementCache statementCache = this.tx.getStatementCache();
+		final int hits = statementCache.getHits();
+		final int misses = statementCache.getMisses();
+
+		this.statementCachePool.release(statementCache, discard);
+
+		if (debug)
+			this.log.debug("statement cache on connection #"
+					+ this.con.hashCode() + ": hits=" + hits + ", misses="
+					+ misses + (statementCache.isKept() && !discard ?
+							", kept" : ""));
+		if ((this.metricsService != null) && (hits + misses > 0)) {
+			this.metricsService.incrementCounter(
+					JDBCPersistenceService.STATEMENT_CACHE_HITS_COUNTER, hits);
+			this.metricsService.incrementCounter(
+					JDBCPersistenceService.STATEMENT_CACHE_MISSES_COUNTER,
+					misses);
+		}
+	}
+
+	/**
+	 * Report the query plan cache usage.
+	 *
+	 * @param debug {@code true} if debug logging is enabled.
+	 */
+	private void reportQueryPlanCacheUsage(final boolean debug) {
+
+		final int hits = this.tx.getQueryPlanCacheHits();
+		final int misses = this.tx.getQueryPlanCacheMisses();
+		if (debug && (hits + misses > 0))
+			this.log.debug("query plan cache in transaction on connection #"
+					+ this.con.hashCode() + ": hits=" + hits + ", misses="
+					+ misses);
+		if ((this.metricsService != null) && (hits + misses > 0)) {
+			this.metricsService.incrementCounter(
+					JDBCPersistenceService.QUERY_PLAN_CACHE_HITS_COUNTER,
+					hits);
+			this.metricsService.incrementCounter(
+					JDBCPersistenceService.QUERY_PLAN_CACHE_MISSES_COUNTER,
+					misses);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * See overridden method.
 	 */
@@ -139,6 +236,24 @@ class PersistenceTransactionHandlerImpl
 		return this.tx;
 	}
 
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public int getExecutedStatementCount() {
+
+		return this.tx.getExecutedStatementCount();
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public long getFetchedRecordCount() {
+
+		return this.tx.getFetchedRecordCount();
+	}
+
 	/* (non-Javadoc)
 	 * See overridden method.
 	 */
@@ -154,6 +269,7 @@ class PersistenceTransactionHandlerImpl
 		try {
 			this.con.commit();
 		} catch (final SQLException e) {
+			this.commitFailed = true;
 			throw new PersistenceException("Error committing transaction.", e);
 		}
 	}
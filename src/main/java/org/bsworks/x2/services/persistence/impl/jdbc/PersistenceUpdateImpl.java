@@ -55,9 +55,14 @@ class PersistenceUpdateImpl
 	public long execute() {
 
 		final int count;
-		try (final PreparedStatement pstmt = this.getPreparedStatement()) {
-			count = pstmt.executeUpdate();
-			Utils.logWarnings(this.log, pstmt.getWarnings());
+		try {
+			final PreparedStatement pstmt = this.getPreparedStatement();
+			try {
+				count = pstmt.executeUpdate();
+				Utils.logWarnings(this.log, pstmt.getWarnings());
+			} finally {
+				this.releasePreparedStatement(pstmt);
+			}
 		} catch (final SQLException e) {
 			throw new PersistenceException(e);
 		}
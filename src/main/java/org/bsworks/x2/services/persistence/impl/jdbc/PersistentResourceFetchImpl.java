@@ -57,6 +57,11 @@ class PersistentResourceFetchImpl<R>
 		 */
 		final SimpleValuePersistenceQueryImpl<Long> countQuery;
 
+		/**
+		 * Anchored queries for the branches.
+		 */
+		final List<String> branchQueryTexts;
+
 
 		/**
 		 * Create new queries couple.
@@ -68,16 +73,19 @@ class PersistentResourceFetchImpl<R>
 		 * @param dataQuery Query for selecting the data.
 		 * @param countQuery Query for selecting the records count, or
 		 * {@code null}.
+		 * @param branchQueryTexts Anchored queries for the branches.
 		 */
 		MainQuery(final List<PersistenceUpdateImpl> preStatements,
 				final List<PersistenceUpdateImpl> postStatements,
 				final ResourcePersistenceQueryImpl<R> dataQuery,
-				final SimpleValuePersistenceQueryImpl<Long> countQuery) {
+				final SimpleValuePersistenceQueryImpl<Long> countQuery,
+				final List<String> branchQueryTexts) {
 
 			this.preStatements = preStatements;
 			this.postStatements = postStatements;
 			this.dataQuery = dataQuery;
 			this.countQuery = countQuery;
+			this.branchQueryTexts = branchQueryTexts;
 		}
 	}
 
@@ -215,15 +223,10 @@ class PersistentResourceFetchImpl<R>
 				.includeSuperAggregate(
 						PersistentResourceFetchResult.TOTAL_COUNT_PROP);
 
-		// build the query
-		final QueryBuilder qb = buildQuery(
-				this.resources, this.tx, this.prsrcHandler,
-				propsFetch, this.filter, null);
-
 		// get the main query
 		final MainQuery<R> mainQuery = getMainQuery(
 				this.resources, this.tx, this.prsrcHandler,
-				qb, propsFetch, this.filter, null, null,
+				propsFetch, this.filter, null, null,
 				this.lockType, this.anchorTableName);
 
 		// execute pre-statements
@@ -251,11 +254,6 @@ class PersistentResourceFetchImpl<R>
 	@Override
 	public PersistentResourceFetchResult<R> getResult() {
 
-		// build the query
-		final QueryBuilder qb = buildQuery(
-				this.resources, this.tx, this.prsrcHandler,
-				this.propsFetch, this.filter, this.order);
-
 		// references fetch result map and the count
 		final Map<String, Object> refsFetchResultMap =
 			this.getRefsFetchResultMap();
@@ -264,7 +262,7 @@ class PersistentResourceFetchImpl<R>
 		// get the main query
 		final MainQuery<R> mainQuery = getMainQuery(
 				this.resources, this.tx, this.prsrcHandler,
-				qb, this.propsFetch, this.filter, this.order, this.range,
+				this.propsFetch, this.filter, this.order, this.range,
 				this.lockType, this.anchorTableName);
 
 		// execute pre-statements
@@ -283,10 +281,9 @@ class PersistentResourceFetchImpl<R>
 
 			// execute branch queries
 			if (!mainResult.isEmpty()) {
-				for (final QueryBranch branch : qb.getBranches()) {
-					mainQuery.dataQuery.setQueryText(
-							branch.getQueryBuilder().buildAnchoredSelectQuery(
-									this.anchorTableName, null))
+				for (final String branchQueryText :
+						mainQuery.branchQueryTexts) {
+					mainQuery.dataQuery.setQueryText(branchQueryText)
 						.getResultList(refsFetchResultMap);
 				}
 			}
@@ -359,15 +356,10 @@ class PersistentResourceFetchImpl<R>
 				}
 			};
 
-		// build the query
-		final QueryBuilder qb = buildQuery(
-				this.resources, this.tx, this.prsrcHandler,
-				propsFetchToUse, this.filter, this.order);
-
 		// get the main query
 		final MainQuery<R> mainQuery = getMainQuery(
 				this.resources, this.tx, this.prsrcHandler,
-				qb, propsFetchToUse, this.filter, this.order,
+				propsFetchToUse, this.filter, this.order,
 					new RangeSpec(0, 1),
 				this.lockType, this.anchorTableName);
 
@@ -382,10 +374,9 @@ class PersistentResourceFetchImpl<R>
 
 			// execute branch queries
 			if (mainResult != null) {
-				for (final QueryBranch branch : qb.getBranches()) {
-					mainQuery.dataQuery.setQueryText(
-							branch.getQueryBuilder().buildAnchoredSelectQuery(
-									this.anchorTableName, null))
+				for (final String branchQueryText :
+						mainQuery.branchQueryTexts) {
+					mainQuery.dataQuery.setQueryText(branchQueryText)
 						.getFirstResult(null);
 				}
 			}
@@ -418,7 +409,8 @@ class PersistentResourceFetchImpl<R>
 	}
 
 	/**
-	 * Build the query.
+	 * Get the main query using a cached query plan if possible, or compiling
+	 * a new plan if not.
 	 *
 	 * @param resources Resources.
 	 * @param tx Transaction.
@@ -426,29 +418,60 @@ class PersistentResourceFetchImpl<R>
 	 * @param propsFetch Properties fetch specification.
 	 * @param filter Filter specification.
 	 * @param order Order specification.
+	 * @param range Range specification.
+	 * @param lockType Lock type.
+	 * @param anchorTableName Anchor table name.
 	 *
-	 * @return The top query builder.
+	 * @return The main query.
 	 */
-	private static <R> QueryBuilder buildQuery(
+	private static <R> MainQuery<R> getMainQuery(
 			final Resources resources,
 			final JDBCPersistenceTransaction tx,
 			final PersistentResourceHandler<R> prsrcHandler,
 			final PropertiesFetchSpec<R> propsFetch,
 			final FilterSpec<R> filter,
-			final OrderSpec<R> order) {
+			final OrderSpec<R> order,
+			final RangeSpec range,
+			final LockType lockType,
+			final String anchorTableName) {
 
-		return QueryBuilder.createQueryBuilder(resources, tx.getSQLDialect(),
-				tx.getParameterValuesFactory(), tx.getActor(), prsrcHandler,
-				propsFetch, filter, order);
+		// try to use cached plan
+		final QueryPlanCache planCache = tx.getQueryPlanCache();
+		final String planKey = QueryPlanCache.getKey(
+				prsrcHandler.getResourceClass(), filter, order, range,
+				lockType);
+		final QueryPlan cachedPlan =
+			planCache.get(planKey, propsFetch, tx.getActor());
+		if (cachedPlan != null) {
+			final MainQuery<R> mainQuery = bindQueryPlan(resources, tx,
+					prsrcHandler, cachedPlan, filter, order, range);
+			if (mainQuery != null) {
+				tx.registerQueryPlanLookup(true);
+				return mainQuery;
+			}
+		}
+
+		// compile new plan
+		tx.registerQueryPlanLookup(false);
+		final QueryPlan plan = compileQueryPlan(resources, tx, prsrcHandler,
+				propsFetch, filter, order, range, lockType, anchorTableName);
+		planCache.put(planKey, plan);
+
+		// bind the new plan
+		final MainQuery<R> mainQuery = bindQueryPlan(resources, tx,
+				prsrcHandler, plan, filter, order, range);
+		if (mainQuery == null) // cannot happen
+			throw new AssertionError("Could not bind compiled query plan.");
+
+		return mainQuery;
 	}
 
 	/**
-	 * Build, prepare and return the main query.
+	 * Compile query plan.
 	 *
 	 * @param resources Resources.
 	 * @param tx Transaction.
 	 * @param prsrcHandler Persistent resource handler.
-	 * @param qb Top query builder.
 	 * @param propsFetch Properties fetch specification.
 	 * @param filter Filter specification.
 	 * @param order Order specification.
@@ -456,13 +479,12 @@ class PersistentResourceFetchImpl<R>
 	 * @param lockType Lock type.
 	 * @param anchorTableName Anchor table name.
 	 *
-	 * @return The main query.
+	 * @return The plan.
 	 */
-	private static <R> MainQuery<R> getMainQuery(
+	private static <R> QueryPlan compileQueryPlan(
 			final Resources resources,
 			final JDBCPersistenceTransaction tx,
 			final PersistentResourceHandler<R> prsrcHandler,
-			final QueryBuilder qb,
 			final PropertiesFetchSpec<R> propsFetch,
 			final FilterSpec<R> filter,
 			final OrderSpec<R> order,
@@ -470,21 +492,31 @@ class PersistentResourceFetchImpl<R>
 			final LockType lockType,
 			final String anchorTableName) {
 
-		// the queries, the pre- and post- statements, the parameters
-		final List<String> preStmtTexts = new ArrayList<>();
-		final List<String> postStmtTexts = new ArrayList<>();
-		final String countQueryText;
-		final String dataQueryText;
-		final Map<String, JDBCParameterValue> params = new HashMap<>();
-
-		// get aggregation parameters from the query builder
-		params.putAll(qb.getAggregationParams());
-
 		// needed objects from the transaction
 		final SQLDialect dialect = tx.getSQLDialect();
 		final ParameterValuesFactoryImpl paramsFactory =
 			tx.getParameterValuesFactory();
 
+		// record answers given to the query builder
+		final QueryPlan.Recorder recorder = new QueryPlan.Recorder();
+		final PropertiesFetchSpec<R> recordedPropsFetch =
+			recorder.record(propsFetch);
+
+		// build the query
+		final QueryBuilder qb = QueryBuilder.createQueryBuilder(
+				resources, dialect, paramsFactory,
+				recorder.record(tx.getActor()), prsrcHandler,
+				recordedPropsFetch, filter, order);
+
+		// the queries, the pre- and post- statements, the parameters
+		final List<String> createPreStmtTexts = new ArrayList<>();
+		final List<String> createPostStmtTexts = new ArrayList<>();
+		final List<String> reusePreStmtTexts = new ArrayList<>();
+		final List<String> reusePostStmtTexts = new ArrayList<>();
+		final String countQueryText;
+		final String dataQueryText;
+		final Map<String, JDBCParameterValue> params = new HashMap<>();
+
 		// get "WHERE" and "ORDER BY" clauses
 		final WhereClause whereClause = (
 				(filter == null) || filter.isEmpty() ? null :
@@ -493,6 +525,9 @@ class PersistentResourceFetchImpl<R>
 				(order == null ? null :
 					qb.buildOrderByClause(params));
 
+		// the anchor query
+		final String anchorQuery;
+
 		// check if no branches
 		if (qb.getBranches().isEmpty()) {
 
@@ -516,6 +551,7 @@ class PersistentResourceFetchImpl<R>
 				default: // cannot happen
 					throw new AssertionError("Unknown lock type.");
 				}
+				anchorQuery = null;
 
 			} else { // ranged query
 
@@ -542,22 +578,14 @@ class PersistentResourceFetchImpl<R>
 					default: // cannot happen
 						throw new RuntimeException("Unknown lock type.");
 					}
+					anchorQuery = null;
 
 				} else { // ranged and has collections
 
-					// create anchor table
-					final String q = dialect.makeRangedSelect(
+					// anchor table query
+					anchorQuery = dialect.makeRangedSelect(
 							qb.buildIdsQuery(whereClause, orderByClause),
 							range, paramsFactory, params);
-					dialect.makeSelectIntoTempTable(
-							anchorTableName,
-							tx.addTempTable(anchorTableName),
-							(lockType == LockType.EXCLUSIVE
-									? dialect.makeSelectWithExclusiveLock(
-											q, qb.getRootTableAlias())
-									: dialect.makeSelectWithShareLock(
-											q, qb.getRootTableAlias())),
-							preStmtTexts, postStmtTexts);
 
 					// anchored select
 					dataQueryText =
@@ -571,33 +599,15 @@ class PersistentResourceFetchImpl<R>
 			// check if no range
 			if (range == null) {
 
-				// create anchor table
-				final String q = qb.buildIdsQuery(whereClause, null);
-				dialect.makeSelectIntoTempTable(
-						anchorTableName,
-						tx.addTempTable(anchorTableName),
-						(lockType == LockType.EXCLUSIVE
-								? dialect.makeSelectWithExclusiveLock(
-										q, qb.getRootTableAlias())
-								: dialect.makeSelectWithShareLock(
-										q, qb.getRootTableAlias())),
-						preStmtTexts, postStmtTexts);
+				// anchor table query
+				anchorQuery = qb.buildIdsQuery(whereClause, null);
 
 			} else {  // ranged query
 
-				// create anchor table
-				final String q = dialect.makeRangedSelect(
+				// anchor table query
+				anchorQuery = dialect.makeRangedSelect(
 						qb.buildIdsQuery(whereClause, orderByClause),
 						range, paramsFactory, params);
-				dialect.makeSelectIntoTempTable(
-						anchorTableName,
-						tx.addTempTable(anchorTableName),
-						(lockType == LockType.EXCLUSIVE
-								? dialect.makeSelectWithExclusiveLock(
-										q, qb.getRootTableAlias())
-								: dialect.makeSelectWithShareLock(
-										q, qb.getRootTableAlias())),
-						preStmtTexts, postStmtTexts);
 			}
 
 			// anchored select
@@ -605,6 +615,106 @@ class PersistentResourceFetchImpl<R>
 				qb.buildAnchoredSelectQuery(anchorTableName, orderByClause);
 		}
 
+		// create anchor table statements for new and existing table
+		if (anchorQuery != null) {
+			final String q = (lockType == LockType.EXCLUSIVE
+					? dialect.makeSelectWithExclusiveLock(
+							anchorQuery, qb.getRootTableAlias())
+					: dialect.makeSelectWithShareLock(
+							anchorQuery, qb.getRootTableAlias()));
+			dialect.makeSelectIntoTempTable(anchorTableName, true, q,
+					createPreStmtTexts, createPostStmtTexts);
+			dialect.makeSelectIntoTempTable(anchorTableName, false, q,
+					reusePreStmtTexts, reusePostStmtTexts);
+		}
+
+		// create records count query
+		if ((recordedPropsFetch != null)
+				&& recordedPropsFetch.isSuperAggregateIncluded(
+						PersistentResourceFetchResult.TOTAL_COUNT_PROP))
+			countQueryText = qb.buildCountQuery(whereClause);
+		else
+			countQueryText = null;
+
+		// create branch queries
+		final List<String> branchQueryTexts =
+			new ArrayList<>(qb.getBranches().size());
+		for (final QueryBranch branch : qb.getBranches())
+			branchQueryTexts.add(
+					branch.getQueryBuilder().buildAnchoredSelectQuery(
+							anchorTableName, null));
+
+		// create and return the plan
+		return new QueryPlan(qb,
+				(whereClause == null ? null : whereClause.getBody()),
+				(orderByClause == null ? null : orderByClause.getBody()),
+				(range == null ? null : dialect.makeRangedSelect("", range,
+						paramsFactory,
+						new HashMap<String, JDBCParameterValue>())),
+				(anchorQuery == null ? null : anchorTableName),
+				createPreStmtTexts, createPostStmtTexts,
+				reusePreStmtTexts, reusePostStmtTexts,
+				dataQueryText, countQueryText, branchQueryTexts,
+				(propsFetch == null), (tx.getActor() == null), recorder);
+	}
+
+	/**
+	 * Bind parameter values to a query plan and create the main query.
+	 *
+	 * @param resources Resources.
+	 * @param tx Transaction.
+	 * @param prsrcHandler Persistent resource handler.
+	 * @param plan The query plan.
+	 * @param filter Filter specification.
+	 * @param order Order specification.
+	 * @param range Range specification.
+	 *
+	 * @return The main query, or {@code null} if the filter, the order or the
+	 * range require different SQL than the one in the plan.
+	 */
+	private static <R> MainQuery<R> bindQueryPlan(
+			final Resources resources,
+			final JDBCPersistenceTransaction tx,
+			final PersistentResourceHandler<R> prsrcHandler,
+			final QueryPlan plan,
+			final FilterSpec<R> filter,
+			final OrderSpec<R> order,
+			final RangeSpec range) {
+
+		// get aggregation parameters from the query builder
+		final QueryBuilder qb = plan.getQueryBuilder();
+		final Map<String, JDBCParameterValue> params = new HashMap<>();
+		params.putAll(qb.getAggregationParams());
+
+		// get "WHERE" and "ORDER BY" clauses parameters
+		if (plan.getWhereClauseBody() != null) {
+			final WhereClause whereClause = qb.buildWhereClause(filter, params);
+			if (!whereClause.getBody().equals(plan.getWhereClauseBody()))
+				return null;
+		}
+		if (plan.getOrderByClauseBody() != null) {
+			final OrderByClause orderByClause =
+				qb.buildOrderByClause(order, params);
+			if (!orderByClause.getBody().equals(plan.getOrderByClauseBody()))
+				return null;
+		}
+
+		// get range parameters
+		if (plan.getRangeSuffix() != null) {
+			final String rangeSuffix = tx.getSQLDialect().makeRangedSelect(
+					"", range, tx.getParameterValuesFactory(), params);
+			if (!rangeSuffix.equals(plan.getRangeSuffix()))
+				return null;
+		}
+
+		// get pre- and post- statement texts
+		final boolean createAnchor = ((plan.getAnchorTableName() != null)
+				&& tx.addTempTable(plan.getAnchorTableName()));
+		final List<String> preStmtTexts =
+			plan.getPreStatementTexts(createAnchor);
+		final List<String> postStmtTexts =
+			plan.getPostStatementTexts(createAnchor);
+
 		// prepare pre- and post- statements
 		final List<PersistenceUpdateImpl> preStmts;
 		if (!preStmtTexts.isEmpty()) {
@@ -628,22 +738,17 @@ class PersistentResourceFetchImpl<R>
 		// create the query
 		final ResourcePersistenceQueryImpl<R> query =
 			new ResourcePersistenceQueryImpl<>(resources, tx,
-					dataQueryText, prsrcHandler.getResourceClass(),
+					plan.getDataQueryText(), prsrcHandler.getResourceClass(),
 					params);
 		query.setSessionCache(new ResourceReadSessionCache());
 
-		// create records count query
-		if ((propsFetch != null) && propsFetch.isSuperAggregateIncluded(
-				PersistentResourceFetchResult.TOTAL_COUNT_PROP))
-			countQueryText = qb.buildCountQuery(whereClause);
-		else
-			countQueryText = null;
-
 		// create and return the main query object
+		final String countQueryText = plan.getCountQueryText();
 		return new MainQuery<>(preStmts, postStmts, query,
 				(countQueryText == null ? null :
 					new SimpleValuePersistenceQueryImpl<>(resources,
 							tx, countQueryText,
-							ResultSetValueReader.LONG_VALUE_READER, params)));
+							ResultSetValueReader.LONG_VALUE_READER, params)),
+				plan.getBranchQueryTexts());
 	}
 }
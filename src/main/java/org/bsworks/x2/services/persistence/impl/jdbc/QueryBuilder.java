@@ -3138,8 +3138,24 @@ class QueryBuilder {
 	 */
 	WhereClause buildWhereClause(final Map<String, JDBCParameterValue> params) {
 
+		return this.buildWhereClause(this.filter, params);
+	}
+
+	/**
+	 * Build "WHERE" clause for the query using a different filter
+	 * specification. The filter must use the same properties as the filter,
+	 * for which the query builder was created.
+	 *
+	 * @param filter The filter specification.
+	 * @param params Map, to which to add query parameters.
+	 *
+	 * @return Object representing the SQL "WHERE" clause.
+	 */
+	WhereClause buildWhereClause(final FilterSpec<?> filter,
+			final Map<String, JDBCParameterValue> params) {
+
 		return new WhereClause(this.resources, this.dialect, this.paramsFactory,
-				this.filter, "p", this.singlePropExprs, this.collectionProps,
+				filter, "p", this.singlePropExprs, this.collectionProps,
 				this.allSingleJoins, params);
 	}
 
@@ -3153,8 +3169,24 @@ class QueryBuilder {
 	OrderByClause buildOrderByClause(
 			final Map<String, JDBCParameterValue> params) {
 
+		return this.buildOrderByClause(this.order, params);
+	}
+
+	/**
+	 * Build "ORDER BY" clause for the query using a different order
+	 * specification. The order specification must use the same properties as
+	 * the one, for which the query builder was created.
+	 *
+	 * @param order The order specification.
+	 * @param params Map, to which to add query parameters.
+	 *
+	 * @return Object representing the SQL "ORDER BY" clause.
+	 */
+	OrderByClause buildOrderByClause(final OrderSpec<?> order,
+			final Map<String, JDBCParameterValue> params) {
+
 		return new OrderByClause(this.resources, this.dialect,
-				this.paramsFactory, this.order, this.singlePropExprs,
+				this.paramsFactory, order, this.singlePropExprs,
 				this.collectionProps, this.allSingleJoins, params);
 	}
 
@@ -0,0 +1,540 @@
+package org.bsworks.x2.services.persistence.impl.jdbc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.crypto.SecretKey;
+
+import org.bsworks.x2.Actor;
+import org.bsworks.x2.resource.FilterSpec;
+import org.bsworks.x2.resource.PropertiesFetchSpec;
+
+
+/**
+ * Compiled persistent resource fetch. The plan contains texts of all the SQL
+ * statements involved in the fetch with named parameter placeholders, so that
+ * another fetch with the same structure can be executed by only binding its
+ * parameter values. The plan also contains the answers the query builder
+ * received from the properties fetch specification and the actor while the
+ * plan was compiled. The plan can be used for another fetch only if the
+ * fetch's properties fetch specification and actor give the same answers.
+ * Once created, the plan is immutable and can be shared between threads.
+ *
+ * @author Lev Himmelfarb
+ */
+class QueryPlan {
+
+	/**
+	 * Recorder of the questions asked by the query builder to the properties
+	 * fetch specification and the actor while the plan is compiled. The
+	 * recorder is not thread-safe.
+	 */
+	static final class Recorder {
+
+		/**
+		 * Answers to {@link PropertiesFetchSpec#isIncluded(String)}.
+		 */
+		final Map<String, Boolean> includedProps = new HashMap<>();
+
+		/**
+		 * Answers to {@link PropertiesFetchSpec#isFetchRequested(String)}.
+		 */
+		final Map<String, Boolean> fetchRequestedProps = new HashMap<>();
+
+		/**
+		 * Answers to
+		 * {@link PropertiesFetchSpec#isSuperAggregateIncluded(String)}.
+		 */
+		final Map<String, Boolean> superAggregates = new HashMap<>();
+
+		/**
+		 * Paths of the properties, for which
+		 * {@link PropertiesFetchSpec#getAggregateFilter(String)} was asked and
+		 * answered {@code null}.
+		 */
+		final Set<String> unfilteredAggregates = new HashSet<>();
+
+		/**
+		 * Answer to {@link PropertiesFetchSpec#getFetchedRefProperties()}, or
+		 * {@code null} if was not asked.
+		 */
+		SortedMap<String, Class<?>> fetchedRefProps = null;
+
+		/**
+		 * Answers to {@link Actor#hasRole(String)}.
+		 */
+		final Map<String, Boolean> roles = new HashMap<>();
+
+		/**
+		 * Answers to {@link Actor#hasAnyRole(Set)}.
+		 */
+		final Map<Set<String>, Boolean> anyRoles = new HashMap<>();
+
+		/**
+		 * Tells if the answers allow reusing the plan. The plan cannot be
+		 * reused if the query builder used aggregate property filters or
+		 * anything about the actor other than its roles.
+		 */
+		boolean reusable = true;
+
+
+		/**
+		 * Wrap properties fetch specification to record the answers.
+		 *
+		 * @param propsFetch Properties fetch specification, may be
+		 * {@code null}.
+		 *
+		 * @return Recording properties fetch specification, or {@code null} if
+		 * the specified properties fetch specification is {@code null}.
+		 */
+		<R> PropertiesFetchSpec<R> record(
+				final PropertiesFetchSpec<R> propsFetch) {
+
+			if (propsFetch == null)
+				return null;
+
+			return new PropertiesFetchSpec<R>() {
+				@Override
+				public Class<R> getPersistentResourceClass() {
+					return propsFetch.getPersistentResourceClass();
+				}
+				@Override
+				public boolean isIncluded(final String propPath) {
+					final boolean res = propsFetch.isIncluded(propPath);
+					Recorder.this.includedProps.put(propPath,
+							Boolean.valueOf(res));
+					return res;
+				}
+				@Override
+				public boolean isFetchRequested(final String propPath) {
+					final boolean res = propsFetch.isFetchRequested(propPath);
+					Recorder.this.fetchRequestedProps.put(propPath,
+							Boolean.valueOf(res));
+					return res;
+				}
+				@Override
+				public SortedMap<String, Class<?>> getFetchedRefProperties() {
+					final SortedMap<String, Class<?>> res =
+						propsFetch.getFetchedRefProperties();
+					Recorder.this.fetchedRefProps = new TreeMap<>(res);
+					return res;
+				}
+				@Override
+				public FilterSpec<R> getAggregateFilter(final String propPath) {
+					final FilterSpec<R> res =
+						propsFetch.getAggregateFilter(propPath);
+					if (res != null)
+						Recorder.this.reusable = false;
+					else
+						Recorder.this.unfilteredAggregates.add(propPath);
+					return res;
+				}
+				@Override
+				public boolean isSuperAggregateIncluded(final String propName) {
+					final boolean res =
+						propsFetch.isSuperAggregateIncluded(propName);
+					Recorder.this.superAggregates.put(propName,
+							Boolean.valueOf(res));
+					return res;
+				}
+			};
+		}
+
+		/**
+		 * Wrap actor to record the answers.
+		 *
+		 * @param actor The actor, may be {@code null}.
+		 *
+		 * @return Recording actor, or {@code null} if the specified actor is
+		 * {@code null}.
+		 */
+		Actor record(final Actor actor) {
+
+			if (actor == null)
+				return null;
+
+			return new Actor() {
+				@Override
+				public String getActorId() {
+					Recorder.this.reusable = false;
+					return actor.getActorId();
+				}
+				@Override
+				public String getActorVersion() {
+					Recorder.this.reusable = false;
+					return actor.getActorVersion();
+				}
+				@Override
+				public String getActorName() {
+					Recorder.this.reusable = false;
+					return actor.getActorName();
+				}
+				@Override
+				public String getOpaque() {
+					Recorder.this.reusable = false;
+					return actor.getOpaque();
+				}
+				@Override
+				public SecretKey getSecretKey() {
+					Recorder.this.reusable = false;
+					return actor.getSecretKey();
+				}
+				@Override
+				public byte[] getCredentials() {
+					Recorder.this.reusable = false;
+					return actor.getCredentials();
+				}
+				@Override
+				public boolean hasRole(final String role) {
+					final boolean res = actor.hasRole(role);
+					Recorder.this.roles.put(role, Boolean.valueOf(res));
+					return res;
+				}
+				@Override
+				public boolean hasAnyRole(final Set<String> roles) {
+					final boolean res = actor.hasAnyRole(roles);
+					Recorder.this.anyRoles.put(new HashSet<>(roles),
+							Boolean.valueOf(res));
+					return res;
+				}
+			};
+		}
+	}
+
+
+	/**
+	 * Query builder used to compile the plan. Used to build the "WHERE" and
+	 * "ORDER BY" clauses when the parameters are bound.
+	 */
+	private final QueryBuilder qb;
+
+	/**
+	 * Body of the "WHERE" clause, or {@code null} if no filter.
+	 */
+	private final String whereClauseBody;
+
+	/**
+	 * Body of the "ORDER BY" clause, or {@code null} if no order.
+	 */
+	private final String orderByClauseBody;
+
+	/**
+	 * Text added by the SQL dialect to an empty query to make it ranged, or
+	 * {@code null} if no range.
+	 */
+	private final String rangeSuffix;
+
+	/**
+	 * Name of the temporary table used to anchor the fetch, or {@code null}
+	 * if not used.
+	 */
+	private final String anchorTableName;
+
+	/**
+	 * Statements to execute before the query if the anchor table is created.
+	 */
+	private final List<String> createAnchorPreStmtTexts;
+
+	/**
+	 * Statements to execute after the query if the anchor table is created.
+	 */
+	private final List<String> createAnchorPostStmtTexts;
+
+	/**
+	 * Statements to execute before the query if the anchor table already
+	 * exists in the transaction.
+	 */
+	private final List<String> reuseAnchorPreStmtTexts;
+
+	/**
+	 * Statements to execute after the query if the anchor table already exists
+	 * in the transaction.
+	 */
+	private final List<String> reuseAnchorPostStmtTexts;
+
+	/**
+	 * Query for selecting the data.
+	 */
+	private final String dataQueryText;
+
+	/**
+	 * Query for selecting the records count, or {@code null}.
+	 */
+	private final String countQueryText;
+
+	/**
+	 * Anchored queries for the branches.
+	 */
+	private final List<String> branchQueryTexts;
+
+	/**
+	 * Tells if the plan is compiled without properties fetch specification.
+	 */
+	private final boolean noPropsFetch;
+
+	/**
+	 * Tells if the plan is compiled without an actor.
+	 */
+	private final boolean noActor;
+
+	/**
+	 * Recorded properties fetch specification and actor answers.
+	 */
+	private final Recorder recorder;
+
+	/**
+	 * Tells if the plan can be reused for other fetches.
+	 */
+	private final boolean reusable;
+
+
+	/**
+	 * Create new plan.
+	 *
+	 * @param qb Query builder used to compile the plan.
+	 * @param whereClauseBody Body of the "WHERE" clause, or {@code null} if no
+	 * filter.
+	 * @param orderByClauseBody Body of the "ORDER BY" clause, or {@code null}
+	 * if no order.
+	 * @param rangeSuffix Text added by the SQL dialect to an empty query to
+	 * make it ranged, or {@code null} if no range.
+	 * @param anchorTableName Name of the temporary table used to anchor the
+	 * fetch, or {@code null} if not used.
+	 * @param createAnchorPreStmtTexts Statements to execute before the query
+	 * if the anchor table is created.
+	 * @param createAnchorPostStmtTexts Statements to execute after the query
+	 * if the anchor table is created.
+	 * @param reuseAnchorPreStmtTexts Statements to execute before the query
+	 * if the anchor table already exists in the transaction.
+	 * @param reuseAnchorPostStmtTexts Statements to execute after the query
+	 * if the anchor table already exists in the transaction.
+	 * @param dataQueryText Query for selecting the data.
+	 * @param countQueryText Query for selecting the records count, or
+	 * {@code null}.
+	 * @param branchQueryTexts Anchored queries for the branches.
+	 * @param noPropsFetch {@code true} if compiled without properties fetch
+	 * specification.
+	 * @param noActor {@code true} if compiled without an actor.
+	 * @param recorder Recorded properties fetch specification and actor
+	 * answers. The recorder must not be used after the plan is created.
+	 */
+	QueryPlan(final QueryBuilder qb, final String whereClauseBody,
+			final String orderByClauseBody, final String rangeSuffix,
+			final String anchorTableName,
+			final List<String> createAnchorPreStmtTexts,
+			final List<String> createAnchorPostStmtTexts,
+			final List<String> reuseAnchorPreStmtTexts,
+			final List<String> reuseAnchorPostStmtTexts,
+			final String dataQueryText, final String countQueryText,
+			final List<String> branchQueryTexts, final boolean noPropsFetch,
+			final boolean noActor, final Recorder recorder) {
+
+		this.qb = qb;
+		this.whereClauseBody = whereClauseBody;
+		this.orderByClauseBody = orderByClauseBody;
+		this.rangeSuffix = rangeSuffix;
+		this.anchorTableName = anchorTableName;
+		this.createAnchorPreStmtTexts =
+			Collections.unmodifiableList(createAnchorPreStmtTexts);
+		this.createAnchorPostStmtTexts =
+			Collections.unmodifiableList(createAnchorPostStmtTexts);
+		this.reuseAnchorPreStmtTexts =
+			Collections.unmodifiableList(reuseAnchorPreStmtTexts);
+		this.reuseAnchorPostStmtTexts =
+			Collections.unmodifiableList(reuseAnchorPostStmtTexts);
+		this.dataQueryText = dataQueryText;
+		this.countQueryText = countQueryText;
+		this.branchQueryTexts = Collections.unmodifiableList(branchQueryTexts);
+		this.noPropsFetch = noPropsFetch;
+		this.noActor = noActor;
+		this.recorder = recorder;
+
+		this.reusable = (recorder.reusable
+				&& qb.getAggregationParams().isEmpty());
+	}
+
+
+	/**
+	 * Tell if the plan can be reused for other fetches.
+	 *
+	 * @return {@code true} if can be cached.
+	 */
+	boolean isReusable() {
+
+		return this.reusable;
+	}
+
+	/**
+	 * Tell if the plan can be used for a fetch with the specified properties
+	 * fetch specification and actor, that is if they give the same answers to
+	 * the query builder as the ones given when the plan was compiled.
+	 *
+	 * @param propsFetch Properties fetch specification, or {@code null}.
+	 * @param actor The actor, or {@code null}.
+	 *
+	 * @return {@code true} if the plan can be used.
+	 */
+	boolean matches(final PropertiesFetchSpec<?> propsFetch,
+			final Actor actor) {
+
+		if ((propsFetch == null) != this.noPropsFetch)
+			return false;
+		if ((actor == null) != this.noActor)
+			return false;
+
+		final Recorder r = this.recorder;
+
+		if (propsFetch != null) {
+			for (final Map.Entry<String, Boolean> entry :
+					r.includedProps.entrySet())
+				if (propsFetch.isIncluded(entry.getKey())
+						!= entry.getValue().booleanValue())
+					return false;
+			for (final Map.Entry<String, Boolean> entry :
+					r.fetchRequestedProps.entrySet())
+				if (propsFetch.isFetchRequested(entry.getKey())
+						!= entry.getValue().booleanValue())
+					return false;
+			for (final Map.Entry<String, Boolean> entry :
+					r.superAggregates.entrySet())
+				if (propsFetch.isSuperAggregateIncluded(entry.getKey())
+						!= entry.getValue().booleanValue())
+					return false;
+			for (final String propPath : r.unfilteredAggregates)
+				if (propsFetch.getAggregateFilter(propPath) != null)
+					return false;
+			if ((r.fetchedRefProps != null) && !r.fetchedRefProps.equals(
+					propsFetch.getFetchedRefProperties()))
+				return false;
+		}
+
+		if (actor != null) {
+			for (final Map.Entry<String, Boolean> entry :
+					r.roles.entrySet())
+				if (actor.hasRole(entry.getKey())
+						!= entry.getValue().booleanValue())
+					return false;
+			for (final Map.Entry<Set<String>, Boolean> entry :
+					r.anyRoles.entrySet())
+				if (actor.hasAnyRole(entry.getKey())
+						!= entry.getValue().booleanValue())
+					return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get query builder used to compile the plan.
+	 *
+	 * @return The query builder.
+	 */
+	QueryBuilder getQueryBuilder() {
+
+		return this.qb;
+	}
+
+	/**
+	 * Get body of the "WHERE" clause.
+	 *
+	 * @return The clause body, or {@code null} if no filter.
+	 */
+	String getWhereClauseBody() {
+
+		return this.whereClauseBody;
+	}
+
+	/**
+	 * Get body of the "ORDER BY" clause.
+	 *
+	 * @return The clause body, or {@code null} if no order.
+	 */
+	String getOrderByClauseBody() {
+
+		return this.orderByClauseBody;
+	}
+
+	/**
+	 * Get text added by the SQL dialect to an empty query to make it ranged.
+	 *
+	 * @return The range suffix, or {@code null} if no range.
+	 */
+	String getRangeSuffix() {
+
+		return this.rangeSuffix;
+	}
+
+	/**
+	 * Get name of the temporary table used to anchor the fetch.
+	 *
+	 * @return The table name, or {@code null} if not used.
+	 */
+	String getAnchorTableName() {
+
+		return this.anchorTableName;
+	}
+
+	/**
+	 * Get statements to execute before the query.
+	 *
+	 * @param createAnchor {@code true} if the anchor table needs to be
+	 * created.
+	 *
+	 * @return Unmodifiable list of statement texts, may be empty.
+	 */
+	List<String> getPreStatementTexts(final boolean createAnchor) {
+
+		return (createAnchor ? this.createAnchorPreStmtTexts :
+			this.reuseAnchorPreStmtTexts);
+	}
+
+	/**
+	 * Get statements to execute after the query.
+	 *
+	 * @param createAnchor {@code true} if the anchor table needs to be
+	 * created.
+	 *
+	 * @return Unmodifiable list of statement texts, may be empty.
+	 */
+	List<String> getPostStatementTexts(final boolean createAnchor) {
+
+		return (createAnchor ? this.createAnchorPostStmtTexts :
+			this.reuseAnchorPostStmtTexts);
+	}
+
+	/**
+	 * Get query for selecting the data.
+	 *
+	 * @return The query text.
+	 */
+	String getDataQueryText() {
+
+		return this.dataQueryText;
+	}
+
+	/**
+	 * Get query for selecting the records count.
+	 *
+	 * @return The query text, or {@code null} if the count is not requested.
+	 */
+	String getCountQueryText() {
+
+		return this.countQueryText;
+	}
+
+	/**
+	 * Get anchored queries for the branches.
+	 *
+	 * @return Unmodifiable list of query texts, may be empty.
+	 */
+	List<String> getBranchQueryTexts() {
+
+		return this.branchQueryTexts;
+	}
+}
@@ -0,0 +1,213 @@
+package org.bsworks.x2.services.persistence.impl.jdbc;
+
+import java.util.Arrays;
+
+import org.bsworks.x2.Actor;
+import org.bsworks.x2.resource.FilterCondition;
+import org.bsworks.x2.resource.FilterConditionType;
+import org.bsworks.x2.resource.FilterSpec;
+import org.bsworks.x2.resource.OrderSpec;
+import org.bsworks.x2.resource.OrderSpecElement;
+import org.bsworks.x2.resource.PropertiesFetchSpec;
+import org.bsworks.x2.resource.PropertyOrderSpecElement;
+import org.bsworks.x2.resource.RangeSpec;
+import org.bsworks.x2.resource.SegmentOrderSpecElement;
+import org.bsworks.x2.services.persistence.LockType;
+import org.bsworks.x2.util.BoundedConcurrentMap;
+
+
+/**
+ * Bounded cache of compiled persistent resource fetch plans shared by all
+ * transactions. Plans are keyed by the structure of the fetch: the persistent
+ * resource, the filter and order specifications without the operand values,
+ * presence of the range and the lock type. Plans with the same key compiled
+ * for properties fetch specifications or actors that gave different answers to
+ * the query builder are kept as variants under the same key. The cache is
+ * thread-safe and lock-free.
+ *
+ * @author Lev Himmelfarb
+ */
+class QueryPlanCache {
+
+	/**
+	 * Maximum number of plan variants kept under the same key.
+	 */
+	private static final int MAX_VARIANTS = 4;
+
+
+	/**
+	 * Maximum number of cached keys. Zero disables caching.
+	 */
+	private final int maxSize;
+
+	/**
+	 * Cached plan variants by keys, the most recently added first.
+	 */
+	private final BoundedConcurrentMap<String, QueryPlan[]> cache;
+
+
+	/**
+	 * Create new cache.
+	 *
+	 * @param maxSize Maximum number of cached keys. Zero disables caching.
+	 */
+	QueryPlanCache(final int maxSize) {
+
+		this.maxSize = maxSize;
+
+		this.cache = new BoundedConcurrentMap<>("query plan cache", maxSize);
+	}
+
+
+	/**
+	 * Get cache key for a fetch.
+	 *
+	 * @param prsrcClass Persistent resource class.
+	 * @param filter Filter specification, or {@code null}.
+	 * @param order Order specification, or {@code null}.
+	 * @param range Range specification, or {@code null}.
+	 * @param lockType Lock type, or {@code null}.
+	 *
+	 * @return The key.
+	 */
+	static String getKey(final Class<?> prsrcClass, final FilterSpec<?> filter,
+			final OrderSpec<?> order, final RangeSpec range,
+			final LockType lockType) {
+
+		final StringBuilder buf = new StringBuilder(256);
+
+		buf.append(prsrcClass.getName());
+
+		buf.append(" F");
+		if ((filter != null) && !filter.isEmpty())
+			appendFilterShape(buf, filter);
+
+		buf.append(" O");
+		if ((order != null) && !order.isEmpty())
+			appendOrderShape(buf, order);
+
+		buf.append(" R");
+		if (range != null)
+			buf.append(range.getFirstRecord() > 0 ? "o" : "l");
+
+		buf.append(" L");
+		if (lockType != null)
+			buf.append(lockType.name());
+
+		return buf.toString();
+	}
+
+	/**
+	 * Append filter structure without the operand values to the key.
+	 *
+	 * @param buf Key buffer.
+	 * @param filter The filter.
+	 */
+	private static void appendFilterShape(final StringBuilder buf,
+			final FilterSpec<?> filter) {
+
+		buf.append(filter.isDisjunction() ? "(|" : "(&");
+		for (final FilterCondition cond : filter.getConditions()) {
+			buf.append(' ');
+			if (cond.isNegated())
+				buf.append('!');
+			buf.append(cond.getType().name()).append(':')
+				.append(cond.getPropertyPath()).append(':')
+				.append(cond.getPropertyValueType().name()).append(':')
+				.append(cond.getValueFunction().name());
+			final Object[] funcParams = cond.getValueFunctionParams();
+			if (funcParams.length > 0)
+				buf.append(Arrays.toString(funcParams));
+			final int numOps = cond.getOperands().size();
+			final FilterConditionType condType = cond.getType();
+			buf.append(':');
+			if (((condType == FilterConditionType.EQ)
+					|| (condType == FilterConditionType.NE)) && (numOps > 1))
+				buf.append('n');
+			else
+				buf.append(numOps);
+		}
+		for (final FilterSpec<?> junc : filter.getJunctions()) {
+			buf.append(' ');
+			appendFilterShape(buf, junc);
+		}
+		buf.append(')');
+	}
+
+	/**
+	 * Append order specification structure to the key.
+	 *
+	 * @param buf Key buffer.
+	 * @param order The order specification.
+	 */
+	private static void appendOrderShape(final StringBuilder buf,
+			final OrderSpec<?> order) {
+
+		for (final OrderSpecElement orderEl : order.getElements()) {
+			buf.append(' ').append(orderEl.getSortDirection().name())
+				.append(':');
+			if (orderEl instanceof PropertyOrderSpecElement) {
+				final PropertyOrderSpecElement propOrderEl =
+					(PropertyOrderSpecElement) orderEl;
+				buf.append(propOrderEl.getPropertyPath()).append(':')
+					.append(propOrderEl.getValueFunction().name());
+				final Object[] funcParams =
+					propOrderEl.getValueFunctionParams();
+				if (funcParams.length > 0)
+					buf.append(Arrays.toString(funcParams));
+			} else {
+				appendFilterShape(buf,
+						((SegmentOrderSpecElement) orderEl).getSegmentFilter());
+			}
+		}
+	}
+
+
+	/**
+	 * Get cached plan that can be used for a fetch.
+	 *
+	 * @param key Cache key.
+	 * @param propsFetch Properties fetch specification, or {@code null}.
+	 * @param actor The actor, or {@code null}.
+	 *
+	 * @return The plan, or {@code null} if none.
+	 */
+	QueryPlan get(final String key, final PropertiesFetchSpec<?> propsFetch,
+			final Actor actor) {
+
+		final QueryPlan[] variants = this.cache.get(key);
+		if (variants == null)
+			return null;
+
+		for (final QueryPlan plan : variants)
+			if (plan.matches(propsFetch, actor))
+				return plan;
+
+		return null;
+	}
+
+	/**
+	 * Add plan to the cache. If the plan is not reusable, the method does
+	 * nothing. If the cache becomes full, arbitrary keys are evicted.
+	 *
+	 * @param key Cache key.
+	 * @param plan The plan.
+	 */
+	void put(final String key, final QueryPlan plan) {
+
+		if ((this.maxSize == 0) || !plan.isReusable())
+			return;
+
+		final QueryPlan[] variants = this.cache.get(key);
+		if (variants == null) {
+			this.cache.putIfAbsent(key, new QueryPlan[] { plan });
+		} else {
+			final QueryPlan[] newVariants = new QueryPlan[
+				Math.min(variants.length + 1, MAX_VARIANTS)];
+			newVariants[0] = plan;
+			System.arraycopy(variants, 0, newVariants, 1,
+					newVariants.length - 1);
+			this.cache.replace(key, variants, newVariants);
+		}
+	}
+}
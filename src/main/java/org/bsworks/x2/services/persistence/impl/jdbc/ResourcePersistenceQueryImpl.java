@@ -146,24 +146,30 @@ class ResourcePersistenceQueryImpl<R>
 		final List<R> res = new ArrayList<>(
 				this.maxRecords > 10 ? this.maxRecords : 10);
 
-		try (final PreparedStatement pstmt = this.getPreparedStatement()) {
-
-			// set result set limit
-			if (this.maxRecords > 0)
-				pstmt.setMaxRows(this.maxRecords);
-
-			// get the data
-			try (final ResultSet rs = this.getResultSet(pstmt)) {
-				if (!rs.next())
-					return res;
-				final ResultSetParser rsParser =
-					new ResultSetParser(this.resources, rs, this.sessionCache,
+		try {
+			final PreparedStatement pstmt = this.getPreparedStatement();
+			try {
+				// set result set limit
+				if (this.maxRecords > 0)
+					pstmt.setMaxRows(this.maxRecords);
+
+				// get the data
+				try (final ResultSet rs = this.getResultSet(pstmt)) {
+					if (!rs.next())
+						return res;
+					final ResultSetParser rsParser = new ResultSetParser(
+							this.resources, rs, this.sessionCache,
 							this.getActor(), refsFetchResult);
-				do {
-					res.add(this.rsrcClass.cast(
-							this.rsrcValueHandler.readValue(
-									ResourcePropertyAccess.LOAD, rsParser)));
-				} while (rsParser.hasMore());
+					do {
+						res.add(this.rsrcClass.cast(
+								this.rsrcValueHandler.readValue(
+										ResourcePropertyAccess.LOAD,
+										rsParser)));
+					} while (rsParser.hasMore());
+					this.recordsFetched(res.size());
+				}
+			} finally {
+				this.releasePreparedStatement(pstmt);
 			}
 
 		} catch (final SQLException | IOException |
@@ -180,22 +186,27 @@ class ResourcePersistenceQueryImpl<R>
 	@Override
 	public R getFirstResult(final Map<String, Object> refsFetchResult) {
 
-		try (final PreparedStatement pstmt = this.getPreparedStatement()) {
-
-			// set result set limit
-			if (this.maxRecords > 0)
-				pstmt.setMaxRows(this.maxRecords);
-
-			// get the data
-			try (final ResultSet rs = this.getResultSet(pstmt)) {
-				if (!rs.next())
-					return null;
-				final ResultSetParser rsParser =
-					new ResultSetParser(this.resources, rs, this.sessionCache,
+		try {
+			final PreparedStatement pstmt = this.getPreparedStatement();
+			try {
+				// set result set limit
+				if (this.maxRecords > 0)
+					pstmt.setMaxRows(this.maxRecords);
+
+				// get the data
+				try (final ResultSet rs = this.getResultSet(pstmt)) {
+					if (!rs.next())
+						return null;
+					final ResultSetParser rsParser = new ResultSetParser(
+							this.resources, rs, this.sessionCache,
 							this.getActor(), refsFetchResult);
-				return this.rsrcClass.cast(
-						this.rsrcValueHandler.readValue(
-								ResourcePropertyAccess.LOAD, rsParser));
+					this.recordsFetched(1);
+					return this.rsrcClass.cast(
+							this.rsrcValueHandler.readValue(
+									ResourcePropertyAccess.LOAD, rsParser));
+				}
+			} finally {
+				this.releasePreparedStatement(pstmt);
 			}
 
 		} catch (final SQLException | IOException |
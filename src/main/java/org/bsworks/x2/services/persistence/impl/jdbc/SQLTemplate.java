@@ -0,0 +1,250 @@
+package org.bsworks.x2.services.persistence.impl.jdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bsworks.x2.resource.PersistentResourceHandler;
+import org.bsworks.x2.resource.Resources;
+import org.bsworks.x2.services.persistence.PersistenceException;
+import org.bsworks.x2.util.BoundedConcurrentMap;
+
+
+/**
+ * Parsed SQL statement text with resource and resource property macros
+ * replaced with the table and column names and the named parameter
+ * placeholders extracted into slots. Expanding a template for a set of
+ * parameter values only splices positional parameter placeholders between the
+ * literal text segments. Parsed templates are cached by the statement text in
+ * a bounded cache shared by all transactions. Templates are immutable and can
+ * be shared between threads.
+ *
+ * @author Lev Himmelfarb
+ */
+class SQLTemplate {
+
+	/**
+	 * Pattern used to process SQL to find named parameter placeholders and
+	 * string literals.
+	 */
+	private static final Pattern TOKEN_PATTERN = Pattern.compile(
+			"\\{([^}]+)\\}|\\?\\??([a-zA-Z]\\w+)|(')");
+
+	/**
+	 * Pattern used to find end of string literal in SQL.
+	 */
+	private static final Pattern LITERAL_END_PATTERN = Pattern.compile(
+			"(?<!')'");
+
+	/**
+	 * Maximum number of cached templates.
+	 */
+	private static final int MAX_CACHE_SIZE = 1024;
+
+	/**
+	 * Cached templates by statement texts.
+	 */
+	private static final BoundedConcurrentMap<String, SQLTemplate> CACHE =
+		new BoundedConcurrentMap<>("SQL template cache", MAX_CACHE_SIZE);
+
+
+	/**
+	 * Application resources manager used to resolve the macros.
+	 */
+	private final Resources resources;
+
+	/**
+	 * Literal text segments. There is one more segment than parameter slots.
+	 * The segment at a given index precedes the parameter slot at the same
+	 * index.
+	 */
+	private final String[] segments;
+
+	/**
+	 * Parameter names by slots.
+	 */
+	private final String[] paramNames;
+
+	/**
+	 * Tells for each slot if the parameter is a collection expanded into a
+	 * comma-separated list of placeholders.
+	 */
+	private final boolean[] collectionParams;
+
+	/**
+	 * Combined length of the literal text segments.
+	 */
+	private final int segmentsLength;
+
+
+	/**
+	 * Create new template.
+	 *
+	 * @param resources Application resources manager used to resolve the
+	 * macros.
+	 * @param segments Literal text segments.
+	 * @param paramNames Parameter names by slots.
+	 * @param collectionParams Collection parameter flags by slots.
+	 */
+	private SQLTemplate(final Resources resources, final String[] segments,
+			final String[] paramNames, final boolean[] collectionParams) {
+
+		this.resources = resources;
+		this.segments = segments;
+		this.paramNames = paramNames;
+		this.collectionParams = collectionParams;
+
+		int len = 0;
+		for (final String segment : segments)
+			len += segment.length();
+		this.segmentsLength = len;
+	}
+
+
+	/**
+	 * Get template for the specified SQL statement text, parsing it if it is
+	 * not in the cache.
+	 *
+	 * @param resources Application resources manager.
+	 * @param sql SQL with resource macros and named parameter placeholders.
+	 *
+	 * @return The template.
+	 */
+	static SQLTemplate get(final Resources resources, final String sql) {
+
+		final SQLTemplate cached = CACHE.get(sql);
+		if ((cached != null) && (cached.resources == resources))
+			return cached;
+
+		final SQLTemplate template = parse(resources, sql);
+		if (cached != null)
+			CACHE.replace(sql, cached, template);
+		else
+			CACHE.putIfAbsent(sql, template);
+
+		return template;
+	}
+
+	/**
+	 * Parse SQL statement text.
+	 *
+	 * @param resources Application resources manager.
+	 * @param sql SQL with resource macros and named parameter placeholders.
+	 *
+	 * @return The template.
+	 */
+	private static SQLTemplate parse(final Resources resources,
+			final String sql) {
+
+		final List<String> segments = new ArrayList<>();
+		final List<String> paramNames = new ArrayList<>();
+		final List<Boolean> collectionParams = new ArrayList<>();
+		final StringBuilder segmentBuf = new StringBuilder(sql.length() + 64);
+		final Matcher m = TOKEN_PATTERN.matcher(sql);
+		boolean inLiteral = false;
+		int lastEnd = 0;
+		while (m.find()) {
+			segmentBuf.append(sql, lastEnd, m.start());
+			lastEnd = m.end();
+			if (inLiteral) {
+				segmentBuf.append(m.group());
+				m.usePattern(TOKEN_PATTERN);
+				inLiteral = false;
+			} else if (m.group(3) != null) {
+				segmentBuf.append(m.group());
+				m.usePattern(LITERAL_END_PATTERN);
+				inLiteral = true;
+			} else if (m.group(2) != null) {
+				segments.add(segmentBuf.toString());
+				segmentBuf.setLength(0);
+				paramNames.add(m.group(2));
+				collectionParams.add(Boolean.valueOf(
+						m.group().charAt(1) == '?'));
+			} else {
+				final String expr = m.group(1);
+				final int dotInd = expr.indexOf('.');
+				if (dotInd < 0) {
+					segmentBuf.append(
+							resources.getPersistentResourceHandler(expr)
+								.getPersistentCollectionName());
+				} else {
+					final PersistentResourceHandler<?> prsrcHandler =
+						resources.getPersistentResourceHandler(
+								expr.substring(0, dotInd));
+					segmentBuf.append(
+							prsrcHandler
+								.getPersistentPropertyChain(
+										expr.substring(dotInd + 1))
+								.getLast()
+								.getPersistence()
+								.getFieldName());
+				}
+			}
+		}
+		if (inLiteral)
+			throw new PersistenceException("String literal in the query text is"
+					+ " not closed.");
+		segmentBuf.append(sql, lastEnd, sql.length());
+		segments.add(segmentBuf.toString());
+
+		final boolean[] collectionParamsArr =
+			new boolean[collectionParams.size()];
+		for (int i = 0; i < collectionParamsArr.length; i++)
+			collectionParamsArr[i] = collectionParams.get(i).booleanValue();
+
+		return new SQLTemplate(resources,
+				segments.toArray(new String[segments.size()]),
+				paramNames.toArray(new String[paramNames.size()]),
+				collectionParamsArr);
+	}
+
+
+	/**
+	 * Expand the template for the specified parameter values converting named
+	 * parameter placeholders to positional parameters directly supported by
+	 * JDBC.
+	 *
+	 * @param namedParams Named parameter values by parameter names.
+	 * @param paramsList Output list for positional parameter values.
+	 *
+	 * @return SQL text ready to be submitted to JDBC.
+	 */
+	String expand(final Map<String, JDBCParameterValue> namedParams,
+			final List<JDBCParameterValue> paramsList) {
+
+		final int numSlots = this.paramNames.length;
+		if (numSlots == 0)
+			return this.segments[0];
+
+		final StringBuilder resBuf =
+			new StringBuilder(this.segmentsLength + numSlots * 4);
+		for (int i = 0; i < numSlots; i++) {
+			resBuf.append(this.segments[i]);
+			final String paramName = this.paramNames[i];
+			final JDBCParameterValue paramHandler = namedParams.get(paramName);
+			if (paramHandler == null)
+				throw new PersistenceException("Parameter \"" + paramName
+						+ "\" is undefined.");
+			final int numPlaceholders = paramHandler.getNumPlaceholders();
+			if (this.collectionParams[i]) {
+				for (int j = 0; j < numPlaceholders; j++) {
+					if (j > 0)
+						resBuf.append(", ?");
+					else
+						resBuf.append("?");
+				}
+			} else {
+				if (numPlaceholders > 1)
+					throw new PersistenceException("Parameter \""
+							+ paramName + "\" cannot be a collection.");
+				resBuf.append("?");
+			}
+			paramsList.add(paramHandler);
+		}
+		resBuf.append(this.segments[numSlots]);
+
+		return resBuf.toString();
+	}
+}
@@ -112,16 +112,21 @@ class SimpleValuePersistenceQueryImpl<Y>
 		final List<Y> res = new ArrayList<>(
 				this.maxRecords > 10 ? this.maxRecords : 10);
 
-		try (final PreparedStatement pstmt = this.getPreparedStatement()) {
-
-			// set result set limit
-			if (this.maxRecords > 0)
-				pstmt.setMaxRows(this.maxRecords);
-
-			// get the data
-			try (final ResultSet rs = this.getResultSet(pstmt)) {
-				while (rs.next())
-					res.add(this.valueReader.readValue(rs, 1));
+		try {
+			final PreparedStatement pstmt = this.getPreparedStatement();
+			try {
+				// set result set limit
+				if (this.maxRecords > 0)
+					pstmt.setMaxRows(this.maxRecords);
+
+				// get the data
+				try (final ResultSet rs = this.getResultSet(pstmt)) {
+					while (rs.next())
+						res.add(this.valueReader.readValue(rs, 1));
+					this.recordsFetched(res.size());
+				}
+			} finally {
+				this.releasePreparedStatement(pstmt);
 			}
 
 		} catch (final SQLException e) {
@@ -137,16 +142,21 @@ class SimpleValuePersistenceQueryImpl<Y>
 	@Override
 	public Y getFirstResult(final Map<String, Object> refsFetchResult) {
 
-		try (final PreparedStatement pstmt = this.getPreparedStatement()) {
-
-			// set result set limit
-			pstmt.setMaxRows(1);
-
-			// get the data
-			try (final ResultSet rs = this.getResultSet(pstmt)) {
-				if (!rs.next())
-					return null;
-				return this.valueReader.readValue(rs, 1);
+		try {
+			final PreparedStatement pstmt = this.getPreparedStatement();
+			try {
+				// set result set limit
+				pstmt.setMaxRows(1);
+
+				// get the data
+				try (final ResultSet rs = this.getResultSet(pstmt)) {
+					if (!rs.next())
+						return null;
+					this.recordsFetched(1);
+					return this.valueReader.readValue(rs, 1);
+				}
+			} finally {
+				this.releasePreparedStatement(pstmt);
 			}
 
 		} catch (final SQLException e) {
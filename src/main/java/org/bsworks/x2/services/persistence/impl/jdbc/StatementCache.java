@@ -0,0 +1,437 @@
+package org.bsworks.x2.services.persistence.impl.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Bounded cache of prepared statements associated with a database connection.
+ * Statements are keyed by the SQL text and the way they are prepared (query
+ * result set type or generated keys), so that statements repeatedly generated
+ * by the framework are prepared on the server only once. The least recently
+ * used statements are closed when the cache is full. Statements obtained from
+ * the cache must be given back to it using {@link #release(PreparedStatement)}
+ * instead of closing them. If a statement with the same key is already in use,
+ * a new, uncached statement is prepared. A statement found closed when taken from the cache, for example
+ * because the driver or the connection pool closed it, is dropped from the
+ * cache and prepared again. The cache may be kept for a physical connection
+ * and used by consecutive transactions on it, see {@link StatementCachePool}.
+ * The cache is not thread-safe.
+ *
+ * @author Lev Himmelfarb
+ */
+class StatementCache {
+
+	/**
+	 * Cached statement.
+	 */
+	private static final class CachedStatement {
+
+		/**
+		 * Cache key.
+		 */
+		final String key;
+
+		/**
+		 * The statement.
+		 */
+		final PreparedStatement pstmt;
+
+		/**
+		 * Tells if the statement is in use.
+		 */
+		boolean inUse;
+
+		/**
+		 * Tells if the statement is still in the cache.
+		 */
+		boolean cached;
+
+
+		/**
+		 * Create new entry.
+		 *
+		 * @param key Cache key.
+		 * @param pstmt The statement.
+		 * @param cached {@code true} if the statement is put in the cache.
+		 */
+		CachedStatement(final String key, final PreparedStatement pstmt,
+				final boolean cached) {
+
+			this.key = key;
+			this.pstmt = pstmt;
+			this.inUse = true;
+			this.cached = cached;
+		}
+	}
+
+
+	/**
+	 * The log.
+	 */
+	private final Log log = LogFactory.getLog(this.getClass());
+
+	/**
+	 * The database connection.
+	 */
+	private final Connection con;
+
+	/**
+	 * Maximum number of cached statements. Zero disables caching.
+	 */
+	private final int maxSize;
+
+	/**
+	 * Tells if the cache is kept for the physical connection across
+	 * transactions.
+	 */
+	private final boolean kept;
+
+	/**
+	 * Cached statements by keys in the access order.
+	 */
+	private final LinkedHashMap<String, CachedStatement> cache;
+
+	/**
+	 * Statements in use.
+	 */
+	private final Map<PreparedStatement, CachedStatement> inUse =
+		new IdentityHashMap<>();
+
+	/**
+	 * Number of times a statement was taken from the cache.
+	 */
+	private int hits = 0;
+
+	/**
+	 * Number of times a statement had to be prepared.
+	 */
+	private int misses = 0;
+
+
+	/**
+	 * Create new cache.
+	 *
+	 * @param con The database connection.
+	 * @param maxSize Maximum number of cached statements. Zero disables
+	 * caching.
+	 * @param kept {@code true} if the cache is kept for the physical
+	 * connection across transactions, {@code false} if it is used by a single
+	 * transaction only.
+	 */
+	StatementCache(final Connection con, final int maxSize,
+			final boolean kept) {
+
+		this.con = con;
+		this.maxSize = maxSize;
+		this.kept = kept;
+
+		this.cache =
+			new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, CachedStatement> eldest) {
+				if (this.size() <= StatementCache.this.maxSize)
+					return false;
+				StatementCache.this.evict(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+
+	/**
+	 * Get prepared statement for a query with a forward-only, read-only result
+	 * set closed at commit.
+	 *
+	 * @param sql The SQL.
+	 *
+	 * @return The statement, which must be released after use.
+	 *
+	 * @throws SQLException If a database error happens.
+	 */
+	PreparedStatement prepareQuery(final String sql)
+		throws SQLException {
+
+		final String key = "Q" + sql;
+		PreparedStatement pstmt = this.take(key);
+		if (pstmt == null) {
+			pstmt = this.con.prepareStatement(sql,
+					ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY,
+					ResultSet.CLOSE_CURSORS_AT_COMMIT);
+			this.add(key, pstmt);
+		}
+
+		return pstmt;
+	}
+
+	/**
+	 * Get prepared statement for a data modification statement.
+	 *
+	 * @param sql The SQL.
+	 *
+	 * @return The statement, which must be released after use.
+	 *
+	 * @throws SQLException If a database error happens.
+	 */
+	PreparedStatement prepare(final String sql)
+		throws SQLException {
+
+		final String key = "U" + sql;
+		PreparedStatement pstmt = this.take(key);
+		if (pstmt == null) {
+			pstmt = this.con.prepareStatement(sql);
+			this.add(key, pstmt);
+		}
+
+		return pstmt;
+	}
+
+	/**
+	 * Get prepared statement for an insert statement that returns an
+	 * auto-generated key.
+	 *
+	 * @param sql The SQL.
+	 * @param generatedKeyColumn Name of the auto-generated key column.
+	 *
+	 * @return The statement, which must be released after use.
+	 *
+	 * @throws SQLException If a database error happens.
+	 */
+	PreparedStatement prepare(final String sql,
+			final String generatedKeyColumn)
+		throws SQLException {
+
+		final String key = "K" + generatedKeyColumn + "\n" + sql;
+		PreparedStatement pstmt = this.take(key);
+		if (pstmt == null) {
+			pstmt = this.con.prepareStatement(sql,
+					new String[] { generatedKeyColumn });
+			this.add(key, pstmt);
+		}
+
+		return pstmt;
+	}
+
+	/**
+	 * Give statement obtained from the cache back to it. The statement
+	 * parameters, batch, warnings and maximum rows limit are reset. If the
+	 * statement is not in the cache, it is closed.
+	 *
+	 * @param pstmt The statement.
+	 *
+	 * @throws SQLException If a database error happens.
+	 */
+	void release(final PreparedStatement pstmt)
+		throws SQLException {
+
+		final CachedStatement entry = this.inUse.remove(pstmt);
+		if ((entry == null) || !entry.cached) {
+			pstmt.close();
+			return;
+		}
+
+		boolean success = false;
+		try {
+			pstmt.clearParameters();
+			pstmt.clearBatch();
+			pstmt.clearWarnings();
+			if (pstmt.getMaxRows() != 0)
+				pstmt.setMaxRows(0);
+			success = true;
+		} finally {
+			if (success) {
+				entry.inUse = false;
+			} else {
+				this.cache.remove(entry.key);
+				entry.cached = false;
+				pstmt.close();
+			}
+		}
+	}
+
+	/**
+	 * Remove all statements from the cache. Statements not in use are closed,
+	 * statements in use are closed when released.
+	 */
+	void clear() {
+
+		for (final Iterator<CachedStatement> i = this.cache.values().iterator();
+				i.hasNext();) {
+			final CachedStatement entry = i.next();
+			i.remove();
+			entry.cached = false;
+			if (!entry.inUse)
+				this.closeStatement(entry.pstmt);
+		}
+	}
+
+	/**
+	 * Close all statements, including the ones in use.
+	 */
+	void close() {
+
+		this.clear();
+		this.closeInUse();
+	}
+
+	/**
+	 * Close statements that are still in use and remove them from the cache.
+	 * The statements not in use remain cached. Used when a transaction that
+	 * might have not released all its statements ends and the cache is kept
+	 * for the next transaction.
+	 */
+	void closeInUse() {
+
+		for (final CachedStatement entry : this.inUse.values()) {
+			if (entry.cached) {
+				this.cache.remove(entry.key);
+				entry.cached = false;
+			}
+			this.closeStatement(entry.pstmt);
+		}
+		this.inUse.clear();
+	}
+
+	/**
+	 * Get the database connection, on which the statements are prepared.
+	 *
+	 * @return The connection.
+	 */
+	Connection getConnection() {
+
+		return this.con;
+	}
+
+	/**
+	 * Tell if the cache is kept for the physical connection across
+	 * transactions.
+	 *
+	 * @return {@code true} if kept, {@code false} if used by a single
+	 * transaction only.
+	 */
+	boolean isKept() {
+
+		return this.kept;
+	}
+
+	/**
+	 * Reset the cache hit and miss counts. Used when the cache is handed to
+	 * the next transaction.
+	 */
+	void resetCounts() {
+
+		this.hits = 0;
+		this.misses = 0;
+	}
+
+	/**
+	 * Get number of times a statement was taken from the cache.
+	 *
+	 * @return Number of cache hits.
+	 */
+	int getHits() {
+
+		return this.hits;
+	}
+
+	/**
+	 * Get number of times a statement had to be prepared.
+	 *
+	 * @return Number of cache misses.
+	 */
+	int getMisses() {
+
+		return this.misses;
+	}
+
+
+	/**
+	 * Take statement from the cache.
+	 *
+	 * @param key Cache key.
+	 *
+	 * @return The statement, or {@code null} if not cached or in use.
+	 */
+	private PreparedStatement take(final String key) {
+
+		final CachedStatement entry = this.cache.get(key);
+		if ((entry == null) || entry.inUse) {
+			this.misses++;
+			return null;
+		}
+
+		boolean closed;
+		try {
+			closed = entry.pstmt.isClosed();
+		} catch (final SQLException e) {
+			closed = true;
+		}
+		if (closed) {
+			this.cache.remove(key);
+			entry.cached = false;
+			this.misses++;
+			return null;
+		}
+
+		this.hits++;
+		entry.inUse = true;
+		this.inUse.put(entry.pstmt, entry);
+
+		return entry.pstmt;
+	}
+
+	/**
+	 * Register new statement and put it in the cache if there is no statement
+	 * with the same key there already.
+	 *
+	 * @param key Cache key.
+	 * @param pstmt The new statement.
+	 */
+	private void add(final String key, final PreparedStatement pstmt) {
+
+		final boolean cacheIt =
+			((this.maxSize > 0) && !this.cache.containsKey(key));
+		final CachedStatement entry = new CachedStatement(key, pstmt, cacheIt);
+		this.inUse.put(pstmt, entry);
+		if (cacheIt)
+			this.cache.put(key, entry);
+	}
+
+	/**
+	 * Handle statement evicted from the cache.
+	 *
+	 * @param entry The evicted statement.
+	 */
+	private void evict(final CachedStatement entry) {
+
+		entry.cached = false;
+		if (!entry.inUse)
+			this.closeStatement(entry.pstmt);
+	}
+
+	/**
+	 * Close statement logging any error.
+	 *
+	 * @param pstmt The statement.
+	 */
+	private void closeStatement(final PreparedStatement pstmt) {
+
+		try {
+			pstmt.close();
+		} catch (final SQLException e) {
+			this.log.warn("error closing cached prepared statement", e);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package org.bsworks.x2.services.persistence.impl.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Prepared statement caches kept for physical database connections, so that
+ * server-side prepared statements are reused by consecutive transactions that
+ * get the same physical connection from the connection pool. The physical
+ * connection is obtained from the pooled connection handle by unwrapping it to
+ * {@link Connection}. The cached statements are prepared directly on the
+ * physical connection, so that the pool does not close them when the handle
+ * is closed. If the handle does not unwrap to a different object (no pool, or
+ * the pool does not expose the physical connection), the cache is used by the
+ * transaction only and is closed at its end.
+ *
+ * <p>A cache is taken out of the pool while a transaction uses its connection,
+ * so it is never used by two transactions at the same time. A cache is
+ * discarded and its statements are closed when the transaction ends with an
+ * error, or if the physical connection is found closed. Caches of physical
+ * connections closed by the connection pool while not in use are dropped
+ * periodically. The pool is thread-safe.
+ *
+ * @author Lev Himmelfarb
+ */
+class StatementCachePool {
+
+	/**
+	 * Minimum number of kept caches, at which caches of closed connections are
+	 * looked for and dropped.
+	 */
+	private static final int MIN_PURGE_THRESHOLD = 16;
+
+
+	/**
+	 * The log.
+	 */
+	private final Log log = LogFactory.getLog(this.getClass());
+
+	/**
+	 * Maximum number of statements in a cache. Zero disables caching.
+	 */
+	private final int cacheSize;
+
+	/**
+	 * Caches not used by any transaction by physical connections.
+	 */
+	private final Map<Connection, StatementCache> idleCaches =
+		new IdentityHashMap<>();
+
+	/**
+	 * Number of kept caches, at which caches of closed connections are looked
+	 * for and dropped.
+	 */
+	private int purgeThreshold = MIN_PURGE_THRESHOLD;
+
+
+	/**
+	 * Create new pool.
+	 *
+	 * @param cacheSize Maximum number of statements in a cache. Zero disables
+	 * caching.
+	 */
+	StatementCachePool(final int cacheSize) {
+
+		this.cacheSize = cacheSize;
+	}
+
+
+	/**
+	 * Get statement cache for a transaction.
+	 *
+	 * @param con Database connection used by the transaction.
+	 *
+	 * @return The cache, which must be given back to the pool using
+	 * {@link #release(StatementCache, boolean)} when the transaction ends.
+	 */
+	StatementCache acquire(final Connection con) {
+
+		if (this.cacheSize == 0)
+			return new StatementCache(con, 0, false);
+
+		final Connection physCon = this.getPhysicalConnection(con);
+		if (physCon == null)
+			return new StatementCache(con, this.cacheSize, false);
+
+		final StatementCache cache;
+		synchronized (this.idleCaches) {
+			cache = this.idleCaches.remove(physCon);
+		}
+		if (cache == null)
+			return new StatementCache(physCon, this.cacheSize, true);
+
+		cache.resetCounts();
+
+		return cache;
+	}
+
+	/**
+	 * Give statement cache back to the pool when the transaction ends.
+	 *
+	 * @param cache The cache.
+	 * @param discard {@code true} if the transaction ended with an error, or
+	 * the cached statements may be invalid, and the cache must not be reused.
+	 */
+	void release(final StatementCache cache, final boolean discard) {
+
+		if (!cache.isKept() || discard) {
+			cache.close();
+			return;
+		}
+
+		cache.closeInUse();
+
+		final Connection physCon = cache.getConnection();
+		if (isClosed(physCon))
+			return;
+
+		synchronized (this.idleCaches) {
+			if (this.idleCaches.size() >= this.purgeThreshold)
+				this.purgeClosed();
+			this.idleCaches.put(physCon, cache);
+		}
+	}
+
+
+	/**
+	 * Get physical connection behind a pooled connection handle.
+	 *
+	 * @param con The connection handle.
+	 *
+	 * @return The physical connection, or {@code null} if unavailable.
+	 */
+	private Connection getPhysicalConnection(final Connection con) {
+
+		try {
+			final Connection physCon = con.unwrap(Connection.class);
+			if ((physCon != null) && (physCon != con))
+				return physCon;
+		} catch (final SQLException | RuntimeException e) {
+			if (this.log.isDebugEnabled())
+				this.log.debug("could not unwrap connection #"
+						+ con.hashCode(), e);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Drop caches of physical connections that have been closed. Must be
+	 * called while holding the idle caches lock.
+	 */
+	private void purgeClosed() {
+
+		for (final Iterator<Connection> i = this.idleCaches.keySet().iterator();
+				i.hasNext();) {
+			if (isClosed(i.next()))
+				i.remove();
+		}
+
+		this.purgeThreshold =
+			Math.max(MIN_PURGE_THRESHOLD, this.idleCaches.size() * 2);
+
+		if (this.log.isDebugEnabled())
+			this.log.debug("kept statement caches after purge: "
+					+ this.idleCaches.size());
+	}
+
+	/**
+	 * Tell if physical connection is closed.
+	 *
+	 * @param physCon The connection.
+	 *
+	 * @return {@code true} if closed or the state cannot be determined.
+	 */
+	private static boolean isClosed(final Connection physCon) {
+
+		try {
+			return physCon.isClosed();
+		} catch (final SQLException e) {
+			return true;
+		}
+	}
+}
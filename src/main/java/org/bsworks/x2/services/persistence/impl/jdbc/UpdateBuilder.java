@@ -2,9 +2,9 @@ package org.bsworks.x2.services.persistence.impl.jdbc;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -14,8 +14,11 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,6 +43,7 @@ import org.bsworks.x2.resource.SimplePropertyHandler;
 import org.bsworks.x2.resource.TypePropertyHandler;
 import org.bsworks.x2.services.persistence.PersistenceException;
 import org.bsworks.x2.services.persistence.PersistentValueType;
+import org.bsworks.x2.util.MutableInt;
 import org.bsworks.x2.util.sql.dialect.SQLDialect;
 
 
@@ -67,6 +71,12 @@ class UpdateBuilder {
 		boolean equal(Object val1, Object val2);
 	}
 
+	/**
+	 * Pattern for combining marks left after canonical decomposition of a
+	 * string.
+	 */
+	private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
 	/**
 	 * Simple value comparator using {@link Object#equals(Object)} method.
 	 */
@@ -124,11 +134,11 @@ class UpdateBuilder {
 		/**
 		 * Execute the step.
 		 *
-		 * @param con Database connection.
+		 * @param tx The transaction.
 		 *
 		 * @throws SQLException If a database error happens.
 		 */
-		void execute(Connection con)
+		void execute(JDBCPersistenceTransaction tx)
 			throws SQLException;
 	}
 
@@ -167,13 +177,15 @@ class UpdateBuilder {
 		 * See overridden method.
 		 */
 		@Override
-		public void execute(final Connection con)
+		public void execute(final JDBCPersistenceTransaction tx)
 			throws SQLException {
 
 			final Log log = LogFactory.getLog(UpdateBuilder.class);
 
-			try (final PreparedStatement pstmt =
-					con.prepareStatement(this.stmtText)) {
+			final StatementCache statementCache = tx.getStatementCache();
+			final PreparedStatement pstmt =
+				statementCache.prepare(this.stmtText);
+			try {
 
 				int paramInd = 1;
 				for (final JDBCParameterValue param : this.params)
@@ -183,14 +195,18 @@ class UpdateBuilder {
 					log.debug("executing SQL query:\n" + this.stmtText
 							+ "\nparams: " + this.params);
 				pstmt.execute();
+				tx.statementExecuted();
 				Utils.logWarnings(log, pstmt.getWarnings());
+			} finally {
+				statementCache.release(pstmt);
 			}
 		}
 	}
 
 	/**
 	 * Execution plan step that executes same SQL statement multiple times for
-	 * different parameters.
+	 * different parameters. The executions are submitted to the database in
+	 * statement batches.
 	 */
 	private static final class MultiStatementExecutionPlanStep
 		implements ExecutionPlanStep {
@@ -242,7 +258,7 @@ class UpdateBuilder {
 		 * See overridden method.
 		 */
 		@Override
-		public void execute(final Connection con)
+		public void execute(final JDBCPersistenceTransaction tx)
 			throws SQLException {
 
 			final Log log = LogFactory.getLog(UpdateBuilder.class);
@@ -255,13 +271,18 @@ class UpdateBuilder {
 			final int firstVarParamInd =
 				(this.constantParamsAtTheEnd ? 1 : numConstParams + 1);
 
-			try (final PreparedStatement pstmt =
-					con.prepareStatement(this.stmtText)) {
+			final StatementCache statementCache = tx.getStatementCache();
+			final PreparedStatement pstmt =
+				statementCache.prepare(this.stmtText);
+			try {
 
 				int paramInd = firstConstParamInd;
 				for (final JDBCParameterValue param : this.constantParams)
 					paramInd = param.set(pstmt, paramInd);
 
+				final int batchSize = tx.getBatchSize();
+				final int numExecutions = this.variableParams.size();
+				int numBatched = 0;
 				for (final List<JDBCParameterValue> params :
 						this.variableParams) {
 
@@ -270,13 +291,27 @@ class UpdateBuilder {
 						paramInd = param.set(pstmt, paramInd);
 
 					if (debug)
-						log.debug("executing SQL query:\n" + this.stmtText
-								+ "\nparams: " + (this.constantParamsAtTheEnd
+						log.debug("adding SQL query to batch:\n"
+								+ this.stmtText + "\nparams: "
+								+ (this.constantParamsAtTheEnd
 										? params + ", " + this.constantParams
 										: this.constantParams + ", " + params));
-					pstmt.execute();
-					Utils.logWarnings(log, pstmt.getWarnings());
+					pstmt.addBatch();
+
+					numBatched++;
+					if (((numBatched % batchSize) == 0)
+							|| (numBatched == numExecutions)) {
+						if (debug)
+							log.debug("executing batch of "
+									+ ((numBatched - 1) % batchSize + 1)
+									+ " statements");
+						pstmt.executeBatch();
+						tx.statementExecuted();
+						Utils.logWarnings(log, pstmt.getWarnings());
+					}
 				}
+			} finally {
+				statementCache.release(pstmt);
 			}
 		}
 	}
@@ -308,10 +343,10 @@ class UpdateBuilder {
 		 * See overridden method.
 		 */
 		@Override
-		public void execute(final Connection con)
+		public void execute(final JDBCPersistenceTransaction tx)
 			throws SQLException {
 
-			this.deleteBuilder.execute(con, null);
+			this.deleteBuilder.execute(tx, null);
 		}
 	}
 
@@ -342,10 +377,10 @@ class UpdateBuilder {
 		 * See overridden method.
 		 */
 		@Override
-		public void execute(final Connection con)
+		public void execute(final JDBCPersistenceTransaction tx)
 			throws SQLException {
 
-			this.insertBuilder.execute(con);
+			this.insertBuilder.execute(tx);
 		}
 	}
 
@@ -652,9 +687,11 @@ class UpdateBuilder {
 		 * @param valueTableName Value(s) table name.
 		 * @param parentIdColName Name of the parent id column in the value(s)
 		 * table.
-		 * @param keyColName Map key column name, or {@code null} if none.
-		 * @param keys Map key values to delete, or {@code null} if not
-		 * applicable.
+		 * @param keyColName Name of the map key column, or the value column of
+		 * a collection, to match the deleted rows, or {@code null} to delete
+		 * all rows of the record.
+		 * @param keys Map key or collection element values to delete, or
+		 * {@code null} if not applicable.
 		 */
 		void addDeleteFromValueTable(final String valueTableName,
 				final String parentIdColName, final String keyColName,
@@ -1245,10 +1282,12 @@ class UpdateBuilder {
 
 				// check if different
 				final int numNewEls = newCol.size();
+				final boolean hasNulls = (containsNull(newCol)
+						|| ((curCol != null) && containsNull(curCol)));
 				if ((curCol == null) || curCol.isEmpty()) {
 					if (numNewEls == 0)
 						return false;
-				} else if (curCol.size() == numNewEls) {
+				} else if ((curCol.size() == numNewEls) && !hasNulls) {
 
 					// get value comparator
 					final ValueComparator vc =
@@ -1261,23 +1300,89 @@ class UpdateBuilder {
 						return false;
 				}
 
-				// check if needs to be cleared
-				if ((curCol != null) && !curCol.isEmpty()) {
+				// find elements to delete and to insert
+				final Collection<?> elsToInsert;
+				if (numNewEls == 0) {
 
 					// delete all from the value table
 					ctx.addDeleteFromValueTable(propTableName,
 							propPersistence.getParentIdFieldName(), null, null);
-				}
 
-				// check if needs to be inserted
-				if (numNewEls > 0) {
+					elsToInsert = Collections.emptyList();
+
+				} else if ((curCol == null) || curCol.isEmpty()) {
+
+					elsToInsert = newCol;
+
+				} else if (hasNulls || !isDeltaUpdatable(curCol)) {
+
+					// null elements cannot be matched and strings equal
+					// under the column collation cannot be told apart, so
+					// delete all from the value table and insert all new
+					ctx.addDeleteFromValueTable(propTableName,
+							propPersistence.getParentIdFieldName(), null, null);
+
+					elsToInsert = newCol;
+
+				} else {
+
+					// the value table does not store element positions, so
+					// the collections are compared as multisets
+					final Map<Object, MutableInt> curElCounts =
+						countElements(curCol);
+					final Map<Object, MutableInt> newElCounts =
+						countElements(newCol);
+					final List<Object> elsToDelete = new ArrayList<>();
+					final List<Object> elsToReinsert = new ArrayList<>();
+					for (final Map.Entry<Object, MutableInt> entry :
+							newElCounts.entrySet()) {
+						final Object el = entry.getKey();
+						final int newCount = entry.getValue().get();
+						final MutableInt curCountHolder =
+							curElCounts.remove(el);
+						final int curCount = (curCountHolder == null ? 0 :
+							curCountHolder.get());
+						if (newCount == curCount)
+							continue;
+						final int numToInsert;
+						if (newCount < curCount) {
+							// rows with the same value cannot be told apart
+							elsToDelete.add(el);
+							numToInsert = newCount;
+						} else {
+							numToInsert = newCount - curCount;
+						}
+						for (int i = 0; i < numToInsert; i++)
+							elsToReinsert.add(el);
+					}
+					elsToDelete.addAll(curElCounts.keySet());
 
-					// insert new elements into the value table
+					// delete removed elements from the value table
+					final int numElsToDelete = elsToDelete.size();
+					if (numElsToDelete > 0) {
+						final Collection<JDBCParameterValue> values =
+							new ArrayList<>(numElsToDelete > 10 ?
+									numElsToDelete : 10);
+						for (final Object el : elsToDelete)
+							values.add(paramValueGetter.get(resources,
+									paramsFactory, propHandler, el));
+						ctx.addDeleteFromValueTable(propTableName,
+								propPersistence.getParentIdFieldName(),
+								propPersistence.getFieldName(), values);
+					}
+
+					elsToInsert = elsToReinsert;
+				}
+
+				// insert added elements into the value table
+				final int numElsToInsert = elsToInsert.size();
+				if (numElsToInsert > 0) {
 					final Collection<JDBCParameterValue> values =
-						new ArrayList<>(numNewEls > 10 ? numNewEls : 10);
-					for (final Object newEl : newCol)
+						new ArrayList<>(numElsToInsert > 10 ?
+								numElsToInsert : 10);
+					for (final Object el : elsToInsert)
 						values.add(paramValueGetter.get(resources,
-								paramsFactory, propHandler, newEl));
+								paramsFactory, propHandler, el));
 					ctx.addInsertIntoValueTable(propTableName,
 							propPersistence.getParentIdFieldName(),
 							propPersistence.getFieldName(), values);
@@ -1476,6 +1581,89 @@ class UpdateBuilder {
 		return true;
 	}
 
+	/**
+	 * Tell if a collection has {@code null} elements.
+	 *
+	 * @param col The collection.
+	 *
+	 * @return {@code true} if has {@code null} elements.
+	 */
+	private static boolean containsNull(final Collection<?> col) {
+
+		for (final Object el : col)
+			if (el == null)
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Tell if a value collection without {@code null} elements can be updated
+	 * by deleting and inserting only the changed elements. That is not
+	 * possible if the current collection has distinct strings that a case,
+	 * accent or pad insensitive database collation may consider equal, so that
+	 * deleting one of them would delete the others as well.
+	 *
+	 * @param curCol Current collection.
+	 *
+	 * @return {@code true} if can be updated by the difference.
+	 */
+	private static boolean isDeltaUpdatable(final Collection<?> curCol) {
+
+		final Set<String> strs = new HashSet<>();
+		final Set<String> collationKeys = new HashSet<>();
+		for (final Object el : curCol) {
+			if ((el instanceof String) && strs.add((String) el)
+					&& !collationKeys.add(getCollationKey((String) el)))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get string that is the same for all strings that a case, accent or pad
+	 * insensitive database collation may consider equal to the specified one.
+	 *
+	 * @param str The string.
+	 *
+	 * @return The collation key.
+	 */
+	private static String getCollationKey(final String str) {
+
+		int len = str.length();
+		while ((len > 0) && (str.charAt(len - 1) == ' '))
+			len--;
+
+		return COMBINING_MARKS.matcher(Normalizer.normalize(
+				str.substring(0, len), Normalizer.Form.NFD))
+			.replaceAll("").toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Count occurrences of each distinct element in a value collection.
+	 * Elements are compared using their natural ordering, so that
+	 * {@link BigDecimal} elements with different scales are considered equal.
+	 *
+	 * @param col The collection, must not contain {@code null} elements.
+	 *
+	 * @return Element counts by elements.
+	 */
+	private static Map<Object, MutableInt> countElements(
+			final Collection<?> col) {
+
+		final Map<Object, MutableInt> counts = new TreeMap<>();
+		for (final Object el : col) {
+			final MutableInt count = counts.get(el);
+			if (count == null)
+				counts.put(el, new MutableInt(1));
+			else
+				count.increment();
+		}
+
+		return counts;
+	}
+
 	/**
 	 * Recursively process nested object property.
 	 *
@@ -1959,20 +2147,20 @@ class UpdateBuilder {
 	/**
 	 * Execute the generated statements.
 	 *
-	 * @param con Database connection.
+	 * @param tx The transaction.
 	 *
 	 * @return {@code true} if any properties were updated.
 	 *
 	 * @throws SQLException If a database error happens.
 	 */
-	boolean execute(final Connection con)
+	boolean execute(final JDBCPersistenceTransaction tx)
 		throws SQLException {
 
 		if (this.executionPlan.isEmpty())
 			return false;
 
 		for (final ExecutionPlanStep step : this.executionPlan)
-			step.execute(con);
+			step.execute(tx);
 
 		return true;
 	}
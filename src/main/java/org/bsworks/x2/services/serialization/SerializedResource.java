@@ -0,0 +1,78 @@
+package org.bsworks.x2.services.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.bsworks.x2.Actor;
+
+
+/**
+ * Resource already serialized by the application's resource serialization
+ * service using UTF-8 character encoding. If an endpoint call response entity
+ * is an instance of this class, the framework sends the serialized
+ * representation as is instead of serializing the entity. This allows sharing
+ * the serialized representation between multiple responses. Instances are
+ * immutable.
+ *
+ * @author Lev Himmelfarb
+ */
+public final class SerializedResource {
+
+	/**
+	 * UTF-8 character encoding.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	/**
+	 * The serialized representation.
+	 */
+	private final byte[] data;
+
+
+	/**
+	 * Serialize resource.
+	 *
+	 * @param serializer Application's resource serialization service.
+	 * @param rsrc The resource.
+	 * @param actor Actor, for which the resource is serialized, or {@code null}
+	 * if unauthenticated.
+	 *
+	 * @throws IOException If an I/O error happens.
+	 */
+	public SerializedResource(final ResourceSerializationService serializer,
+			final Object rsrc, final Actor actor)
+		throws IOException {
+
+		final ByteArrayOutputStream buf = new ByteArrayOutputStream(1024);
+		serializer.serialize(buf, UTF8, rsrc, actor);
+
+		this.data = buf.toByteArray();
+	}
+
+
+	/**
+	 * Get size of the serialized representation.
+	 *
+	 * @return Number of bytes.
+	 */
+	public int getLength() {
+
+		return this.data.length;
+	}
+
+	/**
+	 * Write the serialized representation to the specified output stream.
+	 *
+	 * @param out The output stream.
+	 *
+	 * @throws IOException If an I/O error happens.
+	 */
+	public void writeTo(final OutputStream out)
+		throws IOException {
+
+		out.write(this.data);
+	}
+}
@@ -0,0 +1,49 @@
+package org.bsworks.x2.toolbox.handlers;
+
+import java.util.List;
+
+import org.bsworks.x2.Actor;
+import org.bsworks.x2.EndpointCallContext;
+import org.bsworks.x2.EndpointCallResponse;
+import org.bsworks.x2.HttpMethod;
+import org.bsworks.x2.responses.OKResponse;
+import org.bsworks.x2.services.metrics.MetricsService;
+
+
+/**
+ * Handler for an endpoint that returns snapshot of the metrics collected by
+ * the application's metrics service, including the per-endpoint latency
+ * histograms. The handler requires an authenticated actor. Since the metrics
+ * expose internal information about the application, an application will
+ * normally extend the handler and override {@link #isAllowed} to further
+ * restrict access to the endpoint, for example to actors with a certain role.
+ *
+ * @author Lev Himmelfarb
+ */
+public class MetricsEndpointCallHandler
+	extends ReadOnlyEndpointCallHandler {
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public boolean isAllowed(final HttpMethod requestMethod,
+			final String requestURI, final List<String> uriParams,
+			final Actor actor) {
+
+		return ((requestMethod == HttpMethod.GET) && (actor != null));
+	}
+
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public EndpointCallResponse handleCall(final EndpointCallContext ctx,
+			final Void requestEntity) {
+
+		return new OKResponse(
+				ctx.getRuntimeContext().getService(MetricsService.class)
+					.getSnapshot(),
+				null, null);
+	}
+}
@@ -10,6 +10,7 @@ import org.bsworks.x2.EndpointCallErrorException;
 import org.bsworks.x2.EndpointCallResponse;
 import org.bsworks.x2.HttpMethod;
 import org.bsworks.x2.responses.OKResponse;
+import org.bsworks.x2.services.auth.impl.LoginRejectedException;
 import org.bsworks.x2.services.auth.impl.PasswordActorAuthenticationService;
 
 
@@ -24,7 +25,10 @@ import org.bsworks.x2.services.auth.impl.PasswordActorAuthenticationService;
  * <p>If authentication is successful, the endpoint returns an HTTP 200 (OK)
  * response with the authenticated actor in the response body and the
  * appropriate authentication headers. If the authentication failed, an HTTP 400
- * (Bad Request) response is returned.
+ * (Bad Request) response is returned. If the authentication service rejects
+ * the login attempt without checking the password (see
+ * {@link LoginRejectedException}), an error response with the status code
+ * provided by the service is returned.
  *
  * @author Lev Himmelfarb
  */
@@ -70,10 +74,16 @@ public class PasswordLoginEndpointCallHandler
 			(PasswordActorAuthenticationService) ctx.getRuntimeContext()
 			.getActorAuthenticationService();
 
-		final Actor actor = authService.authenticate(ctx,
-				ctx.getRequestParam(LOGIN_NAME_PARAM),
-				ctx.getRequestParam(PASSWORD_PARAM),
-				ctx.getRequestParam(OPAQUE_PARAM));
+		final Actor actor;
+		try {
+			actor = authService.authenticate(ctx,
+					ctx.getRequestParam(LOGIN_NAME_PARAM),
+					ctx.getRequestParam(PASSWORD_PARAM),
+					ctx.getRequestParam(OPAQUE_PARAM));
+		} catch (final LoginRejectedException e) {
+			throw new EndpointCallErrorException(e.getHttpStatusCode(), null,
+					e.getMessage());
+		}
 		if (actor == null)
 			throw new EndpointCallErrorException(
 					HttpServletResponse.SC_BAD_REQUEST,
@@ -240,4 +240,70 @@ public final class Base64 {
 			dst.position(dp);
 		}
 	}
+
+	/**
+	 * Decode Base64 characters in the specified range of a string directly
+	 * into the specified byte array. No intermediate buffers are allocated.
+	 *
+	 * @param src String with Base64 characters to decode.
+	 * @param begin Index of the first character to decode.
+	 * @param end Index following the last character to decode.
+	 * @param dst Array, to which to write the result. Must have at least
+	 * {@code (end - begin) * 3 / 4} elements starting at {@code dstOff}.
+	 * @param dstOff Index in the result array, at which to start writing.
+	 *
+	 * @return Number of bytes written to the result array.
+	 *
+	 * @throws IllegalArgumentException If the specified range of the string
+	 * is not valid Base64.
+	 */
+	public static int decode(final String src, final int begin, final int end,
+			final byte[] dst, final int dstOff) {
+
+		int bits = 0;
+		int shiftto = 18; // position of the first byte of a 4-byte atom
+		int sp = begin;
+		int dp = dstOff;
+		while (sp < end) {
+			final char c = src.charAt(sp++);
+			final int b = (c < FROM_BASE64.length ? FROM_BASE64[c] : -1);
+			if (b < 0) {
+				if (b == -2) { // padding character
+					if ((shiftto == 6) &&
+							((sp == end) || (src.charAt(sp++) != '=')) ||
+							(shiftto == 18))
+						throw new IllegalArgumentException("Input string" +
+							" has wrong 4-character ending unit.");
+					break;
+				}
+				throw new IllegalArgumentException(
+						"Illegal base64 character " + Integer.toString(c, 16)
+						+ ".");
+			}
+			bits |= (b << shiftto);
+			shiftto -= 6;
+			if (shiftto < 0) {
+				dst[dp++] = (byte)(bits >> 16);
+				dst[dp++] = (byte)(bits >> 8);
+				dst[dp++] = (byte)(bits);
+				shiftto = 18;
+				bits = 0;
+			}
+		}
+		if (shiftto == 6) {
+			dst[dp++] = (byte)(bits >> 16);
+		} else if (shiftto == 0) {
+			dst[dp++] = (byte)(bits >> 16);
+			dst[dp++] = (byte)(bits >> 8);
+		} else if (shiftto == 12) {
+			throw new IllegalArgumentException(
+					"Last unit does not have enough valid bits.");
+		}
+		if (sp < end)
+			throw new IllegalArgumentException(
+					"Input string has incorrect ending character at " + sp
+					+ ".");
+
+		return dp - dstOff;
+	}
 }
@@ -0,0 +1,239 @@
+package org.bsworks.x2.util;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Lock-free bounded map used as a cache. The map keeps an approximate count
+ * of its entries. When an added entry makes the count exceed the maximum
+ * size, the adding thread purges the map down to three quarters of the
+ * maximum, unless another thread is already doing it. Purging first gives a
+ * subclass a chance to remove stale entries (see {@link #removeStale()}) and
+ * then evicts arbitrary entries. The map is thread-safe.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ *
+ * @author Lev Himmelfarb
+ */
+public class BoundedConcurrentMap<K, V> {
+
+	/**
+	 * The log.
+	 */
+	private static final Log LOG =
+		LogFactory.getLog(BoundedConcurrentMap.class);
+
+
+	/**
+	 * Map name used in the log messages.
+	 */
+	private final String name;
+
+	/**
+	 * Maximum map size.
+	 */
+	private final int maxSize;
+
+	/**
+	 * The entries.
+	 */
+	private final ConcurrentMap<K, V> map;
+
+	/**
+	 * Approximate map size.
+	 */
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Tells if a thread is purging the map.
+	 */
+	private final AtomicBoolean purging = new AtomicBoolean();
+
+
+	/**
+	 * Create new map.
+	 *
+	 * @param name Map name used in the log messages, for example
+	 * "query plan cache".
+	 * @param maxSize Maximum map size.
+	 */
+	public BoundedConcurrentMap(final String name, final int maxSize) {
+
+		this.name = name;
+		this.maxSize = maxSize;
+
+		this.map = new ConcurrentHashMap<>(maxSize + maxSize / 3 + 1);
+	}
+
+
+	/**
+	 * Get maximum map size.
+	 *
+	 * @return Maximum map size.
+	 */
+	public int getMaxSize() {
+
+		return this.maxSize;
+	}
+
+	/**
+	 * Get approximate map size.
+	 *
+	 * @return Number of entries in the map.
+	 */
+	public int size() {
+
+		return this.size.get();
+	}
+
+	/**
+	 * Get value.
+	 *
+	 * @param key The key.
+	 *
+	 * @return The value, or {@code null} if not in the map.
+	 */
+	public V get(final K key) {
+
+		return this.map.get(key);
+	}
+
+	/**
+	 * Add value to the map, replacing any existing value for the key.
+	 *
+	 * @param key The key.
+	 * @param value The value.
+	 *
+	 * @return The replaced value, or {@code null} if the key was not in the
+	 * map.
+	 */
+	public V put(final K key, final V value) {
+
+		final V oldValue = this.map.put(key, value);
+		if (oldValue == null)
+			this.added();
+
+		return oldValue;
+	}
+
+	/**
+	 * Add value to the map if the key is not in the map.
+	 *
+	 * @param key The key.
+	 * @param value The value.
+	 *
+	 * @return The existing value, or {@code null} if the value was added.
+	 */
+	public V putIfAbsent(final K key, final V value) {
+
+		final V existingValue = this.map.putIfAbsent(key, value);
+		if (existingValue == null)
+			this.added();
+
+		return existingValue;
+	}
+
+	/**
+	 * Replace value if the key is currently mapped to the specified value.
+	 *
+	 * @param key The key.
+	 * @param oldValue Expected current value.
+	 * @param newValue New value.
+	 *
+	 * @return {@code true} if replaced.
+	 */
+	public boolean replace(final K key, final V oldValue, final V newValue) {
+
+		return this.map.replace(key, oldValue, newValue);
+	}
+
+	/**
+	 * Remove entry if the key is currently mapped to the specified value.
+	 *
+	 * @param key The key.
+	 * @param value Expected current value.
+	 *
+	 * @return {@code true} if removed.
+	 */
+	public boolean remove(final K key, final V value) {
+
+		if (!this.map.remove(key, value))
+			return false;
+
+		this.size.decrementAndGet();
+
+		return true;
+	}
+
+	/**
+	 * Get the entries. The returned set is a weakly consistent view of the
+	 * map. Entries must be removed using {@link #remove(Object, Object)}.
+	 *
+	 * @return Unmodifiable set of the entries.
+	 */
+	public Set<Map.Entry<K, V>> entrySet() {
+
+		return Collections.unmodifiableSet(this.map.entrySet());
+	}
+
+
+	/**
+	 * Remove stale entries, if the map has any notion of them. Called when the
+	 * map is purged, before any arbitrary entries are evicted. The default
+	 * implementation does nothing.
+	 */
+	protected void removeStale() {
+
+		// nothing
+	}
+
+
+	/**
+	 * Count added entry and purge the map if it exceeds the maximum size.
+	 */
+	private void added() {
+
+		if ((this.size.incrementAndGet() > this.maxSize)
+				&& this.purging.compareAndSet(false, true)) {
+			try {
+				this.purge();
+			} finally {
+				this.purging.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Remove stale entries and, if necessary, evict arbitrary entries to bring
+	 * the map size down to three quarters of the maximum.
+	 */
+	private void purge() {
+
+		final int origSize = this.size.get();
+
+		this.removeStale();
+
+		final int targetSize = this.maxSize - this.maxSize / 4;
+		for (final Iterator<Map.Entry<K, V>> i =
+				this.map.entrySet().iterator();
+				i.hasNext() && (this.size.get() > targetSize);) {
+			final Map.Entry<K, V> entry = i.next();
+			this.remove(entry.getKey(), entry.getValue());
+		}
+
+		if (LOG.isDebugEnabled())
+			LOG.debug("purged " + (origSize - this.size.get())
+					+ " elements from the " + this.name);
+	}
+}
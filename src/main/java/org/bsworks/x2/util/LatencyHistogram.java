@@ -0,0 +1,257 @@
+package org.bsworks.x2.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Lock-free histogram of non-negative values, such as latencies in
+ * nanoseconds. The value range is split into buckets with exponentially
+ * growing widths, each power of two range further split into
+ * {@value #SUB_BUCKETS} linear sub-buckets, which gives a relative precision
+ * of about 12%. Values above 2<sup>{@value #MAX_EXPONENT} + 1</sup> are
+ * counted in the last bucket. To reduce contention, the counters are striped
+ * by the recording thread. The histogram is thread-safe.
+ *
+ * @author Lev Himmelfarb
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * Histogram snapshot.
+	 */
+	public static final class Snapshot {
+
+		/**
+		 * Counts by buckets.
+		 */
+		private final long[] counts;
+
+		/**
+		 * Total number of recorded values.
+		 */
+		private final long count;
+
+		/**
+		 * Sum of the recorded values.
+		 */
+		private final long sum;
+
+		/**
+		 * Maximum recorded value.
+		 */
+		private final long max;
+
+
+		/**
+		 * Create new snapshot.
+		 *
+		 * @param counts Counts by buckets.
+		 * @param sum Sum of the recorded values.
+		 * @param max Maximum recorded value.
+		 */
+		Snapshot(final long[] counts, final long sum, final long max) {
+
+			this.counts = counts;
+			long count = 0;
+			for (final long c : counts)
+				count += c;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+
+		/**
+		 * Get number of recorded values.
+		 *
+		 * @return The count.
+		 */
+		public long getCount() {
+
+			return this.count;
+		}
+
+		/**
+		 * Get sum of the recorded values.
+		 *
+		 * @return The sum.
+		 */
+		public long getSum() {
+
+			return this.sum;
+		}
+
+		/**
+		 * Get maximum recorded value.
+		 *
+		 * @return The maximum, or zero if no values recorded.
+		 */
+		public long getMax() {
+
+			return this.max;
+		}
+
+		/**
+		 * Get mean of the recorded values.
+		 *
+		 * @return The mean, or zero if no values recorded.
+		 */
+		public double getMean() {
+
+			return (this.count > 0 ? (double) this.sum / this.count : 0);
+		}
+
+		/**
+		 * Get value at the specified percentile. The returned value is the
+		 * upper bound of the bucket, in which the percentile falls, but not
+		 * more than the maximum recorded value.
+		 *
+		 * @param percentile The percentile, from 0 to 100.
+		 *
+		 * @return The value, or zero if no values recorded.
+		 */
+		public long getValueAtPercentile(final double percentile) {
+
+			if (this.count == 0)
+				return 0;
+
+			final long rank = Math.max(1,
+					(long) Math.ceil(percentile / 100 * this.count));
+			long cumulative = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				cumulative += this.counts[i];
+				if (cumulative >= rank)
+					return Math.min(getBucketUpperBound(i), this.max);
+			}
+
+			return this.max;
+		}
+	}
+
+
+	/**
+	 * Number of bits used for linear sub-buckets.
+	 */
+	private static final int SUB_BITS = 3;
+
+	/**
+	 * Number of linear sub-buckets in each power of two range.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/**
+	 * Highest power of two range tracked with precision.
+	 */
+	private static final int MAX_EXPONENT = 36;
+
+	/**
+	 * Total number of buckets.
+	 */
+	private static final int NUM_BUCKETS =
+		(MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+	/**
+	 * Number of counter stripes. Must be a power of two.
+	 */
+	private static final int STRIPES = 4;
+
+
+	/**
+	 * Counts by stripes and buckets.
+	 */
+	private final AtomicLongArray counts =
+		new AtomicLongArray(STRIPES * NUM_BUCKETS);
+
+	/**
+	 * Sums of the recorded values by stripes.
+	 */
+	private final AtomicLongArray sums = new AtomicLongArray(STRIPES);
+
+	/**
+	 * Maximum recorded values by stripes.
+	 */
+	private final AtomicLongArray maxes = new AtomicLongArray(STRIPES);
+
+
+	/**
+	 * Record value.
+	 *
+	 * @param value The value. Negative values are recorded as zero.
+	 */
+	public void record(final long value) {
+
+		final long v = (value < 0 ? 0 : value);
+		final int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+
+		this.counts.incrementAndGet(stripe * NUM_BUCKETS + getBucketIndex(v));
+		this.sums.addAndGet(stripe, v);
+		long max;
+		while (v > (max = this.maxes.get(stripe))) {
+			if (this.maxes.compareAndSet(stripe, max, v))
+				break;
+		}
+	}
+
+	/**
+	 * Get snapshot of the histogram. The snapshot is not atomic with respect
+	 * to concurrent recording, but every recorded value is either fully
+	 * included or not.
+	 *
+	 * @return The snapshot.
+	 */
+	public Snapshot getSnapshot() {
+
+		final long[] snapshotCounts = new long[NUM_BUCKETS];
+		long sum = 0;
+		long max = 0;
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			final int base = stripe * NUM_BUCKETS;
+			for (int i = 0; i < NUM_BUCKETS; i++)
+				snapshotCounts[i] += this.counts.get(base + i);
+			sum += this.sums.get(stripe);
+			max = Math.max(max, this.maxes.get(stripe));
+		}
+
+		return new Snapshot(snapshotCounts, sum, max);
+	}
+
+
+	/**
+	 * Get index of the bucket for the specified value.
+	 *
+	 * @param v Non-negative value.
+	 *
+	 * @return Bucket index.
+	 */
+	private static int getBucketIndex(final long v) {
+
+		if (v < SUB_BUCKETS)
+			return (int) v;
+
+		final int exp = 63 - Long.numberOfLeadingZeros(v);
+		if (exp > MAX_EXPONENT)
+			return NUM_BUCKETS - 1;
+
+		return (exp - SUB_BITS + 1) * SUB_BUCKETS
+				+ ((int) (v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Get largest value counted in the specified bucket.
+	 *
+	 * @param ind Bucket index.
+	 *
+	 * @return The bucket upper bound.
+	 */
+	static long getBucketUpperBound(final int ind) {
+
+		if (ind < SUB_BUCKETS)
+			return ind;
+
+		final int shift = ind / SUB_BUCKETS - 1;
+		final long lower =
+			((long) (SUB_BUCKETS + ind % SUB_BUCKETS)) << shift;
+
+		return lower + (1L << shift) - 1;
+	}
+}
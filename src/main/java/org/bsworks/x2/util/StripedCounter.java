@@ -0,0 +1,61 @@
+package org.bsworks.x2.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Lock-free counter with the value striped by the updating thread to reduce
+ * contention between threads that update it concurrently. The stripes are
+ * spaced apart to avoid false sharing of CPU cache lines. The counter is
+ * thread-safe.
+ *
+ * @author Lev Himmelfarb
+ */
+public final class StripedCounter {
+
+	/**
+	 * Number of stripes. Must be a power of two.
+	 */
+	private static final int STRIPES = 4;
+
+	/**
+	 * Distance between stripes in array elements, which spans a typical
+	 * 64-byte cache line.
+	 */
+	private static final int SPACING = 8;
+
+
+	/**
+	 * The stripes.
+	 */
+	private final AtomicLongArray stripes =
+		new AtomicLongArray(STRIPES * SPACING);
+
+
+	/**
+	 * Add to the counter.
+	 *
+	 * @param delta Value to add.
+	 */
+	public void add(final long delta) {
+
+		this.stripes.addAndGet(
+				((int) Thread.currentThread().getId() & (STRIPES - 1))
+					* SPACING, delta);
+	}
+
+	/**
+	 * Get current counter value. The value is not atomic with respect to
+	 * concurrent updates.
+	 *
+	 * @return The value.
+	 */
+	public long get() {
+
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++)
+			sum += this.stripes.get(i * SPACING);
+
+		return sum;
+	}
+}
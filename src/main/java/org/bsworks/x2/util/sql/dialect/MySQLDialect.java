@@ -26,6 +26,15 @@ class MySQLDialect
 		return true;
 	}
 
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public boolean supportsBatchGeneratedKeys() {
+
+		return true;
+	}
+
 	/* (non-Javadoc)
 	 * See overridden method.
 	 */
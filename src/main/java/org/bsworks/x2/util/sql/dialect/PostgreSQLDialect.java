@@ -26,6 +26,15 @@ class PostgreSQLDialect
 		return true;
 	}
 
+	/* (non-Javadoc)
+	 * See overridden method.
+	 */
+	@Override
+	public boolean supportsBatchGeneratedKeys() {
+
+		return true;
+	}
+
 	/* (non-Javadoc)
 	 * See overridden method.
 	 */
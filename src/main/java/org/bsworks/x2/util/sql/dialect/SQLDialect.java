@@ -34,6 +34,15 @@ public interface SQLDialect {
 	 */
 	boolean tempTablesRequireReadWrite();
 
+	/**
+	 * Tell if the JDBC driver returns auto-generated keys for all records
+	 * inserted by a statement batch, if the statement is prepared to return
+	 * generated keys.
+	 *
+	 * @return {@code true} if generated keys are returned for batches.
+	 */
+	boolean supportsBatchGeneratedKeys();
+
 	/**
 	 * Quote column label in the select list.
 	 *